@@ -13,15 +13,20 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.openmrs.PatientIdentifierType;
 import org.openmrs.api.PatientService;
+import org.openmrs.api.context.Context;
 import org.openmrs.module.BaseModuleActivator;
 import org.openmrs.module.ModuleActivator;
 import org.openmrs.module.fhir2.api.FhirPatientIdentifierSystemService;
 import org.openmrs.module.fhir2.model.FhirPatientIdentifierSystem;
+import org.openmrs.module.legacyui.stats.ConceptStatsSnapshotTask;
+import org.openmrs.scheduler.SchedulerService;
+import org.openmrs.scheduler.TaskDefinition;
 import org.springframework.beans.BeansException;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.ApplicationContextAware;
 
+import java.util.Date;
 import java.util.List;
 import java.util.Optional;
 
@@ -69,10 +74,37 @@ public class LegacyUIActivator extends BaseModuleActivator implements Applicatio
 	 */
 	public void started() {
 		applicationContext.getAutowireCapableBeanFactory().autowireBean(this);
+		registerConceptStatsSnapshotTask();
 		
 		log.info("Legacy UI Module started");
 	}
 	
+	/**
+	 * Registers the task keeping the concept statistics snapshots up to date with the scheduler, not
+	 * started, unless it is registered already
+	 */
+	private void registerConceptStatsSnapshotTask() {
+		try {
+			SchedulerService schedulerService = Context.getSchedulerService();
+			if (schedulerService.getTaskByName(ConceptStatsSnapshotTask.TASK_NAME) != null) {
+				return;
+			}
+			TaskDefinition task = new TaskDefinition();
+			task.setName(ConceptStatsSnapshotTask.TASK_NAME);
+			task.setDescription("Recomputes the statistics shown on the concept stats page for the concepts whose obs"
+			        + " were created or voided since they were last computed");
+			task.setTaskClass(ConceptStatsSnapshotTask.class.getName());
+			task.setStartTime(new Date());
+			task.setRepeatInterval(ConceptStatsSnapshotTask.DEFAULT_REPEAT_INTERVAL);
+			task.setStartOnStartup(false);
+			task.setStarted(false);
+			schedulerService.saveTaskDefinition(task);
+		}
+		catch (Exception e) {
+			log.error("Unable to register the " + ConceptStatsSnapshotTask.TASK_NAME + " task", e);
+		}
+	}
+	
 	/**
 	 * @see ModuleActivator#willStop()
 	 */
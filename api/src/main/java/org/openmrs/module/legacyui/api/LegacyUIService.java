@@ -9,16 +9,29 @@
  */
 package org.openmrs.module.legacyui.api;
 
+import java.util.Collection;
 import java.util.Date;
+import java.util.List;
+import java.util.Map;
 
 import org.openmrs.Concept;
+import org.openmrs.ConceptName;
+import org.openmrs.ConceptNumeric;
+import org.openmrs.Encounter;
+import org.openmrs.Location;
+import org.openmrs.Obs;
 import org.openmrs.Patient;
+import org.openmrs.PatientIdentifierType;
+import org.openmrs.Person;
 import org.openmrs.Provider;
 import org.openmrs.User;
 import org.openmrs.annotation.Authorized;
 import org.openmrs.api.APIException;
 import org.openmrs.api.OpenmrsService;
+import org.openmrs.module.legacyui.stats.ConceptStatsSnapshot;
+import org.openmrs.module.legacyui.stats.NumericObsStatistics;
 import org.openmrs.util.PrivilegeConstants;
+import org.springframework.transaction.annotation.Transactional;
 
 /**
  * Defines the services provided by the Legacy UI module
@@ -67,4 +80,328 @@ public interface LegacyUIService extends OpenmrsService {
 	 * @see OrderExtensionService#getProviderForUser(User)
 	 */
 	public Provider getProviderForUser(User user);
+	
+	/**
+	 * Gets the most recent non voided obs of the given person for each of the given concepts, each
+	 * concept is looked up with a query that returns a single row instead of loading all the obs of
+	 * the person
+	 * 
+	 * @param person the person whose obs to look up
+	 * @param concepts the question concepts, null elements are ignored
+	 * @return the latest obs keyed by concept, concepts without obs are left out
+	 * @should return the latest obs for each concept
+	 * @should leave out concepts without obs
+	 */
+	@Authorized({ PrivilegeConstants.GET_OBS })
+	@Transactional(readOnly = true)
+	public Map<Concept, Obs> getLatestObs(Person person, Collection<Concept> concepts);
+	
+	/**
+	 * @return the numeric concept set as the concept.weight global property, or null if none is
+	 *         set. The concept is only looked up by name or uuid again when the global property
+	 *         value changes
+	 * @should resolve the concept again once the global property value changes
+	 * @should not read the global property again until it changes
+	 */
+	@Transactional(readOnly = true)
+	public ConceptNumeric getWeightConcept();
+	
+	/**
+	 * @return the numeric concept set as the concept.height global property, or null if none is
+	 *         set. The concept is only looked up by name or uuid again when the global property
+	 *         value changes
+	 */
+	@Transactional(readOnly = true)
+	public ConceptNumeric getHeightConcept();
+	
+	/**
+	 * Computes the statistics of the non voided numeric obs of the given concept on the database
+	 * side, the obs are streamed in value order as id, date and value projections so that memory
+	 * use does not grow with the number of obs
+	 * 
+	 * @param concept a numeric concept
+	 * @param maxBins the maximum number of histogram bins, fewer are used when there are fewer
+	 *            distinct values
+	 * @param maxOutliers the maximum number of outlier obs ids to keep
+	 * @return the statistics, or null if the concept has no numeric obs
+	 * @should compute the statistics of the numeric obs of the concept
+	 * @should return null if the concept has no numeric obs
+	 * @should average the values of each day
+	 * @should pick the percentiles from the sorted values
+	 */
+	@Authorized({ PrivilegeConstants.GET_OBS })
+	@Transactional(readOnly = true)
+	public NumericObsStatistics getNumericObsStatistics(Concept concept, int maxBins, int maxOutliers);
+	
+	/**
+	 * @param obsIds the ids of the obs to load
+	 * @return the obs with the given ids, sorted by numeric value
+	 */
+	@Authorized({ PrivilegeConstants.GET_OBS })
+	@Transactional(readOnly = true)
+	public List<Obs> getObsByIds(List<Integer> obsIds);
+	
+	/**
+	 * Counts the non voided obs of a coded or boolean concept per answer, with a group by query
+	 * instead of loading the obs. Boolean obs stored as numeric values are counted under the true or
+	 * false concept.
+	 * 
+	 * @param concept a coded or boolean concept
+	 * @return the number of obs per answer concept id, the null key counting the obs without answer
+	 * @should count the obs of each answer
+	 */
+	@Authorized({ PrivilegeConstants.GET_OBS })
+	@Transactional(readOnly = true)
+	public Map<Integer, Long> getAnswerCounts(Concept concept);
+	
+	/**
+	 * @param concept the concept
+	 * @return the last computed statistics of the concept, or null if they were never computed
+	 */
+	@Authorized({ PrivilegeConstants.GET_OBS })
+	@Transactional(readOnly = true)
+	public ConceptStatsSnapshot getConceptStatsSnapshot(Concept concept);
+	
+	/**
+	 * Computes the statistics of the obs of the concept without saving them, for showing them when
+	 * the concept has no snapshot yet
+	 * 
+	 * @param concept a numeric, coded or boolean concept
+	 * @return an unsaved snapshot, or null if statistics are not computed for the datatype of the
+	 *         concept
+	 * @should compute the answer counts of a coded concept without saving them
+	 */
+	@Authorized({ PrivilegeConstants.GET_OBS })
+	@Transactional(readOnly = true)
+	public ConceptStatsSnapshot computeConceptStats(Concept concept);
+	
+	/**
+	 * Computes the statistics of the obs of the concept and saves them as its snapshot, replacing
+	 * the previous one
+	 * 
+	 * @param concept a numeric, coded or boolean concept
+	 * @return the saved snapshot, or null if statistics are not computed for the datatype of the
+	 *         concept
+	 * @should save the statistics of a numeric concept
+	 * @should replace the previous snapshot
+	 * @should return null for concepts of other datatypes
+	 */
+	@Authorized(value = { PrivilegeConstants.GET_OBS, PrivilegeConstants.MANAGE_CONCEPTS }, requireAll = true)
+	public ConceptStatsSnapshot computeConceptStatsSnapshot(Concept concept);
+	
+	/**
+	 * Finds the concepts that had obs created or voided since their snapshot was computed, only the
+	 * obs changed since the oldest snapshot are looked at so this stays cheap when run often
+	 * 
+	 * @return the ids of the concepts whose snapshot is missing or out of date, they can be of any
+	 *         datatype
+	 * @should return concepts with obs changed since their snapshot
+	 */
+	@Authorized({ PrivilegeConstants.GET_OBS })
+	@Transactional(readOnly = true)
+	public List<Integer> getConceptIdsWithOutdatedStatsSnapshots();
+	
+	/**
+	 * Looks up when the obs of a person for some concepts last changed, so that what is derived
+	 * from them, like rendered graphs, can be cached until they change again
+	 * 
+	 * @param person the person whose obs to look at
+	 * @param concepts the question concepts of the obs
+	 * @return the last time one of the obs was created or voided, or null if there are no obs
+	 * @should return the last time an obs was created or voided
+	 */
+	@Authorized({ PrivilegeConstants.GET_OBS })
+	@Transactional(readOnly = true)
+	public Date getLastObsChange(Person person, Collection<Concept> concepts);
+	
+	/**
+	 * Gets a page of non retired concepts to export, ordered by id, with their names, descriptions,
+	 * class, datatype, answers and set members already loaded
+	 * 
+	 * @param afterConceptId the id of the last concept of the previous page, or null for the first
+	 *            page
+	 * @param maxResults the size of the page
+	 * @return the concepts of the page, an empty list once all concepts have been returned
+	 * @should return non retired concepts after the given id
+	 */
+	@Authorized({ PrivilegeConstants.GET_CONCEPTS })
+	@Transactional(readOnly = true)
+	public List<Concept> getConceptsForExport(Integer afterConceptId, int maxResults);
+	
+	/**
+	 * @return a value that changes whenever a concept is created, changed or retired, or a user who
+	 *         created or changed a concept is renamed, so that exports of the dictionary, which show
+	 *         these names, can be cached until then
+	 * @should change when the name of a concept creator changes
+	 */
+	@Authorized({ PrivilegeConstants.GET_CONCEPTS })
+	@Transactional(readOnly = true)
+	public String getConceptDictionaryVersion();
+	
+	/**
+	 * Gets a page of the obs of patients for the given question with a datetime value strictly
+	 * within the given window, voided obs included, ordered by location and value
+	 * 
+	 * @param question the question of the obs
+	 * @param location the location of the obs or null for all locations
+	 * @param after the exclusive start of the window
+	 * @param before the exclusive end of the window
+	 * @param firstResult the index of the first obs to return
+	 * @param maxResults the size of the page
+	 * @return the obs
+	 * @should return only obs with a value within the window
+	 */
+	@Authorized({ PrivilegeConstants.GET_OBS })
+	@Transactional(readOnly = true)
+	public List<Obs> getObsByValueDatetime(Concept question, Location location, Date after, Date before,
+	        int firstResult, int maxResults);
+	
+	/**
+	 * Gets a page of the encounters within the given window, voided encounters included, ordered by
+	 * encounter datetime
+	 * 
+	 * @param location the location of the encounters or null for all locations
+	 * @param fromDate the inclusive start of the window
+	 * @param toDate the inclusive end of the window
+	 * @param firstResult the index of the first encounter to return
+	 * @param maxResults the size of the page
+	 * @return the encounters
+	 */
+	@Authorized({ PrivilegeConstants.GET_ENCOUNTERS })
+	@Transactional(readOnly = true)
+	public List<Encounter> getEncounters(Location location, Date fromDate, Date toDate, int firstResult, int maxResults);
+	
+	/**
+	 * Gets a page of the voided obs with an obs datetime within the given window, most recent first
+	 * 
+	 * @param fromDate the inclusive start of the window
+	 * @param toDate the inclusive end of the window
+	 * @param firstResult the index of the first obs to return
+	 * @param maxResults the size of the page
+	 * @return the obs
+	 */
+	@Authorized({ PrivilegeConstants.GET_OBS })
+	@Transactional(readOnly = true)
+	public List<Obs> getVoidedObs(Date fromDate, Date toDate, int firstResult, int maxResults);
+	
+	/**
+	 * Gets a page of the non voided obs of the given person, most recent first
+	 * 
+	 * @param person the person
+	 * @param firstResult the index of the first obs to return
+	 * @param maxResults the size of the page
+	 * @return the obs
+	 * @should return the obs of the person most recent first
+	 */
+	@Authorized({ PrivilegeConstants.GET_OBS })
+	@Transactional(readOnly = true)
+	public List<Obs> getObsByPerson(Person person, int firstResult, int maxResults);
+	
+	/**
+	 * Loads the given patients with a single query
+	 * 
+	 * @param patientIds the ids of the patients to load
+	 * @return the patients in the order of the given ids, ids of patients that do not exist are
+	 *         skipped
+	 * @should return the patients in the order of the given ids
+	 */
+	@Authorized({ PrivilegeConstants.GET_PATIENTS })
+	@Transactional(readOnly = true)
+	public List<Patient> getPatientsByIds(List<Integer> patientIds);
+	
+	/**
+	 * Finds the ids of the patients {@link org.openmrs.api.PatientService#getPatients(String, boolean, Integer, Integer)}
+	 * finds for the same search, in the same order, without loading the patients
+	 * 
+	 * @param query patient name or identifier
+	 * @param includeVoided whether voided patients are searched as well
+	 * @param maxResults the maximum number of ids to return
+	 * @return the ids of the matching patients
+	 * @should return the ids of the patients the patient service finds
+	 * @should return no more ids than the maximum results
+	 */
+	@Authorized({ PrivilegeConstants.GET_PATIENTS })
+	@Transactional(readOnly = true)
+	public List<Integer> getPatientIds(String query, boolean includeVoided, int maxResults);
+	
+	/**
+	 * Finds the ids of the patients {@link #getPatientIds(String, boolean, int)} finds, among the
+	 * given patients only
+	 * 
+	 * @param query patient name or identifier
+	 * @param includeVoided whether voided patients are searched as well
+	 * @param amongPatientIds the ids of the patients to search
+	 * @param maxResults the maximum number of ids to return
+	 * @return the ids of the matching patients, in the order of the patient service
+	 * @should return only the matching patients among the given ones
+	 */
+	@Authorized({ PrivilegeConstants.GET_PATIENTS })
+	@Transactional(readOnly = true)
+	public List<Integer> getPatientIds(String query, boolean includeVoided, Collection<Integer> amongPatientIds,
+	        int maxResults);
+	
+	/**
+	 * Loads the given patients with everything a search result row shows of them, using a fixed
+	 * number of queries whatever the number of patients, instead of loading the names, identifiers
+	 * and attributes of each patient as its row is built
+	 * 
+	 * @param patientIds the ids of the patients to load
+	 * @return the patients in the order of the given ids, ids of patients that do not exist are
+	 *         skipped
+	 * @should load the names identifiers and attributes of the patients
+	 */
+	@Authorized({ PrivilegeConstants.GET_PATIENTS })
+	@Transactional(readOnly = true)
+	public List<Patient> getPatientsForListing(List<Integer> patientIds);
+	
+	/**
+	 * Loads the given persons with their names and attributes, see
+	 * {@link #getPatientsForListing(List)}
+	 * 
+	 * @param personIds the ids of the persons to load
+	 * @return the persons in the order of the given ids, ids of persons that do not exist are
+	 *         skipped
+	 */
+	@Authorized({ PrivilegeConstants.GET_PERSONS })
+	@Transactional(readOnly = true)
+	public List<Person> getPersonsForListing(List<Integer> personIds);
+	
+	/**
+	 * Loads the given concepts with their names, descriptions, class and datatype, see
+	 * {@link #getPatientsForListing(List)}
+	 * 
+	 * @param conceptIds the ids of the concepts to load
+	 * @return the concepts in the order of the given ids, ids of concepts that do not exist are
+	 *         skipped
+	 * @should load the names and descriptions of the concepts
+	 */
+	@Authorized({ PrivilegeConstants.GET_CONCEPTS })
+	@Transactional(readOnly = true)
+	public List<Concept> getConceptsForListing(List<Integer> conceptIds);
+	
+	/**
+	 * Gets a batch of the concept names for the in-memory name index, with their concepts. Call
+	 * again with the id of the last name returned until an empty list comes back.
+	 * 
+	 * @param afterConceptNameId the id to start after, null to start with the first name
+	 * @param maxResults the maximum number of names to return
+	 * @return the non voided names with an id greater than the given one, in id order
+	 * @should return the non voided names after the given id in id order
+	 */
+	@Authorized({ PrivilegeConstants.GET_CONCEPTS })
+	@Transactional(readOnly = true)
+	public List<ConceptName> getConceptNames(Integer afterConceptNameId, int maxResults);
+	
+	/**
+	 * Finds which of the given identifiers are already used by a patient with the given type, with
+	 * a single query
+	 * 
+	 * @param identifierType the type of the identifiers
+	 * @param identifiers the identifiers to look for
+	 * @return the given identifiers carried by a non voided identifier of the type
+	 * @should return the identifiers in use with the given type only
+	 */
+	@Authorized({ PrivilegeConstants.GET_PATIENTS })
+	@Transactional(readOnly = true)
+	public List<String> getIdentifiersInUse(PatientIdentifierType identifierType, Collection<String> identifiers);
 }
@@ -0,0 +1,233 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.legacyui.api.db;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import org.openmrs.Concept;
+import org.openmrs.ConceptName;
+import org.openmrs.Encounter;
+import org.openmrs.Location;
+import org.openmrs.Obs;
+import org.openmrs.Patient;
+import org.openmrs.PatientIdentifierType;
+import org.openmrs.Person;
+import org.openmrs.module.legacyui.api.LegacyUIService;
+import org.openmrs.module.legacyui.stats.ConceptStatsSnapshot;
+import org.openmrs.module.legacyui.stats.NumericObsHandler;
+
+/**
+ * Database access for the {@link LegacyUIService}
+ */
+public interface LegacyUIDAO {
+	
+	/**
+	 * @param concept a numeric concept
+	 * @return the number of non voided numeric obs of the concept, their minimum, their maximum and
+	 *         the number of distinct values, in that order
+	 */
+	public Object[] getNumericObsSummary(Concept concept);
+	
+	/**
+	 * Picks the values at several positions in a single pass over the sorted values, which stops
+	 * once the last position is reached
+	 * 
+	 * @param concept a numeric concept
+	 * @param ranks the zero based positions of the values when sorting the values in ascending
+	 *            order, in ascending order
+	 * @return the values at the given positions, null where there are not that many values
+	 */
+	public Double[] getNumericObsValuesAt(Concept concept, int... ranks);
+	
+	/**
+	 * @param concept a numeric concept
+	 * @return rows of the year, the month, the day of the month and the mean value of the non voided
+	 *         numeric obs of the concept on that day, in ascending order of day
+	 */
+	public List<Object[]> getNumericObsDailyMeans(Concept concept);
+	
+	/**
+	 * Streams the non voided numeric obs of the concept to the handler in ascending order of value,
+	 * only the id, date and value of each obs are read
+	 * 
+	 * @param concept a numeric concept
+	 * @param handler the handler to pass the obs to
+	 */
+	public void scrollNumericObs(Concept concept, NumericObsHandler handler);
+	
+	/**
+	 * @param obsIds the ids of the obs to load
+	 * @return the obs sorted by value
+	 */
+	public List<Obs> getObsByIds(List<Integer> obsIds);
+	
+	/**
+	 * @param concept a coded or boolean concept
+	 * @return rows of the coded value concept id, the numeric value and the number of non voided
+	 *         obs of the concept with these values
+	 */
+	public List<Object[]> getAnswerCounts(Concept concept);
+	
+	/**
+	 * @param since the date after which to look for changes, or null to get all the concepts with
+	 *            obs
+	 * @return the last time an obs of each concept was created or voided, for the concepts that had
+	 *         obs created or voided after the given date
+	 */
+	public Map<Integer, Date> getLastObsChanges(Date since);
+	
+	/**
+	 * @param concept the concept
+	 * @return the snapshot of the statistics of the concept, or null if there is none
+	 */
+	public ConceptStatsSnapshot getConceptStatsSnapshot(Concept concept);
+	
+	/**
+	 * @return the date each existing snapshot was computed, keyed by concept id
+	 */
+	public Map<Integer, Date> getConceptStatsSnapshotDates();
+	
+	/**
+	 * @param snapshot the snapshot to save
+	 * @return the saved snapshot
+	 */
+	public ConceptStatsSnapshot saveConceptStatsSnapshot(ConceptStatsSnapshot snapshot);
+	
+	/**
+	 * @param person the person whose obs to look at
+	 * @param concepts the question concepts of the obs
+	 * @return the last time an obs of the person for one of the concepts was created or voided, or
+	 *         null if there are no such obs
+	 */
+	public Date getLastObsChange(Person person, Collection<Concept> concepts);
+	
+	/**
+	 * Gets a page of non retired concepts ordered by id with the associations needed to export them
+	 * already fetched, a few queries per page instead of a few per concept
+	 * 
+	 * @param afterConceptId the id of the last concept of the previous page, or null for the first
+	 *            page
+	 * @param maxResults the size of the page
+	 * @return the concepts of the page, with their names, descriptions, class, datatype, answers and
+	 *         set members
+	 */
+	public List<Concept> getConceptsForExport(Integer afterConceptId, int maxResults);
+	
+	/**
+	 * @return the number of concepts followed by the last dates concepts were created, changed and
+	 *         retired, then the last dates names of the users who created or changed concepts were
+	 *         created, changed and voided
+	 */
+	public Object[] getConceptDictionarySummary();
+	
+	/**
+	 * Gets a page of the obs of patients for the given question with a datetime value strictly
+	 * within the given window, voided obs included, ordered by location and value
+	 * 
+	 * @param question the question of the obs
+	 * @param location the location of the obs or null for all locations
+	 * @param after the exclusive start of the window
+	 * @param before the exclusive end of the window
+	 * @param firstResult the index of the first obs to return
+	 * @param maxResults the size of the page
+	 * @return the obs
+	 */
+	public List<Obs> getObsByValueDatetime(Concept question, Location location, Date after, Date before,
+	        int firstResult, int maxResults);
+	
+	/**
+	 * Gets a page of the encounters within the given window, voided encounters included, ordered by
+	 * encounter datetime
+	 * 
+	 * @param location the location of the encounters or null for all locations
+	 * @param fromDate the inclusive start of the window
+	 * @param toDate the inclusive end of the window
+	 * @param firstResult the index of the first encounter to return
+	 * @param maxResults the size of the page
+	 * @return the encounters
+	 */
+	public List<Encounter> getEncounters(Location location, Date fromDate, Date toDate, int firstResult, int maxResults);
+	
+	/**
+	 * Gets a page of the voided obs with an obs datetime within the given window, most recent first
+	 * 
+	 * @param fromDate the inclusive start of the window
+	 * @param toDate the inclusive end of the window
+	 * @param firstResult the index of the first obs to return
+	 * @param maxResults the size of the page
+	 * @return the obs
+	 */
+	public List<Obs> getVoidedObs(Date fromDate, Date toDate, int firstResult, int maxResults);
+	
+	/**
+	 * Gets a page of the non voided obs of the given person, most recent first
+	 * 
+	 * @param person the person
+	 * @param firstResult the index of the first obs to return
+	 * @param maxResults the size of the page
+	 * @return the obs
+	 */
+	public List<Obs> getObsByPerson(Person person, int firstResult, int maxResults);
+	
+	/**
+	 * @param patientIds the ids of the patients to load
+	 * @return the patients in the order of the given ids, ids of patients that do not exist are
+	 *         skipped
+	 */
+	public List<Patient> getPatientsByIds(List<Integer> patientIds);
+	
+	/**
+	 * @param query patient name or identifier
+	 * @param includeVoided whether voided patients are searched as well
+	 * @param amongPatientIds the ids of the patients to search, null to search all the patients
+	 * @param maxResults the maximum number of ids to return
+	 * @return the ids of the patients matching the search, in the order of the patient service
+	 */
+	public List<Integer> getPatientIds(String query, boolean includeVoided, Collection<Integer> amongPatientIds,
+	        int maxResults);
+	
+	/**
+	 * @param patientIds the ids of the patients to load
+	 * @return the patients in the order of the given ids, with their names, identifiers and
+	 *         attributes loaded
+	 */
+	public List<Patient> getPatientsForListing(List<Integer> patientIds);
+	
+	/**
+	 * @param personIds the ids of the persons to load
+	 * @return the persons in the order of the given ids, with their names and attributes loaded
+	 */
+	public List<Person> getPersonsForListing(List<Integer> personIds);
+	
+	/**
+	 * @param conceptIds the ids of the concepts to load
+	 * @return the concepts in the order of the given ids, with their names, descriptions, class and
+	 *         datatype loaded
+	 */
+	public List<Concept> getConceptsForListing(List<Integer> conceptIds);
+	
+	/**
+	 * @param afterConceptNameId the id to start after, null to start with the first name
+	 * @param maxResults the maximum number of names to return
+	 * @return the non voided names with an id greater than the given one, in id order, with their
+	 *         concepts loaded
+	 */
+	public List<ConceptName> getConceptNames(Integer afterConceptNameId, int maxResults);
+	
+	/**
+	 * @param identifierType the type of the identifiers
+	 * @param identifiers the identifiers to look for
+	 * @return the given identifiers carried by a non voided identifier of the type
+	 */
+	public List<String> getIdentifiersInUse(PatientIdentifierType identifierType, Collection<String> identifiers);
+}
@@ -0,0 +1,548 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.legacyui.api.db.hibernate;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+import org.hibernate.Criteria;
+import org.hibernate.Query;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.criterion.Projections;
+import org.hibernate.criterion.Restrictions;
+import org.openmrs.Concept;
+import org.openmrs.ConceptName;
+import org.openmrs.Encounter;
+import org.openmrs.Location;
+import org.openmrs.Obs;
+import org.openmrs.OpenmrsObject;
+import org.openmrs.Patient;
+import org.openmrs.PatientIdentifierType;
+import org.openmrs.Person;
+import org.openmrs.PersonName;
+import org.openmrs.api.db.hibernate.DbSessionFactory;
+import org.openmrs.api.db.hibernate.PatientSearchCriteria;
+import org.openmrs.module.legacyui.api.db.LegacyUIDAO;
+import org.openmrs.module.legacyui.stats.ConceptStatsSnapshot;
+import org.openmrs.module.legacyui.stats.NumericObsHandler;
+
+/**
+ * Hibernate implementation of the {@link LegacyUIDAO}
+ */
+public class HibernateLegacyUIDAO implements LegacyUIDAO {
+	
+	private static final String NUMERIC_OBS = "from Obs o where o.concept = :concept and o.voided = false"
+	        + " and o.valueNumeric is not null";
+	
+	private static final int FETCH_SIZE = 1000;
+	
+	private DbSessionFactory sessionFactory;
+	
+	public void setSessionFactory(DbSessionFactory sessionFactory) {
+		this.sessionFactory = sessionFactory;
+	}
+	
+	/**
+	 * @see org.openmrs.module.legacyui.api.db.LegacyUIDAO#getNumericObsSummary(org.openmrs.Concept)
+	 */
+	@Override
+	public Object[] getNumericObsSummary(Concept concept) {
+		Query query = sessionFactory.getCurrentSession().createQuery(
+		    "select count(o), min(o.valueNumeric), max(o.valueNumeric), count(distinct o.valueNumeric) " + NUMERIC_OBS);
+		query.setParameter("concept", concept);
+		return (Object[]) query.uniqueResult();
+	}
+	
+	/**
+	 * @see org.openmrs.module.legacyui.api.db.LegacyUIDAO#getNumericObsValuesAt(org.openmrs.Concept,
+	 *      int[])
+	 */
+	@Override
+	public Double[] getNumericObsValuesAt(Concept concept, int... ranks) {
+		Double[] values = new Double[ranks.length];
+		if (ranks.length == 0) {
+			return values;
+		}
+		Query query = sessionFactory.getCurrentSession().createQuery(
+		    "select o.valueNumeric " + NUMERIC_OBS + " order by o.valueNumeric");
+		query.setParameter("concept", concept);
+		query.setReadOnly(true);
+		query.setFetchSize(FETCH_SIZE);
+		query.setMaxResults(ranks[ranks.length - 1] + 1);
+		ScrollableResults results = query.scroll(ScrollMode.FORWARD_ONLY);
+		try {
+			int rank = 0;
+			int next = 0;
+			while (next < ranks.length && results.next()) {
+				while (next < ranks.length && ranks[next] == rank) {
+					values[next++] = (Double) results.get(0);
+				}
+				rank++;
+			}
+		}
+		finally {
+			results.close();
+		}
+		return values;
+	}
+	
+	/**
+	 * @see org.openmrs.module.legacyui.api.db.LegacyUIDAO#getNumericObsDailyMeans(org.openmrs.Concept)
+	 */
+	@Override
+	@SuppressWarnings("unchecked")
+	public List<Object[]> getNumericObsDailyMeans(Concept concept) {
+		Query query = sessionFactory.getCurrentSession().createQuery(
+		    "select year(o.obsDatetime), month(o.obsDatetime), day(o.obsDatetime), avg(o.valueNumeric) " + NUMERIC_OBS
+		            + " group by year(o.obsDatetime), month(o.obsDatetime), day(o.obsDatetime)"
+		            + " order by year(o.obsDatetime), month(o.obsDatetime), day(o.obsDatetime)");
+		query.setParameter("concept", concept);
+		return query.list();
+	}
+	
+	/**
+	 * @see org.openmrs.module.legacyui.api.db.LegacyUIDAO#scrollNumericObs(org.openmrs.Concept,
+	 *      org.openmrs.module.legacyui.stats.NumericObsHandler)
+	 */
+	@Override
+	public void scrollNumericObs(Concept concept, NumericObsHandler handler) {
+		Query query = sessionFactory.getCurrentSession().createQuery(
+		    "select o.obsId, o.obsDatetime, o.valueNumeric " + NUMERIC_OBS + " order by o.valueNumeric, o.obsId");
+		query.setParameter("concept", concept);
+		query.setReadOnly(true);
+		query.setFetchSize(FETCH_SIZE);
+		ScrollableResults results = query.scroll(ScrollMode.FORWARD_ONLY);
+		try {
+			while (results.next()) {
+				handler.handle((Integer) results.get(0), (Date) results.get(1), (Double) results.get(2));
+			}
+		}
+		finally {
+			results.close();
+		}
+	}
+	
+	/**
+	 * @see org.openmrs.module.legacyui.api.db.LegacyUIDAO#getObsByIds(java.util.List)
+	 */
+	@Override
+	@SuppressWarnings("unchecked")
+	public List<Obs> getObsByIds(List<Integer> obsIds) {
+		if (obsIds.isEmpty()) {
+			return new ArrayList<Obs>();
+		}
+		Query query = sessionFactory.getCurrentSession().createQuery(
+		    "from Obs o where o.obsId in (:obsIds) order by o.valueNumeric, o.obsId");
+		query.setParameterList("obsIds", obsIds);
+		return query.list();
+	}
+	
+	/**
+	 * @see org.openmrs.module.legacyui.api.db.LegacyUIDAO#getAnswerCounts(org.openmrs.Concept)
+	 */
+	@Override
+	@SuppressWarnings("unchecked")
+	public List<Object[]> getAnswerCounts(Concept concept) {
+		Query query = sessionFactory.getCurrentSession().createQuery(
+		    "select vc.conceptId, o.valueNumeric, count(o) from Obs o left join o.valueCoded vc"
+		            + " where o.concept = :concept and o.voided = false group by vc.conceptId, o.valueNumeric");
+		query.setParameter("concept", concept);
+		return query.list();
+	}
+	
+	/**
+	 * @see org.openmrs.module.legacyui.api.db.LegacyUIDAO#getLastObsChanges(java.util.Date)
+	 */
+	@Override
+	@SuppressWarnings("unchecked")
+	public Map<Integer, Date> getLastObsChanges(Date since) {
+		String hql = "select o.concept.conceptId, max(o.dateCreated), max(o.dateVoided) from Obs o";
+		if (since != null) {
+			hql += " where o.dateCreated > :since or o.dateVoided > :since";
+		}
+		Query query = sessionFactory.getCurrentSession().createQuery(hql + " group by o.concept.conceptId");
+		if (since != null) {
+			query.setParameter("since", since);
+		}
+		Map<Integer, Date> changes = new HashMap<Integer, Date>();
+		for (Object[] row : (List<Object[]>) query.list()) {
+			Date created = (Date) row[1];
+			Date voided = (Date) row[2];
+			changes.put((Integer) row[0], voided != null && (created == null || voided.after(created)) ? voided : created);
+		}
+		return changes;
+	}
+	
+	/**
+	 * @see org.openmrs.module.legacyui.api.db.LegacyUIDAO#getConceptStatsSnapshot(org.openmrs.Concept)
+	 */
+	@Override
+	public ConceptStatsSnapshot getConceptStatsSnapshot(Concept concept) {
+		Query query = sessionFactory.getCurrentSession().createQuery(
+		    "from ConceptStatsSnapshot s where s.concept = :concept");
+		query.setParameter("concept", concept);
+		return (ConceptStatsSnapshot) query.uniqueResult();
+	}
+	
+	/**
+	 * @see org.openmrs.module.legacyui.api.db.LegacyUIDAO#getConceptStatsSnapshotDates()
+	 */
+	@Override
+	@SuppressWarnings("unchecked")
+	public Map<Integer, Date> getConceptStatsSnapshotDates() {
+		Query query = sessionFactory.getCurrentSession().createQuery(
+		    "select s.concept.conceptId, s.dateComputed from ConceptStatsSnapshot s");
+		Map<Integer, Date> dates = new HashMap<Integer, Date>();
+		for (Object[] row : (List<Object[]>) query.list()) {
+			dates.put((Integer) row[0], (Date) row[1]);
+		}
+		return dates;
+	}
+	
+	/**
+	 * @see org.openmrs.module.legacyui.api.db.LegacyUIDAO#saveConceptStatsSnapshot(org.openmrs.module.legacyui.stats.ConceptStatsSnapshot)
+	 */
+	@Override
+	public ConceptStatsSnapshot saveConceptStatsSnapshot(ConceptStatsSnapshot snapshot) {
+		sessionFactory.getCurrentSession().saveOrUpdate(snapshot);
+		return snapshot;
+	}
+	
+	/**
+	 * @see org.openmrs.module.legacyui.api.db.LegacyUIDAO#getLastObsChange(org.openmrs.Person,
+	 *      java.util.Collection)
+	 */
+	@Override
+	public Date getLastObsChange(Person person, Collection<Concept> concepts) {
+		Query query = sessionFactory.getCurrentSession().createQuery(
+		    "select max(o.dateCreated), max(o.dateVoided) from Obs o where o.person = :person and o.concept in (:concepts)");
+		query.setParameter("person", person);
+		query.setParameterList("concepts", concepts);
+		Object[] row = (Object[]) query.uniqueResult();
+		Date created = (Date) row[0];
+		Date voided = (Date) row[1];
+		return voided != null && (created == null || voided.after(created)) ? voided : created;
+	}
+	
+	/**
+	 * @see org.openmrs.module.legacyui.api.db.LegacyUIDAO#getConceptsForExport(java.lang.Integer,
+	 *      int)
+	 */
+	@Override
+	@SuppressWarnings("unchecked")
+	public List<Concept> getConceptsForExport(Integer afterConceptId, int maxResults) {
+		Query idQuery = sessionFactory.getCurrentSession().createQuery(
+		    "select c.conceptId from Concept c where c.retired = false and c.conceptId > :after order by c.conceptId");
+		idQuery.setParameter("after", afterConceptId == null ? 0 : afterConceptId);
+		idQuery.setMaxResults(maxResults);
+		List<Integer> conceptIds = idQuery.list();
+		if (conceptIds.isEmpty()) {
+			return new ArrayList<Concept>();
+		}
+		
+		// each collection is fetched by its own query, fetching them all at once would multiply the rows,
+		// the later queries initialize the collections of the concepts already in the session
+		Query query = sessionFactory.getCurrentSession().createQuery(
+		    "select distinct c from Concept c left join fetch c.names left join fetch c.descriptions"
+		            + " left join fetch c.conceptClass left join fetch c.datatype where c.conceptId in (:ids)"
+		            + " order by c.conceptId");
+		query.setParameterList("ids", conceptIds);
+		List<Concept> concepts = query.list();
+		
+		query = sessionFactory.getCurrentSession().createQuery(
+		    "select distinct c from Concept c left join fetch c.answers a left join fetch a.answerConcept ac"
+		            + " left join fetch ac.names left join fetch a.answerDrug where c.conceptId in (:ids)");
+		query.setParameterList("ids", conceptIds);
+		query.list();
+		
+		query = sessionFactory.getCurrentSession().createQuery(
+		    "select distinct c from Concept c left join fetch c.conceptSets s left join fetch s.concept sc"
+		            + " left join fetch sc.names where c.conceptId in (:ids)");
+		query.setParameterList("ids", conceptIds);
+		query.list();
+		
+		return concepts;
+	}
+	
+	/**
+	 * @see org.openmrs.module.legacyui.api.db.LegacyUIDAO#getConceptDictionarySummary()
+	 */
+	@Override
+	public Object[] getConceptDictionarySummary() {
+		Object[] concepts = (Object[]) sessionFactory.getCurrentSession().createQuery(
+		    "select count(c), max(c.dateCreated), max(c.dateChanged), max(c.dateRetired) from Concept c").uniqueResult();
+		// the export shows the names of the creators and last editors of the concepts
+		Object[] names = (Object[]) sessionFactory.getCurrentSession().createQuery(
+		    "select max(pn.dateCreated), max(pn.dateChanged), max(pn.dateVoided) from PersonName pn"
+		            + " where pn.person in (select distinct c.creator.person from Concept c)"
+		            + " or pn.person in (select distinct c.changedBy.person from Concept c)").uniqueResult();
+		Object[] summary = new Object[concepts.length + names.length];
+		System.arraycopy(concepts, 0, summary, 0, concepts.length);
+		System.arraycopy(names, 0, summary, concepts.length, names.length);
+		return summary;
+	}
+	
+	/**
+	 * @see org.openmrs.module.legacyui.api.db.LegacyUIDAO#getObsByValueDatetime(org.openmrs.Concept,
+	 *      org.openmrs.Location, java.util.Date, java.util.Date, int, int)
+	 */
+	@Override
+	@SuppressWarnings("unchecked")
+	public List<Obs> getObsByValueDatetime(Concept question, Location location, Date after, Date before,
+	        int firstResult, int maxResults) {
+		StringBuilder hql = new StringBuilder("select o from Obs o left join o.location l where o.concept = :question");
+		hql.append(" and o.valueDatetime > :after and o.valueDatetime < :before");
+		hql.append(" and o.person.personId in (select p.patientId from Patient p)");
+		if (location != null) {
+			hql.append(" and o.location = :location");
+		}
+		hql.append(" order by l.locationId, o.valueDatetime, o.obsId");
+		
+		Query query = sessionFactory.getCurrentSession().createQuery(hql.toString());
+		query.setParameter("question", question);
+		query.setParameter("after", after);
+		query.setParameter("before", before);
+		if (location != null) {
+			query.setParameter("location", location);
+		}
+		query.setFirstResult(firstResult);
+		query.setMaxResults(maxResults);
+		return query.list();
+	}
+	
+	/**
+	 * @see org.openmrs.module.legacyui.api.db.LegacyUIDAO#getEncounters(org.openmrs.Location,
+	 *      java.util.Date, java.util.Date, int, int)
+	 */
+	@Override
+	@SuppressWarnings("unchecked")
+	public List<Encounter> getEncounters(Location location, Date fromDate, Date toDate, int firstResult, int maxResults) {
+		StringBuilder hql = new StringBuilder(
+		        "select e from Encounter e where e.encounterDatetime >= :fromDate and e.encounterDatetime <= :toDate");
+		if (location != null) {
+			hql.append(" and e.location = :location");
+		}
+		hql.append(" order by e.encounterDatetime, e.encounterId");
+		
+		Query query = sessionFactory.getCurrentSession().createQuery(hql.toString());
+		query.setParameter("fromDate", fromDate);
+		query.setParameter("toDate", toDate);
+		if (location != null) {
+			query.setParameter("location", location);
+		}
+		query.setFirstResult(firstResult);
+		query.setMaxResults(maxResults);
+		return query.list();
+	}
+	
+	/**
+	 * @see org.openmrs.module.legacyui.api.db.LegacyUIDAO#getVoidedObs(java.util.Date,
+	 *      java.util.Date, int, int)
+	 */
+	@Override
+	@SuppressWarnings("unchecked")
+	public List<Obs> getVoidedObs(Date fromDate, Date toDate, int firstResult, int maxResults) {
+		Query query = sessionFactory.getCurrentSession().createQuery(
+		    "select o from Obs o where o.voided = true and o.obsDatetime >= :fromDate and o.obsDatetime <= :toDate"
+		            + " order by o.obsDatetime desc, o.obsId desc");
+		query.setParameter("fromDate", fromDate);
+		query.setParameter("toDate", toDate);
+		query.setFirstResult(firstResult);
+		query.setMaxResults(maxResults);
+		return query.list();
+	}
+	
+	/**
+	 * @see org.openmrs.module.legacyui.api.db.LegacyUIDAO#getObsByPerson(org.openmrs.Person, int,
+	 *      int)
+	 */
+	@Override
+	@SuppressWarnings("unchecked")
+	public List<Obs> getObsByPerson(Person person, int firstResult, int maxResults) {
+		Query query = sessionFactory.getCurrentSession().createQuery(
+		    "select o from Obs o where o.person = :person and o.voided = false order by o.obsDatetime desc, o.obsId desc");
+		query.setParameter("person", person);
+		query.setFirstResult(firstResult);
+		query.setMaxResults(maxResults);
+		return query.list();
+	}
+	
+	/**
+	 * @see org.openmrs.module.legacyui.api.db.LegacyUIDAO#getPatientsByIds(java.util.List)
+	 */
+	@Override
+	@SuppressWarnings("unchecked")
+	public List<Patient> getPatientsByIds(List<Integer> patientIds) {
+		if (patientIds.isEmpty()) {
+			return new ArrayList<Patient>();
+		}
+		Query query = sessionFactory.getCurrentSession().createQuery("from Patient p where p.patientId in (:patientIds)");
+		query.setParameterList("patientIds", patientIds);
+		return sortByIds((List<Patient>) query.list(), patientIds);
+	}
+	
+	/**
+	 * @see org.openmrs.module.legacyui.api.db.LegacyUIDAO#getPatientIds(java.lang.String, boolean,
+	 *      java.util.Collection, int)
+	 */
+	@Override
+	@SuppressWarnings("unchecked")
+	public List<Integer> getPatientIds(String query, boolean includeVoided, Collection<Integer> amongPatientIds,
+	        int maxResults) {
+		// the criteria the patient service searches with, projected to the ids
+		Criteria criteria = sessionFactory.getCurrentSession().createCriteria(Patient.class);
+		criteria = new PatientSearchCriteria(sessionFactory.getHibernateSessionFactory(), criteria).prepareCriteria(query,
+		    includeVoided);
+		if (amongPatientIds != null) {
+			criteria.add(Restrictions.in("patientId", amongPatientIds));
+		}
+		criteria.setProjection(Projections.id());
+		criteria.setResultTransformer(Criteria.PROJECTION);
+		// like the patient service the limit applies to the rows, which repeat a patient matching
+		// through several names or identifiers
+		criteria.setMaxResults(maxResults);
+		return new ArrayList<Integer>(new LinkedHashSet<Integer>((List<Integer>) criteria.list()));
+	}
+	
+	/**
+	 * @see org.openmrs.module.legacyui.api.db.LegacyUIDAO#getPatientsForListing(java.util.List)
+	 */
+	@Override
+	@SuppressWarnings("unchecked")
+	public List<Patient> getPatientsForListing(List<Integer> patientIds) {
+		if (patientIds.isEmpty()) {
+			return new ArrayList<Patient>();
+		}
+		// as for the dictionary export, each collection is fetched by its own query
+		Query query = sessionFactory.getCurrentSession().createQuery(
+		    "select distinct p from Patient p left join fetch p.names where p.patientId in (:ids)");
+		query.setParameterList("ids", patientIds);
+		List<Patient> patients = query.list();
+		
+		query = sessionFactory.getCurrentSession().createQuery(
+		    "select distinct p from Patient p left join fetch p.identifiers i left join fetch i.identifierType"
+		            + " where p.patientId in (:ids)");
+		query.setParameterList("ids", patientIds);
+		query.list();
+		
+		query = sessionFactory.getCurrentSession().createQuery(
+		    "select distinct p from Patient p left join fetch p.attributes a left join fetch a.attributeType"
+		            + " where p.patientId in (:ids)");
+		query.setParameterList("ids", patientIds);
+		query.list();
+		
+		return sortByIds(patients, patientIds);
+	}
+	
+	/**
+	 * @see org.openmrs.module.legacyui.api.db.LegacyUIDAO#getPersonsForListing(java.util.List)
+	 */
+	@Override
+	@SuppressWarnings("unchecked")
+	public List<Person> getPersonsForListing(List<Integer> personIds) {
+		if (personIds.isEmpty()) {
+			return new ArrayList<Person>();
+		}
+		Query query = sessionFactory.getCurrentSession().createQuery(
+		    "select distinct p from Person p left join fetch p.names where p.personId in (:ids)");
+		query.setParameterList("ids", personIds);
+		List<Person> persons = query.list();
+		
+		query = sessionFactory.getCurrentSession().createQuery(
+		    "select distinct p from Person p left join fetch p.attributes a left join fetch a.attributeType"
+		            + " where p.personId in (:ids)");
+		query.setParameterList("ids", personIds);
+		query.list();
+		
+		return sortByIds(persons, personIds);
+	}
+	
+	/**
+	 * @see org.openmrs.module.legacyui.api.db.LegacyUIDAO#getConceptsForListing(java.util.List)
+	 */
+	@Override
+	@SuppressWarnings("unchecked")
+	public List<Concept> getConceptsForListing(List<Integer> conceptIds) {
+		if (conceptIds.isEmpty()) {
+			return new ArrayList<Concept>();
+		}
+		Query query = sessionFactory.getCurrentSession().createQuery(
+		    "select distinct c from Concept c left join fetch c.names left join fetch c.conceptClass"
+		            + " left join fetch c.datatype where c.conceptId in (:ids)");
+		query.setParameterList("ids", conceptIds);
+		List<Concept> concepts = query.list();
+		
+		query = sessionFactory.getCurrentSession().createQuery(
+		    "select distinct c from Concept c left join fetch c.descriptions where c.conceptId in (:ids)");
+		query.setParameterList("ids", conceptIds);
+		query.list();
+		
+		return sortByIds(concepts, conceptIds);
+	}
+	
+	/**
+	 * @param objects the objects to sort
+	 * @param ids the ids in the order to sort the objects in
+	 * @return the objects in the order of the given ids, ids without an object are skipped
+	 */
+	private static <T extends OpenmrsObject> List<T> sortByIds(List<T> objects, List<Integer> ids) {
+		Map<Integer, T> objectsById = new HashMap<Integer, T>();
+		for (T object : objects) {
+			objectsById.put(object.getId(), object);
+		}
+		
+		List<T> sorted = new ArrayList<T>(ids.size());
+		for (Integer id : ids) {
+			T object = objectsById.get(id);
+			if (object != null) {
+				sorted.add(object);
+			}
+		}
+		return sorted;
+	}
+	
+	/**
+	 * @see org.openmrs.module.legacyui.api.db.LegacyUIDAO#getConceptNames(java.lang.Integer, int)
+	 */
+	@Override
+	@SuppressWarnings("unchecked")
+	public List<ConceptName> getConceptNames(Integer afterConceptNameId, int maxResults) {
+		Query query = sessionFactory.getCurrentSession().createQuery(
+		    "from ConceptName cn join fetch cn.concept where cn.voided = false and cn.conceptNameId > :after"
+		            + " order by cn.conceptNameId");
+		query.setParameter("after", afterConceptNameId == null ? 0 : afterConceptNameId);
+		query.setMaxResults(maxResults);
+		return query.list();
+	}
+	
+	/**
+	 * @see org.openmrs.module.legacyui.api.db.LegacyUIDAO#getIdentifiersInUse(org.openmrs.PatientIdentifierType,
+	 *      java.util.Collection)
+	 */
+	@Override
+	@SuppressWarnings("unchecked")
+	public List<String> getIdentifiersInUse(PatientIdentifierType identifierType, Collection<String> identifiers) {
+		if (identifiers.isEmpty()) {
+			return new ArrayList<String>();
+		}
+		Query query = sessionFactory.getCurrentSession().createQuery(
+		    "select distinct pi.identifier from PatientIdentifier pi where pi.identifierType = :identifierType"
+		            + " and pi.identifier in (:identifiers) and pi.voided = false");
+		query.setParameter("identifierType", identifierType);
+		query.setParameterList("identifiers", identifiers);
+		return query.list();
+	}
+}
@@ -9,40 +9,81 @@
  */
 package org.openmrs.module.legacyui.api.impl;
 
+import java.util.ArrayList;
+import java.util.Calendar;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.apache.commons.lang3.StringUtils;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.openmrs.Concept;
+import org.openmrs.ConceptDatatype;
+import org.openmrs.ConceptName;
+import org.openmrs.ConceptNumeric;
+import org.openmrs.Encounter;
+import org.openmrs.GlobalProperty;
 import org.openmrs.Location;
 import org.openmrs.Obs;
 import org.openmrs.Order;
 import org.openmrs.Patient;
+import org.openmrs.PatientIdentifierType;
 import org.openmrs.PatientProgram;
 import org.openmrs.PatientState;
+import org.openmrs.Person;
 import org.openmrs.ProgramWorkflow;
 import org.openmrs.ProgramWorkflowState;
 import org.openmrs.Provider;
 import org.openmrs.User;
 import org.openmrs.api.APIException;
+import org.openmrs.api.GlobalPropertyListener;
 import org.openmrs.api.OrderService;
 import org.openmrs.api.ProviderService;
 import org.openmrs.api.context.Context;
 import org.openmrs.api.impl.BaseOpenmrsService;
+import org.openmrs.module.legacyui.GeneralUtils;
 import org.openmrs.module.legacyui.api.LegacyUIService;
+import org.openmrs.module.legacyui.api.db.LegacyUIDAO;
+import org.openmrs.module.legacyui.stats.ConceptStatsSnapshot;
+import org.openmrs.module.legacyui.stats.NumericObsStatistics;
+import org.openmrs.module.legacyui.stats.NumericObsStatisticsCalculator;
 import org.springframework.transaction.annotation.Transactional;
 
 /**
- * Standard implementation of the LegacyUIService
+ * Standard implementation of the LegacyUIService. It also listens to the weight and height
+ * concept global properties, so that the concepts are only resolved again once they change
  */
 @Transactional
-public class LegacyUIImpl extends BaseOpenmrsService implements LegacyUIService {
+public class LegacyUIImpl extends BaseOpenmrsService implements LegacyUIService, GlobalPropertyListener {
 	
 	private final Log log = LogFactory.getLog(this.getClass());
 	
+	private static final String GP_WEIGHT_CONCEPT = "concept.weight";
+	
+	private static final String GP_HEIGHT_CONCEPT = "concept.height";
+	
+	// obs are stamped a little before they are committed, so changes this close to a snapshot
+	// computation are looked at again
+	private static final long SNAPSHOT_MARGIN_MILLIS = 5 * 60 * 1000;
+	
+	private volatile ConceptIdHolder weightConcept;
+	
+	private volatile ConceptIdHolder heightConcept;
+	
+	private LegacyUIDAO dao;
+	
+	public void setDao(LegacyUIDAO dao) {
+		this.dao = dao;
+	}
+	
 	/**
 	 * Copied from OpenMRS core 1.12.1 and added back #discontinueAllDrugOrders from 1.9.13 See
 	 * https://github.com/openmrs/openmrs-core/blob/1.12.1/api/src/main/java/org/openmrs/api/impl/
@@ -233,6 +274,392 @@ public class LegacyUIImpl extends BaseOpenmrsService implements LegacyUIService
 		return providers.iterator().next();
 	}
 	
+	/**
+	 * @see org.openmrs.module.legacyui.api.LegacyUIService#getLatestObs(org.openmrs.Person,
+	 *      java.util.Collection)
+	 */
+	@Transactional(readOnly = true)
+	public Map<Concept, Obs> getLatestObs(Person person, Collection<Concept> concepts) {
+		Map<Concept, Obs> latestObs = new HashMap<Concept, Obs>();
+		if (person == null || concepts == null) {
+			return latestObs;
+		}
+		List<Person> whom = Collections.singletonList(person);
+		// sorted on obsDatetime descending and limited to a single row
+		List<String> sort = Collections.singletonList("obsDatetime");
+		for (Concept concept : concepts) {
+			if (concept == null || latestObs.containsKey(concept)) {
+				continue;
+			}
+			List<Obs> obs = Context.getObsService().getObservations(whom, null, Collections.singletonList(concept), null,
+			    null, null, sort, 1, null, null, null, false);
+			if (!obs.isEmpty()) {
+				latestObs.put(concept, obs.get(0));
+			}
+		}
+		return latestObs;
+	}
+	
+	/**
+	 * @see org.openmrs.module.legacyui.api.LegacyUIService#getNumericObsStatistics(org.openmrs.Concept,
+	 *      int, int)
+	 */
+	@Transactional(readOnly = true)
+	public NumericObsStatistics getNumericObsStatistics(Concept concept, int maxBins, int maxOutliers) {
+		Object[] summary = dao.getNumericObsSummary(concept);
+		long count = ((Number) summary[0]).longValue();
+		if (count == 0) {
+			return null;
+		}
+		double min = ((Number) summary[1]).doubleValue();
+		double max = ((Number) summary[2]).doubleValue();
+		int bins = (int) Math.max(1, Math.min(maxBins, ((Number) summary[3]).longValue()));
+		
+		Double lowerPercentile = null;
+		Double upperPercentile = null;
+		if (count > NumericObsStatisticsCalculator.PERCENTILE_MIN_COUNT) {
+			Double[] percentiles = dao.getNumericObsValuesAt(concept, NumericObsStatisticsCalculator
+			        .getLowerPercentileRank(count), NumericObsStatisticsCalculator.getUpperPercentileRank(count));
+			lowerPercentile = percentiles[0];
+			upperPercentile = percentiles[1];
+		}
+		
+		NumericObsStatisticsCalculator calculator = new NumericObsStatisticsCalculator(count, min, max, bins,
+		        lowerPercentile, upperPercentile, maxOutliers);
+		dao.scrollNumericObs(concept, calculator);
+		NumericObsStatistics stats = calculator.getStatistics();
+		if (stats != null) {
+			stats.setDailyMeans(getNumericObsDailyMeans(concept));
+		}
+		return stats;
+	}
+	
+	/**
+	 * The means are averaged per day by the database, so that only the result is held in memory
+	 */
+	private SortedMap<Date, Double> getNumericObsDailyMeans(Concept concept) {
+		SortedMap<Date, Double> dailyMeans = new TreeMap<Date, Double>();
+		Calendar calendar = Calendar.getInstance();
+		for (Object[] row : dao.getNumericObsDailyMeans(concept)) {
+			if (row[0] == null) {
+				continue;
+			}
+			calendar.clear();
+			calendar.set(((Number) row[0]).intValue(), ((Number) row[1]).intValue() - 1, ((Number) row[2]).intValue());
+			dailyMeans.put(calendar.getTime(), ((Number) row[3]).doubleValue());
+		}
+		return dailyMeans;
+	}
+	
+	/**
+	 * @see org.openmrs.module.legacyui.api.LegacyUIService#getObsByIds(java.util.List)
+	 */
+	@Transactional(readOnly = true)
+	public List<Obs> getObsByIds(List<Integer> obsIds) {
+		return dao.getObsByIds(obsIds);
+	}
+	
+	/**
+	 * @see org.openmrs.module.legacyui.api.LegacyUIService#getAnswerCounts(org.openmrs.Concept)
+	 */
+	@Transactional(readOnly = true)
+	public Map<Integer, Long> getAnswerCounts(Concept concept) {
+		Map<Integer, Long> counts = new HashMap<Integer, Long>();
+		for (Object[] row : dao.getAnswerCounts(concept)) {
+			Integer answerId = (Integer) row[0];
+			Double valueNumeric = (Double) row[1];
+			if (answerId == null && valueNumeric != null) {
+				// boolean obs used to be stored as 1 or 0
+				Concept answer = valueNumeric == 1 ? Context.getConceptService().getTrueConcept() : Context
+				        .getConceptService().getFalseConcept();
+				answerId = answer == null ? null : answer.getConceptId();
+			}
+			Long count = counts.get(answerId);
+			counts.put(answerId, ((Number) row[2]).longValue() + (count == null ? 0 : count));
+		}
+		return counts;
+	}
+	
+	/**
+	 * @see org.openmrs.module.legacyui.api.LegacyUIService#getConceptStatsSnapshot(org.openmrs.Concept)
+	 */
+	@Transactional(readOnly = true)
+	public ConceptStatsSnapshot getConceptStatsSnapshot(Concept concept) {
+		return dao.getConceptStatsSnapshot(concept);
+	}
+	
+	/**
+	 * @see org.openmrs.module.legacyui.api.LegacyUIService#computeConceptStats(org.openmrs.Concept)
+	 */
+	@Transactional(readOnly = true)
+	public ConceptStatsSnapshot computeConceptStats(Concept concept) {
+		// taken before reading the obs so that obs changed while computing are picked up next time
+		Date dateComputed = new Date();
+		
+		String datatype = concept.getDatatype().getHl7Abbreviation();
+		ConceptStatsSnapshot computed = new ConceptStatsSnapshot(concept);
+		long obsCount = 0;
+		if (ConceptDatatype.NUMERIC.equals(datatype)) {
+			NumericObsStatistics numericStatistics = getNumericObsStatistics(concept,
+			    NumericObsStatisticsCalculator.DEFAULT_MAX_BINS, NumericObsStatisticsCalculator.DEFAULT_MAX_OUTLIERS);
+			if (numericStatistics != null) {
+				obsCount = numericStatistics.getCount();
+			}
+			computed.setNumericStatistics(numericStatistics);
+		} else if (ConceptDatatype.CODED.equals(datatype) || ConceptDatatype.BOOLEAN.equals(datatype)) {
+			Map<Integer, Long> answerCounts = getAnswerCounts(concept);
+			for (Long count : answerCounts.values()) {
+				obsCount += count;
+			}
+			computed.setAnswerCounts(answerCounts);
+		} else {
+			return null;
+		}
+		computed.setObsCount(obsCount);
+		computed.setDateComputed(dateComputed);
+		return computed;
+	}
+	
+	/**
+	 * @see org.openmrs.module.legacyui.api.LegacyUIService#computeConceptStatsSnapshot(org.openmrs.Concept)
+	 */
+	public ConceptStatsSnapshot computeConceptStatsSnapshot(Concept concept) {
+		ConceptStatsSnapshot computed = computeConceptStats(concept);
+		if (computed == null) {
+			return null;
+		}
+		ConceptStatsSnapshot snapshot = dao.getConceptStatsSnapshot(concept);
+		if (snapshot == null) {
+			snapshot = computed;
+		} else {
+			snapshot.setObsCount(computed.getObsCount());
+			snapshot.setDateComputed(computed.getDateComputed());
+			snapshot.setStatistics(computed.getStatistics());
+		}
+		return dao.saveConceptStatsSnapshot(snapshot);
+	}
+	
+	/**
+	 * @see org.openmrs.module.legacyui.api.LegacyUIService#getConceptIdsWithOutdatedStatsSnapshots()
+	 */
+	@Transactional(readOnly = true)
+	public List<Integer> getConceptIdsWithOutdatedStatsSnapshots() {
+		Map<Integer, Date> snapshotDates = dao.getConceptStatsSnapshotDates();
+		Date since = null;
+		for (Date dateComputed : snapshotDates.values()) {
+			if (since == null || dateComputed.before(since)) {
+				since = dateComputed;
+			}
+		}
+		if (since != null) {
+			since = new Date(since.getTime() - SNAPSHOT_MARGIN_MILLIS);
+		}
+		
+		List<Integer> conceptIds = new ArrayList<Integer>();
+		for (Map.Entry<Integer, Date> change : dao.getLastObsChanges(since).entrySet()) {
+			Date dateComputed = snapshotDates.get(change.getKey());
+			if (dateComputed == null || change.getValue().getTime() > dateComputed.getTime() - SNAPSHOT_MARGIN_MILLIS) {
+				conceptIds.add(change.getKey());
+			}
+		}
+		return conceptIds;
+	}
+	
+	/**
+	 * @see org.openmrs.module.legacyui.api.LegacyUIService#getLastObsChange(org.openmrs.Person,
+	 *      java.util.Collection)
+	 */
+	@Transactional(readOnly = true)
+	public Date getLastObsChange(Person person, Collection<Concept> concepts) {
+		if (person == null || concepts == null || concepts.isEmpty()) {
+			return null;
+		}
+		return dao.getLastObsChange(person, concepts);
+	}
+	
+	/**
+	 * @see org.openmrs.module.legacyui.api.LegacyUIService#getConceptsForExport(java.lang.Integer,
+	 *      int)
+	 */
+	@Transactional(readOnly = true)
+	public List<Concept> getConceptsForExport(Integer afterConceptId, int maxResults) {
+		return dao.getConceptsForExport(afterConceptId, maxResults);
+	}
+	
+	/**
+	 * @see org.openmrs.module.legacyui.api.LegacyUIService#getConceptDictionaryVersion()
+	 */
+	@Transactional(readOnly = true)
+	public String getConceptDictionaryVersion() {
+		StringBuilder version = new StringBuilder();
+		for (Object value : dao.getConceptDictionarySummary()) {
+			version.append(value instanceof Date ? ((Date) value).getTime() : value).append('-');
+		}
+		return version.toString();
+	}
+	
+	/**
+	 * @see org.openmrs.module.legacyui.api.LegacyUIService#getObsByValueDatetime(org.openmrs.Concept,
+	 *      org.openmrs.Location, java.util.Date, java.util.Date, int, int)
+	 */
+	@Transactional(readOnly = true)
+	public List<Obs> getObsByValueDatetime(Concept question, Location location, Date after, Date before,
+	        int firstResult, int maxResults) {
+		return dao.getObsByValueDatetime(question, location, after, before, firstResult, maxResults);
+	}
+	
+	/**
+	 * @see org.openmrs.module.legacyui.api.LegacyUIService#getEncounters(org.openmrs.Location,
+	 *      java.util.Date, java.util.Date, int, int)
+	 */
+	@Transactional(readOnly = true)
+	public List<Encounter> getEncounters(Location location, Date fromDate, Date toDate, int firstResult, int maxResults) {
+		return dao.getEncounters(location, fromDate, toDate, firstResult, maxResults);
+	}
+	
+	/**
+	 * @see org.openmrs.module.legacyui.api.LegacyUIService#getVoidedObs(java.util.Date,
+	 *      java.util.Date, int, int)
+	 */
+	@Transactional(readOnly = true)
+	public List<Obs> getVoidedObs(Date fromDate, Date toDate, int firstResult, int maxResults) {
+		return dao.getVoidedObs(fromDate, toDate, firstResult, maxResults);
+	}
+	
+	/**
+	 * @see org.openmrs.module.legacyui.api.LegacyUIService#getObsByPerson(org.openmrs.Person, int,
+	 *      int)
+	 */
+	@Transactional(readOnly = true)
+	public List<Obs> getObsByPerson(Person person, int firstResult, int maxResults) {
+		return dao.getObsByPerson(person, firstResult, maxResults);
+	}
+	
+	/**
+	 * @see org.openmrs.module.legacyui.api.LegacyUIService#getPatientsByIds(java.util.List)
+	 */
+	@Transactional(readOnly = true)
+	public List<Patient> getPatientsByIds(List<Integer> patientIds) {
+		return dao.getPatientsByIds(patientIds);
+	}
+	
+	/**
+	 * @see org.openmrs.module.legacyui.api.LegacyUIService#getPatientIds(java.lang.String, boolean,
+	 *      int)
+	 */
+	@Transactional(readOnly = true)
+	public List<Integer> getPatientIds(String query, boolean includeVoided, int maxResults) {
+		if (StringUtils.isBlank(query) || maxResults < 1) {
+			return new ArrayList<Integer>();
+		}
+		return dao.getPatientIds(query, includeVoided, null, maxResults);
+	}
+	
+	/**
+	 * @see org.openmrs.module.legacyui.api.LegacyUIService#getPatientIds(java.lang.String, boolean,
+	 *      java.util.Collection, int)
+	 */
+	@Transactional(readOnly = true)
+	public List<Integer> getPatientIds(String query, boolean includeVoided, Collection<Integer> amongPatientIds,
+	        int maxResults) {
+		if (StringUtils.isBlank(query) || amongPatientIds.isEmpty() || maxResults < 1) {
+			return new ArrayList<Integer>();
+		}
+		return dao.getPatientIds(query, includeVoided, amongPatientIds, maxResults);
+	}
+	
+	/**
+	 * @see org.openmrs.module.legacyui.api.LegacyUIService#getPatientsForListing(java.util.List)
+	 */
+	@Transactional(readOnly = true)
+	public List<Patient> getPatientsForListing(List<Integer> patientIds) {
+		return dao.getPatientsForListing(patientIds);
+	}
+	
+	/**
+	 * @see org.openmrs.module.legacyui.api.LegacyUIService#getPersonsForListing(java.util.List)
+	 */
+	@Transactional(readOnly = true)
+	public List<Person> getPersonsForListing(List<Integer> personIds) {
+		return dao.getPersonsForListing(personIds);
+	}
+	
+	/**
+	 * @see org.openmrs.module.legacyui.api.LegacyUIService#getConceptsForListing(java.util.List)
+	 */
+	@Transactional(readOnly = true)
+	public List<Concept> getConceptsForListing(List<Integer> conceptIds) {
+		return dao.getConceptsForListing(conceptIds);
+	}
+	
+	/**
+	 * @see org.openmrs.module.legacyui.api.LegacyUIService#getConceptNames(java.lang.Integer, int)
+	 */
+	@Transactional(readOnly = true)
+	public List<ConceptName> getConceptNames(Integer afterConceptNameId, int maxResults) {
+		return dao.getConceptNames(afterConceptNameId, maxResults);
+	}
+	
+	/**
+	 * @see org.openmrs.module.legacyui.api.LegacyUIService#getIdentifiersInUse(org.openmrs.PatientIdentifierType,
+	 *      java.util.Collection)
+	 */
+	@Transactional(readOnly = true)
+	public List<String> getIdentifiersInUse(PatientIdentifierType identifierType, Collection<String> identifiers) {
+		return dao.getIdentifiersInUse(identifierType, identifiers);
+	}
+	
+	/**
+	 * @see org.openmrs.module.legacyui.api.LegacyUIService#getWeightConcept()
+	 */
+	@Transactional(readOnly = true)
+	public ConceptNumeric getWeightConcept() {
+		ConceptIdHolder holder = weightConcept;
+		if (holder == null) {
+			holder = resolveConceptId(GP_WEIGHT_CONCEPT);
+			weightConcept = holder;
+		}
+		return getConceptNumeric(holder);
+	}
+	
+	/**
+	 * @see org.openmrs.module.legacyui.api.LegacyUIService#getHeightConcept()
+	 */
+	@Transactional(readOnly = true)
+	public ConceptNumeric getHeightConcept() {
+		ConceptIdHolder holder = heightConcept;
+		if (holder == null) {
+			holder = resolveConceptId(GP_HEIGHT_CONCEPT);
+			heightConcept = holder;
+		}
+		return getConceptNumeric(holder);
+	}
+	
+	/**
+	 * Resolves the concept the global property points at. Only the id is kept, the concept itself is
+	 * loaded in the session of the caller
+	 */
+	private ConceptIdHolder resolveConceptId(String propertyName) {
+		String value = StringUtils.trimToNull(Context.getAdministrationService().getGlobalProperty(propertyName));
+		Integer conceptId = null;
+		if (value != null) {
+			Concept concept = GeneralUtils.getConcept(value);
+			if (concept == null) {
+				log.warn("No concept found for the " + propertyName + " global property value: " + value);
+			} else {
+				conceptId = concept.getConceptId();
+			}
+		}
+		return new ConceptIdHolder(conceptId);
+	}
+	
+	private ConceptNumeric getConceptNumeric(ConceptIdHolder holder) {
+		if (holder.conceptId == null) {
+			return null;
+		}
+		return Context.getConceptService().getConceptNumeric(holder.conceptId);
+	}
+	
 	/**
 	 * Copied from OpenMRS core 1.9.13 See
 	 * https://github.com/openmrs/openmrs-core/blob/1.9.13/api/src
@@ -286,4 +713,45 @@ public class LegacyUIImpl extends BaseOpenmrsService implements LegacyUIService
 			}
 		}
 	}
+	
+	/**
+	 * @see org.openmrs.api.GlobalPropertyListener#supportsPropertyName(java.lang.String)
+	 */
+	@Override
+	public boolean supportsPropertyName(String propertyName) {
+		return GP_WEIGHT_CONCEPT.equals(propertyName) || GP_HEIGHT_CONCEPT.equals(propertyName);
+	}
+	
+	/**
+	 * @see org.openmrs.api.GlobalPropertyListener#globalPropertyChanged(org.openmrs.GlobalProperty)
+	 */
+	@Override
+	public void globalPropertyChanged(GlobalProperty newValue) {
+		globalPropertyDeleted(newValue.getProperty());
+	}
+	
+	/**
+	 * @see org.openmrs.api.GlobalPropertyListener#globalPropertyDeleted(java.lang.String)
+	 */
+	@Override
+	public void globalPropertyDeleted(String propertyName) {
+		if (GP_WEIGHT_CONCEPT.equals(propertyName)) {
+			weightConcept = null;
+		} else if (GP_HEIGHT_CONCEPT.equals(propertyName)) {
+			heightConcept = null;
+		}
+	}
+	
+	/**
+	 * Holds the id of the concept a global property value resolved to, so that a value pointing at no
+	 * concept is not looked up again on every call either
+	 */
+	private static class ConceptIdHolder {
+		
+		private final Integer conceptId;
+		
+		private ConceptIdHolder(Integer conceptId) {
+			this.conceptId = conceptId;
+		}
+	}
 }
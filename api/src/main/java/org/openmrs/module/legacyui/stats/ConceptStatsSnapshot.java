@@ -0,0 +1,290 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.legacyui.stats;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.node.ArrayNode;
+import org.codehaus.jackson.node.ObjectNode;
+import org.openmrs.BaseOpenmrsObject;
+import org.openmrs.Concept;
+import org.openmrs.api.APIException;
+
+/**
+ * The statistics of the obs of a concept as they were when last computed, kept so that the concept
+ * stats page does not have to go through all the obs of the concept every time it is shown. The
+ * statistics are either {@link NumericObsStatistics} for numeric concepts or the number of obs per
+ * answer concept id for coded and boolean concepts. They are stored as a JSON document so that the
+ * column is readable and portable across databases.
+ */
+public class ConceptStatsSnapshot extends BaseOpenmrsObject implements Serializable {
+	
+	private static final long serialVersionUID = 1L;
+	
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+	
+	private Integer conceptStatsSnapshotId;
+	
+	private Concept concept;
+	
+	private Long obsCount;
+	
+	private Date dateComputed;
+	
+	private String statistics;
+	
+	private transient Object parsedStatistics;
+	
+	public ConceptStatsSnapshot() {
+	}
+	
+	public ConceptStatsSnapshot(Concept concept) {
+		this.concept = concept;
+	}
+	
+	/**
+	 * @see org.openmrs.OpenmrsObject#getId()
+	 */
+	@Override
+	public Integer getId() {
+		return getConceptStatsSnapshotId();
+	}
+	
+	/**
+	 * @see org.openmrs.OpenmrsObject#setId(java.lang.Integer)
+	 */
+	@Override
+	public void setId(Integer id) {
+		setConceptStatsSnapshotId(id);
+	}
+	
+	public Integer getConceptStatsSnapshotId() {
+		return conceptStatsSnapshotId;
+	}
+	
+	public void setConceptStatsSnapshotId(Integer conceptStatsSnapshotId) {
+		this.conceptStatsSnapshotId = conceptStatsSnapshotId;
+	}
+	
+	public Concept getConcept() {
+		return concept;
+	}
+	
+	public void setConcept(Concept concept) {
+		this.concept = concept;
+	}
+	
+	/**
+	 * @return the number of obs the statistics were computed from
+	 */
+	public Long getObsCount() {
+		return obsCount;
+	}
+	
+	public void setObsCount(Long obsCount) {
+		this.obsCount = obsCount;
+	}
+	
+	/**
+	 * @return when the computation started, obs created or voided after this are not accounted for
+	 */
+	public Date getDateComputed() {
+		return dateComputed;
+	}
+	
+	public void setDateComputed(Date dateComputed) {
+		this.dateComputed = dateComputed;
+	}
+	
+	/**
+	 * @return the statistics as a JSON document
+	 */
+	public String getStatistics() {
+		return statistics;
+	}
+	
+	public void setStatistics(String statistics) {
+		this.statistics = statistics;
+		this.parsedStatistics = null;
+	}
+	
+	/**
+	 * @return the statistics of a numeric concept, or null if this is not a numeric concept snapshot
+	 */
+	public NumericObsStatistics getNumericStatistics() {
+		Object parsed = getParsedStatistics();
+		return parsed instanceof NumericObsStatistics ? (NumericObsStatistics) parsed : null;
+	}
+	
+	/**
+	 * @param numericStatistics the statistics of a numeric concept, null if it has no obs
+	 */
+	public void setNumericStatistics(NumericObsStatistics numericStatistics) {
+		ObjectNode root = MAPPER.createObjectNode();
+		if (numericStatistics == null) {
+			root.putNull("numeric");
+		} else {
+			writeNumericStatistics(root.putObject("numeric"), numericStatistics);
+		}
+		setStatistics(root.toString());
+		parsedStatistics = numericStatistics;
+	}
+	
+	/**
+	 * @return the number of obs per answer concept id, the null key counting the obs without a
+	 *         coded answer, or null if this is not a coded or boolean concept snapshot
+	 */
+	@SuppressWarnings("unchecked")
+	public Map<Integer, Long> getAnswerCounts() {
+		Object parsed = getParsedStatistics();
+		return parsed instanceof Map ? (Map<Integer, Long>) parsed : null;
+	}
+	
+	/**
+	 * @param answerCounts the number of obs per answer concept id of a coded or boolean concept
+	 */
+	public void setAnswerCounts(Map<Integer, Long> answerCounts) {
+		ObjectNode root = MAPPER.createObjectNode();
+		// the answer ids are not used as object keys since the obs without answer are counted too
+		ArrayNode counts = root.putArray("answerCounts");
+		for (Map.Entry<Integer, Long> answerCount : answerCounts.entrySet()) {
+			ArrayNode pair = counts.addArray();
+			if (answerCount.getKey() == null) {
+				pair.addNull();
+			} else {
+				pair.add(answerCount.getKey().intValue());
+			}
+			pair.add(answerCount.getValue().longValue());
+		}
+		setStatistics(root.toString());
+		parsedStatistics = new HashMap<Integer, Long>(answerCounts);
+	}
+	
+	private Object getParsedStatistics() {
+		if (parsedStatistics == null && statistics != null) {
+			JsonNode root;
+			try {
+				root = MAPPER.readTree(statistics);
+			}
+			catch (IOException e) {
+				throw new APIException("Unreadable statistics in concept stats snapshot " + getUuid(), e);
+			}
+			if (root.has("answerCounts")) {
+				Map<Integer, Long> answerCounts = new HashMap<Integer, Long>();
+				for (JsonNode pair : root.get("answerCounts")) {
+					answerCounts.put(pair.get(0).isNull() ? null : pair.get(0).getIntValue(), pair.get(1).getLongValue());
+				}
+				parsedStatistics = answerCounts;
+			} else if (root.has("numeric") && !root.get("numeric").isNull()) {
+				parsedStatistics = readNumericStatistics(root.get("numeric"));
+			}
+		}
+		return parsedStatistics;
+	}
+	
+	private static void writeNumericStatistics(ObjectNode node, NumericObsStatistics stats) {
+		node.put("count", stats.getCount());
+		node.put("min", stats.getMin());
+		node.put("max", stats.getMax());
+		node.put("mean", stats.getMean());
+		node.put("standardDeviation", stats.getStandardDeviation());
+		node.put("median", stats.getMedian());
+		putNullable(node, "lowerPercentile", stats.getLowerPercentile());
+		putNullable(node, "upperPercentile", stats.getUpperPercentile());
+		writeHistogram(node, "histogram", stats.getHistogram());
+		writeHistogram(node, "outlierFreeHistogram", stats.getOutlierFreeHistogram());
+		node.put("outlierCount", stats.getOutlierCount());
+		ArrayNode outlierObsIds = node.putArray("outlierObsIds");
+		for (Integer obsId : stats.getOutlierObsIds()) {
+			outlierObsIds.add(obsId);
+		}
+		ArrayNode dailyMeans = node.putArray("dailyMeans");
+		for (Map.Entry<Date, Double> dailyMean : stats.getDailyMeans().entrySet()) {
+			ArrayNode pair = dailyMeans.addArray();
+			pair.add(dailyMean.getKey().getTime());
+			pair.add(dailyMean.getValue().doubleValue());
+		}
+	}
+	
+	private static NumericObsStatistics readNumericStatistics(JsonNode node) {
+		NumericObsStatistics stats = new NumericObsStatistics();
+		stats.setCount(node.get("count").getLongValue());
+		stats.setMin(node.get("min").getDoubleValue());
+		stats.setMax(node.get("max").getDoubleValue());
+		stats.setMean(node.get("mean").getDoubleValue());
+		stats.setStandardDeviation(node.get("standardDeviation").getDoubleValue());
+		stats.setMedian(node.get("median").getDoubleValue());
+		stats.setLowerPercentile(getNullable(node, "lowerPercentile"));
+		stats.setUpperPercentile(getNullable(node, "upperPercentile"));
+		stats.setHistogram(readHistogram(node.get("histogram")));
+		stats.setOutlierFreeHistogram(readHistogram(node.get("outlierFreeHistogram")));
+		stats.setOutlierCount(node.get("outlierCount").getLongValue());
+		List<Integer> outlierObsIds = new ArrayList<Integer>();
+		for (JsonNode obsId : node.get("outlierObsIds")) {
+			outlierObsIds.add(obsId.getIntValue());
+		}
+		stats.setOutlierObsIds(outlierObsIds);
+		SortedMap<Date, Double> dailyMeans = new TreeMap<Date, Double>();
+		for (JsonNode dailyMean : node.get("dailyMeans")) {
+			dailyMeans.put(new Date(dailyMean.get(0).getLongValue()), dailyMean.get(1).getDoubleValue());
+		}
+		stats.setDailyMeans(dailyMeans);
+		return stats;
+	}
+	
+	private static void writeHistogram(ObjectNode parent, String name, NumericObsStatistics.Histogram histogram) {
+		if (histogram == null) {
+			parent.putNull(name);
+			return;
+		}
+		ObjectNode node = parent.putObject(name);
+		node.put("lowerBound", histogram.getLowerBound(0));
+		node.put("binWidth", histogram.getBinWidth());
+		ArrayNode counts = node.putArray("counts");
+		for (int i = 0; i < histogram.getBinCount(); i++) {
+			counts.add(histogram.getCount(i));
+		}
+	}
+	
+	private static NumericObsStatistics.Histogram readHistogram(JsonNode node) {
+		if (node == null || node.isNull()) {
+			return null;
+		}
+		long[] counts = new long[node.get("counts").size()];
+		for (int i = 0; i < counts.length; i++) {
+			counts[i] = node.get("counts").get(i).getLongValue();
+		}
+		return new NumericObsStatistics.Histogram(node.get("lowerBound").getDoubleValue(), node.get("binWidth")
+		        .getDoubleValue(), counts);
+	}
+	
+	private static void putNullable(ObjectNode node, String name, Double value) {
+		if (value == null) {
+			node.putNull(name);
+		} else {
+			node.put(name, value.doubleValue());
+		}
+	}
+	
+	private static Double getNullable(JsonNode node, String name) {
+		JsonNode value = node.get(name);
+		return value == null || value.isNull() ? null : value.getDoubleValue();
+	}
+}
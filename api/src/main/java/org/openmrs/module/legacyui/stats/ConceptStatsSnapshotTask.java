@@ -0,0 +1,75 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.legacyui.stats;
+
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.Concept;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.legacyui.api.LegacyUIService;
+import org.openmrs.scheduler.tasks.AbstractTask;
+
+/**
+ * Keeps the {@link ConceptStatsSnapshot}s up to date, only the concepts that had obs created or
+ * voided since their snapshot was computed are recomputed. The task is registered with the
+ * scheduler but not started when the module starts, it can be started from the scheduler admin page.
+ */
+public class ConceptStatsSnapshotTask extends AbstractTask {
+	
+	public static final String TASK_NAME = "Update Concept Statistics";
+	
+	/**
+	 * The repeat interval the task is registered with, in seconds
+	 */
+	public static final long DEFAULT_REPEAT_INTERVAL = 3600;
+	
+	private static final Log log = LogFactory.getLog(ConceptStatsSnapshotTask.class);
+	
+	// the session is cleared every so many concepts so that it does not grow during long runs
+	private static final int CLEAR_SESSION_INTERVAL = 50;
+	
+	/**
+	 * @see org.openmrs.scheduler.tasks.AbstractTask#execute()
+	 */
+	@Override
+	public void execute() {
+		if (isExecuting()) {
+			log.debug("The concept statistics are already being updated");
+			return;
+		}
+		startExecuting();
+		try {
+			LegacyUIService service = Context.getService(LegacyUIService.class);
+			List<Integer> conceptIds = service.getConceptIdsWithOutdatedStatsSnapshots();
+			int updated = 0;
+			for (int i = 0; i < conceptIds.size() && getTaskDefinition() != null; i++) {
+				Concept concept = Context.getConceptService().getConcept(conceptIds.get(i));
+				try {
+					if (concept != null && service.computeConceptStatsSnapshot(concept) != null) {
+						updated++;
+					}
+				}
+				catch (Exception e) {
+					log.error("Unable to compute the statistics of concept " + conceptIds.get(i), e);
+				}
+				if ((i + 1) % CLEAR_SESSION_INTERVAL == 0) {
+					Context.flushSession();
+					Context.clearSession();
+				}
+			}
+			log.info("Updated the statistics of " + updated + " concepts");
+		}
+		finally {
+			stopExecuting();
+		}
+	}
+}
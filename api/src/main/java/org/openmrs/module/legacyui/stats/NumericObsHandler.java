@@ -0,0 +1,26 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.legacyui.stats;
+
+import java.util.Date;
+
+/**
+ * Receives the numeric obs of a concept one at a time, so that statistics can be computed without
+ * holding all the obs in memory
+ */
+public interface NumericObsHandler {
+	
+	/**
+	 * @param obsId the id of the obs
+	 * @param obsDatetime the date of the obs
+	 * @param value the numeric value of the obs
+	 */
+	public void handle(Integer obsId, Date obsDatetime, double value);
+}
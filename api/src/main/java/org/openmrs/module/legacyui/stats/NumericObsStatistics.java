@@ -0,0 +1,250 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.legacyui.stats;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Summary statistics of the numeric obs of a concept, as computed by
+ * {@link NumericObsStatisticsCalculator}. Only aggregates and a bounded number of outlier obs ids
+ * are kept so that instances stay small whatever the number of obs.
+ */
+public class NumericObsStatistics implements Serializable {
+	
+	private static final long serialVersionUID = 1L;
+	
+	private long count;
+	
+	private double min;
+	
+	private double max;
+	
+	private double mean;
+	
+	private double standardDeviation;
+	
+	private double median;
+	
+	private Double lowerPercentile;
+	
+	private Double upperPercentile;
+	
+	private Histogram histogram;
+	
+	private Histogram outlierFreeHistogram;
+	
+	private long outlierCount;
+	
+	private List<Integer> outlierObsIds = Collections.emptyList();
+	
+	private SortedMap<Date, Double> dailyMeans = new TreeMap<Date, Double>();
+	
+	/**
+	 * @return the number of obs
+	 */
+	public long getCount() {
+		return count;
+	}
+	
+	public void setCount(long count) {
+		this.count = count;
+	}
+	
+	public double getMin() {
+		return min;
+	}
+	
+	public void setMin(double min) {
+		this.min = min;
+	}
+	
+	public double getMax() {
+		return max;
+	}
+	
+	public void setMax(double max) {
+		this.max = max;
+	}
+	
+	public double getMean() {
+		return mean;
+	}
+	
+	public void setMean(double mean) {
+		this.mean = mean;
+	}
+	
+	/**
+	 * @return the population standard deviation of the values
+	 */
+	public double getStandardDeviation() {
+		return standardDeviation;
+	}
+	
+	public void setStandardDeviation(double standardDeviation) {
+		this.standardDeviation = standardDeviation;
+	}
+	
+	public double getMedian() {
+		return median;
+	}
+	
+	public void setMedian(double median) {
+		this.median = median;
+	}
+	
+	/**
+	 * @return the value under which 2% of the values fall, or null if there are too few values
+	 */
+	public Double getLowerPercentile() {
+		return lowerPercentile;
+	}
+	
+	public void setLowerPercentile(Double lowerPercentile) {
+		this.lowerPercentile = lowerPercentile;
+	}
+	
+	/**
+	 * @return the value under which 98% of the values fall, or null if there are too few values
+	 */
+	public Double getUpperPercentile() {
+		return upperPercentile;
+	}
+	
+	public void setUpperPercentile(Double upperPercentile) {
+		this.upperPercentile = upperPercentile;
+	}
+	
+	public Histogram getHistogram() {
+		return histogram;
+	}
+	
+	public void setHistogram(Histogram histogram) {
+		this.histogram = histogram;
+	}
+	
+	/**
+	 * @return the histogram of the values that are not outliers, or null if outliers were not
+	 *         looked for
+	 */
+	public Histogram getOutlierFreeHistogram() {
+		return outlierFreeHistogram;
+	}
+	
+	public void setOutlierFreeHistogram(Histogram outlierFreeHistogram) {
+		this.outlierFreeHistogram = outlierFreeHistogram;
+	}
+	
+	/**
+	 * @return the total number of outliers, which can be more than the number of outlier obs ids
+	 */
+	public long getOutlierCount() {
+		return outlierCount;
+	}
+	
+	public void setOutlierCount(long outlierCount) {
+		this.outlierCount = outlierCount;
+	}
+	
+	/**
+	 * @return the ids of the outlier obs, ordered by value
+	 */
+	public List<Integer> getOutlierObsIds() {
+		return outlierObsIds;
+	}
+	
+	public void setOutlierObsIds(List<Integer> outlierObsIds) {
+		this.outlierObsIds = outlierObsIds;
+	}
+	
+	/**
+	 * @return the mean value of each day that has obs, keyed by the start of the day
+	 */
+	public SortedMap<Date, Double> getDailyMeans() {
+		return dailyMeans;
+	}
+	
+	public void setDailyMeans(SortedMap<Date, Double> dailyMeans) {
+		this.dailyMeans = dailyMeans;
+	}
+	
+	/**
+	 * Fixed width bins counting the values between a lower and an upper bound
+	 */
+	public static class Histogram implements Serializable {
+		
+		private static final long serialVersionUID = 1L;
+		
+		private final double lowerBound;
+		
+		private final double binWidth;
+		
+		private final long[] counts;
+		
+		public Histogram(double lowerBound, double upperBound, int bins) {
+			if (bins < 1) {
+				throw new IllegalArgumentException("A histogram needs at least one bin");
+			}
+			if (upperBound <= lowerBound) {
+				// all the values are the same, give the single bin some width
+				lowerBound -= 0.5;
+				upperBound += 0.5;
+				bins = 1;
+			}
+			this.lowerBound = lowerBound;
+			this.binWidth = (upperBound - lowerBound) / bins;
+			this.counts = new long[bins];
+		}
+		
+		/**
+		 * Restores a histogram from its stored bins
+		 */
+		Histogram(double lowerBound, double binWidth, long[] counts) {
+			this.lowerBound = lowerBound;
+			this.binWidth = binWidth;
+			this.counts = counts;
+		}
+		
+		/**
+		 * Counts the value in its bin, values out of bounds are counted in the first or last bin
+		 * 
+		 * @param value the value to count
+		 */
+		public void add(double value) {
+			int bin = (int) ((value - lowerBound) / binWidth);
+			counts[Math.max(0, Math.min(counts.length - 1, bin))]++;
+		}
+		
+		public int getBinCount() {
+			return counts.length;
+		}
+		
+		public double getLowerBound(int bin) {
+			return lowerBound + bin * binWidth;
+		}
+		
+		public double getUpperBound(int bin) {
+			return bin == counts.length - 1 ? lowerBound + counts.length * binWidth : getLowerBound(bin + 1);
+		}
+		
+		public long getCount(int bin) {
+			return counts[bin];
+		}
+		
+		double getBinWidth() {
+			return binWidth;
+		}
+	}
+}
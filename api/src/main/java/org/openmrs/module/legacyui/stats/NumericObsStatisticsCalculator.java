@@ -0,0 +1,184 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.legacyui.stats;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Computes {@link NumericObsStatistics} in a single pass over the numeric obs of a concept, using
+ * memory that does not depend on the number of obs. The values must be handed in ascending order,
+ * which lets the median be picked at its rank instead of keeping the values around, and the count,
+ * bounds and percentiles must be known up front, the database gets them cheaply with an aggregate
+ * query and a single ordered pass that stops at the upper percentile. The daily means are left to
+ * the database as well, they would take memory growing with the date range here.
+ */
+public class NumericObsStatisticsCalculator implements NumericObsHandler {
+	
+	/**
+	 * Outliers are only looked for when there are more values than this
+	 */
+	public static final int PERCENTILE_MIN_COUNT = 25;
+	
+	/**
+	 * The number of histogram bins used for snapshots, the charts are 800 pixels wide so more bins
+	 * would not be readable
+	 */
+	public static final int DEFAULT_MAX_BINS = 100;
+	
+	/**
+	 * The number of outlier obs ids kept in snapshots
+	 */
+	public static final int DEFAULT_MAX_OUTLIERS = 500;
+	
+	private static final double PERCENTILE = 0.98;
+	
+	// outliers are further than this many times the inter percentile range from the percentiles
+	private static final double OUTLIER_RANGE_FACTOR = 1.5;
+	
+	private final long expectedCount;
+	
+	private final Double lowerPercentile;
+	
+	private final Double upperPercentile;
+	
+	private final double lowerLimit;
+	
+	private final double upperLimit;
+	
+	private final int maxOutliers;
+	
+	private final NumericObsStatistics.Histogram histogram;
+	
+	private final NumericObsStatistics.Histogram outlierFreeHistogram;
+	
+	private final List<Integer> outlierObsIds = new ArrayList<Integer>();
+	
+	private long count;
+	
+	private double min = Double.NaN;
+	
+	private double max = Double.NaN;
+	
+	private double mean;
+	
+	// sum of the squared differences from the mean, see Welford's algorithm
+	private double m2;
+	
+	private double median = Double.NaN;
+	
+	private long outlierCount;
+	
+	/**
+	 * @param count the number of values that are going to be handed in
+	 * @param min the smallest value
+	 * @param max the largest value
+	 * @param bins the number of histogram bins
+	 * @param lowerPercentile the value at {@link #getLowerPercentileRank(long)}, or null to not look
+	 *            for outliers
+	 * @param upperPercentile the value at {@link #getUpperPercentileRank(long)}, or null to not look
+	 *            for outliers
+	 * @param maxOutliers the maximum number of outlier obs ids to keep
+	 */
+	public NumericObsStatisticsCalculator(long count, double min, double max, int bins, Double lowerPercentile,
+	    Double upperPercentile, int maxOutliers) {
+		this.expectedCount = count;
+		this.maxOutliers = maxOutliers;
+		this.histogram = new NumericObsStatistics.Histogram(min, max, bins);
+		if (lowerPercentile != null && upperPercentile != null) {
+			this.lowerPercentile = lowerPercentile;
+			this.upperPercentile = upperPercentile;
+			double limit = (upperPercentile - lowerPercentile) * OUTLIER_RANGE_FACTOR;
+			this.lowerLimit = lowerPercentile - limit;
+			this.upperLimit = upperPercentile + limit;
+			this.outlierFreeHistogram = new NumericObsStatistics.Histogram(Math.max(min, lowerLimit), Math.min(max,
+			    upperLimit), bins);
+		} else {
+			this.lowerPercentile = null;
+			this.upperPercentile = null;
+			this.lowerLimit = Double.NEGATIVE_INFINITY;
+			this.upperLimit = Double.POSITIVE_INFINITY;
+			this.outlierFreeHistogram = null;
+		}
+	}
+	
+	/**
+	 * @param count the number of values
+	 * @return the rank of the value under which 98% of the values fall
+	 */
+	public static int getUpperPercentileRank(long count) {
+		return (int) (PERCENTILE * count);
+	}
+	
+	/**
+	 * @param count the number of values
+	 * @return the rank of the value under which 2% of the values fall
+	 */
+	public static int getLowerPercentileRank(long count) {
+		return (int) (count - getUpperPercentileRank(count));
+	}
+	
+	/**
+	 * @see org.openmrs.module.legacyui.stats.NumericObsHandler#handle(java.lang.Integer,
+	 *      java.util.Date, double)
+	 * @should compute the moments and the median
+	 * @should count the outliers and keep at most the maximum number of their ids
+	 */
+	@Override
+	public void handle(Integer obsId, Date obsDatetime, double value) {
+		if (count == 0) {
+			min = value;
+		}
+		if (count == expectedCount / 2) {
+			median = value;
+		}
+		max = value;
+		
+		count++;
+		double delta = value - mean;
+		mean += delta / count;
+		m2 += delta * (value - mean);
+		
+		histogram.add(value);
+		if (value < lowerLimit || value > upperLimit) {
+			outlierCount++;
+			if (outlierObsIds.size() < maxOutliers) {
+				outlierObsIds.add(obsId);
+			}
+		} else if (outlierFreeHistogram != null) {
+			outlierFreeHistogram.add(value);
+		}
+	}
+	
+	/**
+	 * @return the statistics of the values handed in so far, or null if there were none
+	 */
+	public NumericObsStatistics getStatistics() {
+		if (count == 0) {
+			return null;
+		}
+		NumericObsStatistics stats = new NumericObsStatistics();
+		stats.setCount(count);
+		stats.setMin(min);
+		stats.setMax(max);
+		stats.setMean(mean);
+		stats.setStandardDeviation(Math.sqrt(m2 / count));
+		// fewer values than expected came in, the median rank was never reached
+		stats.setMedian(Double.isNaN(median) ? max : median);
+		stats.setLowerPercentile(lowerPercentile);
+		stats.setUpperPercentile(upperPercentile);
+		stats.setHistogram(histogram);
+		stats.setOutlierFreeHistogram(outlierFreeHistogram);
+		stats.setOutlierCount(outlierCount);
+		stats.setOutlierObsIds(new ArrayList<Integer>(outlierObsIds));
+		return stats;
+	}
+}
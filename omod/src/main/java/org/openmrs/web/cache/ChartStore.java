@@ -0,0 +1,132 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.web.cache;
+
+import java.io.IOException;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.jfree.chart.JFreeChart;
+import org.openmrs.web.graph.ChartEncoder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * Holds charts between the page that shows them and the request for the image, see DisplayChartTag
+ * and DisplayChartServlet. Charts are encoded as soon as they are put so that the chart and its
+ * dataset can be garbage collected right away, and the encoded images are handed out only once, to
+ * the session that put them. The store is bounded both in number of images and in time so images
+ * that are never requested do not pile up.
+ */
+@Component("chartStore")
+public class ChartStore {
+	
+	public static final String PNG_MIME_TYPE = "image/png";
+	
+	public static final String JPG_MIME_TYPE = "image/jpeg";
+	
+	private static final int DEFAULT_MAX_ENTRIES = 200;
+	
+	private static final long DEFAULT_TTL_MILLIS = TimeUnit.MINUTES.toMillis(5);
+	
+	private final ExpiringCache<String, RenderedChart> charts;
+	
+	private ChartEncoder chartEncoder = new ChartEncoder(ChartEncoder.DEFAULT_PNG_COMPRESSION_LEVEL, false);
+	
+	public ChartStore() {
+		this(DEFAULT_MAX_ENTRIES, DEFAULT_TTL_MILLIS);
+	}
+	
+	/**
+	 * @param maxEntries the maximum number of images to hold
+	 * @param ttlMillis how long an image is held if it is not requested, in milliseconds
+	 */
+	public ChartStore(int maxEntries, long ttlMillis) {
+		charts = new ExpiringCache<String, RenderedChart>(maxEntries, ttlMillis);
+	}
+	
+	/**
+	 * Encodes the chart and keeps the image until it is taken
+	 * 
+	 * @param chart the chart to encode
+	 * @param width the width of the image
+	 * @param height the height of the image
+	 * @param mimeType {@link #PNG_MIME_TYPE} or {@link #JPG_MIME_TYPE}
+	 * @param sessionId the id of the session allowed to take the image
+	 * @return the key to take the image with
+	 * @throws IOException if the chart cannot be encoded
+	 */
+	public String put(JFreeChart chart, int width, int height, String mimeType, String sessionId) throws IOException {
+		mimeType = JPG_MIME_TYPE.equalsIgnoreCase(mimeType) ? JPG_MIME_TYPE : PNG_MIME_TYPE;
+		byte[] image = chartEncoder.encode(chart, width, height, mimeType);
+		String key = UUID.randomUUID().toString();
+		charts.put(key, new RenderedChart(image, mimeType, sessionId));
+		return key;
+	}
+	
+	/**
+	 * Removes the image from the store and returns it
+	 * 
+	 * @param key the key returned by {@link #put(JFreeChart, int, int, String, String)}
+	 * @param sessionId the id of the session asking for the image
+	 * @return the image, or null if there is none for the key, it expired, it was already taken or
+	 *         it belongs to another session
+	 * @should hand out an image only once
+	 * @should not hand out an image to another session
+	 */
+	public RenderedChart take(String key, String sessionId) {
+		if (key == null) {
+			return null;
+		}
+		synchronized (charts) {
+			RenderedChart chart = charts.get(key);
+			if (chart == null || !chart.sessionId.equals(sessionId)) {
+				return null;
+			}
+			charts.remove(key);
+			return chart;
+		}
+	}
+	
+	@Autowired
+	public void setChartEncoder(ChartEncoder chartEncoder) {
+		this.chartEncoder = chartEncoder;
+	}
+	
+	public int size() {
+		return charts.size();
+	}
+	
+	/**
+	 * An encoded chart image
+	 */
+	public static class RenderedChart {
+		
+		private final byte[] image;
+		
+		private final String mimeType;
+		
+		private final String sessionId;
+		
+		private RenderedChart(byte[] image, String mimeType, String sessionId) {
+			this.image = image;
+			this.mimeType = mimeType;
+			this.sessionId = sessionId;
+		}
+		
+		public byte[] getImage() {
+			return image;
+		}
+		
+		public String getMimeType() {
+			return mimeType;
+		}
+	}
+}
@@ -0,0 +1,131 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.web.cache;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A small thread safe cache that holds at most a fixed number of entries, evicting the least
+ * recently used one when full, and drops entries once they are older than the given time to live.
+ * Hits and misses are counted so that callers can report how effective the cache is.
+ * 
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+public class ExpiringCache<K, V> {
+	
+	private final long ttlMillis;
+	
+	private final Map<K, Entry<V>> entries;
+	
+	private final AtomicLong hits = new AtomicLong();
+	
+	private final AtomicLong misses = new AtomicLong();
+	
+	/**
+	 * @param maxEntries the maximum number of entries to hold
+	 * @param ttlMillis how long an entry stays valid after it was put, in milliseconds
+	 */
+	public ExpiringCache(final int maxEntries, long ttlMillis) {
+		this.ttlMillis = ttlMillis;
+		this.entries = new LinkedHashMap<K, Entry<V>>(16, 0.75f, true) {
+			
+			private static final long serialVersionUID = 1L;
+			
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+				return size() > maxEntries;
+			}
+		};
+	}
+	
+	/**
+	 * @param key the key to look up
+	 * @return the cached value or null if there is none or it has expired
+	 * @should return null for expired entries
+	 * @should count hits and misses
+	 */
+	public V get(K key) {
+		synchronized (entries) {
+			Entry<V> entry = entries.get(key);
+			if (entry != null && entry.expiresAt <= currentTimeMillis()) {
+				entries.remove(key);
+				entry = null;
+			}
+			if (entry == null) {
+				misses.incrementAndGet();
+				return null;
+			}
+			hits.incrementAndGet();
+			return entry.value;
+		}
+	}
+	
+	/**
+	 * @param key the key to cache the value under
+	 * @param value the value to cache, null values are ignored
+	 * @should evict the least recently used entry when full
+	 */
+	public void put(K key, V value) {
+		if (value == null) {
+			return;
+		}
+		synchronized (entries) {
+			entries.put(key, new Entry<V>(value, currentTimeMillis() + ttlMillis));
+		}
+	}
+	
+	public void remove(K key) {
+		synchronized (entries) {
+			entries.remove(key);
+		}
+	}
+	
+	public void clear() {
+		synchronized (entries) {
+			entries.clear();
+		}
+	}
+	
+	public int size() {
+		synchronized (entries) {
+			return entries.size();
+		}
+	}
+	
+	public long getHitCount() {
+		return hits.get();
+	}
+	
+	public long getMissCount() {
+		return misses.get();
+	}
+	
+	/**
+	 * Hook for tests to control the clock
+	 */
+	protected long currentTimeMillis() {
+		return System.currentTimeMillis();
+	}
+	
+	private static class Entry<V> {
+		
+		private final V value;
+		
+		private final long expiresAt;
+		
+		private Entry(V value, long expiresAt) {
+			this.value = value;
+			this.expiresAt = expiresAt;
+		}
+	}
+}
@@ -0,0 +1,146 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.web.cache;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.Obs;
+import org.openmrs.util.OpenmrsUtil;
+import org.springframework.stereotype.Component;
+
+/**
+ * Keeps thumbnails of image complex obs on disk, in the application data directory. A thumbnail is
+ * generated the first time it is requested and regenerated only if the image file is replaced. The
+ * image is read with subsampling so that generating a thumbnail of a large scan does not decode the
+ * full bitmap.
+ */
+@Component("thumbnailCache")
+public class ThumbnailCache {
+	
+	private static final Log log = LogFactory.getLog(ThumbnailCache.class);
+	
+	public static final int DEFAULT_SIZE = 200;
+	
+	private static final String THUMBNAIL_DIRECTORY = "legacyui" + File.separator + "thumbnails";
+	
+	/**
+	 * Gets the thumbnail of the given image, generating it if needed
+	 * 
+	 * @param obs the complex obs the image belongs to
+	 * @param image the file holding the image
+	 * @param size the maximum width and height of the thumbnail
+	 * @return the thumbnail file, or null if the image can't be read
+	 * @throws IOException if the thumbnail can't be written
+	 * @should generate a thumbnail no larger than the given size
+	 * @should reuse the thumbnail until the image changes
+	 */
+	public File getThumbnail(Obs obs, File image, int size) throws IOException {
+		File directory = OpenmrsUtil.getDirectoryInApplicationDataDirectory(THUMBNAIL_DIRECTORY);
+		File thumbnail = new File(directory, obs.getUuid() + "-" + size + ".png");
+		if (thumbnail.isFile() && thumbnail.lastModified() >= image.lastModified()) {
+			return thumbnail;
+		}
+		
+		BufferedImage scaled = readScaled(image, size);
+		if (scaled == null) {
+			return null;
+		}
+		// concurrent requests may both generate it, the move makes sure nobody reads a partial file
+		File tmp = File.createTempFile(obs.getUuid(), ".tmp", directory);
+		try {
+			ImageIO.write(scaled, "png", tmp);
+			Files.move(tmp.toPath(), thumbnail.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+		finally {
+			tmp.delete();
+		}
+		return thumbnail;
+	}
+	
+	/**
+	 * Deletes the thumbnails of the given obs, of every size
+	 * 
+	 * @param obs the complex obs whose thumbnails are dropped
+	 * @should delete the thumbnails of the obs
+	 * @should leave the thumbnails of other obs alone
+	 */
+	public void evict(Obs obs) {
+		File directory = OpenmrsUtil.getDirectoryInApplicationDataDirectory(THUMBNAIL_DIRECTORY);
+		final String prefix = obs.getUuid() + "-";
+		File[] thumbnails = directory.listFiles(new FilenameFilter() {
+			
+			@Override
+			public boolean accept(File dir, String name) {
+				return name.startsWith(prefix) && name.endsWith(".png");
+			}
+		});
+		if (thumbnails != null) {
+			for (File thumbnail : thumbnails) {
+				if (!thumbnail.delete() && thumbnail.exists()) {
+					log.warn("Unable to delete the thumbnail " + thumbnail.getAbsolutePath());
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Reads the image subsampled to about twice the requested size, then scales it down smoothly
+	 */
+	private BufferedImage readScaled(File image, int size) throws IOException {
+		try (ImageInputStream in = ImageIO.createImageInputStream(image)) {
+			Iterator<ImageReader> readers = in == null ? null : ImageIO.getImageReaders(in);
+			if (readers == null || !readers.hasNext()) {
+				return null;
+			}
+			ImageReader reader = readers.next();
+			try {
+				reader.setInput(in, true, true);
+				int width = reader.getWidth(0);
+				int height = reader.getHeight(0);
+				ImageReadParam param = reader.getDefaultReadParam();
+				int subsampling = Math.max(1, Math.max(width, height) / (size * 2));
+				param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+				BufferedImage source = reader.read(0, param);
+				
+				double scale = Math.min(1d, (double) size / Math.max(source.getWidth(), source.getHeight()));
+				int thumbnailWidth = Math.max(1, (int) Math.round(source.getWidth() * scale));
+				int thumbnailHeight = Math.max(1, (int) Math.round(source.getHeight() * scale));
+				BufferedImage thumbnail = new BufferedImage(thumbnailWidth, thumbnailHeight, BufferedImage.TYPE_INT_ARGB);
+				Graphics2D g = thumbnail.createGraphics();
+				try {
+					g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+					g.drawImage(source, 0, 0, thumbnailWidth, thumbnailHeight, null);
+				}
+				finally {
+					g.dispose();
+				}
+				return thumbnail;
+			}
+			finally {
+				reader.dispose();
+			}
+		}
+	}
+}
@@ -0,0 +1,49 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.web.cache;
+
+import java.lang.reflect.Method;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.Obs;
+import org.openmrs.api.context.Context;
+import org.springframework.aop.AfterReturningAdvice;
+
+/**
+ * Drops the thumbnails kept by the {@link ThumbnailCache} whenever an obs is voided or purged
+ * through the {@link org.openmrs.api.ObsService}, so that they don't outlive the image they were
+ * made of
+ */
+public class ThumbnailCacheAdvice implements AfterReturningAdvice {
+	
+	private static final Log log = LogFactory.getLog(ThumbnailCacheAdvice.class);
+	
+	/**
+	 * @see org.springframework.aop.AfterReturningAdvice#afterReturning(java.lang.Object,
+	 *      java.lang.reflect.Method, java.lang.Object[], java.lang.Object)
+	 * @should evict the thumbnails of a voided obs
+	 * @should keep the thumbnails after an obs is fetched
+	 */
+	@Override
+	public void afterReturning(Object returnValue, Method method, Object[] args, Object target) throws Throwable {
+		String name = method.getName();
+		if ((name.equals("voidObs") || name.equals("purgeObs")) && args != null && args.length > 0
+		        && args[0] instanceof Obs) {
+			Obs obs = (Obs) args[0];
+			if (obs.getValueComplex() != null) {
+				if (log.isDebugEnabled()) {
+					log.debug("Evicting the thumbnails of obs " + obs.getUuid() + " after " + name);
+				}
+				Context.getRegisteredComponent("thumbnailCache", ThumbnailCache.class).evict(obs);
+			}
+		}
+	}
+}
@@ -0,0 +1,100 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.web.clientregistry;
+
+/**
+ * Minimal circuit breaker guarding calls to a remote service. After <code>failureThreshold</code>
+ * consecutive failures the circuit opens and calls are refused without touching the remote service.
+ * Once <code>openMillis</code> have elapsed a single trial call is let through, its outcome decides
+ * whether the circuit closes again or stays open for another period.
+ */
+public class CircuitBreaker {
+
+	public enum State {
+		CLOSED, OPEN, HALF_OPEN
+	}
+
+	private final int failureThreshold;
+
+	private final long openMillis;
+
+	private State state = State.CLOSED;
+
+	private int consecutiveFailures;
+
+	private long openedAt;
+
+	private boolean trialInFlight;
+
+	/**
+	 * @param failureThreshold the number of consecutive failures that opens the circuit
+	 * @param openMillis how long the circuit stays open before a trial call is allowed
+	 */
+	public CircuitBreaker(int failureThreshold, long openMillis) {
+		if (failureThreshold < 1) {
+			throw new IllegalArgumentException("failureThreshold must be at least 1");
+		}
+		this.failureThreshold = failureThreshold;
+		this.openMillis = openMillis;
+	}
+
+	/**
+	 * @return true if the caller may go ahead with the remote call, in which case it must report
+	 *         the outcome with {@link #recordSuccess()} or {@link #recordFailure()}
+	 * @should allow requests while closed
+	 * @should refuse requests while open
+	 * @should allow a single trial request once the open period has elapsed
+	 */
+	public synchronized boolean allowRequest() {
+		if (state == State.OPEN) {
+			if (currentTimeMillis() - openedAt < openMillis) {
+				return false;
+			}
+			state = State.HALF_OPEN;
+		}
+		if (state == State.HALF_OPEN) {
+			if (trialInFlight) {
+				return false;
+			}
+			trialInFlight = true;
+		}
+		return true;
+	}
+
+	/**
+	 * Reports a successful call, closing the circuit
+	 */
+	public synchronized void recordSuccess() {
+		consecutiveFailures = 0;
+		trialInFlight = false;
+		state = State.CLOSED;
+	}
+
+	/**
+	 * Reports a failed call, opening the circuit if the threshold is reached or if the failed call
+	 * was the trial call
+	 */
+	public synchronized void recordFailure() {
+		consecutiveFailures++;
+		if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+			state = State.OPEN;
+			openedAt = currentTimeMillis();
+		}
+		trialInFlight = false;
+	}
+
+	public synchronized State getState() {
+		return state;
+	}
+
+	protected long currentTimeMillis() {
+		return System.currentTimeMillis();
+	}
+}
@@ -0,0 +1,35 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.web.clientregistry;
+
+import java.io.IOException;
+
+/**
+ * Thrown when the client registry answered a request with a non successful HTTP status, as opposed
+ * to a plain {@link IOException} which means the registry could not be reached at all.
+ */
+public class ClientRegistryException extends IOException {
+
+	private static final long serialVersionUID = 1L;
+
+	private final int statusCode;
+
+	public ClientRegistryException(int statusCode, String message) {
+		super(statusCode + " - " + message);
+		this.statusCode = statusCode;
+	}
+
+	/**
+	 * @return the HTTP status code returned by the client registry
+	 */
+	public int getStatusCode() {
+		return statusCode;
+	}
+}
@@ -0,0 +1,236 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.web.clientregistry;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PreDestroy;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.openmrs.GlobalProperty;
+import org.openmrs.api.AdministrationService;
+import org.openmrs.api.GlobalPropertyListener;
+import org.openmrs.api.context.Context;
+import org.springframework.stereotype.Component;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.parser.IParser;
+import okhttp3.Call;
+import okhttp3.ConnectionPool;
+import okhttp3.Credentials;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+
+/**
+ * Module wide entry point for calls to the OpenCR client registry. It owns a single pooled,
+ * keep-alive HTTP client and a single FHIR context so that callers no longer pay for a new
+ * connection pool, TLS handshake and HAPI model scan on every request. The connection settings are
+ * read lazily from the global properties and discarded whenever one of the <code>opencr*</code> or
+ * <code>clientregistry.*</code> properties changes.
+ */
+@Component("clientRegistryGateway")
+public class ClientRegistryGateway implements GlobalPropertyListener {
+
+	private static final Log log = LogFactory.getLog(ClientRegistryGateway.class);
+
+	public static final String GP_MATCHES_URL = "opencrMatchesUrl";
+
+	public static final String GP_CLIENT_TIMEOUT = "opencr.opencrClientTimeOut";
+
+	public static final String GP_USERNAME = "clientregistry.username";
+
+	public static final String GP_PASSWORD = "clientregistry.password";
+
+	public static final String DEFAULT_MATCHES_URL = "https://localhost:5001/CR/fhir/matches";
+
+	public static final int DEFAULT_CLIENT_TIMEOUT = 30;
+
+	private static final MediaType JSON = MediaType.parse("application/json");
+
+	// the pool outlives configuration changes, idle connections are reused by the rebuilt client
+	private final ConnectionPool connectionPool = new ConnectionPool(5, 5, TimeUnit.MINUTES);
+
+	private volatile FhirContext fhirContext;
+
+	private volatile Settings settings;
+
+	/**
+	 * @return the shared R4 FHIR context, created on first use
+	 */
+	public FhirContext getFhirContext() {
+		if (fhirContext == null) {
+			synchronized (this) {
+				if (fhirContext == null) {
+					fhirContext = FhirContext.forR4();
+				}
+			}
+		}
+		return fhirContext;
+	}
+
+	/**
+	 * Serializes the given resource to JSON, parsers are cheap once the context is initialized but
+	 * are not thread safe so a new one is used per call
+	 *
+	 * @param resource the resource to serialize
+	 * @return the JSON representation of the resource
+	 */
+	public String encodeResourceToString(IBaseResource resource) {
+		IParser jsonParser = getFhirContext().newJsonParser();
+		return jsonParser.encodeResourceToString(resource);
+	}
+
+	/**
+	 * Posts the given patient to the OpenCR matches endpoint
+	 *
+	 * @param patient the patient to look up potential matches for
+	 * @return the response body returned by the client registry
+	 * @throws ClientRegistryException if the client registry returned an unsuccessful response
+	 * @throws IOException if the client registry could not be reached
+	 */
+	public String findMatches(org.hl7.fhir.r4.model.Patient patient) throws IOException {
+		return execute(newMatchCall(encodeResourceToString(patient)));
+	}
+
+	/**
+	 * Prepares, without executing it, a call to the OpenCR matches endpoint. The global properties
+	 * are resolved on the calling thread so the returned call can safely be executed from a thread
+	 * that has no OpenMRS session.
+	 *
+	 * @param jsonPayload the FHIR patient serialized as JSON
+	 * @return the call to execute
+	 */
+	public Call newMatchCall(String jsonPayload) {
+		Settings current = getSettings();
+		if (log.isDebugEnabled()) {
+			log.debug("OpenCR match payload:\n" + jsonPayload);
+		}
+
+		Request apiRequest = new Request.Builder().url(current.matchesUrl).post(RequestBody.create(JSON, jsonPayload))
+		        .header("Authorization", current.credentials).build();
+		return current.httpClient.newCall(apiRequest);
+	}
+
+	/**
+	 * Executes the given call and returns the response body
+	 *
+	 * @param call the call to execute
+	 * @return the response body returned by the client registry
+	 * @throws ClientRegistryException if the client registry returned an unsuccessful response
+	 * @throws IOException if the client registry could not be reached
+	 */
+	public static String execute(Call call) throws IOException {
+		try (Response apiResponse = call.execute()) {
+			if (!apiResponse.isSuccessful()) {
+				throw new ClientRegistryException(apiResponse.code(), apiResponse.message());
+			}
+			return apiResponse.body().string();
+		}
+	}
+
+	/**
+	 * @return the configured call timeout in seconds
+	 */
+	public int getClientTimeout() {
+		return getSettings().timeout;
+	}
+
+	private Settings getSettings() {
+		Settings current = settings;
+		if (current == null) {
+			synchronized (this) {
+				current = settings;
+				if (current == null) {
+					current = loadSettings();
+					settings = current;
+				}
+			}
+		}
+		return current;
+	}
+
+	private Settings loadSettings() {
+		AdministrationService as = Context.getAdministrationService();
+		int timeout = DEFAULT_CLIENT_TIMEOUT;
+		try {
+			timeout = Integer.parseInt(as.getGlobalProperty(GP_CLIENT_TIMEOUT, String.valueOf(DEFAULT_CLIENT_TIMEOUT))
+			        .trim());
+		}
+		catch (NumberFormatException e) {
+			log.warn(GP_CLIENT_TIMEOUT + " should be an integer, using the default of " + DEFAULT_CLIENT_TIMEOUT);
+		}
+
+		OkHttpClient httpClient = new OkHttpClient.Builder().connectionPool(connectionPool)
+		        .callTimeout(timeout, TimeUnit.SECONDS).retryOnConnectionFailure(true).build();
+		String credentials = Credentials.basic(String.valueOf(as.getGlobalProperty(GP_USERNAME)),
+		    String.valueOf(as.getGlobalProperty(GP_PASSWORD)));
+
+		return new Settings(httpClient, as.getGlobalProperty(GP_MATCHES_URL, DEFAULT_MATCHES_URL), credentials, timeout);
+	}
+
+	/**
+	 * Drops the cached settings, the next call will rebuild them from the global properties
+	 */
+	public void reset() {
+		settings = null;
+	}
+
+	/**
+	 * Closes the idle connections held by the pool when the module context goes away
+	 */
+	@PreDestroy
+	public void shutdown() {
+		reset();
+		connectionPool.evictAll();
+	}
+
+	@Override
+	public boolean supportsPropertyName(String propertyName) {
+		return propertyName != null && (propertyName.startsWith("opencr") || propertyName.startsWith("clientregistry."));
+	}
+
+	@Override
+	public void globalPropertyChanged(GlobalProperty newValue) {
+		reset();
+	}
+
+	@Override
+	public void globalPropertyDeleted(String propertyName) {
+		reset();
+	}
+
+	/**
+	 * Immutable snapshot of the connection settings so that a request never sees a half applied
+	 * configuration change
+	 */
+	private static class Settings {
+
+		private final OkHttpClient httpClient;
+
+		private final String matchesUrl;
+
+		private final String credentials;
+
+		private final int timeout;
+
+		private Settings(OkHttpClient httpClient, String matchesUrl, String credentials, int timeout) {
+			this.httpClient = httpClient;
+			this.matchesUrl = matchesUrl;
+			this.credentials = credentials;
+			this.timeout = timeout;
+		}
+	}
+}
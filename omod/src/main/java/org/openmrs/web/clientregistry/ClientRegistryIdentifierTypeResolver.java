@@ -0,0 +1,113 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.web.clientregistry;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.GlobalProperty;
+import org.openmrs.PatientIdentifierType;
+import org.openmrs.api.GlobalPropertyListener;
+import org.openmrs.api.context.Context;
+import org.springframework.stereotype.Component;
+
+/**
+ * Maps the identifier systems used by the client registry to the local patient identifier types as
+ * configured by the opencrIdsMapping global property, e.g.
+ * <code>http://clientregistry.org/artnumber|6b6e9d94-015b-48f6-ac95-da239512ff91, ...</code>. The
+ * mapping is parsed and the identifier types are looked up once, then their ids are kept until the
+ * global property changes. The identifier types themselves are loaded in the session of the caller,
+ * so that they are never detached or stale.
+ */
+@Component("clientRegistryIdentifierTypeResolver")
+public class ClientRegistryIdentifierTypeResolver implements GlobalPropertyListener {
+	
+	private static final Log log = LogFactory.getLog(ClientRegistryIdentifierTypeResolver.class);
+	
+	public static final String GP_IDS_MAPPING = "opencrIdsMapping";
+	
+	private volatile Map<String, Integer> identifierTypeIds;
+	
+	/**
+	 * @param system the identifier system used by the client registry
+	 * @return the mapped identifier type or null if the system is not mapped
+	 * @should return the identifier type mapped to the system
+	 * @should return null for an unmapped system
+	 * @should load the identifier type in the current session
+	 */
+	public PatientIdentifierType getIdentifierType(String system) {
+		Integer id = system == null ? null : getIdentifierTypeIds().get(system);
+		return id == null ? null : Context.getPatientService().getPatientIdentifierType(id);
+	}
+	
+	/**
+	 * @return the mapped identifier types keyed by identifier system
+	 * @should ignore malformed entries and unknown identifier types
+	 * @should reload the mapping when the global property changes
+	 */
+	public Map<String, PatientIdentifierType> getIdentifierTypes() {
+		Map<String, PatientIdentifierType> types = new HashMap<String, PatientIdentifierType>();
+		for (Map.Entry<String, Integer> entry : getIdentifierTypeIds().entrySet()) {
+			types.put(entry.getKey(), Context.getPatientService().getPatientIdentifierType(entry.getValue()));
+		}
+		return types;
+	}
+	
+	private Map<String, Integer> getIdentifierTypeIds() {
+		Map<String, Integer> ids = identifierTypeIds;
+		if (ids == null) {
+			ids = parseMapping(Context.getAdministrationService().getGlobalProperty(GP_IDS_MAPPING));
+			identifierTypeIds = ids;
+		}
+		return ids;
+	}
+	
+	private static Map<String, Integer> parseMapping(String mapping) {
+		if (StringUtils.isBlank(mapping)) {
+			return Collections.emptyMap();
+		}
+		Map<String, Integer> ids = new HashMap<String, Integer>();
+		for (String option : mapping.split(",")) {
+			String[] keyValue = option.split("\\|");
+			if (keyValue.length != 2) {
+				continue;
+			}
+			String system = keyValue[0].trim();
+			String uuid = keyValue[1].trim();
+			PatientIdentifierType type = Context.getPatientService().getPatientIdentifierTypeByUuid(uuid);
+			if (type == null) {
+				log.warn("No patient identifier type with uuid " + uuid + " found for the client registry system "
+				        + system + ", check the " + GP_IDS_MAPPING + " global property");
+			} else {
+				ids.put(system, type.getPatientIdentifierTypeId());
+			}
+		}
+		return Collections.unmodifiableMap(ids);
+	}
+	
+	@Override
+	public boolean supportsPropertyName(String propertyName) {
+		return GP_IDS_MAPPING.equals(propertyName);
+	}
+	
+	@Override
+	public void globalPropertyChanged(GlobalProperty newValue) {
+		identifierTypeIds = null;
+	}
+	
+	@Override
+	public void globalPropertyDeleted(String propertyName) {
+		identifierTypeIds = null;
+	}
+}
@@ -0,0 +1,310 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.web.clientregistry;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.annotation.PreDestroy;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.GlobalProperty;
+import org.openmrs.api.AdministrationService;
+import org.openmrs.api.GlobalPropertyListener;
+import org.openmrs.api.context.Context;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import okhttp3.Call;
+
+/**
+ * Runs OpenCR match checks off the servlet request threads. Checks are executed on a small bounded
+ * executor and identified by a token that callers can wait on for a short while or poll later (see
+ * DWRPatientService#getMatchCheckResult). A {@link CircuitBreaker} fails checks fast once the
+ * client registry has repeatedly timed out or been unreachable, so a slow registry can neither pin
+ * request threads nor fill up the executor queue.
+ */
+@Component("clientRegistryMatchService")
+public class ClientRegistryMatchService implements GlobalPropertyListener {
+
+	private static final Log log = LogFactory.getLog(ClientRegistryMatchService.class);
+
+	public static final String GP_FAILURE_THRESHOLD = "opencr.circuitBreaker.failureThreshold";
+
+	public static final String GP_OPEN_SECONDS = "opencr.circuitBreaker.openSeconds";
+
+	public static final String GP_WAIT_SECONDS = "opencr.matchCheckWaitSeconds";
+
+	public static final int DEFAULT_FAILURE_THRESHOLD = 3;
+
+	public static final int DEFAULT_OPEN_SECONDS = 60;
+
+	public static final int DEFAULT_WAIT_SECONDS = 5;
+
+	private static final int POOL_SIZE = 4;
+
+	private static final int QUEUE_CAPACITY = 20;
+
+	// results that nobody collected are dropped after this long
+	private static final long RESULT_TTL_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+	@Autowired
+	private ClientRegistryGateway gateway;
+
+	private final ThreadPoolExecutor executor;
+
+	private final Map<String, MatchCheck> checks = new ConcurrentHashMap<String, MatchCheck>();
+
+	private volatile CircuitBreaker circuitBreaker;
+
+	private volatile Integer waitSeconds;
+
+	public ClientRegistryMatchService() {
+		executor = new ThreadPoolExecutor(POOL_SIZE, POOL_SIZE, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(
+		        QUEUE_CAPACITY), new NamedThreadFactory("legacyui-opencr-match"), new ThreadPoolExecutor.AbortPolicy());
+		executor.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Submits a match check for the given patient, the patient is serialized and the call prepared
+	 * on the calling thread, only the network round trip happens on the executor
+	 *
+	 * @param patient the FHIR representation of the patient to check
+	 * @return the token identifying the check
+	 * @should fail fast once the circuit breaker is open
+	 * @should close the circuit again once the client registry recovers
+	 * @should end the trial of a half open circuit when the call cannot be prepared
+	 */
+	public String submit(org.hl7.fhir.r4.model.Patient patient) {
+		purgeExpired();
+
+		String token = UUID.randomUUID().toString();
+		final CircuitBreaker breaker = getCircuitBreaker();
+		if (!breaker.allowRequest()) {
+			log.debug("OpenCR circuit is open, skipping the match check");
+			checks.put(token, new MatchCheck(MatchCheckResult.unavailable("OpenCR circuit open")));
+			return token;
+		}
+
+		try {
+			final Call call = gateway.newMatchCall(gateway.encodeResourceToString(patient));
+			Future<MatchCheckResult> future = executor.submit(() -> execute(call, breaker));
+			checks.put(token, new MatchCheck(future, call));
+		}
+		catch (RejectedExecutionException e) {
+			log.warn("Too many pending OpenCR match checks, rejecting a new one");
+			breaker.recordFailure();
+			checks.put(token, new MatchCheck(MatchCheckResult.unavailable("OpenCR match check queue is full")));
+		}
+		catch (RuntimeException e) {
+			// the request was let through, a half open circuit waits for its outcome
+			breaker.recordFailure();
+			throw e;
+		}
+		return token;
+	}
+
+	/**
+	 * Waits up to the given time for the check to complete
+	 *
+	 * @param token the token returned by {@link #submit(org.hl7.fhir.r4.model.Patient)}
+	 * @param timeoutMillis the maximum time to wait
+	 * @return the result, a pending result if the check is still running or null if the token is
+	 *         unknown or expired
+	 */
+	public MatchCheckResult await(String token, long timeoutMillis) {
+		MatchCheck check = token == null ? null : checks.get(token);
+		if (check == null) {
+			return null;
+		}
+		try {
+			MatchCheckResult result = check.future == null ? check.result : check.future.get(timeoutMillis,
+			    TimeUnit.MILLISECONDS);
+			checks.remove(token);
+			return result;
+		}
+		catch (TimeoutException e) {
+			return MatchCheckResult.pending();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return MatchCheckResult.pending();
+		}
+		catch (ExecutionException e) {
+			checks.remove(token);
+			log.error("Unexpected error while running the OpenCR match check", e.getCause());
+			return MatchCheckResult.unavailable(String.valueOf(e.getCause()));
+		}
+	}
+
+	/**
+	 * Returns the result of the check without blocking, completed results are handed out only once
+	 *
+	 * @param token the token returned by {@link #submit(org.hl7.fhir.r4.model.Patient)}
+	 * @return the result, a pending result if the check is still running or null if the token is
+	 *         unknown or expired
+	 * @should hand out a pending result until the check completes
+	 */
+	public MatchCheckResult getResult(String token) {
+		return await(token, 0);
+	}
+
+	/**
+	 * @return how long a request thread should wait for the check before handing the token back to
+	 *         the page, in milliseconds
+	 */
+	public long getRequestWaitMillis() {
+		if (waitSeconds == null) {
+			waitSeconds = getIntegerGlobalProperty(GP_WAIT_SECONDS, DEFAULT_WAIT_SECONDS);
+		}
+		return TimeUnit.SECONDS.toMillis(waitSeconds);
+	}
+
+	public CircuitBreaker getCircuitBreaker() {
+		CircuitBreaker breaker = circuitBreaker;
+		if (breaker == null) {
+			synchronized (this) {
+				breaker = circuitBreaker;
+				if (breaker == null) {
+					breaker = new CircuitBreaker(getIntegerGlobalProperty(GP_FAILURE_THRESHOLD, DEFAULT_FAILURE_THRESHOLD),
+					        TimeUnit.SECONDS.toMillis(getIntegerGlobalProperty(GP_OPEN_SECONDS, DEFAULT_OPEN_SECONDS)));
+					circuitBreaker = breaker;
+				}
+			}
+		}
+		return breaker;
+	}
+
+	public void setCircuitBreaker(CircuitBreaker circuitBreaker) {
+		this.circuitBreaker = circuitBreaker;
+	}
+
+	public void setGateway(ClientRegistryGateway gateway) {
+		this.gateway = gateway;
+	}
+
+	/**
+	 * Stops the executor and cancels the checks still running, when the module context goes away
+	 */
+	@PreDestroy
+	public void shutdown() {
+		executor.shutdownNow();
+		for (MatchCheck check : checks.values()) {
+			check.cancel();
+		}
+		checks.clear();
+	}
+
+	private static MatchCheckResult execute(Call call, CircuitBreaker breaker) {
+		try {
+			String matches = ClientRegistryGateway.execute(call);
+			breaker.recordSuccess();
+			return MatchCheckResult.completed(matches);
+		}
+		catch (ClientRegistryException e) {
+			// the registry is up, only server side errors count against it
+			if (e.getStatusCode() >= 500) {
+				breaker.recordFailure();
+			} else {
+				breaker.recordSuccess();
+			}
+			log.warn("OpenCR match check failed: " + e.getMessage());
+			return MatchCheckResult.rejected(e.getMessage());
+		}
+		catch (IOException e) {
+			breaker.recordFailure();
+			log.warn("Unable to reach OpenCR for the match check: " + e.getMessage());
+			return MatchCheckResult.unavailable(e.getMessage());
+		}
+	}
+
+	private void purgeExpired() {
+		long expiry = System.currentTimeMillis() - RESULT_TTL_MILLIS;
+		for (Iterator<MatchCheck> it = checks.values().iterator(); it.hasNext();) {
+			MatchCheck check = it.next();
+			if (check.createdAt < expiry) {
+				check.cancel();
+				it.remove();
+			}
+		}
+	}
+
+	private static int getIntegerGlobalProperty(String propertyName, int defaultValue) {
+		AdministrationService as = Context.getAdministrationService();
+		try {
+			return Integer.parseInt(as.getGlobalProperty(propertyName, String.valueOf(defaultValue)).trim());
+		}
+		catch (NumberFormatException e) {
+			log.warn(propertyName + " should be an integer, using the default of " + defaultValue);
+		}
+		return defaultValue;
+	}
+
+	@Override
+	public boolean supportsPropertyName(String propertyName) {
+		return GP_FAILURE_THRESHOLD.equals(propertyName) || GP_OPEN_SECONDS.equals(propertyName)
+		        || GP_WAIT_SECONDS.equals(propertyName);
+	}
+
+	@Override
+	public void globalPropertyChanged(GlobalProperty newValue) {
+		circuitBreaker = null;
+		waitSeconds = null;
+	}
+
+	@Override
+	public void globalPropertyDeleted(String propertyName) {
+		circuitBreaker = null;
+		waitSeconds = null;
+	}
+
+	private static class MatchCheck {
+
+		private final long createdAt = System.currentTimeMillis();
+
+		private final Future<MatchCheckResult> future;
+
+		private final Call call;
+
+		private final MatchCheckResult result;
+
+		private MatchCheck(Future<MatchCheckResult> future, Call call) {
+			this.future = future;
+			this.call = call;
+			this.result = null;
+		}
+
+		private MatchCheck(MatchCheckResult result) {
+			this.future = null;
+			this.call = null;
+			this.result = result;
+		}
+
+		private void cancel() {
+			if (call != null) {
+				call.cancel();
+			}
+			if (future != null) {
+				future.cancel(true);
+			}
+		}
+	}
+}
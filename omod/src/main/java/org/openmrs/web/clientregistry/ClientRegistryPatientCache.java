@@ -0,0 +1,223 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.web.clientregistry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.hl7.fhir.r4.model.Bundle;
+import org.openmrs.GlobalProperty;
+import org.openmrs.api.AdministrationService;
+import org.openmrs.api.GlobalPropertyListener;
+import org.openmrs.api.context.Context;
+import org.openmrs.web.cache.ExpiringCache;
+import org.springframework.stereotype.Component;
+
+import ca.uhn.fhir.rest.client.api.IGenericClient;
+
+/**
+ * Caches the patients and search results fetched from the client registry for a short while, an
+ * import typically reads the same registry record several times in a row (search, form display,
+ * form submission) and each read is a round trip to a possibly distant server. FHIR resources are
+ * mutable, even reading some of their elements adds them, so copies go in and out of the cache and
+ * callers are free to modify what they get.
+ */
+@Component("clientRegistryPatientCache")
+public class ClientRegistryPatientCache implements GlobalPropertyListener {
+	
+	private static final Log log = LogFactory.getLog(ClientRegistryPatientCache.class);
+	
+	public static final String GP_CACHE_TTL = "clientregistry.cacheTtlSeconds";
+	
+	public static final String GP_CACHE_MAX_ENTRIES = "clientregistry.cacheMaxEntries";
+	
+	public static final int DEFAULT_CACHE_TTL = 300;
+	
+	public static final int DEFAULT_CACHE_MAX_ENTRIES = 500;
+	
+	private volatile Caches caches;
+	
+	private IGenericClient client;
+	
+	/**
+	 * Gets the patient with the given id from the client registry, reading it remotely only if it
+	 * is not cached
+	 * 
+	 * @param id the client registry id of the patient
+	 * @return a copy of the patient
+	 * @should read the patient remotely only once
+	 * @should hand out copies of the cached patient
+	 */
+	public org.hl7.fhir.r4.model.Patient getPatient(String id) {
+		ExpiringCache<String, org.hl7.fhir.r4.model.Patient> cache = getCaches().patients;
+		org.hl7.fhir.r4.model.Patient patient = cache.get(id);
+		if (patient == null) {
+			patient = getClient().read().resource(org.hl7.fhir.r4.model.Patient.class).withId(id).execute();
+			cache.put(id, patient.copy());
+			logStatistics();
+			return patient;
+		}
+		return patient.copy();
+	}
+	
+	/**
+	 * Searches the client registry for patients with exactly the given names and gender, the
+	 * patients found are also cached individually
+	 * 
+	 * @param familyName the family name
+	 * @param givenName the given name
+	 * @param gender the FHIR gender code, may be empty
+	 * @return copies of the patients found
+	 */
+	public List<org.hl7.fhir.r4.model.Patient> searchPatients(String familyName, String givenName, String gender) {
+		String key = StringUtils.lowerCase(familyName) + "|" + StringUtils.lowerCase(givenName) + "|" + gender;
+		ExpiringCache<String, List<org.hl7.fhir.r4.model.Patient>> cache = getCaches().searches;
+		List<org.hl7.fhir.r4.model.Patient> found = cache.get(key);
+		if (found == null) {
+			found = getClient().search().forResource(org.hl7.fhir.r4.model.Patient.class)
+			        .where(org.hl7.fhir.r4.model.Patient.FAMILY.matchesExactly().value(familyName))
+			        .and(org.hl7.fhir.r4.model.Patient.GIVEN.matchesExactly().value(givenName))
+			        .and(org.hl7.fhir.r4.model.Patient.GENDER.exactly().code(gender)).returnBundle(Bundle.class).execute()
+			        .getEntry().stream().map(e -> (org.hl7.fhir.r4.model.Patient) e.getResource())
+			        .collect(Collectors.toList());
+			cache.put(key, Collections.unmodifiableList(copy(found)));
+			putPatients(found);
+			logStatistics();
+			return found;
+		}
+		return copy(found);
+	}
+	
+	/**
+	 * Caches patients that were fetched from the client registry by other means, e.g. a name search
+	 * 
+	 * @param fhirPatients the patients to cache
+	 */
+	public void putPatients(List<org.hl7.fhir.r4.model.Patient> fhirPatients) {
+		ExpiringCache<String, org.hl7.fhir.r4.model.Patient> cache = getCaches().patients;
+		for (org.hl7.fhir.r4.model.Patient fhirPatient : fhirPatients) {
+			if (fhirPatient.getIdElement().hasIdPart()) {
+				cache.put(fhirPatient.getIdElement().getIdPart(), fhirPatient.copy());
+			}
+		}
+	}
+	
+	/**
+	 * Drops the given patient and all the cached searches, to be called when a patient has been
+	 * saved locally since the registry is then likely to be updated too
+	 * 
+	 * @param id the client registry id of the patient
+	 * @should drop the patient and the cached searches
+	 */
+	public void invalidate(String id) {
+		Caches c = getCaches();
+		if (id != null) {
+			c.patients.remove(id);
+		}
+		c.searches.clear();
+	}
+	
+	public long getHitCount() {
+		Caches c = getCaches();
+		return c.patients.getHitCount() + c.searches.getHitCount();
+	}
+	
+	public long getMissCount() {
+		Caches c = getCaches();
+		return c.patients.getMissCount() + c.searches.getMissCount();
+	}
+	
+	private void logStatistics() {
+		if (log.isDebugEnabled()) {
+			log.debug("Client registry cache hits: " + getHitCount() + ", misses: " + getMissCount());
+		}
+	}
+	
+	private static List<org.hl7.fhir.r4.model.Patient> copy(List<org.hl7.fhir.r4.model.Patient> fhirPatients) {
+		List<org.hl7.fhir.r4.model.Patient> copies = new ArrayList<org.hl7.fhir.r4.model.Patient>(fhirPatients.size());
+		for (org.hl7.fhir.r4.model.Patient fhirPatient : fhirPatients) {
+			copies.add(fhirPatient.copy());
+		}
+		return copies;
+	}
+	
+	private IGenericClient getClient() {
+		if (client != null) {
+			return client;
+		}
+		return Context.getRegisteredComponent("clientRegistryFhirClient", IGenericClient.class);
+	}
+	
+	/**
+	 * @param client the client to read from instead of the registered clientRegistryFhirClient
+	 */
+	public void setClient(IGenericClient client) {
+		this.client = client;
+	}
+	
+	private Caches getCaches() {
+		Caches c = caches;
+		if (c == null) {
+			synchronized (this) {
+				c = caches;
+				if (c == null) {
+					c = new Caches(getIntegerGlobalProperty(GP_CACHE_MAX_ENTRIES, DEFAULT_CACHE_MAX_ENTRIES),
+					        TimeUnit.SECONDS.toMillis(getIntegerGlobalProperty(GP_CACHE_TTL, DEFAULT_CACHE_TTL)));
+					caches = c;
+				}
+			}
+		}
+		return c;
+	}
+	
+	private static int getIntegerGlobalProperty(String propertyName, int defaultValue) {
+		AdministrationService as = Context.getAdministrationService();
+		try {
+			return Integer.parseInt(as.getGlobalProperty(propertyName, String.valueOf(defaultValue)).trim());
+		}
+		catch (NumberFormatException e) {
+			log.warn(propertyName + " should be an integer, using the default of " + defaultValue);
+		}
+		return defaultValue;
+	}
+	
+	@Override
+	public boolean supportsPropertyName(String propertyName) {
+		return GP_CACHE_TTL.equals(propertyName) || GP_CACHE_MAX_ENTRIES.equals(propertyName);
+	}
+	
+	@Override
+	public void globalPropertyChanged(GlobalProperty newValue) {
+		caches = null;
+	}
+	
+	@Override
+	public void globalPropertyDeleted(String propertyName) {
+		caches = null;
+	}
+	
+	private static class Caches {
+		
+		private final ExpiringCache<String, org.hl7.fhir.r4.model.Patient> patients;
+		
+		private final ExpiringCache<String, List<org.hl7.fhir.r4.model.Patient>> searches;
+		
+		private Caches(int maxEntries, long ttlMillis) {
+			patients = new ExpiringCache<String, org.hl7.fhir.r4.model.Patient>(maxEntries, ttlMillis);
+			searches = new ExpiringCache<String, List<org.hl7.fhir.r4.model.Patient>>(maxEntries, ttlMillis);
+		}
+	}
+}
@@ -0,0 +1,262 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.web.clientregistry;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
+
+import javax.annotation.PreDestroy;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.hl7.fhir.r4.model.Bundle;
+import org.openmrs.GlobalProperty;
+import org.openmrs.api.AdministrationService;
+import org.openmrs.api.GlobalPropertyListener;
+import org.openmrs.api.context.Context;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import ca.uhn.fhir.rest.client.api.IGenericClient;
+
+/**
+ * Runs client registry patient searches concurrently with the local database search. Searches are
+ * started on a bounded executor before the local query runs, the caller then waits for the remote
+ * results only for what is left of the configured deadline. Results that arrive later are kept
+ * under a token for a short while so that the search widget can pick them up after it has rendered
+ * the local results.
+ */
+@Component("clientRegistryPatientSearch")
+public class ClientRegistryPatientSearch implements GlobalPropertyListener {
+
+	private static final Log log = LogFactory.getLog(ClientRegistryPatientSearch.class);
+
+	public static final String GP_ENABLE_SEARCH = "clientregistry.enablePatientSearch";
+
+	public static final String GP_SEARCH_DEADLINE = "clientregistry.patientSearchDeadlineMillis";
+
+	public static final int DEFAULT_SEARCH_DEADLINE = 3000;
+
+	/**
+	 * The identifier type the client registry UID of imported patients is stored under
+	 */
+	public static final String UID_IDENTIFIER_TYPE_UUID = "43a6e699-c2b8-4d5f-9e7f-cf19448d59b7";
+
+	private static final int POOL_SIZE = 4;
+
+	private static final int QUEUE_CAPACITY = 50;
+
+	private static final long PENDING_TTL_MILLIS = TimeUnit.MINUTES.toMillis(2);
+
+	@Autowired
+	private ClientRegistryPatientCache patientCache;
+	
+	private final ThreadPoolExecutor executor;
+
+	private final Map<String, PendingSearch> pendingSearches = new ConcurrentHashMap<String, PendingSearch>();
+
+	private volatile Boolean enabled;
+
+	private volatile Integer deadlineMillis;
+
+	public ClientRegistryPatientSearch() {
+		executor = new ThreadPoolExecutor(POOL_SIZE, POOL_SIZE, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(
+		        QUEUE_CAPACITY), new NamedThreadFactory("legacyui-opencr-search"), new ThreadPoolExecutor.AbortPolicy());
+		executor.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * @return true if patient searches should also query the client registry
+	 */
+	public boolean isEnabled() {
+		if (enabled == null) {
+			enabled = Boolean.valueOf(Context.getAdministrationService().getGlobalProperty(GP_ENABLE_SEARCH, "false")
+			        .trim());
+		}
+		return enabled;
+	}
+
+	/**
+	 * @return the maximum time in milliseconds a patient search waits for the client registry
+	 */
+	public long getDeadlineMillis() {
+		if (deadlineMillis == null) {
+			AdministrationService as = Context.getAdministrationService();
+			try {
+				deadlineMillis = Integer.valueOf(as.getGlobalProperty(GP_SEARCH_DEADLINE,
+				    String.valueOf(DEFAULT_SEARCH_DEADLINE)).trim());
+			}
+			catch (NumberFormatException e) {
+				log.warn(GP_SEARCH_DEADLINE + " should be an integer, using the default of " + DEFAULT_SEARCH_DEADLINE);
+				deadlineMillis = DEFAULT_SEARCH_DEADLINE;
+			}
+		}
+		return deadlineMillis;
+	}
+
+	/**
+	 * Starts a name search against the client registry
+	 *
+	 * @param searchValue the name to search for
+	 * @return the pending search, its future completes with an empty list if the registry failed
+	 */
+	public Future<List<org.hl7.fhir.r4.model.Patient>> searchAsync(final String searchValue) {
+		// look the client up on the calling thread, the worker has no OpenMRS session
+		final IGenericClient client = Context.getRegisteredComponent("clientRegistryFhirClient", IGenericClient.class);
+		try {
+			return executor.submit(() -> search(client, searchValue));
+		}
+		catch (RejectedExecutionException e) {
+			log.warn("Too many pending client registry searches, skipping the registry for this one");
+			return CompletableFuture.completedFuture(Collections.<org.hl7.fhir.r4.model.Patient> emptyList());
+		}
+	}
+
+	/**
+	 * Waits for the given search until the given deadline, the patients found are added to the
+	 * {@link ClientRegistryPatientCache}
+	 *
+	 * @param future the search started by {@link #searchAsync(String)}
+	 * @param deadline the time, as returned by {@link System#currentTimeMillis()}, after which to
+	 *            stop waiting
+	 * @return the patients found or null if the search has not completed in time
+	 * @should return null once the deadline has passed
+	 * @should return an empty list if the search failed
+	 */
+	public List<org.hl7.fhir.r4.model.Patient> await(Future<List<org.hl7.fhir.r4.model.Patient>> future, long deadline) {
+		try {
+			List<org.hl7.fhir.r4.model.Patient> patients = future.get(Math.max(0, deadline - System.currentTimeMillis()),
+			    TimeUnit.MILLISECONDS);
+			// the clerk usually goes on to import one of them, which reads it again
+			patientCache.putPatients(patients);
+			return patients;
+		}
+		catch (TimeoutException e) {
+			return null;
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		}
+		catch (ExecutionException e) {
+			log.error("Error while searching the client registry", e.getCause());
+			return Collections.emptyList();
+		}
+	}
+
+	/**
+	 * Keeps a search that missed its deadline so that its results can be collected later
+	 *
+	 * @param future the search started by {@link #searchAsync(String)}
+	 * @return the token to collect the results with
+	 */
+	public String park(Future<List<org.hl7.fhir.r4.model.Patient>> future) {
+		purgeExpired();
+		String token = UUID.randomUUID().toString();
+		pendingSearches.put(token, new PendingSearch(future));
+		return token;
+	}
+
+	/**
+	 * Collects the results of a parked search, waiting at most the configured deadline
+	 *
+	 * @param token the token returned by {@link #park(Future)}
+	 * @return the patients found, an empty list if the search failed or is unknown, or null if the
+	 *         search is still running
+	 * @should hand out the patients of a completed search only once
+	 * @should return null while the search is still running
+	 */
+	public List<org.hl7.fhir.r4.model.Patient> collect(String token) {
+		PendingSearch pending = token == null ? null : pendingSearches.get(token);
+		if (pending == null) {
+			return Collections.emptyList();
+		}
+		List<org.hl7.fhir.r4.model.Patient> patients = await(pending.future, System.currentTimeMillis()
+		        + getDeadlineMillis());
+		if (patients != null) {
+			pendingSearches.remove(token);
+		}
+		return patients;
+	}
+
+	/**
+	 * Stops the executor and drops the parked searches, when the module context goes away
+	 */
+	@PreDestroy
+	public void shutdown() {
+		executor.shutdownNow();
+		pendingSearches.clear();
+	}
+
+	private static List<org.hl7.fhir.r4.model.Patient> search(IGenericClient client, String searchValue) {
+		try {
+			return client.search().forResource(org.hl7.fhir.r4.model.Patient.class)
+			        .where(org.hl7.fhir.r4.model.Patient.NAME.matches().value(searchValue)).returnBundle(Bundle.class)
+			        .execute().getEntry().stream().map(e -> (org.hl7.fhir.r4.model.Patient) e.getResource())
+			        .collect(Collectors.toList());
+		}
+		catch (Exception e) {
+			log.error("Error while attempting to reach server", e);
+			return Collections.emptyList();
+		}
+	}
+
+	private void purgeExpired() {
+		long expiry = System.currentTimeMillis() - PENDING_TTL_MILLIS;
+		for (Iterator<PendingSearch> it = pendingSearches.values().iterator(); it.hasNext();) {
+			PendingSearch pending = it.next();
+			if (pending.createdAt < expiry) {
+				pending.future.cancel(true);
+				it.remove();
+			}
+		}
+	}
+
+	@Override
+	public boolean supportsPropertyName(String propertyName) {
+		return GP_ENABLE_SEARCH.equals(propertyName) || GP_SEARCH_DEADLINE.equals(propertyName);
+	}
+
+	@Override
+	public void globalPropertyChanged(GlobalProperty newValue) {
+		enabled = null;
+		deadlineMillis = null;
+	}
+
+	@Override
+	public void globalPropertyDeleted(String propertyName) {
+		enabled = null;
+		deadlineMillis = null;
+	}
+
+	private static class PendingSearch {
+
+		private final long createdAt = System.currentTimeMillis();
+
+		private final Future<List<org.hl7.fhir.r4.model.Patient>> future;
+
+		private PendingSearch(Future<List<org.hl7.fhir.r4.model.Patient>> future) {
+			this.future = future;
+		}
+	}
+}
@@ -0,0 +1,89 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.web.clientregistry;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Outcome of an OpenCR match check submitted to the {@link ClientRegistryMatchService}
+ */
+public class MatchCheckResult {
+
+	public enum Status {
+		/**
+		 * The check is still running
+		 */
+		PENDING,
+		/**
+		 * The client registry answered, the matches are available
+		 */
+		COMPLETED,
+		/**
+		 * The client registry answered with an unsuccessful status
+		 */
+		REJECTED,
+		/**
+		 * The client registry could not be reached, timed out or the circuit breaker is open
+		 */
+		UNAVAILABLE
+	}
+
+	private final Status status;
+
+	private final String matches;
+
+	private final String message;
+
+	private MatchCheckResult(Status status, String matches, String message) {
+		this.status = status;
+		this.matches = matches;
+		this.message = message;
+	}
+
+	public static MatchCheckResult pending() {
+		return new MatchCheckResult(Status.PENDING, null, null);
+	}
+
+	public static MatchCheckResult completed(String matches) {
+		return new MatchCheckResult(Status.COMPLETED, matches, null);
+	}
+
+	public static MatchCheckResult rejected(String message) {
+		return new MatchCheckResult(Status.REJECTED, null, message);
+	}
+
+	public static MatchCheckResult unavailable(String message) {
+		return new MatchCheckResult(Status.UNAVAILABLE, null, message);
+	}
+
+	public Status getStatus() {
+		return status;
+	}
+
+	public String getMatches() {
+		return matches;
+	}
+
+	public String getMessage() {
+		return message;
+	}
+
+	/**
+	 * @return this result as a map suitable to be returned to DWR callers
+	 */
+	public Map<String, Object> toMap() {
+		Map<String, Object> map = new HashMap<String, Object>();
+		map.put("status", status.name());
+		map.put("matches", matches);
+		map.put("message", message);
+		return map;
+	}
+}
@@ -10,13 +10,10 @@
 package org.openmrs.web.controller;
 
 import java.util.Calendar;
-import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Locale;
 import java.util.Map;
-import java.util.Vector;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
@@ -28,17 +25,20 @@ import org.jfree.chart.ChartFactory;
 import org.jfree.chart.JFreeChart;
 import org.jfree.chart.plot.PlotOrientation;
 import org.jfree.data.general.DefaultPieDataset;
-import org.jfree.data.statistics.HistogramDataset;
+import org.jfree.data.statistics.SimpleHistogramBin;
+import org.jfree.data.statistics.SimpleHistogramDataset;
 import org.jfree.data.time.Day;
 import org.jfree.data.time.TimeSeries;
 import org.jfree.data.time.TimeSeriesCollection;
 import org.openmrs.Concept;
 import org.openmrs.ConceptDatatype;
-import org.openmrs.Obs;
+import org.openmrs.api.APIAuthenticationException;
 import org.openmrs.api.ConceptService;
-import org.openmrs.api.ObsService;
 import org.openmrs.api.context.Context;
-import org.openmrs.util.OpenmrsConstants;
+import org.openmrs.module.legacyui.api.LegacyUIService;
+import org.openmrs.module.legacyui.stats.ConceptStatsSnapshot;
+import org.openmrs.module.legacyui.stats.NumericObsStatistics;
+import org.openmrs.util.PrivilegeConstants;
 import org.springframework.context.support.MessageSourceAccessor;
 import org.springframework.validation.BindException;
 import org.springframework.web.servlet.ModelAndView;
@@ -61,6 +61,15 @@ public class ConceptStatsFormController extends SimpleFormController {
 		Concept concept = (Concept) object;
 		ConceptService cs = Context.getConceptService();
 		
+		// check to see if they asked for the statistics to be computed again
+		if (request.getParameter("recompute") != null && concept.getConceptId() != null) {
+			if (!Context.hasPrivilege(PrivilegeConstants.MANAGE_CONCEPTS)) {
+				throw new APIAuthenticationException("Must be logged in as user with concept management privileges");
+			}
+			Context.getService(LegacyUIService.class).computeConceptStatsSnapshot(concept);
+			return new ModelAndView(new RedirectView(getSuccessView() + "?conceptId=" + concept.getConceptId()));
+		}
+		
 		// check to see if they clicked next/previous concept:
 		String jumpAction = request.getParameter("jumpAction");
 		if (jumpAction != null) {
@@ -124,7 +133,6 @@ public class ConceptStatsFormController extends SimpleFormController {
 		
 		if (conceptId != null) {
 			Concept concept = cs.getConcept(Integer.valueOf(conceptId));
-			ObsService obsService = Context.getObsService();
 			
 			if (concept != null) {
 				
@@ -138,125 +146,52 @@ public class ConceptStatsFormController extends SimpleFormController {
 				if (ConceptDatatype.NUMERIC.equals(concept.getDatatype().getHl7Abbreviation())) {
 					map.put("displayType", "numeric");
 					
-					List<Obs> numericAnswers = obsService.getObservations(null, null, Collections.singletonList(concept),
-					    null, Collections.singletonList(OpenmrsConstants.PERSON_TYPE.PERSON), null,
-					    Collections.singletonList("valueNumeric"), null, null, null, null, false);
+					NumericObsStatistics stats = getSnapshot(concept, true, map).getNumericStatistics();
 					
-					if (numericAnswers.size() > 0) {
-						Double min = numericAnswers.get(0).getValueNumeric();
-						Double max = (Double) numericAnswers.get(numericAnswers.size() - 1).getValueNumeric();
-						Double median = (Double) numericAnswers.get(numericAnswers.size() / 2).getValueNumeric();
-						
-						Map<Double, Integer> counts = new HashMap<Double, Integer>(); // counts for the histogram
-						Double total = 0.0; // sum of values. used for mean
-						
-						// dataset setup for lineChart
-						TimeSeries timeSeries = new TimeSeries(concept.getName().getName(), Day.class);
-						TimeSeriesCollection timeDataset = new TimeSeriesCollection();
-						Calendar calendar = Calendar.getInstance();
-						
-						// array for histogram
-						double[] obsNumerics = new double[(numericAnswers.size())];
-						
-						Integer i = 0;
-						for (Obs obs : numericAnswers) {
-							Date date = (Date) obs.getObsDatetime();
-							Double value = (Double) obs.getValueNumeric();
-							
-							// for mean calculation
-							total += value;
-							
-							// for histogram
-							obsNumerics[i++] = value;
-							Integer count = counts.get(value);
-							counts.put(value, count == null ? 1 : count + 1);
-							
-							// for line chart
-							calendar.setTime(date);
-							Day day = new Day(calendar.get(Calendar.DAY_OF_MONTH), calendar.get(Calendar.MONTH) + 1, // January = 0 
-							        calendar.get(Calendar.YEAR) < 1900 ? 1900 : calendar.get(Calendar.YEAR) // jfree chart doesn't like the 19th century
-							);
-							timeSeries.addOrUpdate(day, value);
-						}
-						
-						Double size = new Double(numericAnswers.size());
-						Double mean = total / size;
+					if (stats != null) {
+						String name = concept.getName().getName();
 						
-						map.put("size", numericAnswers.size());
-						map.put("min", min);
-						map.put("max", max);
-						map.put("mean", mean);
-						map.put("median", median);
+						map.put("size", stats.getCount());
+						map.put("min", stats.getMin());
+						map.put("max", stats.getMax());
+						map.put("mean", stats.getMean());
+						map.put("median", stats.getMedian());
+						map.put("standardDeviation", stats.getStandardDeviation());
 						
 						// create histogram chart
-						HistogramDataset histDataset = new HistogramDataset(); // dataset for histogram
-						histDataset.addSeries(concept.getName().getName(), obsNumerics, counts.size());
-						
-						JFreeChart histogram = ChartFactory.createHistogram(concept.getName().getName(),
+						JFreeChart histogram = ChartFactory.createHistogram(name,
 						    msa.getMessage("Concept.stats.histogramDomainAxisTitle"),
-						    msa.getMessage("Concept.stats.histogramRangeAxisTitle"), histDataset, PlotOrientation.VERTICAL,
-						    false, true, false);
+						    msa.getMessage("Concept.stats.histogramRangeAxisTitle"), toDataset(name, stats.getHistogram()),
+						    PlotOrientation.VERTICAL, false, true, false);
 						map.put("histogram", histogram);
 						
-						if (size > 25) {
-							// calculate 98th percentile of the data:
-							Double x = 0.98;
-							Integer xpercentile = (int) (x * size);
-							Double upperQuartile = numericAnswers.get(xpercentile).getValueNumeric();
-							Double lowerQuartile = numericAnswers.get((int) (size - xpercentile)).getValueNumeric();
-							Double innerQuartile = upperQuartile - lowerQuartile;
-							Double innerQuartileLimit = innerQuartile * 1.5; // outliers will be greater than this from the upper/lower quartile
-							Double upperQuartileLimit = upperQuartile + innerQuartileLimit;
-							Double lowerQuartileLimit = lowerQuartile - innerQuartileLimit;
-							
-							List<Obs> outliers = new Vector<Obs>();
-							
-							// move outliers to the outliers list
-							// removing lower quartile outliers
-							for (i = 0; i < size - xpercentile; i++) {
-								Obs possibleOutlier = numericAnswers.get(i);
-								if (possibleOutlier.getValueNumeric() >= lowerQuartileLimit) {
-									break; // quit if this value is greater than the lower limit
-								}
-								outliers.add(possibleOutlier);
-							}
-							
-							// removing upper quartile outliers
-							for (i = size.intValue() - 1; i >= xpercentile; i--) {
-								Obs possibleOutlier = numericAnswers.get(i);
-								if (possibleOutlier.getValueNumeric() <= upperQuartileLimit) {
-									break; // quit if this value is less than the upper limit
-								}
-								outliers.add(possibleOutlier);
-							}
-							numericAnswers.removeAll(outliers);
-							
-							double[] obsNumericsOutliers = new double[(numericAnswers.size())];
-							i = 0;
-							counts.clear();
-							for (Obs values : numericAnswers) {
-								Double value = values.getValueNumeric();
-								obsNumericsOutliers[i++] = value;
-								Integer count = counts.get(value);
-								counts.put(value, count == null ? 1 : count + 1);
-							}
-							
+						if (stats.getOutlierFreeHistogram() != null) {
 							// create outlier histogram chart
-							HistogramDataset outlierHistDataset = new HistogramDataset();
-							outlierHistDataset.addSeries(concept.getName().getName(), obsNumericsOutliers, counts.size());
-							
-							JFreeChart histogramOutliers = ChartFactory.createHistogram(concept.getName().getName(),
+							JFreeChart histogramOutliers = ChartFactory.createHistogram(name,
 							    msa.getMessage("Concept.stats.histogramDomainAxisTitle"),
-							    msa.getMessage("Concept.stats.histogramRangeAxisTitle"), outlierHistDataset,
-							    PlotOrientation.VERTICAL, false, true, false);
+							    msa.getMessage("Concept.stats.histogramRangeAxisTitle"), toDataset(name, stats
+							            .getOutlierFreeHistogram()), PlotOrientation.VERTICAL, false, true, false);
 							map.put("histogramOutliers", histogramOutliers);
-							map.put("outliers", outliers);
-							
+							map.put("outliers", Context.getService(LegacyUIService.class).getObsByIds(
+							    stats.getOutlierObsIds()));
+							map.put("outlierCount", stats.getOutlierCount());
+						}
+						
+						// dataset setup for lineChart
+						TimeSeries timeSeries = new TimeSeries(name, Day.class);
+						Calendar calendar = Calendar.getInstance();
+						for (Map.Entry<Date, Double> entry : stats.getDailyMeans().entrySet()) {
+							calendar.setTime(entry.getKey());
+							Day day = new Day(calendar.get(Calendar.DAY_OF_MONTH), calendar.get(Calendar.MONTH) + 1, // January = 0 
+							        calendar.get(Calendar.YEAR) < 1900 ? 1900 : calendar.get(Calendar.YEAR) // jfree chart doesn't like the 19th century
+							);
+							timeSeries.addOrUpdate(day, entry.getValue());
 						}
 						
 						// create line graph chart
+						TimeSeriesCollection timeDataset = new TimeSeriesCollection();
 						timeDataset.addSeries(timeSeries);
-						JFreeChart lineChart = ChartFactory.createTimeSeriesChart(concept.getName().getName(),
+						JFreeChart lineChart = ChartFactory.createTimeSeriesChart(name,
 						    msa.getMessage("Concept.stats.lineChartDomainAxisLabel"),
 						    msa.getMessage("Concept.stats.lineChartRangeAxisLabel"), timeDataset, false, true, false);
 						map.put("timeSeries", lineChart);
@@ -266,26 +201,22 @@ public class ConceptStatsFormController extends SimpleFormController {
 					// create bar chart for boolean answers
 					map.put("displayType", "boolean");
 					
-					List<Obs> obs = obsService.getObservations(null, null, Collections.singletonList(concept), null,
-					    Collections.singletonList(OpenmrsConstants.PERSON_TYPE.PERSON), null, null, null, null, null, null,
-					    false);
+					Map<Integer, Long> answerCounts = getSnapshot(concept, false, map).getAnswerCounts();
+					Concept trueConcept = cs.getTrueConcept();
 					
 					DefaultPieDataset pieDataset = new DefaultPieDataset();
 					
-					// count the number of unique answers
-					Map<String, Integer> counts = new HashMap<String, Integer>();
-					for (Obs o : obs) {
-						Boolean answer = o.getValueAsBoolean();
-						if (answer == null) {
-							answer = false;
-						}
+					// count the number of unique answers, obs without answer count as false
+					Map<String, Long> counts = new HashMap<String, Long>();
+					for (Map.Entry<Integer, Long> answerCount : answerCounts.entrySet()) {
+						Boolean answer = trueConcept != null && trueConcept.getConceptId().equals(answerCount.getKey());
 						String name = answer.toString();
-						Integer count = counts.get(name);
-						counts.put(name, count == null ? 1 : count + 1);
+						Long count = counts.get(name);
+						counts.put(name, answerCount.getValue() + (count == null ? 0 : count));
 					}
 					
 					// put the counts into the dataset
-					for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+					for (Map.Entry<String, Long> entry : counts.entrySet()) {
 						pieDataset.setValue(entry.getKey(), entry.getValue());
 					}
 					
@@ -297,28 +228,26 @@ public class ConceptStatsFormController extends SimpleFormController {
 					// create pie graph for coded answers
 					map.put("displayType", "coded");
 					
-					List<Obs> obs = obsService.getObservations(null, null, Collections.singletonList(concept), null,
-					    Collections.singletonList(OpenmrsConstants.PERSON_TYPE.PERSON), null, null, null, null, null, null,
-					    false);
+					Map<Integer, Long> answerCounts = getSnapshot(concept, false, map).getAnswerCounts();
 					
 					DefaultPieDataset pieDataset = new DefaultPieDataset();
 					
 					// count the number of unique answers
-					Map<String, Integer> counts = new HashMap<String, Integer>();
-					for (Obs o : obs) {
-						Concept value = o.getValueCoded();
+					Map<String, Long> counts = new HashMap<String, Long>();
+					for (Map.Entry<Integer, Long> answerCount : answerCounts.entrySet()) {
+						Concept value = answerCount.getKey() == null ? null : cs.getConcept(answerCount.getKey());
 						String name;
 						if (value == null) {
 							name = "[value_coded is null]";
 						} else {
 							name = value.getName().getName();
 						}
-						Integer count = counts.get(name);
-						counts.put(name, count == null ? 1 : count + 1);
+						Long count = counts.get(name);
+						counts.put(name, answerCount.getValue() + (count == null ? 0 : count));
 					}
 					
 					// put the counts into the dataset
-					for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+					for (Map.Entry<String, Long> entry : counts.entrySet()) {
 						pieDataset.setValue(entry.getKey(), entry.getValue());
 					}
 					
@@ -339,4 +268,46 @@ public class ConceptStatsFormController extends SimpleFormController {
 		return map;
 	}
 	
+	/**
+	 * Gets the snapshot of the statistics of the concept, computing the statistics without saving
+	 * them if there is none yet, and puts it in the model so that the page can tell when it was
+	 * computed. Showing the page does not write anything, the snapshot is saved by the scheduled
+	 * task or when recomputing is asked for
+	 * 
+	 * @param concept a numeric, coded or boolean concept
+	 * @param numeric whether the concept is numeric, the snapshot is computed again if it was taken
+	 *            before the datatype of the concept changed
+	 * @param map the model
+	 * @return the snapshot
+	 */
+	private static ConceptStatsSnapshot getSnapshot(Concept concept, boolean numeric, Map<String, Object> map) {
+		LegacyUIService service = Context.getService(LegacyUIService.class);
+		ConceptStatsSnapshot snapshot = service.getConceptStatsSnapshot(concept);
+		if (snapshot == null || numeric == (snapshot.getAnswerCounts() != null)) {
+			snapshot = service.computeConceptStats(concept);
+		}
+		map.put("snapshot", snapshot);
+		return snapshot;
+	}
+	
+	/**
+	 * Turns binned counts into a dataset that can be charted as a histogram
+	 * 
+	 * @param name the name of the series
+	 * @param histogram the binned counts
+	 * @return the dataset
+	 */
+	private static SimpleHistogramDataset toDataset(String name, NumericObsStatistics.Histogram histogram) {
+		SimpleHistogramDataset dataset = new SimpleHistogramDataset(name);
+		dataset.setAdjustForBinSize(false);
+		int last = histogram.getBinCount() - 1;
+		for (int i = 0; i <= last; i++) {
+			SimpleHistogramBin bin = new SimpleHistogramBin(histogram.getLowerBound(i), histogram.getUpperBound(i), true,
+			        i == last);
+			bin.setItemCount((int) histogram.getCount(i));
+			dataset.addBin(bin);
+		}
+		return dataset;
+	}
+	
 }
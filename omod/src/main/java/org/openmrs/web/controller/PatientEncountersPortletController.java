@@ -9,6 +9,8 @@
  */
 package org.openmrs.web.controller;
 
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Map;
 
 import javax.servlet.http.HttpServletRequest;
@@ -21,6 +23,14 @@ import org.openmrs.api.context.Context;
  */
 public class PatientEncountersPortletController extends PortletController {
 	
+	/**
+	 * @see org.openmrs.web.controller.PortletController#getRequiredModelKeys()
+	 */
+	@Override
+	protected Collection<String> getRequiredModelKeys() {
+		return Arrays.asList("patientEncounters");
+	}
+	
 	/**
 	 * @see org.openmrs.web.controller.PortletController#populateModel(javax.servlet.http.HttpServletRequest,
 	 *      java.util.Map)
@@ -9,6 +9,8 @@
  */
 package org.openmrs.web.controller;
 
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
@@ -20,6 +22,14 @@ import org.openmrs.api.context.Context;
 
 public class PatientProgramsPortletController extends PortletController {
 	
+	/**
+	 * @see org.openmrs.web.controller.PortletController#getRequiredModelKeys()
+	 */
+	@Override
+	protected Collection<String> getRequiredModelKeys() {
+		return Arrays.asList("patientPrograms", "patientCurrentPrograms");
+	}
+	
 	protected void populateModel(HttpServletRequest request, Map<String, Object> model) {
 		if (!model.containsKey("programs")) {
 			List<Program> programs = Context.getProgramWorkflowService().getAllPrograms();
@@ -10,6 +10,8 @@
 package org.openmrs.web.controller;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
@@ -29,6 +31,14 @@ public class PatientVisitsPortletController extends PortletController {
 	
 	private static final Log log = LogFactory.getLog(PatientVisitsPortletController.class);
 	
+	/**
+	 * @see org.openmrs.web.controller.PortletController#getRequiredModelKeys()
+	 */
+	@Override
+	protected Collection<String> getRequiredModelKeys() {
+		return Arrays.asList("patientVisits", "activeVisits");
+	}
+	
 	/**
 	 * @see org.openmrs.web.controller.PortletController#populateModel(javax.servlet.http.HttpServletRequest,
 	 *      java.util.Map)
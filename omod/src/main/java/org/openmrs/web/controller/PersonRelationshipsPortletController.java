@@ -9,6 +9,8 @@
  */
 package org.openmrs.web.controller;
 
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
@@ -19,6 +21,14 @@ import org.openmrs.api.context.Context;
 
 public class PersonRelationshipsPortletController extends PortletController {
 	
+	/**
+	 * @see org.openmrs.web.controller.PortletController#getRequiredModelKeys()
+	 */
+	@Override
+	protected Collection<String> getRequiredModelKeys() {
+		return Arrays.asList("personRelationships", "personRelationshipsByType");
+	}
+	
 	/**
 	 * @see org.openmrs.web.controller.PortletController#populateModel(javax.servlet.http.HttpServletRequest,
 	 *      java.util.Map)
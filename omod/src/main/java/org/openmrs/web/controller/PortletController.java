@@ -11,11 +11,15 @@ package org.openmrs.web.controller;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 
 import javax.servlet.ServletException;
@@ -35,12 +39,12 @@ import org.openmrs.Person;
 import org.openmrs.Relationship;
 import org.openmrs.RelationshipType;
 import org.openmrs.User;
-import org.openmrs.api.AdministrationService;
 import org.openmrs.api.ConceptService;
 import org.openmrs.api.context.Context;
-import org.openmrs.module.legacyui.GeneralUtils;
+import org.openmrs.module.legacyui.api.LegacyUIService;
 import org.openmrs.util.PrivilegeConstants;
 import org.openmrs.web.WebConstants;
+import org.openmrs.web.controller.PortletModel.LazyValue;
 import org.springframework.util.StringUtils;
 import org.springframework.web.servlet.ModelAndView;
 import org.springframework.web.servlet.mvc.Controller;
@@ -92,40 +96,39 @@ public class PortletController implements Controller {
 	 *          (Map&lt;String, Concept&gt;) conceptMapByStringIds
 	 * </pre>
 	 * 
+	 * The patient's encounters, visits, obs, vitals, programs, exit reason and relationships are
+	 * loaded lazily, see {@link PortletModel}.
+	 * 
 	 * @should calculate bmi into patientBmiAsString
 	 * @should not fail with empty height and weight properties
+	 * @should load the patient obs only when they are read
+	 * @should share the model between the portlets of a request without storing it in the session
 	 */
 	@SuppressWarnings("unchecked")
 	public ModelAndView handleRequest(HttpServletRequest request, HttpServletResponse response) throws ServletException,
 	        IOException {
 		
-		AdministrationService as = Context.getAdministrationService();
 		ConceptService cs = Context.getConceptService();
 		
 		// find the portlet that was identified in the openmrs:portlet taglib
 		Object uri = request.getAttribute("javax.servlet.include.servlet_path");
 		String portletPath = "";
-		Map<String, Object> model = null;
+		// the model is shared by all the portlets of the page and released with the request
+		PortletModel model = PortletModel.getRequestModel(request);
 		{
-			HttpSession session = request.getSession();
-			String uniqueRequestId = (String) request.getAttribute(WebConstants.INIT_REQ_UNIQUE_ID);
-			String lastRequestId = (String) session.getAttribute(WebConstants.OPENMRS_PORTLET_LAST_REQ_ID);
-			if (uniqueRequestId.equals(lastRequestId)) {
-				model = (Map<String, Object>) session.getAttribute(WebConstants.OPENMRS_PORTLET_CACHED_MODEL);
-				
-				// remove cached parameters 
-				List<String> parameterKeys = (List<String>) model.get("parameterKeys");
-				if (parameterKeys != null) {
-					for (String key : parameterKeys) {
-						model.remove(key);
-					}
+			// remove the parameters of the previous portlet
+			List<String> parameterKeys = (List<String>) model.get("parameterKeys");
+			if (parameterKeys != null) {
+				for (String key : parameterKeys) {
+					model.remove(key);
 				}
 			}
-			if (model == null) {
-				log.debug("creating new portlet model");
-				model = new HashMap<String, Object>();
-				session.setAttribute(WebConstants.OPENMRS_PORTLET_LAST_REQ_ID, uniqueRequestId);
-				session.setAttribute(WebConstants.OPENMRS_PORTLET_CACHED_MODEL, model);
+			
+			// earlier versions kept the model in the session, don't let it linger there
+			HttpSession session = request.getSession(false);
+			if (session != null && session.getAttribute(WebConstants.OPENMRS_PORTLET_CACHED_MODEL) != null) {
+				session.removeAttribute(WebConstants.OPENMRS_PORTLET_CACHED_MODEL);
+				session.removeAttribute(WebConstants.OPENMRS_PORTLET_LAST_REQ_ID);
 			}
 		}
 		
@@ -171,150 +174,60 @@ public class PortletController implements Controller {
 			// if a patient id is available, put patient data documented above in the model
 			Object o = request.getAttribute("org.openmrs.portlet.patientId");
 			if (o != null) {
-				String patientVariation = "";
 				Integer patientId = (Integer) o;
 				if (!model.containsKey("patient") && Context.hasPrivilege(PrivilegeConstants.GET_PATIENTS)) {
 					// we can't continue if the user can't view patients
-					Patient p = Context.getPatientService().getPatient(patientId);
+					final Patient p = Context.getPatientService().getPatient(patientId);
 					model.put("patient", p);
-					if (p.isDead()) {
-						patientVariation = "Dead";
-					}
+					
+					// the lists below can be large, they are only loaded if a portlet displays them
 					
 					// add encounters if this user can view them
 					if (Context.hasPrivilege(PrivilegeConstants.GET_ENCOUNTERS)) {
-						model.put("patientEncounters", Context.getEncounterService().getEncountersByPatient(p));
+						model.putLazy("patientEncounters", () -> Context.getEncounterService().getEncountersByPatient(p));
 					}
 					
 					// add visits if this user can view them
 					if (Context.hasPrivilege(PrivilegeConstants.GET_VISITS)) {
 						model.put("person", p);
 						PortletControllerUtil.addFormToEditAndViewUrlMaps(model);
-						model.put("patientVisits", Context.getVisitService().getVisitsByPatient(p));
-						model.put("activeVisits", Context.getVisitService().getActiveVisitsByPatient(p));
+						model.putLazy("patientVisits", () -> Context.getVisitService().getVisitsByPatient(p));
+						model.putLazy("activeVisits", () -> Context.getVisitService().getActiveVisitsByPatient(p));
 					}
 					
 					if (Context.hasPrivilege(PrivilegeConstants.GET_OBS)) {
-						List<Obs> patientObs = Context.getObsService().getObservationsByPerson(p);
-						model.put("patientObs", patientObs);
-						Obs latestWeight = null;
-						Obs latestHeight = null;
-						String bmiAsString = "?";
-						try {
-							String weightString = as.getGlobalProperty("concept.weight");
-							ConceptNumeric weightConcept = null;
-							if (StringUtils.hasLength(weightString)) {
-								weightConcept = cs.getConceptNumeric(GeneralUtils.getConcept(weightString).getConceptId());
-							}
-							String heightString = as.getGlobalProperty("concept.height");
-							ConceptNumeric heightConcept = null;
-							if (StringUtils.hasLength(heightString)) {
-								heightConcept = cs.getConceptNumeric(GeneralUtils.getConcept(heightString).getConceptId());
-							}
-							for (Obs obs : patientObs) {
-								if (obs.getConcept().equals(weightConcept)) {
-									if (latestWeight == null
-									        || obs.getObsDatetime().compareTo(latestWeight.getObsDatetime()) > 0) {
-										latestWeight = obs;
-									}
-								} else if (obs.getConcept().equals(heightConcept)
-								        && (latestHeight == null || obs.getObsDatetime().compareTo(
-								            latestHeight.getObsDatetime()) > 0)) {
-									latestHeight = obs;
-								}
-							}
-							if (latestWeight != null) {
-								model.put("patientWeight", latestWeight);
-							}
-							if (latestHeight != null) {
-								model.put("patientHeight", latestHeight);
-							}
-							if (latestWeight != null && latestHeight != null) {
-								double weightInKg;
-								double heightInM;
-								if (weightConcept.getUnits().equalsIgnoreCase("kg")) {
-									weightInKg = latestWeight.getValueNumeric();
-								} else if (weightConcept.getUnits().equalsIgnoreCase("lb")) {
-									weightInKg = latestWeight.getValueNumeric() * 0.45359237;
-								} else {
-									throw new IllegalArgumentException("Can't handle units of weight concept: "
-									        + weightConcept.getUnits());
-								}
-								if (heightConcept.getUnits().equalsIgnoreCase("cm")) {
-									heightInM = latestHeight.getValueNumeric() / 100;
-								} else if (heightConcept.getUnits().equalsIgnoreCase("m")) {
-									heightInM = latestHeight.getValueNumeric();
-								} else if (heightConcept.getUnits().equalsIgnoreCase("in")) {
-									heightInM = latestHeight.getValueNumeric() * 0.0254;
-								} else {
-									throw new IllegalArgumentException("Can't handle units of height concept: "
-									        + heightConcept.getUnits());
-								}
-								double bmi = weightInKg / (heightInM * heightInM);
-								model.put("patientBmi", bmi);
-								String temp = "" + bmi;
-								bmiAsString = temp.substring(0, temp.indexOf('.') + 2);
-							}
-						}
-						catch (Exception ex) {
-							if (latestWeight != null && latestHeight != null) {
-								log.error("Failed to calculate BMI even though a weight and height were found", ex);
-							}
+						model.putLazy("patientObs", () -> Context.getObsService().getObservationsByPerson(p));
+						final LazyValue<Map<String, Object>> vitals = new LazyValue<Map<String, Object>>(
+						        () -> getLatestVitals(p));
+						for (String key : new String[] { "patientWeight", "patientHeight", "patientBmi",
+						        "patientBmiAsString" }) {
+							model.putLazy(key, () -> vitals.get().get(key));
 						}
-						model.put("patientBmiAsString", bmiAsString);
 					} else {
 						model.put("patientObs", new HashSet<Obs>());
 					}
-					/**
-					 * Copied from OpenMRS core 1.9.13 See
-					 * https://github.com/openmrs/openmrs-core/blob
-					 * /1.9.13/web/src/main/java/org/openmrs
-					 * /web/controller/PortletController.java#L267
-					 */
-					// information about whether or not the patient has exited care
-					Obs reasonForExitObs = null;
-					String reasonForExitConceptString = as.getGlobalProperty("concept.reasonExitedCare");
-					if (StringUtils.hasLength(reasonForExitConceptString)) {
-						Concept reasonForExitConcept = cs.getConcept(reasonForExitConceptString);
-						if (reasonForExitConcept != null) {
-							List<Obs> patientExitObs = Context.getObsService().getObservationsByPersonAndConcept(p,
-							    reasonForExitConcept);
-							if (patientExitObs != null) {
-								log.debug("Exit obs is size " + patientExitObs.size());
-								if (patientExitObs.size() == 1) {
-									reasonForExitObs = patientExitObs.iterator().next();
-									Concept exitReason = reasonForExitObs.getValueCoded();
-									Date exitDate = reasonForExitObs.getObsDatetime();
-									if (exitReason != null && exitDate != null) {
-										patientVariation = "Exited";
-									}
-								} else {
-									if (patientExitObs.size() == 0) {
-										log.debug("Patient has no reason for exit");
-									} else {
-										log.error("Too many reasons for exit - not putting data into model");
-									}
-								}
-							}
+					
+					final LazyValue<Obs> reasonForExitObs = model.putLazy("patientReasonForExit",
+					    () -> getReasonForExitObs(p));
+					model.putLazy("patientVariation", () -> {
+						Obs exitObs = reasonForExitObs.get();
+						if (exitObs != null && exitObs.getValueCoded() != null && exitObs.getObsDatetime() != null) {
+							return "Exited";
 						}
-					}
-					model.put("patientReasonForExit", reasonForExitObs);
+						return p.isDead() ? "Dead" : "";
+					});
 					
 					if (Context.hasPrivilege(PrivilegeConstants.GET_PROGRAMS)
 					        && Context.hasPrivilege(PrivilegeConstants.GET_PATIENT_PROGRAMS)) {
-						model.put("patientPrograms",
-						    Context.getProgramWorkflowService().getPatientPrograms(p, null, null, null, null, null, false));
-						model.put(
-						    "patientCurrentPrograms",
-						    Context.getProgramWorkflowService().getPatientPrograms(p, null, null, new Date(), new Date(),
-						        null, false));
+						model.putLazy("patientPrograms", () -> Context.getProgramWorkflowService().getPatientPrograms(p,
+						    null, null, null, null, null, false));
+						model.putLazy("patientCurrentPrograms", () -> Context.getProgramWorkflowService()
+						        .getPatientPrograms(p, null, null, new Date(), new Date(), null, false));
 					}
 					
 					model.put("patientId", patientId);
 					personId = p.getPatientId();
 					model.put("personId", personId);
-					
-					model.put("patientVariation", patientVariation);
 				}
 			}
 			
@@ -337,20 +250,21 @@ public class PortletController implements Controller {
 				}
 				
 				if (!model.containsKey("personRelationships") && Context.hasPrivilege(PrivilegeConstants.GET_RELATIONSHIPS)) {
-					List<Relationship> relationships = new ArrayList<Relationship>();
-					relationships.addAll(Context.getPersonService().getRelationshipsByPerson(p));
-					Map<RelationshipType, List<Relationship>> relationshipsByType = new HashMap<RelationshipType, List<Relationship>>();
-					for (Relationship rel : relationships) {
-						List<Relationship> list = relationshipsByType.get(rel.getRelationshipType());
-						if (list == null) {
-							list = new ArrayList<Relationship>();
-							relationshipsByType.put(rel.getRelationshipType(), list);
+					final Person person = p;
+					LazyValue<List<Relationship>> relationships = model.putLazy("personRelationships",
+					    () -> new ArrayList<Relationship>(Context.getPersonService().getRelationshipsByPerson(person)));
+					model.putLazy("personRelationshipsByType", () -> {
+						Map<RelationshipType, List<Relationship>> relationshipsByType = new HashMap<RelationshipType, List<Relationship>>();
+						for (Relationship rel : relationships.get()) {
+							List<Relationship> list = relationshipsByType.get(rel.getRelationshipType());
+							if (list == null) {
+								list = new ArrayList<Relationship>();
+								relationshipsByType.put(rel.getRelationshipType(), list);
+							}
+							list.add(rel);
 						}
-						list.add(rel);
-					}
-					
-					model.put("personRelationships", relationships);
-					model.put("personRelationshipsByType", relationshipsByType);
+						return relationshipsByType;
+					});
 				}
 			}
 			
@@ -410,6 +324,16 @@ public class PortletController implements Controller {
 			}
 			
 			populateModel(request, model);
+			
+			// load what the portlet is known to need up front, the rest is loaded if and when the view reads it
+			Set<String> requiredKeys = new HashSet<String>(getRequiredModelKeys());
+			o = model.get("requiredModelKeys");
+			if (!StringUtils.isEmpty(o)) {
+				for (String key : ((String) o).split(",")) {
+					requiredKeys.add(key.trim());
+				}
+			}
+			model.resolve(requiredKeys);
 			log.debug(portletPath + " took " + (System.currentTimeMillis() - timeAtStart) + " ms");
 		}
 		
@@ -417,6 +341,108 @@ public class PortletController implements Controller {
 		
 	}
 	
+	/**
+	 * Subclasses should override this to declare the lazily loaded model entries their portlet
+	 * always displays, these are then loaded before the view is rendered. Portlets without a
+	 * dedicated controller can declare them with a comma separated 'requiredModelKeys' portlet
+	 * parameter.
+	 * 
+	 * @return the keys of the model entries the portlet needs
+	 */
+	protected Collection<String> getRequiredModelKeys() {
+		return Collections.emptySet();
+	}
+	
+	/**
+	 * Looks up the most recent weight and height obs of the patient and derives the BMI from them
+	 * 
+	 * @param p the patient
+	 * @return a map holding the patientWeight, patientHeight, patientBmi and patientBmiAsString
+	 *         entries
+	 */
+	private Map<String, Object> getLatestVitals(Patient p) {
+		LegacyUIService legacyUIService = Context.getService(LegacyUIService.class);
+		Map<String, Object> vitals = new HashMap<String, Object>();
+		Obs latestWeight = null;
+		Obs latestHeight = null;
+		String bmiAsString = "?";
+		try {
+			ConceptNumeric weightConcept = legacyUIService.getWeightConcept();
+			ConceptNumeric heightConcept = legacyUIService.getHeightConcept();
+			Map<Concept, Obs> latestObs = legacyUIService.getLatestObs(p,
+			    Arrays.<Concept> asList(weightConcept, heightConcept));
+			latestWeight = latestObs.get(weightConcept);
+			latestHeight = latestObs.get(heightConcept);
+			vitals.put("patientWeight", latestWeight);
+			vitals.put("patientHeight", latestHeight);
+			if (latestWeight != null && latestHeight != null) {
+				double weightInKg;
+				double heightInM;
+				if (weightConcept.getUnits().equalsIgnoreCase("kg")) {
+					weightInKg = latestWeight.getValueNumeric();
+				} else if (weightConcept.getUnits().equalsIgnoreCase("lb")) {
+					weightInKg = latestWeight.getValueNumeric() * 0.45359237;
+				} else {
+					throw new IllegalArgumentException("Can't handle units of weight concept: " + weightConcept.getUnits());
+				}
+				if (heightConcept.getUnits().equalsIgnoreCase("cm")) {
+					heightInM = latestHeight.getValueNumeric() / 100;
+				} else if (heightConcept.getUnits().equalsIgnoreCase("m")) {
+					heightInM = latestHeight.getValueNumeric();
+				} else if (heightConcept.getUnits().equalsIgnoreCase("in")) {
+					heightInM = latestHeight.getValueNumeric() * 0.0254;
+				} else {
+					throw new IllegalArgumentException("Can't handle units of height concept: " + heightConcept.getUnits());
+				}
+				double bmi = weightInKg / (heightInM * heightInM);
+				vitals.put("patientBmi", bmi);
+				String temp = "" + bmi;
+				bmiAsString = temp.substring(0, temp.indexOf('.') + 2);
+			}
+		}
+		catch (Exception ex) {
+			if (latestWeight != null && latestHeight != null) {
+				log.error("Failed to calculate BMI even though a weight and height were found", ex);
+			}
+		}
+		vitals.put("patientBmiAsString", bmiAsString);
+		return vitals;
+	}
+	
+	/**
+	 * Copied from OpenMRS core 1.9.13 See
+	 * https://github.com/openmrs/openmrs-core/blob/1.9.13/web/src/main/java/org/openmrs
+	 * /web/controller/PortletController.java#L267
+	 * 
+	 * @param p the patient
+	 * @return the obs recording why the patient exited care, or null if there is none
+	 */
+	private Obs getReasonForExitObs(Patient p) {
+		Obs reasonForExitObs = null;
+		String reasonForExitConceptString = Context.getAdministrationService().getGlobalProperty(
+		    "concept.reasonExitedCare");
+		if (StringUtils.hasLength(reasonForExitConceptString)) {
+			Concept reasonForExitConcept = Context.getConceptService().getConcept(reasonForExitConceptString);
+			if (reasonForExitConcept != null) {
+				List<Obs> patientExitObs = Context.getObsService().getObservationsByPersonAndConcept(p,
+				    reasonForExitConcept);
+				if (patientExitObs != null) {
+					log.debug("Exit obs is size " + patientExitObs.size());
+					if (patientExitObs.size() == 1) {
+						reasonForExitObs = patientExitObs.iterator().next();
+					} else {
+						if (patientExitObs.size() == 0) {
+							log.debug("Patient has no reason for exit");
+						} else {
+							log.error("Too many reasons for exit - not putting data into model");
+						}
+					}
+				}
+			}
+		}
+		return reasonForExitObs;
+	}
+	
 	/**
 	 * Subclasses should override this to put more data into the model. This will be called AFTER
 	 * handleRequest has put mappings in the model as described in its javadoc. Note that context
@@ -0,0 +1,136 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.web.controller;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.function.Supplier;
+
+import javax.servlet.ServletRequest;
+
+import org.openmrs.web.WebConstants;
+
+/**
+ * The model handed to portlet views by the {@link PortletController}. Expensive entries are put
+ * with {@link #putLazy(String, Supplier)} and only loaded the first time they are read, e.g. when
+ * the portlet JSP dereferences <code>${model.patientObs}</code>, so portlets only pay for the data
+ * they actually display. A loaded value is kept for the other portlets sharing the model.
+ * <p>
+ * A single model is shared by all the portlets of a page and kept as a request attribute, so it
+ * is released with the request, see {@link #getRequestModel(ServletRequest)}.
+ * <p>
+ * Lazy entries are resolved by {@link #get(Object)} and {@link #getOrDefault(Object, Object)} only,
+ * code iterating over the entries directly sees the unresolved {@link LazyValue}s.
+ */
+public class PortletModel extends HashMap<String, Object> {
+	
+	private static final long serialVersionUID = 1L;
+	
+	/**
+	 * Gets the model shared by the portlets of the given request, creating it if needed. The portlet
+	 * tag calls this on the page request before including the portlet because attributes added
+	 * while an include is dispatched are removed once it completes.
+	 * 
+	 * @param request the page request
+	 * @return the portlet model of the request
+	 * @should return the same model for the same request
+	 */
+	public static PortletModel getRequestModel(ServletRequest request) {
+		Object model = request.getAttribute(WebConstants.OPENMRS_PORTLET_CACHED_MODEL);
+		if (!(model instanceof PortletModel)) {
+			model = new PortletModel();
+			request.setAttribute(WebConstants.OPENMRS_PORTLET_CACHED_MODEL, model);
+		}
+		return (PortletModel) model;
+	}
+	
+	/**
+	 * Puts an entry whose value is computed on first access
+	 * 
+	 * @param key the model key
+	 * @param supplier computes the value, called at most once
+	 * @return the lazy value, which other lazy entries can share
+	 * @should not call the supplier until the entry is read
+	 * @should call the supplier only once
+	 */
+	public <T> LazyValue<T> putLazy(String key, Supplier<T> supplier) {
+		return putLazy(key, new LazyValue<T>(supplier));
+	}
+	
+	/**
+	 * Puts an entry backed by a lazy value, e.g. one derived from a value shared with other entries
+	 * 
+	 * @param key the model key
+	 * @param value the lazy value
+	 * @return the lazy value
+	 */
+	public <T> LazyValue<T> putLazy(String key, LazyValue<T> value) {
+		super.put(key, value);
+		return value;
+	}
+	
+	@Override
+	public Object get(Object key) {
+		Object value = super.get(key);
+		return value instanceof LazyValue ? ((LazyValue<?>) value).get() : value;
+	}
+	
+	@Override
+	public Object getOrDefault(Object key, Object defaultValue) {
+		return containsKey(key) ? get(key) : defaultValue;
+	}
+	
+	/**
+	 * @param key the model key
+	 * @return true if the entry exists and is not a lazy entry that is still to be loaded
+	 */
+	public boolean isResolved(String key) {
+		Object value = super.get(key);
+		return value != null && (!(value instanceof LazyValue) || ((LazyValue<?>) value).isResolved());
+	}
+	
+	/**
+	 * Loads the given entries now, used for the entries a portlet is known to need
+	 * 
+	 * @param keys the model keys to load
+	 */
+	public void resolve(Collection<String> keys) {
+		for (String key : keys) {
+			get(key);
+		}
+	}
+	
+	/**
+	 * A memoized value, computed by its supplier the first time it is read
+	 */
+	public static class LazyValue<T> implements Supplier<T> {
+		
+		private Supplier<T> supplier;
+		
+		private T value;
+		
+		public LazyValue(Supplier<T> supplier) {
+			this.supplier = supplier;
+		}
+		
+		@Override
+		public synchronized T get() {
+			if (supplier != null) {
+				value = supplier.get();
+				supplier = null;
+			}
+			return value;
+		}
+		
+		public synchronized boolean isResolved() {
+			return supplier == null;
+		}
+	}
+}
@@ -10,11 +10,15 @@
 package org.openmrs.web.controller.maintenance;
 
 import org.openmrs.api.context.Context;
+import org.openmrs.web.graph.ChartEncoder;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.ModelMap;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 /**
  * This backs the maintenance/systemInfo.jsp page that lists off all the system information.
  */
@@ -36,10 +40,15 @@ public class SystemInformationController {
 	 * @should add database information attribute to the model map
 	 * @should add memory information attribute to the model map
 	 * @should add module information attribute to the model map
+	 * @should add chart timing information attribute to the model map
 	 */
 	@RequestMapping(method = RequestMethod.GET, value = "admin/maintenance/systemInfo.htm")
 	public String showPage(ModelMap model) {
-		model.addAttribute("systemInfo", Context.getAdministrationService().getSystemInformation());
+		Map<String, Map<String, String>> systemInfo = new LinkedHashMap<String, Map<String, String>>(Context
+		        .getAdministrationService().getSystemInformation());
+		systemInfo.put("legacyui.SystemInfo.title.charts", Context.getRegisteredComponent("chartEncoder",
+		    ChartEncoder.class).getTimings());
+		model.addAttribute("systemInfo", systemInfo);
 		return "/module/legacyui/admin/maintenance/systemInfo";
 	}
 	
@@ -19,6 +19,12 @@ import org.openmrs.web.WebConstants;
  */
 public class WebHandlerUtils {
 	
+	/**
+	 * View of an image complex obs that returns a small version of the image, see the
+	 * ComplexObsServlet
+	 */
+	public static final String THUMBNAIL_VIEW = "thumbnail";
+	
 	/**
 	 * Return the link to the complex obs servlet that will write out the contents of the complex
 	 * obs to the response
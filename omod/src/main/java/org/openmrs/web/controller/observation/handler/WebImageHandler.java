@@ -30,7 +30,8 @@ import org.openmrs.web.controller.observation.handler.WebHandlerUtils;
 public class WebImageHandler extends ImageHandler {
 	
 	/** Views supported by this handler */
-	private static final String[] supportedViews = { ComplexObsHandler.URI_VIEW, ComplexObsHandler.HTML_VIEW };
+	private static final String[] supportedViews = { ComplexObsHandler.URI_VIEW, ComplexObsHandler.HTML_VIEW,
+	        WebHandlerUtils.THUMBNAIL_VIEW };
 	
 	/**
 	 * Default Constructor
@@ -48,7 +49,7 @@ public class WebImageHandler extends ImageHandler {
 	 * ComplexData from the parent class since this does not require access to the service layer.
 	 * Gives a link to the ComplexServlet for this obs
 	 * <li>{@link ComplexObsHandler#HTML_VIEW}: An html tag that will display this complex data. For
-	 * this ImageHandler, its an html img tag.
+	 * this ImageHandler, its an html img tag showing the thumbnail and linking to the image.
 	 * </ul>
 	 * 
 	 * @see org.openmrs.obs.handler.ImageHandler#getObs(Obs, String)
@@ -64,7 +65,9 @@ public class WebImageHandler extends ImageHandler {
 		}
 		
 		if (ComplexObsHandler.HTML_VIEW.equals(view)) {
-			String imgtag = "<img src='" + WebHandlerUtils.getHyperlink(obs, ComplexObsHandler.RAW_VIEW) + "'/>";
+			// a thumbnail linking to the full image, pages listing several scans stay light
+			String imgtag = "<a href='" + WebHandlerUtils.getHyperlink(obs, ComplexObsHandler.RAW_VIEW) + "'><img src='"
+			        + WebHandlerUtils.getHyperlink(obs, WebHandlerUtils.THUMBNAIL_VIEW) + "'/></a>";
 			Locale locale = Context.getLocale();
 			ComplexData cd = new ComplexData(obs.getValueAsString(locale), imgtag);
 			obs.setComplexData(cd);
@@ -15,6 +15,7 @@ import org.openmrs.ConceptNumeric;
 import org.openmrs.Obs;
 import org.openmrs.Patient;
 import org.openmrs.api.context.Context;
+import org.openmrs.web.graph.GraphDownsampler;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.ModelMap;
 import org.springframework.web.bind.annotation.RequestMapping;
@@ -28,6 +29,9 @@ import org.springframework.web.bind.annotation.RequestParam;
 @RequestMapping(value = "/patientGraphJson.form")
 public class PatientDashboardGraphController {
 	
+	// used when the page does not say how wide the graph is
+	private static final int DEFAULT_MAX_POINTS = 1000;
+	
 	/**
 	 * Method to formulate a JSON string used by flot for rendering the patient graph
 	 * 
@@ -38,14 +42,30 @@ public class PatientDashboardGraphController {
 	 * @should return json data with observation details and critical values for the concept
 	 * @should return form for rendering the json data
 	 */
-	@SuppressWarnings("unchecked")
+	public String showGraphData(Integer patientId, Integer conceptId, ModelMap map) {
+		return showGraphData(patientId, conceptId, null, map);
+	}
+	
+	/**
+	 * Method to formulate a JSON string used by flot for rendering the patient graph, long obs
+	 * histories are downsampled to about one point per pixel of the graph
+	 * 
+	 * @param patientId identifier for the patient
+	 * @param conceptId identifier of the concept for which the graph has to be plotted
+	 * @param width the width of the graph in pixels, if known
+	 * @param map
+	 * @return form which will render the JSON data
+	 * @should downsample the obs to the width of the graph
+	 */
 	@RequestMapping(method = RequestMethod.GET)
 	public String showGraphData(@RequestParam(required = true, value = "patientId") Integer patientId,
-	        @RequestParam(required = true, value = "conceptId") Integer conceptId, ModelMap map) {
+	        @RequestParam(required = true, value = "conceptId") Integer conceptId,
+	        @RequestParam(required = false, value = "width") Integer width, ModelMap map) {
 		Patient patient = Context.getPatientService().getPatient(patientId);
 		ConceptNumeric concept = Context.getConceptService().getConceptNumeric(conceptId);
 		
 		List<Obs> observations = Context.getObsService().getObservationsByPersonAndConcept(patient, concept);
+		observations = GraphDownsampler.downsample(observations, width == null || width < 2 ? DEFAULT_MAX_POINTS : width);
 		
 		PatientGraphData graph = new PatientGraphData();
 		graph.setCriticalHigh(concept.getHiCritical());
@@ -9,10 +9,8 @@
  */
 package org.openmrs.web.controller.patient;
 
-import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -21,7 +19,6 @@ import java.util.stream.Collectors;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import ca.uhn.fhir.parser.IParser;
 
 import org.hl7.fhir.r4.model.ContactPoint;
 import org.hl7.fhir.r4.model.Reference;
@@ -52,6 +49,10 @@ import org.openmrs.util.OpenmrsUtil;
 import org.openmrs.validator.PatientIdentifierValidator;
 import org.openmrs.validator.PatientValidator;
 import org.openmrs.web.WebConstants;
+import org.openmrs.web.clientregistry.ClientRegistryIdentifierTypeResolver;
+import org.openmrs.web.clientregistry.ClientRegistryMatchService;
+import org.openmrs.web.clientregistry.ClientRegistryPatientCache;
+import org.openmrs.web.clientregistry.MatchCheckResult;
 import org.openmrs.web.controller.person.PersonFormController;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Controller;
@@ -70,18 +71,9 @@ import org.springframework.web.context.request.WebRequest;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
-import ca.uhn.fhir.context.FhirContext;
-import ca.uhn.fhir.rest.client.api.IGenericClient;
-import okhttp3.MediaType;
-import okhttp3.OkHttpClient;
-import okhttp3.Request;
-import okhttp3.RequestBody;
-import okhttp3.Response;
-import okhttp3.Credentials;
 
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import java.util.concurrent.TimeUnit;
 import java.util.UUID;
 
 /**
@@ -111,6 +103,15 @@ public class ShortPatientFormController {
 	@Autowired
 	HttpClient httpClient;
 	
+	@Autowired
+	ClientRegistryMatchService clientRegistryMatchService;
+	
+	@Autowired
+	ClientRegistryPatientCache clientRegistryPatientCache;
+	
+	@Autowired
+	ClientRegistryIdentifierTypeResolver clientRegistryIdentifierTypeResolver;
+	
 	@RequestMapping(method = RequestMethod.GET, value = SHORT_PATIENT_FORM_URL)
 	public void showForm() {
 	}
@@ -239,6 +240,7 @@ public class ShortPatientFormController {
 	 * @should should replace an existing attribute with a new one when edited
 	 * @should not void address if it was not changed
 	 * @should void address if it was changed
+	 * @should save the patient without a match check once the user chose to continue
 	 */
 	@RequestMapping(method = RequestMethod.POST, value = SHORT_PATIENT_FORM_URL)
 	public String saveShortPatient(WebRequest request, @ModelAttribute("personNameCache") PersonName personNameCache,
@@ -247,16 +249,6 @@ public class ShortPatientFormController {
 			@RequestParam(value = "continueFlag", required = false) String continueFlag,
 			@ModelAttribute("patientModel") ShortPatientModel patientModel, BindingResult result, Model model) {
 
-			String opencrClientTimeOut = Context.getAdministrationService().getGlobalProperty(
-					"opencr.opencrClientTimeOut",
-					"30");
-		OkHttpClient client = new OkHttpClient.Builder()
-                .callTimeout(Integer.parseInt(opencrClientTimeOut), TimeUnit.SECONDS) // Set timeout for complete call (including connection, read, and write operations) to 30 seconds
-                .build();
-
-		String opencrMatchesUrl = Context.getAdministrationService().getGlobalProperty("opencrMatchesUrl",
-				"https://localhost:5001/CR/fhir/matches");
-
 		String opencrMatchesCheckFlag = Context.getAdministrationService().getGlobalProperty(
 				"legacyui.enableMatchCheck",
 				"true");
@@ -308,7 +300,9 @@ public class ShortPatientFormController {
 }
 			}
 
-			if (opencrMatchesCheckFlag.equals("true")) {
+			// once the user has looked at the matches and chosen to continue the patient is saved
+			// without asking the client registry again, a slow registry must not block the save
+			if (opencrMatchesCheckFlag.equals("true") && !"continue".equals(continueFlag)) {
 				List<ContactPoint> myList = new ArrayList<>();
 				myList.add(contactPoint);
 				org.hl7.fhir.r4.model.Patient fhirResource = patientTranslator.toFhirResource(patient);
@@ -326,56 +320,33 @@ public class ShortPatientFormController {
 						name.getGiven().get(0).setValue(firstGivenName.trim());
 					}
 			
-					// Create a FhirContext
-					FhirContext fhirContext = FhirContext.forR4();
-
-					// Create a JSON parser
-					IParser jsonParser = fhirContext.newJsonParser();
-
-					// Serialize the Patient resource to JSON
-					String jsonPayload = jsonParser.encodeResourceToString(fhirResource);
-
-					// Now, jsonPayload contains the JSON representation of the Patient
-					System.out.println("JSON Payload:\n" + jsonPayload);
-					
-							// Create basic authentication credentials
-							String username = Context.getAdministrationService().getGlobalProperty("clientregistry.username");
-							String password = Context.getAdministrationService().getGlobalProperty("clientregistry.password");
-							String credentials = Credentials.basic(username, password);
-
-							Request apiRequest = new Request.Builder()
-									.url(opencrMatchesUrl)
-									.post(RequestBody.create(MediaType.parse("application/json"), jsonPayload))
-									.header("Authorization", credentials) // Add Authorization header
-									.build();
-							try (Response apiResponse = client.newCall(apiRequest).execute()) {
-								if (apiResponse.isSuccessful()) {
-									opencMatches = apiResponse.body().string();
-									model.addAttribute("opencMatches", opencMatches);
-								} else {
-									model.addAttribute("queryError", "OpenCR patient match issue");
-
-									System.out.println("Error: " + apiResponse.code() + " - " + apiResponse.message());
-									return "module/legacyui/admin/patients/shortPatientForm";
-
-								}
-							} catch (IOException e) {
-								model.addAttribute("queryError", "OpenCR server error");
-
-								e.printStackTrace();
-								return "module/legacyui/admin/patients/shortPatientForm";
-
-							}
+					// the check runs on a dedicated executor, only wait a little for it and let the
+					// page poll for the result if OpenCR is slow to answer
+					String matchToken = clientRegistryMatchService.submit(fhirResource);
+					MatchCheckResult matchResult = clientRegistryMatchService.await(matchToken,
+					    clientRegistryMatchService.getRequestWaitMillis());
+					switch (matchResult.getStatus()) {
+						case COMPLETED:
+							opencMatches = matchResult.getMatches();
+							model.addAttribute("opencMatches", opencMatches);
+							break;
+						case PENDING:
+							model.addAttribute("opencrMatchToken", matchToken);
+							return "module/legacyui/admin/patients/shortPatientForm";
+						case REJECTED:
+							model.addAttribute("queryError", "OpenCR patient match issue");
+							return "module/legacyui/admin/patients/shortPatientForm";
+						default:
+							model.addAttribute("queryError", "OpenCR server error");
+							return "module/legacyui/admin/patients/shortPatientForm";
+					}
 				} else {
 					// Handle the case where conversion to FHIR resource failed
 					System.out.println("Error: Conversion to FHIR resource failed");
 				}
 
-				if (!continueFlag.equals("continue")) {
-					// return "module/legacyui/template/popupMessage";
-					return "module/legacyui/admin/patients/shortPatientForm";
-				}
-
+				// the user looks at the matches before choosing to continue
+				return "module/legacyui/admin/patients/shortPatientForm";
 			}
 			
 			// check if name/address were edited, void them and replace them
@@ -383,6 +354,8 @@ public class ShortPatientFormController {
 
 			try {
 				patient = Context.getPatientService().savePatient(patient);
+				// imported patients keep the id of their client registry record as uuid
+				clientRegistryPatientCache.invalidate(patient.getUuid());
 				request.setAttribute(WebConstants.OPENMRS_MSG_ATTR,
 						Context.getMessageSourceService().getMessage("Patient.saved"), WebRequest.SCOPE_SESSION);
 
@@ -844,14 +817,8 @@ public class ShortPatientFormController {
 	
 	public Patient createPatient(String CRIdentifier) throws Exception {
 
-		// Get patient
-		// IGenericClient client = new FhirLegacyUIConfig().getFhirClient();
-		IGenericClient client = Context.getRegisteredComponent("clientRegistryFhirClient", IGenericClient.class);
-
-		// Patient patient = client.read()
-		org.hl7.fhir.r4.model.Patient fhirPatient = client.read()
-
-				.resource(org.hl7.fhir.r4.model.Patient.class).withId(CRIdentifier).execute();
+		// Get patient, the form reads it on display and again on submit
+		org.hl7.fhir.r4.model.Patient fhirPatient = clientRegistryPatientCache.getPatient(CRIdentifier);
 
 		User user = Context.getAuthenticatedUser();
 		Patient p = new Patient();
@@ -932,31 +899,17 @@ public class ShortPatientFormController {
 		p.setBirthdate(fhirPatient.getBirthDate());
 		// Get the identifiers of the patient
 		List<org.hl7.fhir.r4.model.Identifier> identifiers = fhirPatient.getIdentifier();
-		String fhirIds = Context.getAdministrationService().getGlobalProperty("opencrIdsMapping");
-		Map<String, String> optionsMap = new HashMap<>();
-		String[] options = fhirIds.split(",");
-
-		// String[] options = fhirIds.split("\\|");
-		for (String option : options) {
-			String[] keyValue = option.split("\\|");
-
-			if (keyValue.length == 2) {
-				String key = keyValue[0].trim();
-				String value = keyValue[1].trim();
-				optionsMap.put(key, value);
-			}
-		}
+		Location defaultLocation = LocationUtility.getDefaultLocation();
 		for (org.hl7.fhir.r4.model.Identifier fhirIdentifier : identifiers) {
 
-			if (fhirIdentifier.getSystem() != null && fhirIdentifier.getValue() != null && optionsMap.get(fhirIdentifier.getSystem()) != null) {
+			PatientIdentifierType identifierType = clientRegistryIdentifierTypeResolver.getIdentifierType(fhirIdentifier
+					.getSystem());
+			if (identifierType != null && fhirIdentifier.getValue() != null) {
 
 				PatientIdentifier pi = new PatientIdentifier();
 				pi.setIdentifier(fhirIdentifier.getValue());
-
-				pi.setIdentifierType(Context.getPatientService().getPatientIdentifierTypeByUuid(
-						optionsMap.get(fhirIdentifier.getSystem())));
-
-				pi.setLocation(Context.getLocationService().getDefaultLocation());
+				pi.setIdentifierType(identifierType);
+				pi.setLocation(defaultLocation);
 
 				switch (fhirIdentifier.getUse()) {
 					case OFFICIAL:
@@ -0,0 +1,163 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.web.dictionary;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.UUID;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.Concept;
+import org.openmrs.ConceptAnswer;
+import org.openmrs.ConceptSet;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.legacyui.api.LegacyUIService;
+import org.openmrs.util.OpenmrsUtil;
+import org.springframework.stereotype.Component;
+
+/**
+ * Exports the non retired concepts of the dictionary. Concepts are read a page at a time with their
+ * associations already fetched and evicted from the session once written, so exporting a large
+ * dictionary takes a few queries per page and a bounded amount of memory. Finished exports are kept
+ * gzipped in the application data directory until a concept is created, changed or retired, or the
+ * name of a user who created or changed one changes.
+ */
+@Component("conceptDictionaryExporter")
+public class ConceptDictionaryExporter {
+	
+	private static final Log log = LogFactory.getLog(ConceptDictionaryExporter.class);
+	
+	public static final int DEFAULT_PAGE_SIZE = 1000;
+	
+	private static final String EXPORT_DIRECTORY = "legacyui" + File.separator + "dictionary";
+	
+	private static final int BUFFER_SIZE = 64 * 1024;
+	
+	private int pageSize = DEFAULT_PAGE_SIZE;
+	
+	/**
+	 * Writes all non retired concepts, in concept id order, to the given writer
+	 * 
+	 * @param locale the locale to use for names and descriptions
+	 * @param writer the writer to format the concepts with
+	 * @throws IOException if the writer fails
+	 * @should write all non retired concepts in concept id order
+	 * @should leave the other entities of the session alone
+	 */
+	public void export(Locale locale, ConceptDictionaryWriter writer) throws IOException {
+		LegacyUIService service = Context.getService(LegacyUIService.class);
+		writer.writeHeader();
+		Integer lastConceptId = null;
+		List<Concept> page = service.getConceptsForExport(lastConceptId, pageSize);
+		while (!page.isEmpty()) {
+			for (Concept concept : page) {
+				writer.writeRow(ConceptDictionaryRow.fromConcept(concept, locale));
+			}
+			lastConceptId = page.get(page.size() - 1).getConceptId();
+			// nothing is modified, drop the concepts written so far to keep the session small
+			evict(page);
+			page = service.getConceptsForExport(lastConceptId, pageSize);
+		}
+		writer.finish();
+	}
+	
+	/**
+	 * Evicts the concepts of a page and the answers and set members fetched with them, their names,
+	 * descriptions, answers and set memberships go along with them. The rest of the session, which
+	 * may hold changes of the caller, is left alone.
+	 * 
+	 * @param page the concepts written
+	 */
+	private static void evict(List<Concept> page) {
+		Set<Object> loaded = new HashSet<Object>(page);
+		for (Concept concept : page) {
+			for (ConceptAnswer answer : concept.getAnswers(true)) {
+				if (answer.getAnswerConcept() != null) {
+					loaded.add(answer.getAnswerConcept());
+				}
+				if (answer.getAnswerDrug() != null) {
+					loaded.add(answer.getAnswerDrug());
+				}
+			}
+			for (ConceptSet set : concept.getConceptSets()) {
+				if (set.getConcept() != null) {
+					loaded.add(set.getConcept());
+				}
+			}
+		}
+		for (Object entity : loaded) {
+			Context.evictFromSession(entity);
+		}
+	}
+	
+	/**
+	 * Gets the gzipped export of the dictionary, generating it if the dictionary has changed since
+	 * the last export in the given format and locale
+	 * 
+	 * @param locale the locale to use for names and descriptions
+	 * @param format the format of the export
+	 * @return the gzipped export
+	 * @throws IOException if the export can't be written
+	 */
+	public File getExport(Locale locale, ConceptDictionaryFormat format) throws IOException {
+		String version = Context.getService(LegacyUIService.class).getConceptDictionaryVersion();
+		File directory = OpenmrsUtil.getDirectoryInApplicationDataDirectory(EXPORT_DIRECTORY);
+		String prefix = format.getExtension() + "-" + locale + "-";
+		File export = new File(directory, prefix + UUID.nameUUIDFromBytes(version.getBytes(StandardCharsets.UTF_8))
+		        + ".gz");
+		if (export.isFile()) {
+			return export;
+		}
+		
+		synchronized (this) {
+			if (export.isFile()) {
+				return export;
+			}
+			
+			File tmp = File.createTempFile(prefix, ".tmp", directory);
+			try (Writer writer = new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(
+			        tmp), BUFFER_SIZE), StandardCharsets.UTF_8), BUFFER_SIZE)) {
+				export(locale, format.newWriter(writer));
+			}
+			catch (IOException | RuntimeException e) {
+				tmp.delete();
+				throw e;
+			}
+			Files.move(tmp.toPath(), export.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			
+			File[] stale = directory.listFiles((dir, name) -> name.startsWith(prefix) && !name.equals(export.getName()));
+			if (stale != null) {
+				for (File file : stale) {
+					if (!file.delete()) {
+						log.warn("Unable to delete the outdated dictionary export " + file);
+					}
+				}
+			}
+		}
+		return export;
+	}
+	
+	public void setPageSize(int pageSize) {
+		this.pageSize = pageSize;
+	}
+}
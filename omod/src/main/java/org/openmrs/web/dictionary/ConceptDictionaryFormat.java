@@ -0,0 +1,73 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.web.dictionary;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * The formats the concept dictionary can be exported in
+ */
+public enum ConceptDictionaryFormat {
+	
+	CSV("csv", "text/csv;charset=UTF-8") {
+		
+		@Override
+		public ConceptDictionaryWriter newWriter(Writer writer) {
+			return new CsvConceptDictionaryWriter(writer);
+		}
+	},
+	
+	NDJSON("ndjson", "application/x-ndjson;charset=UTF-8") {
+		
+		@Override
+		public ConceptDictionaryWriter newWriter(Writer writer) throws IOException {
+			return new JsonConceptDictionaryWriter(writer);
+		}
+	};
+	
+	private final String extension;
+	
+	private final String contentType;
+	
+	private ConceptDictionaryFormat(String extension, String contentType) {
+		this.extension = extension;
+		this.contentType = contentType;
+	}
+	
+	/**
+	 * @param writer the writer to write to
+	 * @return a new dictionary writer for this format
+	 */
+	public abstract ConceptDictionaryWriter newWriter(Writer writer) throws IOException;
+	
+	public String getExtension() {
+		return extension;
+	}
+	
+	public String getContentType() {
+		return contentType;
+	}
+	
+	/**
+	 * @param extension the extension of the format, case insensitive
+	 * @return the format with the given extension, or CSV if the extension is blank or unknown
+	 * @should default to csv for unknown extensions
+	 * @should return the format with the given extension ignoring case
+	 */
+	public static ConceptDictionaryFormat forExtension(String extension) {
+		for (ConceptDictionaryFormat format : values()) {
+			if (format.extension.equalsIgnoreCase(extension)) {
+				return format;
+			}
+		}
+		return CSV;
+	}
+}
@@ -0,0 +1,126 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.web.dictionary;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import org.openmrs.Concept;
+import org.openmrs.ConceptAnswer;
+import org.openmrs.ConceptDescription;
+import org.openmrs.ConceptName;
+import org.openmrs.ConceptSet;
+
+/**
+ * The values of a concept that are exported with the dictionary, read once from the concept so that
+ * each {@link ConceptDictionaryWriter} only has to deal with formatting them
+ */
+public class ConceptDictionaryRow {
+	
+	private Integer conceptId;
+	
+	private String name;
+	
+	private String description;
+	
+	private List<String> synonyms = new ArrayList<String>();
+	
+	private List<String> answers = new ArrayList<String>();
+	
+	private List<String> setMembers = new ArrayList<String>();
+	
+	private String conceptClass;
+	
+	private String datatype;
+	
+	private String changedBy;
+	
+	private String creator;
+	
+	/**
+	 * Reads the exported values of the given concept
+	 * 
+	 * @param concept the concept to export
+	 * @param locale the locale to use for the name and description
+	 * @return the row
+	 */
+	public static ConceptDictionaryRow fromConcept(Concept concept, Locale locale) {
+		ConceptDictionaryRow row = new ConceptDictionaryRow();
+		row.conceptId = concept.getConceptId();
+		
+		ConceptName cn = concept.getName(locale);
+		row.name = cn == null ? "" : cn.getName();
+		ConceptDescription cd = concept.getDescription(locale);
+		row.description = cd == null || cd.getDescription() == null ? "" : cd.getDescription();
+		
+		for (ConceptName syn : concept.getNames()) {
+			row.synonyms.add(String.valueOf(syn));
+		}
+		for (ConceptAnswer answer : concept.getAnswers(false)) {
+			if (answer.getAnswerConcept() != null) {
+				row.answers.add(String.valueOf(answer.getAnswerConcept().getName()));
+			} else if (answer.getAnswerDrug() != null) {
+				row.answers.add(answer.getAnswerDrug().getFullName(locale));
+			}
+		}
+		for (ConceptSet set : concept.getConceptSets()) {
+			if (set.getConcept() != null) {
+				row.setMembers.add(String.valueOf(set.getConcept().getName()));
+			}
+		}
+		
+		row.conceptClass = concept.getConceptClass() == null ? "" : concept.getConceptClass().getName();
+		row.datatype = concept.getDatatype() == null ? "" : concept.getDatatype().getName();
+		row.changedBy = concept.getChangedBy() == null ? "" : String.valueOf(concept.getChangedBy().getPersonName());
+		row.creator = concept.getCreator() == null ? "" : String.valueOf(concept.getCreator().getPersonName());
+		return row;
+	}
+	
+	public Integer getConceptId() {
+		return conceptId;
+	}
+	
+	public String getName() {
+		return name;
+	}
+	
+	public String getDescription() {
+		return description;
+	}
+	
+	public List<String> getSynonyms() {
+		return synonyms;
+	}
+	
+	public List<String> getAnswers() {
+		return answers;
+	}
+	
+	public List<String> getSetMembers() {
+		return setMembers;
+	}
+	
+	public String getConceptClass() {
+		return conceptClass;
+	}
+	
+	public String getDatatype() {
+		return datatype;
+	}
+	
+	public String getChangedBy() {
+		return changedBy;
+	}
+	
+	public String getCreator() {
+		return creator;
+	}
+}
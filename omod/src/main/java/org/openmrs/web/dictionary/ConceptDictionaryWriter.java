@@ -0,0 +1,35 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.web.dictionary;
+
+import java.io.IOException;
+
+/**
+ * Formats the rows of a concept dictionary export, rows are handed over one at a time in concept
+ * id order so that implementations never need to hold the dictionary in memory
+ */
+public interface ConceptDictionaryWriter {
+	
+	/**
+	 * Called once before the first row
+	 */
+	public void writeHeader() throws IOException;
+	
+	/**
+	 * @param row the row to write
+	 */
+	public void writeRow(ConceptDictionaryRow row) throws IOException;
+	
+	/**
+	 * Called once after the last row, implementations should flush but not close the underlying
+	 * stream
+	 */
+	public void finish() throws IOException;
+}
@@ -0,0 +1,91 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.web.dictionary;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+
+/**
+ * Writes the concept dictionary as comma separated values, multi valued columns hold one value per
+ * line
+ */
+public class CsvConceptDictionaryWriter implements ConceptDictionaryWriter {
+	
+	public static final String HEADER_LINE = "Concept Id,Name,Description,Synonyms,Answers,Set Members,Class,Datatype,Changed By,Creator\n";
+	
+	private final Writer writer;
+	
+	/**
+	 * @param writer the writer to write to, it should be buffered
+	 */
+	public CsvConceptDictionaryWriter(Writer writer) {
+		this.writer = writer;
+	}
+	
+	/**
+	 * @see org.openmrs.web.dictionary.ConceptDictionaryWriter#writeHeader()
+	 */
+	@Override
+	public void writeHeader() throws IOException {
+		writer.write(HEADER_LINE);
+	}
+	
+	/**
+	 * @see org.openmrs.web.dictionary.ConceptDictionaryWriter#writeRow(org.openmrs.web.dictionary.ConceptDictionaryRow)
+	 */
+	@Override
+	public void writeRow(ConceptDictionaryRow row) throws IOException {
+		writer.write(String.valueOf(row.getConceptId()));
+		writer.write(',');
+		writeQuoted(row.getName());
+		writer.write(',');
+		writeQuoted(row.getDescription());
+		writer.write(',');
+		writeQuoted(row.getSynonyms());
+		writer.write(',');
+		writeQuoted(row.getAnswers());
+		writer.write(',');
+		writeQuoted(row.getSetMembers());
+		writer.write(',');
+		writeQuoted(row.getConceptClass());
+		writer.write(',');
+		writeQuoted(row.getDatatype());
+		writer.write(',');
+		writeQuoted(row.getChangedBy());
+		writer.write(',');
+		writeQuoted(row.getCreator());
+		writer.write('\n');
+	}
+	
+	/**
+	 * @see org.openmrs.web.dictionary.ConceptDictionaryWriter#finish()
+	 */
+	@Override
+	public void finish() throws IOException {
+		writer.flush();
+	}
+	
+	private void writeQuoted(List<String> values) throws IOException {
+		StringBuilder joined = new StringBuilder();
+		for (String value : values) {
+			joined.append(value).append("\n");
+		}
+		writeQuoted(joined.toString().trim());
+	}
+	
+	private void writeQuoted(String value) throws IOException {
+		writer.write('"');
+		if (value != null) {
+			writer.write(value.replace("\"", "\"\""));
+		}
+		writer.write('"');
+	}
+}
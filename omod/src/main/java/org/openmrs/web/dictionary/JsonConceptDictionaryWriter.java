@@ -0,0 +1,84 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.web.dictionary;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+
+/**
+ * Writes the concept dictionary as newline delimited JSON, one object per concept with the multi
+ * valued columns as arrays
+ */
+public class JsonConceptDictionaryWriter implements ConceptDictionaryWriter {
+	
+	private static final JsonFactory jsonFactory = new JsonFactory().disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+	
+	private final Writer writer;
+	
+	private final JsonGenerator generator;
+	
+	/**
+	 * @param writer the writer to write to, it should be buffered
+	 */
+	public JsonConceptDictionaryWriter(Writer writer) throws IOException {
+		this.writer = writer;
+		this.generator = jsonFactory.createJsonGenerator(writer);
+	}
+	
+	/**
+	 * @see org.openmrs.web.dictionary.ConceptDictionaryWriter#writeHeader()
+	 */
+	@Override
+	public void writeHeader() {
+	}
+	
+	/**
+	 * @see org.openmrs.web.dictionary.ConceptDictionaryWriter#writeRow(org.openmrs.web.dictionary.ConceptDictionaryRow)
+	 */
+	@Override
+	public void writeRow(ConceptDictionaryRow row) throws IOException {
+		generator.writeStartObject();
+		generator.writeNumberField("conceptId", row.getConceptId());
+		generator.writeStringField("name", row.getName());
+		generator.writeStringField("description", row.getDescription());
+		writeArray("synonyms", row.getSynonyms());
+		writeArray("answers", row.getAnswers());
+		writeArray("setMembers", row.getSetMembers());
+		generator.writeStringField("conceptClass", row.getConceptClass());
+		generator.writeStringField("datatype", row.getDatatype());
+		generator.writeStringField("changedBy", row.getChangedBy());
+		generator.writeStringField("creator", row.getCreator());
+		generator.writeEndObject();
+		// the generator buffers its output, it must be flushed before writing to the writer directly
+		generator.flush();
+		writer.write('\n');
+	}
+	
+	/**
+	 * @see org.openmrs.web.dictionary.ConceptDictionaryWriter#finish()
+	 */
+	@Override
+	public void finish() throws IOException {
+		generator.close();
+		writer.flush();
+	}
+	
+	private void writeArray(String fieldName, List<String> values) throws IOException {
+		generator.writeArrayFieldStart(fieldName);
+		for (String value : values) {
+			generator.writeString(value);
+		}
+		generator.writeEndArray();
+	}
+}
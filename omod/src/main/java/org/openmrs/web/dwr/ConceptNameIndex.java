@@ -0,0 +1,782 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.web.dwr;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import javax.annotation.PreDestroy;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.Concept;
+import org.openmrs.ConceptClass;
+import org.openmrs.ConceptDatatype;
+import org.openmrs.ConceptName;
+import org.openmrs.GlobalProperty;
+import org.openmrs.api.GlobalPropertyListener;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.legacyui.api.LegacyUIService;
+import org.openmrs.util.PrivilegeConstants;
+import org.openmrs.web.clientregistry.NamedThreadFactory;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.stereotype.Component;
+
+/**
+ * An in-memory prefix index of the concept names, used to answer the concept autocomplete of the
+ * search widgets without going to the database, see {@link DWRConceptService#findCountAndConcepts}
+ * and {@link DWRConceptService#findConceptAnswers}. Names are split into lower case words, the
+ * words of each language are kept in a sorted array next to an array of the names they belong to,
+ * so that all the names with a word starting with a prefix are found with two binary searches. A
+ * name matches a phrase when every word of the phrase starts one of its words.<br/>
+ * <br/>
+ * The index is off unless {@value #GP_ENABLED} is true. It is built on a background thread when
+ * the module starts. A committed change to a concept replaces the names of that concept only, see
+ * {@link #update} and {@link ConceptSearchCacheAdvice}, they are kept apart from the names of the
+ * build and merged into the next one once too many concepts changed. Other changes to the
+ * dictionary make the index rebuild, until that is done {@link #search} returns null and callers
+ * search the database as before.
+ */
+@Component("conceptNameIndex")
+public class ConceptNameIndex implements GlobalPropertyListener, ApplicationListener<ContextRefreshedEvent> {
+	
+	private static final Log log = LogFactory.getLog(ConceptNameIndex.class);
+	
+	public static final String GP_ENABLED = "legacyui.conceptNameIndex.enabled";
+	
+	private static final int BATCH_SIZE = 1000;
+	
+	// changed concepts kept apart from the built names before a new build merges them
+	private static final int MAX_CHANGED_CONCEPTS = 1000;
+	
+	private static final Pattern WORD_SEPARATOR = Pattern.compile("[^\\p{L}\\p{N}]+");
+	
+	private static final Comparator<Match> BY_NAME_LENGTH = new Comparator<Match>() {
+		
+		@Override
+		public int compare(Match m1, Match m2) {
+			if (m1.nameLength != m2.nameLength) {
+				return m1.nameLength < m2.nameLength ? -1 : 1;
+			}
+			return Integer.compare(m1.conceptId, m2.conceptId);
+		}
+	};
+	
+	private final ExecutorService builder = Executors.newSingleThreadExecutor(new NamedThreadFactory(
+	        "legacyui-concept-index"));
+	
+	// bumped on every dictionary change, a snapshot is current while it was built from the latest one
+	private final AtomicLong generation = new AtomicLong();
+	
+	private final AtomicBoolean buildScheduled = new AtomicBoolean();
+	
+	private volatile Snapshot snapshot;
+	
+	// the updates made while a build is reading the names, applied again to what it built
+	private List<ConceptUpdate> updatesDuringBuild;
+	
+	private volatile Boolean enabled;
+	
+	/**
+	 * @return true if autocomplete should be answered from the index
+	 */
+	public boolean isEnabled() {
+		if (enabled == null) {
+			enabled = Boolean.valueOf(Context.getAdministrationService().getGlobalProperty(GP_ENABLED, "false").trim());
+		}
+		return enabled;
+	}
+	
+	public void setEnabled(Boolean enabled) {
+		this.enabled = enabled;
+	}
+	
+	/**
+	 * @return true if the index reflects the latest change to the dictionary
+	 */
+	public boolean isCurrent() {
+		Snapshot current = snapshot;
+		return current != null && current.generation == generation.get();
+	}
+	
+	/**
+	 * Finds the concepts with a name matching the given phrase, with the same filters as
+	 * {@link org.openmrs.api.ConceptService#getConcepts(String, List, boolean, List, List, List, List, Concept, Integer, Integer)}
+	 * 
+	 * @param phrase the words to look for, each has to start a word of the name
+	 * @param locales the locales whose languages to search names in
+	 * @param includeRetired whether to include retired concepts
+	 * @param includeClasses the classes to restrict to, if not empty
+	 * @param excludeClasses the classes to leave out
+	 * @param includeDatatypes the datatypes to restrict to, if not empty
+	 * @param excludeDatatypes the datatypes to leave out
+	 * @return one match per concept, the concepts with the shortest matching names first, or null
+	 *         if the index is disabled or out of date and the database has to be searched instead
+	 * @should find names with words starting with every word of the phrase
+	 * @should only search the names in the given locales
+	 * @should apply the retired, class and datatype filters
+	 * @should return null once the dictionary has changed until the index is rebuilt
+	 */
+	public List<Match> search(String phrase, Collection<Locale> locales, boolean includeRetired,
+	        Collection<ConceptClass> includeClasses, Collection<ConceptClass> excludeClasses,
+	        Collection<ConceptDatatype> includeDatatypes, Collection<ConceptDatatype> excludeDatatypes) {
+		return search(phrase, locales, includeRetired, includeClasses, excludeClasses, includeDatatypes,
+		    excludeDatatypes, false);
+	}
+	
+	/**
+	 * Same as {@link #search(String, Collection, boolean, Collection, Collection, Collection, Collection)}
+	 * but able to answer from an index that is out of date, for the pages of a search that was
+	 * counted with the index
+	 * 
+	 * @param evenIfStale whether to search an index that is out of date rather than return null
+	 * @return the matches, or null if the index is disabled or not built, or out of date and
+	 *         evenIfStale is false
+	 * @should search an out of date index when asked to
+	 */
+	public List<Match> search(String phrase, Collection<Locale> locales, boolean includeRetired,
+	        Collection<ConceptClass> includeClasses, Collection<ConceptClass> excludeClasses,
+	        Collection<ConceptDatatype> includeDatatypes, Collection<ConceptDatatype> excludeDatatypes,
+	        boolean evenIfStale) {
+		if (!isEnabled()) {
+			return null;
+		}
+		Snapshot current = snapshot;
+		if (current == null || current.generation != generation.get()) {
+			scheduleBuild();
+			if (current == null || !evenIfStale) {
+				return null;
+			}
+		}
+		
+		String[] words = toWords(phrase);
+		if (words.length == 0) {
+			return new ArrayList<Match>();
+		}
+		Filter filter = new Filter(includeRetired, includeClasses, excludeClasses, includeDatatypes, excludeDatatypes);
+		
+		// the built names of the changed concepts are replaced by the ones they have now
+		Set<Integer> changedConceptIds = current.changes.isEmpty() ? null : current.changes.keySet();
+		Map<Integer, Match> bestMatches = new HashMap<Integer, Match>();
+		for (String language : toLanguages(locales)) {
+			Partition partition = current.partitions.get(language);
+			if (partition != null) {
+				partition.search(words, filter, changedConceptIds, bestMatches);
+			}
+			Partition changedPartition = current.changedPartitions.get(language);
+			if (changedPartition != null) {
+				changedPartition.search(words, filter, null, bestMatches);
+			}
+		}
+		
+		List<Match> matches = new ArrayList<Match>(bestMatches.values());
+		Collections.sort(matches, BY_NAME_LENGTH);
+		return matches;
+	}
+	
+	/**
+	 * Replaces the names of concepts by the ones they have once a change to them is committed,
+	 * without rebuilding the rest of the index
+	 * 
+	 * @param updates the names of the changed concepts in the order of the changes, see
+	 *            {@link ConceptUpdate#of(Concept)} and {@link ConceptUpdate#removalOf(Integer)}
+	 * @should find a changed concept by its new names
+	 * @should not find a purged concept
+	 */
+	public synchronized void update(List<ConceptUpdate> updates) {
+		if (updatesDuringBuild != null) {
+			updatesDuringBuild.addAll(updates);
+		}
+		Snapshot current = snapshot;
+		if (current == null) {
+			return;
+		}
+		snapshot = current.with(updates);
+		if (snapshot.changes.size() > MAX_CHANGED_CONCEPTS) {
+			scheduleBuild();
+		}
+	}
+	
+	/**
+	 * Marks the index out of date and starts rebuilding it, the database is searched until it is
+	 * done. Used for the changes that are not to a single concept, see {@link #update} for those.
+	 */
+	public void markStale() {
+		generation.incrementAndGet();
+		if (snapshot != null) {
+			scheduleBuild();
+		}
+	}
+	
+	/**
+	 * Builds the index from the names in the database, in the calling thread which needs a session
+	 * able to get concepts
+	 */
+	public void rebuild() {
+		long startedAt = System.currentTimeMillis();
+		long buildGeneration = generation.get();
+		
+		synchronized (this) {
+			updatesDuringBuild = new ArrayList<ConceptUpdate>();
+		}
+		int nameCount = 0;
+		try {
+			Map<String, PartitionBuilder> builders = new HashMap<String, PartitionBuilder>();
+			LegacyUIService service = Context.getService(LegacyUIService.class);
+			List<ConceptName> names = service.getConceptNames(null, BATCH_SIZE);
+			while (!names.isEmpty()) {
+				addNames(builders, names);
+				nameCount += names.size();
+				Integer lastId = names.get(names.size() - 1).getConceptNameId();
+				// the names are not needed once their words are taken, keep the session small
+				Context.clearSession();
+				names = service.getConceptNames(lastId, BATCH_SIZE);
+			}
+			
+			Snapshot built = new Snapshot(buildGeneration, build(builders), Collections.<Integer, ConceptUpdate> emptyMap());
+			synchronized (this) {
+				snapshot = built.with(updatesDuringBuild);
+			}
+		}
+		finally {
+			synchronized (this) {
+				updatesDuringBuild = null;
+			}
+		}
+		
+		if (log.isInfoEnabled()) {
+			log.info("Indexed " + nameCount + " concept names in " + (System.currentTimeMillis() - startedAt) + " ms");
+		}
+	}
+	
+	/**
+	 * Builds the index from the given names rather than the ones in the database, for benchmarks
+	 * 
+	 * @param names the non voided names of the dictionary, with their concepts
+	 */
+	void rebuild(Collection<ConceptName> names) {
+		Map<String, PartitionBuilder> builders = new HashMap<String, PartitionBuilder>();
+		addNames(builders, names);
+		snapshot = new Snapshot(generation.get(), build(builders), Collections.<Integer, ConceptUpdate> emptyMap());
+	}
+	
+	/**
+	 * Drops the index, the next search starts a rebuild
+	 */
+	public void clear() {
+		snapshot = null;
+	}
+	
+	/**
+	 * Stops the background builds
+	 */
+	@PreDestroy
+	public void shutdown() {
+		builder.shutdownNow();
+		snapshot = null;
+	}
+	
+	/**
+	 * Builds the index once the module has started
+	 * 
+	 * @see org.springframework.context.ApplicationListener#onApplicationEvent(org.springframework.context.ApplicationEvent)
+	 */
+	@Override
+	public void onApplicationEvent(ContextRefreshedEvent event) {
+		scheduleBuild();
+	}
+	
+	private void scheduleBuild() {
+		if (!buildScheduled.compareAndSet(false, true)) {
+			return;
+		}
+		try {
+			builder.submit(new Runnable() {
+				
+				@Override
+				public void run() {
+					boolean built = false;
+					try {
+						built = buildInSession();
+					}
+					finally {
+						buildScheduled.set(false);
+					}
+					// the dictionary changed while building, or too many concepts did since
+					if (built && (!isCurrent() || hasTooManyChanges())) {
+						scheduleBuild();
+					}
+				}
+			});
+		}
+		catch (RuntimeException e) {
+			buildScheduled.set(false);
+			log.warn("Unable to schedule a build of the concept name index", e);
+		}
+	}
+	
+	private boolean buildInSession() {
+		Context.openSession();
+		try {
+			Context.addProxyPrivilege(PrivilegeConstants.GET_CONCEPTS);
+			if (!isEnabled() || (isCurrent() && !hasTooManyChanges())) {
+				return false;
+			}
+			rebuild();
+			return true;
+		}
+		catch (Exception e) {
+			log.error("Error while building the concept name index, concepts are searched in the database", e);
+			return false;
+		}
+		finally {
+			Context.removeProxyPrivilege(PrivilegeConstants.GET_CONCEPTS);
+			Context.closeSession();
+		}
+	}
+	
+	private boolean hasTooManyChanges() {
+		Snapshot current = snapshot;
+		return current != null && current.changes.size() > MAX_CHANGED_CONCEPTS;
+	}
+	
+	private static PartitionBuilder getBuilder(Map<String, PartitionBuilder> builders, Locale locale) {
+		String language = locale == null ? "" : locale.getLanguage();
+		PartitionBuilder partitionBuilder = builders.get(language);
+		if (partitionBuilder == null) {
+			partitionBuilder = new PartitionBuilder();
+			builders.put(language, partitionBuilder);
+		}
+		return partitionBuilder;
+	}
+	
+	private static void addNames(Map<String, PartitionBuilder> builders, Collection<ConceptName> names) {
+		for (ConceptName name : names) {
+			Concept concept = name.getConcept();
+			getBuilder(builders, name.getLocale()).add(name.getConceptNameId(), name.getName(), concept.getConceptId(),
+			    getClassId(concept), getDatatypeId(concept), concept.getRetired());
+		}
+	}
+	
+	private static Map<String, Partition> build(Map<String, PartitionBuilder> builders) {
+		Map<String, Partition> partitions = new HashMap<String, Partition>();
+		for (Map.Entry<String, PartitionBuilder> entry : builders.entrySet()) {
+			partitions.put(entry.getKey(), entry.getValue().build());
+		}
+		return partitions;
+	}
+	
+	private static int getClassId(Concept concept) {
+		return concept.getConceptClass() == null ? 0 : concept.getConceptClass().getConceptClassId();
+	}
+	
+	private static int getDatatypeId(Concept concept) {
+		return concept.getDatatype() == null ? 0 : concept.getDatatype().getConceptDatatypeId();
+	}
+	
+	static String[] toWords(String text) {
+		if (text == null) {
+			return new String[0];
+		}
+		Set<String> words = new LinkedHashSet<String>();
+		for (String word : WORD_SEPARATOR.split(text.toLowerCase(Locale.ROOT))) {
+			if (word.length() > 0) {
+				words.add(word);
+			}
+		}
+		return words.toArray(new String[words.size()]);
+	}
+	
+	private static Set<String> toLanguages(Collection<Locale> locales) {
+		Set<String> languages = new LinkedHashSet<String>();
+		for (Locale locale : locales) {
+			languages.add(locale.getLanguage());
+		}
+		return languages;
+	}
+	
+	@Override
+	public boolean supportsPropertyName(String propertyName) {
+		return GP_ENABLED.equals(propertyName);
+	}
+	
+	@Override
+	public void globalPropertyChanged(GlobalProperty newValue) {
+		enabled = null;
+		snapshot = null;
+		scheduleBuild();
+	}
+	
+	@Override
+	public void globalPropertyDeleted(String propertyName) {
+		enabled = null;
+		snapshot = null;
+	}
+	
+	/**
+	 * A concept found by {@link ConceptNameIndex#search}, with the shortest of its matching names
+	 */
+	public static class Match {
+		
+		private final int conceptId;
+		
+		private final int conceptNameId;
+		
+		private final int nameLength;
+		
+		private Match(int conceptId, int conceptNameId, int nameLength) {
+			this.conceptId = conceptId;
+			this.conceptNameId = conceptNameId;
+			this.nameLength = nameLength;
+		}
+		
+		public Integer getConceptId() {
+			return conceptId;
+		}
+		
+		public Integer getConceptNameId() {
+			return conceptNameId;
+		}
+	}
+	
+	/**
+	 * The names a concept has once a change to it is committed, taken from the concept while the
+	 * transaction that changed it is still open, see {@link ConceptNameIndex#update}
+	 */
+	public static class ConceptUpdate {
+		
+		private final int conceptId;
+		
+		private final int classId;
+		
+		private final int datatypeId;
+		
+		private final boolean retired;
+		
+		// empty once the concept is purged
+		private final List<ConceptName> names;
+		
+		private ConceptUpdate(int conceptId, int classId, int datatypeId, boolean retired, List<ConceptName> names) {
+			this.conceptId = conceptId;
+			this.classId = classId;
+			this.datatypeId = datatypeId;
+			this.retired = retired;
+			this.names = names;
+		}
+		
+		/**
+		 * @param concept the saved, retired or unretired concept
+		 * @return the update, or null if the concept or one of its names is not saved yet
+		 */
+		public static ConceptUpdate of(Concept concept) {
+			if (concept.getConceptId() == null) {
+				return null;
+			}
+			List<ConceptName> names = new ArrayList<ConceptName>();
+			for (ConceptName name : concept.getNames()) {
+				if (!name.getVoided()) {
+					if (name.getConceptNameId() == null) {
+						return null;
+					}
+					// detached copies, the session of the concept is gone by the time they are indexed
+					ConceptName copy = new ConceptName(name.getName(), name.getLocale());
+					copy.setConceptNameId(name.getConceptNameId());
+					names.add(copy);
+				}
+			}
+			return new ConceptUpdate(concept.getConceptId(), getClassId(concept), getDatatypeId(concept), concept
+			        .getRetired(), names);
+		}
+		
+		/**
+		 * @param conceptId the id of the purged concept
+		 * @return the update taking the names of the concept out of the index
+		 */
+		public static ConceptUpdate removalOf(Integer conceptId) {
+			return new ConceptUpdate(conceptId, 0, 0, false, Collections.<ConceptName> emptyList());
+		}
+	}
+	
+	/**
+	 * What the index holds at one time, never changed once searches can see it
+	 */
+	private static class Snapshot {
+		
+		private final long generation;
+		
+		private final Map<String, Partition> partitions;
+		
+		// the concepts changed since the partitions were built, by id
+		private final Map<Integer, ConceptUpdate> changes;
+		
+		// the names of the changed concepts
+		private final Map<String, Partition> changedPartitions;
+		
+		private Snapshot(long generation, Map<String, Partition> partitions, Map<Integer, ConceptUpdate> changes) {
+			this.generation = generation;
+			this.partitions = partitions;
+			this.changes = changes;
+			
+			Map<String, PartitionBuilder> builders = new HashMap<String, PartitionBuilder>();
+			for (ConceptUpdate update : changes.values()) {
+				for (ConceptName name : update.names) {
+					getBuilder(builders, name.getLocale()).add(name.getConceptNameId(), name.getName(), update.conceptId,
+					    update.classId, update.datatypeId, update.retired);
+				}
+			}
+			this.changedPartitions = build(builders);
+		}
+		
+		private Snapshot with(List<ConceptUpdate> updates) {
+			if (updates.isEmpty()) {
+				return this;
+			}
+			Map<Integer, ConceptUpdate> newChanges = new HashMap<Integer, ConceptUpdate>(changes);
+			for (ConceptUpdate update : updates) {
+				newChanges.put(update.conceptId, update);
+			}
+			return new Snapshot(generation, partitions, newChanges);
+		}
+	}
+	
+	/**
+	 * The names of one language, the arrays indexed by name hold what the filters need so that
+	 * nothing is loaded while searching
+	 */
+	private static class Partition {
+		
+		private final String[] words;
+		
+		// the name each word belongs to
+		private final int[] wordNames;
+		
+		private final int[] nameIds;
+		
+		private final int[] conceptIds;
+		
+		private final int[] nameLengths;
+		
+		private final int[] classIds;
+		
+		private final int[] datatypeIds;
+		
+		private final BitSet retired;
+		
+		private Partition(String[] words, int[] wordNames, int[] nameIds, int[] conceptIds, int[] nameLengths,
+		    int[] classIds, int[] datatypeIds, BitSet retired) {
+			this.words = words;
+			this.wordNames = wordNames;
+			this.nameIds = nameIds;
+			this.conceptIds = conceptIds;
+			this.nameLengths = nameLengths;
+			this.classIds = classIds;
+			this.datatypeIds = datatypeIds;
+			this.retired = retired;
+		}
+		
+		private void search(String[] prefixes, Filter filter, Set<Integer> skippedConceptIds,
+		        Map<Integer, Match> bestMatches) {
+			BitSet names = null;
+			for (String prefix : prefixes) {
+				BitSet found = namesWithWordStartingWith(prefix);
+				if (names == null) {
+					names = found;
+				} else {
+					names.and(found);
+				}
+				if (names.isEmpty()) {
+					return;
+				}
+			}
+			
+			for (int name = names.nextSetBit(0); name >= 0; name = names.nextSetBit(name + 1)) {
+				if (filter.accepts(retired.get(name), classIds[name], datatypeIds[name])
+				        && (skippedConceptIds == null || !skippedConceptIds.contains(conceptIds[name]))) {
+					Match best = bestMatches.get(conceptIds[name]);
+					if (best == null || nameLengths[name] < best.nameLength) {
+						bestMatches.put(conceptIds[name], new Match(conceptIds[name], nameIds[name], nameLengths[name]));
+					}
+				}
+			}
+		}
+		
+		private BitSet namesWithWordStartingWith(String prefix) {
+			BitSet names = new BitSet(nameIds.length);
+			int from = lowerBound(prefix);
+			int to = lowerBound(prefix + Character.MAX_VALUE);
+			for (int i = from; i < to; i++) {
+				names.set(wordNames[i]);
+			}
+			return names;
+		}
+		
+		private int lowerBound(String key) {
+			int low = 0;
+			int high = words.length;
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				if (words[mid].compareTo(key) < 0) {
+					low = mid + 1;
+				} else {
+					high = mid;
+				}
+			}
+			return low;
+		}
+	}
+	
+	private static class PartitionBuilder {
+		
+		private final List<WordEntry> entries = new ArrayList<WordEntry>();
+		
+		private int[] nameIds = new int[16];
+		
+		private int[] conceptIds = new int[16];
+		
+		private int[] nameLengths = new int[16];
+		
+		private int[] classIds = new int[16];
+		
+		private int[] datatypeIds = new int[16];
+		
+		private final BitSet retired = new BitSet();
+		
+		private int nameCount;
+		
+		private void add(int nameId, String name, int conceptId, int classId, int datatypeId, boolean isRetired) {
+			if (nameCount == nameIds.length) {
+				int capacity = nameCount * 2;
+				nameIds = Arrays.copyOf(nameIds, capacity);
+				conceptIds = Arrays.copyOf(conceptIds, capacity);
+				nameLengths = Arrays.copyOf(nameLengths, capacity);
+				classIds = Arrays.copyOf(classIds, capacity);
+				datatypeIds = Arrays.copyOf(datatypeIds, capacity);
+			}
+			nameIds[nameCount] = nameId;
+			conceptIds[nameCount] = conceptId;
+			nameLengths[nameCount] = name.length();
+			classIds[nameCount] = classId;
+			datatypeIds[nameCount] = datatypeId;
+			retired.set(nameCount, isRetired);
+			for (String word : toWords(name)) {
+				entries.add(new WordEntry(word, nameCount));
+			}
+			nameCount++;
+		}
+		
+		private Partition build() {
+			Collections.sort(entries);
+			String[] words = new String[entries.size()];
+			int[] wordNames = new int[entries.size()];
+			for (int i = 0; i < words.length; i++) {
+				// the same words come up over and over, share their strings
+				words[i] = i > 0 && entries.get(i).word.equals(words[i - 1]) ? words[i - 1] : entries.get(i).word;
+				wordNames[i] = entries.get(i).name;
+			}
+			return new Partition(words, wordNames, Arrays.copyOf(nameIds, nameCount), Arrays.copyOf(conceptIds, nameCount),
+			        Arrays.copyOf(nameLengths, nameCount), Arrays.copyOf(classIds, nameCount), Arrays.copyOf(datatypeIds,
+			            nameCount), retired);
+		}
+	}
+	
+	private static class WordEntry implements Comparable<WordEntry> {
+		
+		private final String word;
+		
+		private final int name;
+		
+		private WordEntry(String word, int name) {
+			this.word = word;
+			this.name = name;
+		}
+		
+		@Override
+		public int compareTo(WordEntry other) {
+			return word.compareTo(other.word);
+		}
+	}
+	
+	/**
+	 * The retired, class and datatype filters of a search, as ids
+	 */
+	private static class Filter {
+		
+		private final boolean includeRetired;
+		
+		private final Set<Integer> includeClassIds;
+		
+		private final Set<Integer> excludeClassIds;
+		
+		private final Set<Integer> includeDatatypeIds;
+		
+		private final Set<Integer> excludeDatatypeIds;
+		
+		private Filter(boolean includeRetired, Collection<ConceptClass> includeClasses,
+		    Collection<ConceptClass> excludeClasses, Collection<ConceptDatatype> includeDatatypes,
+		    Collection<ConceptDatatype> excludeDatatypes) {
+			this.includeRetired = includeRetired;
+			this.includeClassIds = toClassIds(includeClasses);
+			this.excludeClassIds = toClassIds(excludeClasses);
+			this.includeDatatypeIds = toDatatypeIds(includeDatatypes);
+			this.excludeDatatypeIds = toDatatypeIds(excludeDatatypes);
+		}
+		
+		private boolean accepts(boolean retired, int classId, int datatypeId) {
+			return (includeRetired || !retired) && (includeClassIds == null || includeClassIds.contains(classId))
+			        && (excludeClassIds == null || !excludeClassIds.contains(classId))
+			        && (includeDatatypeIds == null || includeDatatypeIds.contains(datatypeId))
+			        && (excludeDatatypeIds == null || !excludeDatatypeIds.contains(datatypeId));
+		}
+		
+		// null when there is nothing to filter on, names that did not resolve match no class
+		private static Set<Integer> toClassIds(Collection<ConceptClass> conceptClasses) {
+			if (conceptClasses == null || conceptClasses.isEmpty()) {
+				return null;
+			}
+			Set<Integer> ids = new HashSet<Integer>();
+			for (ConceptClass conceptClass : conceptClasses) {
+				if (conceptClass != null) {
+					ids.add(conceptClass.getConceptClassId());
+				}
+			}
+			return ids;
+		}
+		
+		private static Set<Integer> toDatatypeIds(Collection<ConceptDatatype> conceptDatatypes) {
+			if (conceptDatatypes == null || conceptDatatypes.isEmpty()) {
+				return null;
+			}
+			Set<Integer> ids = new HashSet<Integer>();
+			for (ConceptDatatype conceptDatatype : conceptDatatypes) {
+				if (conceptDatatype != null) {
+					ids.add(conceptDatatype.getConceptDatatypeId());
+				}
+			}
+			return ids;
+		}
+	}
+}
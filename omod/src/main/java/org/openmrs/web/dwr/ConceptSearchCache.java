@@ -0,0 +1,332 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.web.dwr;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang.StringUtils;
+import org.openmrs.ConceptClass;
+import org.openmrs.ConceptDatatype;
+import org.openmrs.api.ConceptService;
+import org.openmrs.api.context.Context;
+import org.openmrs.util.PrivilegeConstants;
+import org.openmrs.web.cache.ExpiringCache;
+import org.springframework.stereotype.Component;
+
+/**
+ * Holds the results of the concept searches run by the concept search widgets, see
+ * {@link DWRConceptService#findCountAndConcepts}. The same few searches are repeated all day by form
+ * designers and clinicians, so counts and pages of list items are kept for a while, keyed by
+ * everything that affects them. The class and datatype names the widgets filter on are resolved
+ * once. Everything is dropped whenever a change to the dictionary is committed, see
+ * {@link ConceptSearchCacheAdvice}, and results read before that are not cached anymore.<br/>
+ * <br/>
+ * A search is answered by the {@link ConceptNameIndex} or by the database, which order concepts
+ * differently. The count and the pages of a search are separate requests, so the backend that
+ * counted a search is remembered and its pages are read from the same one, see
+ * {@link #pinSource(Key, boolean)}.
+ */
+@Component("conceptSearchCache")
+public class ConceptSearchCache {
+	
+	private static final int MAX_ENTRIES = 1000;
+	
+	private static final long TTL_MILLIS = TimeUnit.MINUTES.toMillis(30);
+	
+	// stands for names that do not match any class or datatype
+	private static final Integer NOT_FOUND = -1;
+	
+	private final ExpiringCache<Key, List<ConceptListItem>> pages = new ExpiringCache<Key, List<ConceptListItem>>(
+	        MAX_ENTRIES, TTL_MILLIS);
+	
+	private final ExpiringCache<Key, Integer> counts = new ExpiringCache<Key, Integer>(MAX_ENTRIES, TTL_MILLIS);
+	
+	// kept across clears and longer than the counts, the pages of a cached count need its backend
+	private final ExpiringCache<Key, Boolean> sources = new ExpiringCache<Key, Boolean>(MAX_ENTRIES * 2, TTL_MILLIS * 2);
+	
+	private final Map<String, Integer> conceptClassIds = new ConcurrentHashMap<String, Integer>();
+	
+	private final Map<String, Integer> conceptDatatypeIds = new ConcurrentHashMap<String, Integer>();
+	
+	// incremented by each clear, results read before a clear are stale
+	private final AtomicLong generation = new AtomicLong();
+	
+	/**
+	 * @param key the search
+	 * @return a copy of the page of list items found by the search, or null if it is not cached or
+	 *         the user may not see concepts
+	 * @should return a copy of the cached page
+	 */
+	public List<ConceptListItem> getPage(Key key) {
+		if (!Context.hasPrivilege(PrivilegeConstants.GET_CONCEPTS)) {
+			// let the search run and fail as it would without the cache
+			return null;
+		}
+		List<ConceptListItem> page = pages.get(key);
+		return page == null ? null : new ArrayList<ConceptListItem>(page);
+	}
+	
+	/**
+	 * @param key the search
+	 * @param page the page of list items found by the search
+	 * @param generation the generation of the cache when the search started, see
+	 *            {@link #getGeneration()}
+	 * @should not keep a page read before the cache was cleared
+	 */
+	public void putPage(Key key, List<ConceptListItem> page, long generation) {
+		if (generation == this.generation.get()) {
+			pages.put(key, new ArrayList<ConceptListItem>(page));
+		}
+	}
+	
+	/**
+	 * @param key the search, without start and length
+	 * @return the number of concepts matching the search, or null if it is not cached or the user
+	 *         may not see concepts
+	 */
+	public Integer getCount(Key key) {
+		if (!Context.hasPrivilege(PrivilegeConstants.GET_CONCEPTS)) {
+			return null;
+		}
+		return counts.get(key);
+	}
+	
+	/**
+	 * @param key the search, without start and length
+	 * @param count the number of concepts matching the search
+	 * @param generation the generation of the cache when the search started, see
+	 *            {@link #getGeneration()}
+	 */
+	public void putCount(Key key, int count, long generation) {
+		if (generation == this.generation.get()) {
+			counts.put(key, count);
+		}
+	}
+	
+	/**
+	 * Remembers which backend counted a search, so that its pages come from the same one
+	 * 
+	 * @param key the search, without start and length
+	 * @param fromIndex true if the search was counted with the {@link ConceptNameIndex}, false if
+	 *            it was counted in the database
+	 * @should pin the backend of a search until it is counted again
+	 */
+	public void pinSource(Key key, boolean fromIndex) {
+		sources.put(key, fromIndex);
+	}
+	
+	/**
+	 * @param key the search, without start and length
+	 * @return true if the pages of the search have to come from the {@link ConceptNameIndex}, false
+	 *         if they have to come from the database, null if the search was not counted lately
+	 */
+	public Boolean getPinnedSource(Key key) {
+		return sources.get(key);
+	}
+	
+	/**
+	 * @return the current generation of the cache, to be read before searching and passed along
+	 *         with what the search found so that it is not cached if the dictionary changed meanwhile
+	 */
+	public long getGeneration() {
+		return generation.get();
+	}
+	
+	/**
+	 * Resolves class names, only the first lookup of each name runs a query
+	 * 
+	 * @param names the names of the classes, blank names are skipped
+	 * @return the classes, with a null element for each name that does not match a class
+	 * @should resolve each name only once
+	 */
+	public List<ConceptClass> getConceptClasses(Collection<String> names) {
+		ConceptService cs = Context.getConceptService();
+		List<ConceptClass> conceptClasses = new ArrayList<ConceptClass>();
+		for (String name : names) {
+			if (!"".equals(name)) {
+				Integer id = conceptClassIds.get(name);
+				ConceptClass conceptClass;
+				if (id == null) {
+					conceptClass = cs.getConceptClassByName(name);
+					conceptClassIds.put(name, conceptClass == null ? NOT_FOUND : conceptClass.getConceptClassId());
+				} else {
+					conceptClass = NOT_FOUND.equals(id) ? null : cs.getConceptClass(id);
+				}
+				conceptClasses.add(conceptClass);
+			}
+		}
+		return conceptClasses;
+	}
+	
+	/**
+	 * Resolves datatype names, only the first lookup of each name runs a query
+	 * 
+	 * @param names the names of the datatypes, blank names are skipped
+	 * @return the datatypes, with a null element for each name that does not match a datatype
+	 */
+	public List<ConceptDatatype> getConceptDatatypes(Collection<String> names) {
+		ConceptService cs = Context.getConceptService();
+		List<ConceptDatatype> conceptDatatypes = new ArrayList<ConceptDatatype>();
+		for (String name : names) {
+			if (!"".equals(name)) {
+				Integer id = conceptDatatypeIds.get(name);
+				ConceptDatatype conceptDatatype;
+				if (id == null) {
+					conceptDatatype = cs.getConceptDatatypeByName(name);
+					conceptDatatypeIds.put(name, conceptDatatype == null ? NOT_FOUND : conceptDatatype
+					        .getConceptDatatypeId());
+				} else {
+					conceptDatatype = NOT_FOUND.equals(id) ? null : cs.getConceptDatatype(id);
+				}
+				conceptDatatypes.add(conceptDatatype);
+			}
+		}
+		return conceptDatatypes;
+	}
+	
+	/**
+	 * Drops all the cached searches and resolved names
+	 */
+	public void clear() {
+		generation.incrementAndGet();
+		pages.clear();
+		counts.clear();
+		conceptClassIds.clear();
+		conceptDatatypeIds.clear();
+	}
+	
+	public int size() {
+		return pages.size() + counts.size();
+	}
+	
+	/**
+	 * Identifies a concept search by everything its results depend on
+	 */
+	public static final class Key {
+		
+		private final String phrase;
+		
+		private final List<Locale> searchLocales;
+		
+		private final Locale locale;
+		
+		private final boolean includeRetired;
+		
+		private final Set<String> includeClassNames;
+		
+		private final Set<String> excludeClassNames;
+		
+		private final Set<String> includeDatatypeNames;
+		
+		private final Set<String> excludeDatatypeNames;
+		
+		private final Integer start;
+		
+		private final Integer length;
+		
+		private final Boolean fromIndex;
+		
+		/**
+		 * @param phrase the text searched for, case and runs of spaces do not matter
+		 * @param searchLocales the locales searched
+		 * @param locale the locale of the user, messages and names in the results depend on it
+		 * @param includeRetired whether retired concepts are searched as well
+		 * @param includeClassNames the classes to restrict to, their order does not matter
+		 * @param excludeClassNames the classes to leave out
+		 * @param includeDatatypeNames the datatypes to restrict to
+		 * @param excludeDatatypeNames the datatypes to leave out
+		 * @param start the index of the first result, null for a count
+		 * @param length the number of results, null for a count or all of them
+		 * @should ignore case, runs of spaces and the order of filters
+		 * @should tell pages and filters apart
+		 */
+		public Key(String phrase, List<Locale> searchLocales, Locale locale, boolean includeRetired,
+		    Collection<String> includeClassNames, Collection<String> excludeClassNames,
+		    Collection<String> includeDatatypeNames, Collection<String> excludeDatatypeNames, Integer start, Integer length) {
+			this.phrase = StringUtils.defaultString(phrase).replaceAll("\\s+", " ").toLowerCase();
+			this.searchLocales = new ArrayList<Locale>(searchLocales);
+			this.locale = locale;
+			this.includeRetired = includeRetired;
+			this.includeClassNames = toSet(includeClassNames);
+			this.excludeClassNames = toSet(excludeClassNames);
+			this.includeDatatypeNames = toSet(includeDatatypeNames);
+			this.excludeDatatypeNames = toSet(excludeDatatypeNames);
+			this.start = start;
+			this.length = length;
+			this.fromIndex = null;
+		}
+		
+		private Key(Key key, Boolean fromIndex) {
+			this.phrase = key.phrase;
+			this.searchLocales = key.searchLocales;
+			this.locale = key.locale;
+			this.includeRetired = key.includeRetired;
+			this.includeClassNames = key.includeClassNames;
+			this.excludeClassNames = key.excludeClassNames;
+			this.includeDatatypeNames = key.includeDatatypeNames;
+			this.excludeDatatypeNames = key.excludeDatatypeNames;
+			this.start = key.start;
+			this.length = key.length;
+			this.fromIndex = fromIndex;
+		}
+		
+		/**
+		 * @param fromIndex the backend pinned for the search, see {@link ConceptSearchCache#pinSource}
+		 * @return the same search answered by the given backend, pages read from another backend are
+		 *         not returned for it
+		 */
+		public Key withSource(Boolean fromIndex) {
+			return new Key(this, fromIndex);
+		}
+		
+		private static Set<String> toSet(Collection<String> names) {
+			Set<String> set = new TreeSet<String>();
+			if (names != null) {
+				for (String name : names) {
+					if (StringUtils.isNotEmpty(name)) {
+						set.add(name);
+					}
+				}
+			}
+			return set;
+		}
+		
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) obj;
+			return phrase.equals(other.phrase) && searchLocales.equals(other.searchLocales)
+			        && Objects.equals(locale, other.locale) && includeRetired == other.includeRetired
+			        && includeClassNames.equals(other.includeClassNames)
+			        && excludeClassNames.equals(other.excludeClassNames)
+			        && includeDatatypeNames.equals(other.includeDatatypeNames)
+			        && excludeDatatypeNames.equals(other.excludeDatatypeNames) && Objects.equals(start, other.start)
+			        && Objects.equals(length, other.length) && Objects.equals(fromIndex, other.fromIndex);
+		}
+		
+		@Override
+		public int hashCode() {
+			return Objects.hash(phrase, searchLocales, locale, includeRetired, includeClassNames, excludeClassNames,
+			    includeDatatypeNames, excludeDatatypeNames, start, length, fromIndex);
+		}
+	}
+}
@@ -0,0 +1,163 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.web.dwr;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.Concept;
+import org.openmrs.ConceptClass;
+import org.openmrs.ConceptDatatype;
+import org.openmrs.ConceptName;
+import org.openmrs.api.context.Context;
+import org.openmrs.web.flowsheet.FlowsheetRenderer;
+import org.springframework.aop.AfterReturningAdvice;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Drops the {@link ConceptSearchCache} and the concept names of the {@link FlowsheetRenderer}
+ * whenever a {@link org.openmrs.api.ConceptService} method that changes the dictionary returns, so
+ * that saved, retired or purged concepts, names, classes and datatypes show up in the next search.
+ * The {@link ConceptNameIndex} replaces the names of a saved, retired or purged concept, and only
+ * rebuilds after a change to names, concept classes or datatypes, which many concepts may share.
+ * Reference terms, stop words, proposals, sources and the like are not indexed and leave it as it
+ * is. Inside a transaction this is done once it commits, a search running before that would
+ * otherwise cache what the dictionary was like before the change.
+ */
+public class ConceptSearchCacheAdvice implements AfterReturningAdvice {
+	
+	private static final Log log = LogFactory.getLog(ConceptSearchCacheAdvice.class);
+	
+	private static final String[] CHANGING_METHOD_PREFIXES = { "save", "retire", "unretire", "purge", "update",
+	        "void", "unvoid" };
+	
+	/**
+	 * @see org.springframework.aop.AfterReturningAdvice#afterReturning(java.lang.Object,
+	 *      java.lang.reflect.Method, java.lang.Object[], java.lang.Object)
+	 * @should clear the cache after a concept is saved
+	 * @should clear the cache only once the transaction commits
+	 * @should keep the cache after a concept is fetched
+	 * @should update the index entries of the saved concept only
+	 * @should mark the index stale after a concept class is saved
+	 * @should leave the index current after a reference term or stop word is saved
+	 */
+	@Override
+	public void afterReturning(Object returnValue, Method method, Object[] args, Object target) throws Throwable {
+		if (isChangingMethod(method.getName())) {
+			boolean inTransaction = TransactionSynchronizationManager.isSynchronizationActive();
+			InvalidateOnCommit invalidation = inTransaction ? getRegistered() : null;
+			if (invalidation == null) {
+				invalidation = new InvalidateOnCommit(method.getName());
+				if (inTransaction) {
+					TransactionSynchronizationManager.registerSynchronization(invalidation);
+				}
+			}
+			
+			// the names of the concept are read now, while its session is open
+			Object changed = returnValue;
+			if (!(changed instanceof Concept) && args != null && args.length > 0) {
+				changed = args[0];
+			}
+			if (changed instanceof Concept) {
+				invalidation.add(toIndexUpdate(method.getName(), (Concept) changed));
+			} else if (changesManyConcepts(changed)) {
+				invalidation.add(null);
+			}
+			
+			if (!inTransaction) {
+				invalidation.afterCommit();
+			}
+		}
+	}
+	
+	private static ConceptNameIndex.ConceptUpdate toIndexUpdate(String methodName, Concept concept) {
+		if (methodName.startsWith("purge")) {
+			return concept.getConceptId() == null ? null : ConceptNameIndex.ConceptUpdate.removalOf(concept
+			        .getConceptId());
+		}
+		return ConceptNameIndex.ConceptUpdate.of(concept);
+	}
+	
+	/**
+	 * @return true if the indexed names, classes or datatypes of concepts other than the changed
+	 *         object itself may have changed
+	 */
+	private static boolean changesManyConcepts(Object changed) {
+		return changed instanceof ConceptName || changed instanceof ConceptClass || changed instanceof ConceptDatatype;
+	}
+	
+	private static InvalidateOnCommit getRegistered() {
+		// a transaction saving many concepts clears the cache once
+		for (TransactionSynchronization synchronization : TransactionSynchronizationManager.getSynchronizations()) {
+			if (synchronization instanceof InvalidateOnCommit) {
+				return (InvalidateOnCommit) synchronization;
+			}
+		}
+		return null;
+	}
+	
+	static boolean isChangingMethod(String methodName) {
+		for (String prefix : CHANGING_METHOD_PREFIXES) {
+			if (methodName.startsWith(prefix)) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Invalidates the cache and updates the index once the transaction that changed the dictionary
+	 * commits
+	 */
+	static class InvalidateOnCommit extends TransactionSynchronizationAdapter {
+		
+		private final String methodName;
+		
+		private final List<ConceptNameIndex.ConceptUpdate> indexUpdates = new ArrayList<ConceptNameIndex.ConceptUpdate>();
+		
+		// whether a change could not be turned into index updates
+		private boolean indexStale;
+		
+		private InvalidateOnCommit(String methodName) {
+			this.methodName = methodName;
+		}
+		
+		/**
+		 * @param indexUpdate the update of a changed concept, null if the index has to be rebuilt
+		 */
+		private void add(ConceptNameIndex.ConceptUpdate indexUpdate) {
+			if (indexUpdate == null) {
+				indexStale = true;
+			} else {
+				indexUpdates.add(indexUpdate);
+			}
+		}
+		
+		@Override
+		public void afterCommit() {
+			if (log.isDebugEnabled()) {
+				log.debug("Clearing the concept search cache after " + methodName);
+			}
+			Context.getRegisteredComponent("conceptSearchCache", ConceptSearchCache.class).clear();
+			Context.getRegisteredComponent("flowsheetRenderer", FlowsheetRenderer.class).clearConceptNames();
+			
+			ConceptNameIndex index = Context.getRegisteredComponent("conceptNameIndex", ConceptNameIndex.class);
+			if (indexStale) {
+				index.markStale();
+			}
+			index.update(indexUpdates);
+		}
+	}
+}
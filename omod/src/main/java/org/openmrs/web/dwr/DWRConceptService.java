@@ -43,10 +43,13 @@ import org.openmrs.api.ConceptsLockedException;
 import org.openmrs.api.FormService;
 import org.openmrs.api.context.Context;
 import org.openmrs.messagesource.MessageSourceService;
+import org.openmrs.module.legacyui.api.LegacyUIService;
 import org.openmrs.util.OpenmrsConstants;
 import org.openmrs.util.OpenmrsUtil;
 import org.openmrs.validator.ConceptReferenceTermValidator;
 import org.owasp.encoder.Encode;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.springframework.validation.BindException;
 import org.springframework.validation.Errors;
 import org.springframework.validation.ObjectError;
@@ -141,96 +144,34 @@ public class DWRConceptService {
 		}
 		
 		try {
-			ConceptService cs = Context.getConceptService();
-			Set<ConceptSearchResult> searchResults = new HashSet<ConceptSearchResult>();
-			
+			List<ConceptListItem> page = null;
 			if (!StringUtils.isBlank(phrase)) {
-				// search by id or uuid
-				Concept c = null;
-				
-				Matcher m = NUMERIC.matcher(phrase);
-				if (m.matches()) {
-					c = cs.getConcept(Integer.valueOf(phrase));
-				} else if (phrase.length() == 36) {
-					c = cs.getConceptByUuid(phrase);
-				}
-				
-				if (c != null) {
-					if (!c.getRetired() || includeRetired) {
-						String conceptClassName = null;
-						if (c.getConceptClass() != null) {
-							conceptClassName = c.getConceptClass().getName();
-						}
-						String conceptDatatypeName = null;
-						if (c.getDatatype() != null) {
-							conceptDatatypeName = c.getDatatype().getName();
-						}
-						
-						if ((includeClassNames.isEmpty() || includeClassNames.contains(conceptClassName))
-						        && (excludeClassNames.isEmpty() || !excludeClassNames.contains(conceptClassName))
-						        && (includeDatatypeNames.isEmpty() || includeDatatypeNames.contains(conceptDatatypeName))
-						        && (excludeDatatypeNames.isEmpty() || !excludeDatatypeNames.contains(conceptDatatypeName))) {
-							ConceptName cn = c.getName(defaultLocale);
-							ConceptSearchResult searchResult = new ConceptSearchResult(phrase, c, cn);
-							searchResults.add(searchResult);
-						}
-					}
-				}
-				
-				// turn classnames into class objects
-				List<ConceptClass> includeClasses = new ArrayList<ConceptClass>();
-				for (String name : includeClassNames) {
-					if (!"".equals(name)) {
-						includeClasses.add(cs.getConceptClassByName(name));
-					}
-				}
-				
-				// turn classnames into class objects
-				List<ConceptClass> excludeClasses = new ArrayList<ConceptClass>();
-				for (String name : excludeClassNames) {
-					if (!"".equals(name)) {
-						excludeClasses.add(cs.getConceptClassByName(name));
-					}
-				}
-				
-				// turn classnames into class objects
-				List<ConceptDatatype> includeDatatypes = new ArrayList<ConceptDatatype>();
-				for (String name : includeDatatypeNames) {
-					if (!"".equals(name)) {
-						includeDatatypes.add(cs.getConceptDatatypeByName(name));
-					}
-				}
-				
-				// turn classnames into class objects
-				List<ConceptDatatype> excludeDatatypes = new ArrayList<ConceptDatatype>();
-				for (String name : excludeDatatypeNames) {
-					if (!"".equals(name)) {
-						excludeDatatypes.add(cs.getConceptDatatypeByName(name));
-					}
+				// the widgets repeat the same searches over and over, see ConceptSearchCache
+				final ConceptSearchCache cache = getConceptSearchCache();
+				// the pages come from the backend that counted the search, so that they add up to the count
+				Boolean fromIndex = cache.getPinnedSource(new ConceptSearchCache.Key(phrase, searchLocales, defaultLocale,
+				        includeRetired, includeClassNames, excludeClassNames, includeDatatypeNames, excludeDatatypeNames,
+				        null, null));
+				final ConceptSearchCache.Key key = new ConceptSearchCache.Key(phrase, searchLocales, defaultLocale,
+				        includeRetired, includeClassNames, excludeClassNames, includeDatatypeNames, excludeDatatypeNames,
+				        start, length).withSource(fromIndex);
+				page = cache.getPage(key);
+				if (page == null) {
+					final long generation = cache.getGeneration();
+					final List<ConceptListItem> found = searchConcepts(phrase, includeRetired, includeClassNames,
+					    excludeClassNames, includeDatatypeNames, excludeDatatypeNames, searchLocales, start, length,
+					    fromIndex);
+					cacheOnceCommitted(() -> cache.putPage(key, found, generation));
+					page = found;
 				}
-				
-				// perform the search
-				searchResults.addAll(cs.getConcepts(phrase, searchLocales, includeRetired, includeClasses, excludeClasses,
-				    includeDatatypes, excludeDatatypes, null, start, length));
-				
-				//TODO Should we still include drugs, if yes, smartly harmonize the paging between the two different DB tables
-				//look ups to match the values of start and length not to go over the value of count of matches returned to the search widget
-				//List<Drug> drugs = null;
-				//if (includeDrugConcepts)
-				//	drugs = cs.getDrugs(phrase, null, false, includeRetired, null, null);
-				
 			}
 			
-			if (searchResults.size() < 1) {
+			if (page == null || page.isEmpty()) {
 				String htmlSafePhrase = "<b>" + Encode.forHtml(phrase) + "</b>";
 				objectList.add(Context.getMessageSourceService().getMessage("general.noMatchesFoundInLocale",
 				    new Object[] { htmlSafePhrase, OpenmrsUtil.join(searchLocales, ", ") }, Context.getLocale()));
 			} else {
-				// turn searchResults into concept list items
-				// if user wants drug concepts included, append those
-				for (ConceptSearchResult searchResult : searchResults) {
-					objectList.add(new ConceptListItem(searchResult));
-				}
+				objectList.addAll(page);
 			}
 		}
 		catch (Exception e) {
@@ -247,6 +188,176 @@ public class DWRConceptService {
 		return objectList;
 	}
 	
+	/**
+	 * Runs the search behind {@link #findBatchOfConcepts}, looking the phrase up as a concept id or
+	 * uuid as well as a name
+	 * 
+	 * @param fromIndex the backend that counted the search, null to search the name index if it is
+	 *            up to date and the database otherwise
+	 * @return the list items for the concepts found, empty if there are none
+	 */
+	private List<ConceptListItem> searchConcepts(String phrase, boolean includeRetired, List<String> includeClassNames,
+	        List<String> excludeClassNames, List<String> includeDatatypeNames, List<String> excludeDatatypeNames,
+	        List<Locale> searchLocales, Integer start, Integer length, Boolean fromIndex) {
+		ConceptService cs = Context.getConceptService();
+		Locale defaultLocale = Context.getLocale();
+		Set<ConceptSearchResult> searchResults = new HashSet<ConceptSearchResult>();
+		
+		// search by id or uuid
+		Concept c = null;
+		
+		Matcher m = NUMERIC.matcher(phrase);
+		if (m.matches()) {
+			c = cs.getConcept(Integer.valueOf(phrase));
+		} else if (phrase.length() == 36) {
+			c = cs.getConceptByUuid(phrase);
+		}
+		
+		if (c != null) {
+			if (!c.getRetired() || includeRetired) {
+				String conceptClassName = null;
+				if (c.getConceptClass() != null) {
+					conceptClassName = c.getConceptClass().getName();
+				}
+				String conceptDatatypeName = null;
+				if (c.getDatatype() != null) {
+					conceptDatatypeName = c.getDatatype().getName();
+				}
+				
+				if ((includeClassNames.isEmpty() || includeClassNames.contains(conceptClassName))
+				        && (excludeClassNames.isEmpty() || !excludeClassNames.contains(conceptClassName))
+				        && (includeDatatypeNames.isEmpty() || includeDatatypeNames.contains(conceptDatatypeName))
+				        && (excludeDatatypeNames.isEmpty() || !excludeDatatypeNames.contains(conceptDatatypeName))) {
+					ConceptName cn = c.getName(defaultLocale);
+					ConceptSearchResult searchResult = new ConceptSearchResult(phrase, c, cn);
+					searchResults.add(searchResult);
+				}
+			}
+		}
+		
+		// turn class and datatype names into objects, each name is only looked up once
+		ConceptSearchCache cache = getConceptSearchCache();
+		List<ConceptClass> includeClasses = cache.getConceptClasses(includeClassNames);
+		List<ConceptClass> excludeClasses = cache.getConceptClasses(excludeClassNames);
+		List<ConceptDatatype> includeDatatypes = cache.getConceptDatatypes(includeDatatypeNames);
+		List<ConceptDatatype> excludeDatatypes = cache.getConceptDatatypes(excludeDatatypeNames);
+		
+		// perform the search, in the name index when it is up to date or it counted the search
+		List<ConceptNameIndex.Match> indexMatches = null;
+		if (!Boolean.FALSE.equals(fromIndex)) {
+			indexMatches = getConceptNameIndex().search(phrase, searchLocales, includeRetired, includeClasses,
+			    excludeClasses, includeDatatypes, excludeDatatypes, Boolean.TRUE.equals(fromIndex));
+		}
+		if (indexMatches != null) {
+			searchResults.addAll(toSearchResults(phrase, getPage(indexMatches, start, length)));
+		} else {
+			searchResults.addAll(cs.getConcepts(phrase, searchLocales, includeRetired, includeClasses, excludeClasses,
+			    includeDatatypes, excludeDatatypes, null, start, length));
+		}
+		
+		//TODO Should we still include drugs, if yes, smartly harmonize the paging between the two different DB tables
+		//look ups to match the values of start and length not to go over the value of count of matches returned to the search widget
+		//List<Drug> drugs = null;
+		//if (includeDrugConcepts)
+		//	drugs = cs.getDrugs(phrase, null, false, includeRetired, null, null);
+		
+		// turn searchResults into concept list items, the concepts found in the index are loaded already
+		if (indexMatches == null) {
+			loadConceptsForListing(searchResults);
+		}
+		List<ConceptListItem> page = new ArrayList<ConceptListItem>(searchResults.size());
+		for (ConceptSearchResult searchResult : searchResults) {
+			page.add(new ConceptListItem(searchResult));
+		}
+		return page;
+	}
+	
+	private static ConceptSearchCache getConceptSearchCache() {
+		return Context.getRegisteredComponent("conceptSearchCache", ConceptSearchCache.class);
+	}
+	
+	/**
+	 * Runs the given put into the {@link ConceptSearchCache} now, or once the transaction the search
+	 * ran in commits if there is one, so that changes it may still roll back are never cached
+	 */
+	private static void cacheOnceCommitted(final Runnable put) {
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+				
+				@Override
+				public void afterCommit() {
+					put.run();
+				}
+			});
+		} else {
+			put.run();
+		}
+	}
+	
+	private static ConceptNameIndex getConceptNameIndex() {
+		return Context.getRegisteredComponent("conceptNameIndex", ConceptNameIndex.class);
+	}
+	
+	/**
+	 * @return the matches from start on, at most length of them
+	 */
+	private static List<ConceptNameIndex.Match> getPage(List<ConceptNameIndex.Match> matches, Integer start,
+	        Integer length) {
+		int from = start == null ? 0 : Math.min(Math.max(start, 0), matches.size());
+		int to = length == null ? matches.size() : Math.min(matches.size(), from + length);
+		return matches.subList(from, to);
+	}
+	
+	/**
+	 * Loads the concepts found in the {@link ConceptNameIndex} for listing, see
+	 * {@link #loadConceptsForListing(Collection)}
+	 * 
+	 * @param phrase the phrase searched for
+	 * @param matches the matches found
+	 * @return the search results, in the order of the matches
+	 */
+	private static List<ConceptSearchResult> toSearchResults(String phrase, List<ConceptNameIndex.Match> matches) {
+		List<Integer> conceptIds = new ArrayList<Integer>(matches.size());
+		for (ConceptNameIndex.Match match : matches) {
+			conceptIds.add(match.getConceptId());
+		}
+		Map<Integer, Concept> conceptsById = new HashMap<Integer, Concept>();
+		for (Concept concept : Context.getService(LegacyUIService.class).getConceptsForListing(conceptIds)) {
+			conceptsById.put(concept.getConceptId(), concept);
+		}
+		
+		List<ConceptSearchResult> searchResults = new ArrayList<ConceptSearchResult>(matches.size());
+		for (ConceptNameIndex.Match match : matches) {
+			Concept concept = conceptsById.get(match.getConceptId());
+			if (concept != null) {
+				ConceptName conceptName = null;
+				for (ConceptName name : concept.getNames()) {
+					if (match.getConceptNameId().equals(name.getConceptNameId())) {
+						conceptName = name;
+					}
+				}
+				searchResults.add(new ConceptSearchResult(phrase, concept, conceptName == null ? concept.getName()
+				        : conceptName));
+			}
+		}
+		return searchResults;
+	}
+	
+	/**
+	 * Loads the names, descriptions, class and datatype of the concepts found with a few queries for
+	 * all of them, the search results refer to the same concept instances so the list items built
+	 * from them do not have to load these concept by concept
+	 * 
+	 * @param searchResults the search results to build list items from
+	 */
+	private static void loadConceptsForListing(Collection<ConceptSearchResult> searchResults) {
+		List<Integer> conceptIds = new ArrayList<Integer>(searchResults.size());
+		for (ConceptSearchResult searchResult : searchResults) {
+			conceptIds.add(searchResult.getConcept().getConceptId());
+		}
+		Context.getService(LegacyUIService.class).getConceptsForListing(conceptIds);
+	}
+	
 	/**
 	 * Get a {@link ConceptListItem} by its internal database id.
 	 * 
@@ -313,10 +424,29 @@ public class DWRConceptService {
 		List<ConceptSearchResult> searchResults = new ArrayList<ConceptSearchResult>();
 		List<Locale> locales = Context.getAdministrationService().getSearchLocales();
 		
-		for (Locale lc : locales) {
-			List<ConceptSearchResult> results = cs.findConceptAnswers(text, lc, concept);
-			if (results != null) {
-				searchResults.addAll(results);
+		// autocomplete is answered from the name index when it is up to date
+		List<ConceptNameIndex.Match> indexMatches = StringUtils.isBlank(text) ? null : getConceptNameIndex().search(text,
+		    locales, false, null, null, null, null);
+		if (indexMatches != null) {
+			Set<Integer> answerConceptIds = new HashSet<Integer>();
+			for (ConceptAnswer conceptAnswer : concept.getAnswers(false)) {
+				if (conceptAnswer.getAnswerConcept() != null) {
+					answerConceptIds.add(conceptAnswer.getAnswerConcept().getConceptId());
+				}
+			}
+			List<ConceptNameIndex.Match> answerMatches = new ArrayList<ConceptNameIndex.Match>();
+			for (ConceptNameIndex.Match match : indexMatches) {
+				if (answerConceptIds.contains(match.getConceptId())) {
+					answerMatches.add(match);
+				}
+			}
+			searchResults.addAll(toSearchResults(text, answerMatches));
+		} else {
+			for (Locale lc : locales) {
+				List<ConceptSearchResult> results = cs.findConceptAnswers(text, lc, concept);
+				if (results != null) {
+					searchResults.addAll(results);
+				}
 			}
 		}
 		
@@ -329,6 +459,9 @@ public class DWRConceptService {
 		
 		List<Object> items = new ArrayList<Object>();
 		Set<Integer> uniqueItems = new HashSet<Integer>();
+		if (indexMatches == null) {
+			loadConceptsForListing(searchResults);
+		}
 		for (ConceptSearchResult searchResult : searchResults) {
 			if (!uniqueItems.add(searchResult.getConcept().getConceptId())) {
 				continue; //Skip already added items
@@ -571,69 +704,41 @@ public class DWRConceptService {
 			excludeDatatypeNames = new ArrayList<String>();
 		}
 		
+		SearchCoordinator coordinator = null;
+		SearchCoordinator.Ticket ticket = null;
 		try {
-			ConceptService cs = Context.getConceptService();
-			
 			if (!StringUtils.isBlank(phrase)) {
-				// turn classnames into class objects
-				List<ConceptClass> includeClasses = new ArrayList<ConceptClass>();
-				for (String name : includeClassNames) {
-					if (!"".equals(name)) {
-						includeClasses.add(cs.getConceptClassByName(name));
-					}
-				}
-				
-				// turn classnames into class objects
-				List<ConceptClass> excludeClasses = new ArrayList<ConceptClass>();
-				for (String name : excludeClassNames) {
-					if (!"".equals(name)) {
-						excludeClasses.add(cs.getConceptClassByName(name));
-					}
-				}
-				
-				// turn classnames into class objects
-				List<ConceptDatatype> includeDatatypes = new ArrayList<ConceptDatatype>();
-				for (String name : includeDatatypeNames) {
-					if (!"".equals(name)) {
-						includeDatatypes.add(cs.getConceptDatatypeByName(name));
-					}
-				}
-				
-				// turn classnames into class objects
-				List<ConceptDatatype> excludeDatatypes = new ArrayList<ConceptDatatype>();
-				for (String name : excludeDatatypeNames) {
-					if (!"".equals(name)) {
-						excludeDatatypes.add(cs.getConceptDatatypeByName(name));
-					}
+				// a new search cancels the one the user started with the previous keystroke
+				if (getMatchCount) {
+					coordinator = Context.getRegisteredComponent("searchCoordinator", SearchCoordinator.class);
+					ticket = coordinator.begin(SearchCoordinator.CONCEPT_SEARCH, phrase);
 				}
 				
 				int matchCount = 0;
 				if (getMatchCount) {
-					//get the count of matches
-					matchCount += cs.getCountOfConcepts(phrase, searchLocales, includeRetired, includeClasses,
-					    excludeClasses, includeDatatypes, excludeDatatypes, null);
-					
-					if (NUMERIC.matcher(phrase).matches()) {
-						// user searched on a number. Insert concept with
-						// corresponding conceptId
-						Concept c = cs.getConcept(Integer.valueOf(phrase));
-						if (c != null && (!c.getRetired() || includeRetired)) {
-							matchCount++;
-						}
-					} else if (phrase.length() == 36) {
-						Concept obj = cs.getConceptByUuid(phrase);
-						if (obj != null && (!obj.getRetired() || includeRetired)) {
-							matchCount++;
+					final ConceptSearchCache cache = getConceptSearchCache();
+					final ConceptSearchCache.Key key = new ConceptSearchCache.Key(phrase, searchLocales, Context
+					        .getLocale(), includeRetired, includeClassNames, excludeClassNames, includeDatatypeNames,
+					        excludeDatatypeNames, null, null);
+					Integer cachedCount = cache.getCount(key);
+					if (cachedCount != null) {
+						matchCount = cachedCount;
+					} else {
+						final long generation = cache.getGeneration();
+						final int count = countConcepts(phrase, includeRetired, includeClassNames, excludeClassNames,
+						    includeDatatypeNames, excludeDatatypeNames, searchLocales, key, ticket);
+						if (ticket == null || !ticket.isSuperseded()) {
+							cacheOnceCommitted(() -> cache.putCount(key, count, generation));
 						}
+						matchCount = count;
 					}
-					
-					//if (includeDrugs)
-					//	matchCount += cs.getCountOfDrugs(phrase, null, false, includeRetired);
 				}
 				
 				//if we have any matches or this isn't the first ajax call when the caller
-				//requests for the count
-				if (matchCount > 0 || !getMatchCount) {
+				//requests for the count, unless the user has typed on since
+				if (ticket != null && ticket.isSuperseded()) {
+					matchCount = 0;
+				} else if (matchCount > 0 || !getMatchCount) {
 					objectList.addAll(findBatchOfConcepts(phrase, includeRetired, includeClassNames, excludeClassNames,
 					    includeDatatypeNames, excludeDatatypeNames, start, length));
 				}
@@ -647,16 +752,78 @@ public class DWRConceptService {
 			
 		}
 		catch (Exception e) {
-			log.error("Error while searching for concepts", e);
 			objectList.clear();
-			objectList.add(Context.getMessageSourceService().getMessage("Concept.search.error") + " - " + e.getMessage());
+			if (ticket != null && ticket.isSuperseded()) {
+				log.debug("Search for '" + phrase + "' cancelled by a newer search");
+			} else {
+				log.error("Error while searching for concepts", e);
+				objectList.add(Context.getMessageSourceService().getMessage("Concept.search.error") + " - "
+				        + e.getMessage());
+			}
 			resultsMap.put("count", 0);
 			resultsMap.put("objectList", objectList);
 		}
+		finally {
+			if (ticket != null) {
+				coordinator.end(ticket);
+			}
+		}
 		
 		return resultsMap;
 	}
 	
+	/**
+	 * Counts the concepts {@link #findCountAndConcepts} would return
+	 * 
+	 * @param key the search, its pages are read from the backend that counted it
+	 * @param ticket the ticket of the search, a newer search cancels the count query
+	 * @return the number of concepts matching the phrase as a name, id or uuid
+	 * @throws Exception if the count fails or is cancelled by a newer search
+	 */
+	private int countConcepts(final String phrase, final boolean includeRetired, List<String> includeClassNames,
+	        List<String> excludeClassNames, List<String> includeDatatypeNames, List<String> excludeDatatypeNames,
+	        final List<Locale> searchLocales, ConceptSearchCache.Key key, SearchCoordinator.Ticket ticket)
+	        throws Exception {
+		final ConceptService cs = Context.getConceptService();
+		
+		// turn class and datatype names into objects, each name is only looked up once
+		ConceptSearchCache cache = getConceptSearchCache();
+		final List<ConceptClass> includeClasses = cache.getConceptClasses(includeClassNames);
+		final List<ConceptClass> excludeClasses = cache.getConceptClasses(excludeClassNames);
+		final List<ConceptDatatype> includeDatatypes = cache.getConceptDatatypes(includeDatatypeNames);
+		final List<ConceptDatatype> excludeDatatypes = cache.getConceptDatatypes(excludeDatatypeNames);
+		
+		//get the count of matches, from the name index when it is up to date
+		List<ConceptNameIndex.Match> indexMatches = getConceptNameIndex().search(phrase, searchLocales, includeRetired,
+		    includeClasses, excludeClasses, includeDatatypes, excludeDatatypes);
+		cache.pinSource(key, indexMatches != null);
+		int matchCount;
+		if (indexMatches != null) {
+			matchCount = indexMatches.size();
+		} else {
+			matchCount = ticket.runQuery(() -> cs.getCountOfConcepts(phrase, searchLocales, includeRetired,
+			    includeClasses, excludeClasses, includeDatatypes, excludeDatatypes, null));
+		}
+		
+		if (NUMERIC.matcher(phrase).matches()) {
+			// user searched on a number. Insert concept with
+			// corresponding conceptId
+			Concept c = cs.getConcept(Integer.valueOf(phrase));
+			if (c != null && (!c.getRetired() || includeRetired)) {
+				matchCount++;
+			}
+		} else if (phrase.length() == 36) {
+			Concept obj = cs.getConceptByUuid(phrase);
+			if (obj != null && (!obj.getRetired() || includeRetired)) {
+				matchCount++;
+			}
+		}
+		
+		//if (includeDrugs)
+		//	matchCount += cs.getCountOfDrugs(phrase, null, false, includeRetired);
+		return matchCount;
+	}
+	
 	/**
 	 * Get a {@link ConceptReferenceTerm} by its internal database id.
 	 * 
@@ -11,12 +11,16 @@ package org.openmrs.web.dwr;
 
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.Vector;
+import java.util.concurrent.Future;
 import java.time.Period;
 import java.time.LocalDate;
 
@@ -26,10 +30,6 @@ import org.openmrs.Concept;
 import org.openmrs.GlobalProperty;
 import org.openmrs.Location;
 import org.openmrs.Patient;
-import java.util.stream.Collectors;
-import org.hl7.fhir.r4.model.Bundle;
-
-import ca.uhn.fhir.rest.client.api.IGenericClient;
 
 import org.openmrs.PatientIdentifier;
 import org.openmrs.PatientIdentifierType;
@@ -52,8 +52,16 @@ import org.openmrs.patient.IdentifierValidator;
 import org.openmrs.patient.UnallowedIdentifierException;
 import org.openmrs.util.OpenmrsConstants;
 import org.openmrs.web.WebUtil;
+import org.openmrs.web.clientregistry.ClientRegistryMatchService;
+import org.openmrs.web.clientregistry.ClientRegistryPatientSearch;
+import org.openmrs.web.clientregistry.MatchCheckResult;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+
+import javax.servlet.http.HttpSession;
+
+import org.directwebremoting.WebContext;
+import org.directwebremoting.WebContextFactory;
 import org.hl7.fhir.r4.model.Reference;
 
 /**
@@ -68,10 +76,6 @@ public class DWRPatientService implements GlobalPropertyListener {
 	
 	private static Integer maximumResults;
 	
-	private List<org.hl7.fhir.r4.model.Patient> mypatients;
-	
-	private String CRUID = "";
-	
 	/**
 	 * Search on the <code>searchValue</code>. If a number is in the search string, do an identifier
 	 * search. Else, do a name search
@@ -134,12 +138,22 @@ public class DWRPatientService implements GlobalPropertyListener {
 			return patientList;
 		}
 
-		if (this.mypatients != null && this.mypatients.size() > 0) {
-			patientList = new Vector<Object>(patients.size() + this.mypatients.size());
-
-		} else {
-			patientList = new Vector<Object>(patients.size());
-		}
+		return toPatientList(getPatientIds(patients), searchValue);
+	}
+	
+	/**
+	 * Converts the patients found by a search to list items, with a warning about its check digit if
+	 * nothing was found for an identifier
+	 * 
+	 * @param patientIds the ids of the patients found
+	 * @param searchValue the search
+	 * @return list of PatientListItem or String
+	 */
+	private List<Object> toPatientList(List<Integer> patientIds, String searchValue) {
+		PatientService ps = Context.getPatientService();
+		// what the rows show of the patients is loaded for the whole page at once, not row by row
+		List<Patient> patients = Context.getService(LegacyUIService.class).getPatientsForListing(patientIds);
+		List<Object> patientList = new Vector<Object>(patients.size());
 
 		for (Patient p : patients) {
 			PatientListItem PatientLI = new PatientListItem(p, searchValue);
@@ -149,95 +163,6 @@ public class DWRPatientService implements GlobalPropertyListener {
 			patientList.add(htmlSafePatientLI);
 		}
 
-		if (this.mypatients != null && this.mypatients.size() > 0) {
-			for (org.hl7.fhir.r4.model.Patient fhirPatient : this.mypatients) {
-
-				List<Reference> links = fhirPatient.getLink()
-						.stream()
-						.map(patientLink -> patientLink.getOther())
-						.collect(Collectors.toList());
-
-				for (Reference link : links) {
-					CRUID = extractUUID(link.getReference());
-				}
-
-				if (CRUID != null && !patientList.stream()
-   						.anyMatch(obj -> ((PatientListItem) obj).getclientRegistryUId().contains(CRUID))) {
-
-					PatientListItem PatientLI = new PatientListItem();
-					// Set patient identifier
-					PatientLI.setIdentifier(fhirPatient.getIdentifierFirstRep().getValue());
-
-					// set CR Id
-					PatientLI.setClientRegistryId(fhirPatient.getIdElement().getIdPart());
-					// Set patient name
-					List<org.hl7.fhir.r4.model.StringType> givenNames = fhirPatient.getNameFirstRep().getGiven();
-					if (!givenNames.isEmpty()) {
-						PatientLI.setGivenName(WebUtil.escapeHTML(givenNames.get(0).getValue()));
-
-						StringBuilder sb = new StringBuilder();
-						for (int i = 1; i < givenNames.size(); i++) {
-							sb.append(givenNames.get(i).getValue()).append(" ");
-						}
-
-						if (sb.length() > 0) {
-							sb.deleteCharAt(sb.length() - 1);
-						}
-
-						PatientLI.setMiddleName(WebUtil.escapeHTML(sb.toString()));
-
-					}
-
-					PatientLI.setFamilyName(WebUtil.escapeHTML(fhirPatient.getNameFirstRep().getFamily()));
-					// Set patient date of birth
-					if (fhirPatient.hasBirthDate()) {
-						PatientLI.setBirthdate(fhirPatient.getBirthDate());
-						PatientLI.setBirthdateString(WebUtil.formatDate(fhirPatient.getBirthDate()));
-					}
-
-					switch (fhirPatient.getBirthDateElement().getPrecision()) {
-						case DAY:
-							PatientLI.setBirthdateEstimated(false);
-							break;
-						case MONTH:
-						case YEAR:
-							PatientLI.setBirthdateEstimated(true);
-							break;
-					}
-					// Set patient Age
-					LocalDate today = LocalDate.now();
-					LocalDate localBirthDate = fhirPatient.getBirthDate().toInstant()
-							.atZone(java.time.ZoneId.systemDefault())
-							.toLocalDate();
-					Period period = Period.between(localBirthDate, today);
-					PatientLI.setAge(period.getYears());
-
-					// Set patient gender
-					if (fhirPatient.hasGender()) {
-						switch (fhirPatient.getGender()) {
-							case MALE:
-								PatientLI.setGender("M");
-								break;
-							case FEMALE:
-								PatientLI.setGender("F");
-								break;
-							case OTHER:
-								PatientLI.setGender("O");
-								break;
-							case UNKNOWN:
-								PatientLI.setGender("U");
-								break;
-						}
-					}
-					// Tag for patient from HAPI
-					PatientLI.setPatientPresent("Import");
-					patientList.add(PatientLI);
-
-				}
-
-			}
-		}
-
 		// no results found and a number was in the search --
 		// should check whether the check digit is correct.
 		if (patientList.size() == 0 && searchValue.matches(".*\\d+.*")) {
@@ -296,11 +221,105 @@ public class DWRPatientService implements GlobalPropertyListener {
 		}
 	}
 	
+	/**
+	 * @param fhirPatient a patient returned by the client registry
+	 * @return the client registry UID taken from the last link of the patient, or null if none
+	 */
+	private static String getClientRegistryUId(org.hl7.fhir.r4.model.Patient fhirPatient) {
+		String uid = null;
+		for (org.hl7.fhir.r4.model.Patient.PatientLinkComponent link : fhirPatient.getLink()) {
+			Reference other = link.getOther();
+			if (other != null && other.getReference() != null) {
+				uid = extractUUID(other.getReference());
+			}
+		}
+		return uid;
+	}
+	
+	/**
+	 * Converts a client registry patient into a list item flagged for import
+	 * 
+	 * @param fhirPatient a patient returned by the client registry
+	 * @return the list item
+	 */
+	private static PatientListItem toPatientListItem(org.hl7.fhir.r4.model.Patient fhirPatient) {
+		PatientListItem PatientLI = new PatientListItem();
+		// Set patient identifier
+		PatientLI.setIdentifier(fhirPatient.getIdentifierFirstRep().getValue());
+		
+		// set CR Id
+		PatientLI.setClientRegistryId(fhirPatient.getIdElement().getIdPart());
+		// Set patient name
+		List<org.hl7.fhir.r4.model.StringType> givenNames = fhirPatient.getNameFirstRep().getGiven();
+		if (!givenNames.isEmpty()) {
+			PatientLI.setGivenName(WebUtil.escapeHTML(givenNames.get(0).getValue()));
+			
+			StringBuilder sb = new StringBuilder();
+			for (int i = 1; i < givenNames.size(); i++) {
+				sb.append(givenNames.get(i).getValue()).append(" ");
+			}
+			
+			if (sb.length() > 0) {
+				sb.deleteCharAt(sb.length() - 1);
+			}
+			
+			PatientLI.setMiddleName(WebUtil.escapeHTML(sb.toString()));
+		}
+		
+		PatientLI.setFamilyName(WebUtil.escapeHTML(fhirPatient.getNameFirstRep().getFamily()));
+		// Set patient date of birth and age
+		if (fhirPatient.hasBirthDate()) {
+			PatientLI.setBirthdate(fhirPatient.getBirthDate());
+			PatientLI.setBirthdateString(WebUtil.formatDate(fhirPatient.getBirthDate()));
+			
+			switch (fhirPatient.getBirthDateElement().getPrecision()) {
+				case DAY:
+					PatientLI.setBirthdateEstimated(false);
+					break;
+				case MONTH:
+				case YEAR:
+					PatientLI.setBirthdateEstimated(true);
+					break;
+				default:
+					break;
+			}
+			
+			LocalDate localBirthDate = fhirPatient.getBirthDate().toInstant().atZone(java.time.ZoneId.systemDefault())
+			        .toLocalDate();
+			PatientLI.setAge(Period.between(localBirthDate, LocalDate.now()).getYears());
+		}
+		
+		// Set patient gender
+		if (fhirPatient.hasGender()) {
+			switch (fhirPatient.getGender()) {
+				case MALE:
+					PatientLI.setGender("M");
+					break;
+				case FEMALE:
+					PatientLI.setGender("F");
+					break;
+				case OTHER:
+					PatientLI.setGender("O");
+					break;
+				case UNKNOWN:
+					PatientLI.setGender("U");
+					break;
+				default:
+					break;
+			}
+		}
+		// Tag for patient from HAPI
+		PatientLI.setPatientPresent("Import");
+		return PatientLI;
+	}
+	
 	/**
 	 * Returns a map of results with the values as count of matches and a partial list of the
 	 * matching patients (depending on values of start and length parameters) while the keys are are
 	 * 'count' and 'objectList' respectively, if the length parameter is not specified, then all
-	 * matches will be returned from the start index if specified.
+	 * matches will be returned from the start index if specified. The first call also returns the
+	 * patients found in the client registry under 'registryResults', or a 'lateResultsToken' to
+	 * collect them with {@link #findRegistryPatients(String)}, they are not part of the count.
 	 * 
 	 * @param searchValue patient name or identifier
 	 * @param includeVoided true/false whether or not to included voided patients
@@ -321,35 +340,43 @@ public class DWRPatientService implements GlobalPropertyListener {
 			includeVoided = false;
 		}
 		
+		SearchCoordinator coordinator = null;
+		SearchCoordinator.Ticket ticket = null;
 		try {
 			PatientService ps = Context.getPatientService();
 			int patientCount = 0;
 			
-			// if this is the first call
+			// if this is the first call, start the client registry search so that it runs while
+			// the local database is being queried
+			ClientRegistryPatientSearch registrySearch = null;
+			Future<List<org.hl7.fhir.r4.model.Patient>> registryResults = null;
+			long registryDeadline = 0;
+			if (getMatchCount && (start == null || start == 0)) {
+				registrySearch = Context.getRegisteredComponent("clientRegistryPatientSearch",
+				    ClientRegistryPatientSearch.class);
+				if (registrySearch.isEnabled()) {
+					registryDeadline = System.currentTimeMillis() + registrySearch.getDeadlineMillis();
+					registryResults = registrySearch.searchAsync(searchValue);
+				}
+			}
+			
+			List<Integer> matches = null;
 			if (getMatchCount) {
-				patientCount += ps.getCountOfPatients(searchValue, includeVoided);
-				
-				// IGenericClient client = new FhirLegacyUIConfig().getFhirClient();
-				IGenericClient client = Context.getRegisteredComponent("clientRegistryFhirClient", IGenericClient.class);
-				
-				try {
-					/* this.mypatients = client
-							.search()
-							.forResource(org.hl7.fhir.r4.model.Patient.class)
-							.where(org.hl7.fhir.r4.model.Patient.NAME.matches().value(searchValue))
-							.returnBundle(Bundle.class)
-							.execute()
-							.getEntry()
-							.stream()
-							.map(e -> (org.hl7.fhir.r4.model.Patient) e.getResource())
-							.collect(Collectors.toList()); */
-					// How do we search by partial identifiers and on all identifiers
-					
-					//patientCount += this.mypatients.size();
+				if (maximumResults == null) {
+					setMaximumResults(getMaximumSearchResults());
 				}
-				catch (Exception e) {
-					log.error("Error while attempting to reach server", e);
-					
+				// the count is never more than the maximum results, so a single query for the ids of
+				// all the patients the widget can show gives the count, only the patients of the
+				// page are loaded and the ids are kept so that the following pages do not run the
+				// search again
+				coordinator = Context.getRegisteredComponent("searchCoordinator", SearchCoordinator.class);
+				ticket = coordinator.begin(SearchCoordinator.PATIENT_SEARCH, searchValue);
+				matches = findMatchingPatients(searchValue, includeVoided, coordinator, ticket);
+				patientCount += matches.size();
+				PatientSearchCursor cursor = new PatientSearchCursor(searchValue, includeVoided, matches);
+				cursor.store(getSession());
+				if (matches.size() < maximumResults) {
+					coordinator.putCompleteResult(ticket, cursor);
 				}
 				
 				// if there are no results found and a number was not in the
@@ -443,23 +470,49 @@ public class DWRPatientService implements GlobalPropertyListener {
 				
 			}
 			
+			// wait for the client registry only for what is left of the deadline, the local
+			// results are returned as is if it has not answered by then. The client registry
+			// patients are not counted, the pages only hold local patients, they come as a block
+			// of their own shown after the last page
+			if (registryResults != null) {
+				List<org.hl7.fhir.r4.model.Patient> fhirPatients = registrySearch.await(registryResults,
+				    registryDeadline);
+				if (fhirPatients == null) {
+					resultsMap.put("lateResultsToken", registrySearch.park(registryResults));
+				} else {
+					resultsMap.put("registryResults", toRegistryPatientList(fhirPatients));
+				}
+			}
+			
 			// if we have any matches or this isn't the first ajax call when the caller
-			// requests for the count
-			if (patientCount > 0 || !getMatchCount) {
-				
-				objectList = findBatchOfPatients(searchValue, includeVoided, start, length);
+			// requests for the count, unless the user has typed on since
+			if (ticket != null && ticket.isSuperseded()) {
+				patientCount = 0;
+			} else if (patientCount > 0 || !getMatchCount) {
+				objectList = findPageOfPatients(searchValue, includeVoided, start, length, matches);
 			}
 			
 			resultsMap.put("count", patientCount);
 			resultsMap.put("objectList", objectList);
 		}
 		catch (Exception e) {
-			log.error("Error while searching for patients", e);
 			objectList.clear();
-			objectList.add(Context.getMessageSourceService().getMessage("Patient.search.error") + " - " + e.getMessage());
+			if (ticket != null && ticket.isSuperseded()) {
+				// the query was cancelled, the widget ignores the results of older searches anyway
+				log.debug("Search for '" + searchValue + "' cancelled by a newer search");
+			} else {
+				log.error("Error while searching for patients", e);
+				objectList.add(Context.getMessageSourceService().getMessage("Patient.search.error") + " - "
+				        + e.getMessage());
+			}
 			resultsMap.put("count", 0);
 			resultsMap.put("objectList", objectList);
 		}
+		finally {
+			if (ticket != null) {
+				coordinator.end(ticket);
+			}
+		}
 		return resultsMap;
 	}
 	
@@ -486,6 +539,123 @@ public class DWRPatientService implements GlobalPropertyListener {
 		return findCountAndPatientsWithVoided(searchValue, start, length, getMatchCount, false);
 	}
 	
+	/**
+	 * Finds the ids of the patients matching the search, up to the maximum number of results. If the
+	 * search only narrows down an earlier name search that found all its matches, the search is run
+	 * among the patients found then only, it still matches them the way the patient service does.
+	 * 
+	 * @param searchValue patient name or identifier
+	 * @param includeVoided whether voided patients are searched as well
+	 * @param coordinator the search coordinator
+	 * @param ticket the ticket of the search
+	 * @return the ids of the matching patients
+	 * @throws Exception if the search fails or is cancelled by a newer one
+	 */
+	private List<Integer> findMatchingPatients(final String searchValue, final boolean includeVoided,
+	        SearchCoordinator coordinator, SearchCoordinator.Ticket ticket) throws Exception {
+		final LegacyUIService service = Context.getService(LegacyUIService.class);
+		final int maxResults = maximumResults;
+		Object previous = coordinator.getPrefixResult(ticket);
+		if (previous instanceof PatientSearchCursor && ((PatientSearchCursor) previous).canRefine(searchValue, includeVoided)) {
+			final List<Integer> candidates = ((PatientSearchCursor) previous).getPatientIds(null, null);
+			coordinator.recordReuse(ticket);
+			return ticket.runQuery(() -> service.getPatientIds(searchValue, includeVoided, candidates, maxResults));
+		}
+		return ticket.runQuery(() -> service.getPatientIds(searchValue, includeVoided, maxResults));
+	}
+	
+	/**
+	 * Gets a page of the patients matching the search, from the patients already found by the first
+	 * call of the search or its cursor if there is one, else by running the search
+	 * 
+	 * @param searchValue patient name or identifier
+	 * @param includeVoided whether voided patients are searched as well
+	 * @param start the beginning index
+	 * @param length the number of matching patients to return
+	 * @param matches the ids of the patients found if this is the first call of the search, else null
+	 * @return list of PatientListItem or String
+	 */
+	private Collection<Object> findPageOfPatients(String searchValue, boolean includeVoided, Integer start,
+	        Integer length, List<Integer> matches) throws Exception {
+		if (matches != null) {
+			int from = start == null ? 0 : Math.min(Math.max(0, start), matches.size());
+			int to = length == null ? matches.size() : Math.min(matches.size(), from + length);
+			return toPatientList(matches.subList(from, to), searchValue);
+		}
+		
+		PatientSearchCursor cursor = PatientSearchCursor.get(getSession(), searchValue, includeVoided);
+		if (cursor != null) {
+			List<Integer> patientIds = cursor.getPatientIds(start, length);
+			return toPatientList(patientIds, searchValue);
+		}
+		return findBatchOfPatients(searchValue, includeVoided, start, length);
+	}
+	
+	private static List<Integer> getPatientIds(Collection<Patient> patients) {
+		List<Integer> patientIds = new ArrayList<Integer>(patients.size());
+		for (Patient patient : patients) {
+			patientIds.add(patient.getPatientId());
+		}
+		return patientIds;
+	}
+	
+	/**
+	 * @return the session of the current DWR call, null outside of one
+	 */
+	private static HttpSession getSession() {
+		WebContext webContext = WebContextFactory.get();
+		return webContext == null ? null : webContext.getHttpServletRequest().getSession();
+	}
+	
+	/**
+	 * Collects the client registry results of a search that missed its deadline, see the
+	 * 'lateResultsToken' returned by {@link #findCountAndPatientsWithVoided}
+	 * 
+	 * @param token the token returned with the local results
+	 * @return the client registry patients that are not known locally, null if the client registry
+	 *         has still not answered
+	 * @should leave out the patients already imported with their client registry uid
+	 */
+	public Collection<Object> findRegistryPatients(String token) {
+		ClientRegistryPatientSearch registrySearch = Context.getRegisteredComponent("clientRegistryPatientSearch",
+		    ClientRegistryPatientSearch.class);
+		List<org.hl7.fhir.r4.model.Patient> fhirPatients = registrySearch.collect(token);
+		return fhirPatients == null ? null : toRegistryPatientList(fhirPatients);
+	}
+	
+	/**
+	 * Converts the patients found in the client registry to list items flagged for import
+	 * 
+	 * @param fhirPatients the patients returned by the client registry
+	 * @return the list items of the patients that are not known locally
+	 */
+	private static List<Object> toRegistryPatientList(List<org.hl7.fhir.r4.model.Patient> fhirPatients) {
+		// the local page is not at hand, check the database for patients already imported, with
+		// the same identifier type as PatientListItem and a single query
+		Set<String> uids = new HashSet<String>();
+		for (org.hl7.fhir.r4.model.Patient fhirPatient : fhirPatients) {
+			String uid = getClientRegistryUId(fhirPatient);
+			if (uid != null) {
+				uids.add(uid);
+			}
+		}
+		Set<String> knownUIds = new HashSet<String>();
+		PatientIdentifierType uidType = Context.getPatientService().getPatientIdentifierTypeByUuid(
+		    ClientRegistryPatientSearch.UID_IDENTIFIER_TYPE_UUID);
+		if (uidType != null) {
+			knownUIds.addAll(Context.getService(LegacyUIService.class).getIdentifiersInUse(uidType, uids));
+		}
+		
+		List<Object> patientList = new Vector<Object>(fhirPatients.size());
+		for (org.hl7.fhir.r4.model.Patient fhirPatient : fhirPatients) {
+			String uid = getClientRegistryUId(fhirPatient);
+			if (uid != null && knownUIds.add(uid)) {
+				patientList.add(toPatientListItem(fhirPatient));
+			}
+		}
+		return patientList;
+	}
+	
 	/**
 	 * Convenience method for dwr/javascript to convert a patient id into a Patient object (or at
 	 * least into data about the patient)
@@ -835,6 +1005,23 @@ public class DWRPatientService implements GlobalPropertyListener {
 		return resultsMap;
 	}
 	
+	/**
+	 * Polls the outcome of an OpenCR match check started when saving the short patient form
+	 * 
+	 * @param token the token handed to the page by the short patient form
+	 * @return a map with the 'status' of the check and, once it is done, the 'matches' or an error
+	 *         'message'
+	 */
+	public Map<String, Object> getMatchCheckResult(String token) {
+		ClientRegistryMatchService matchService = Context.getRegisteredComponent("clientRegistryMatchService",
+		    ClientRegistryMatchService.class);
+		MatchCheckResult result = matchService.getResult(token);
+		if (result == null) {
+			result = MatchCheckResult.unavailable("Unknown or expired match check");
+		}
+		return result.toMap();
+	}
+	
 	/**
 	 * Fetch the max results value from the global properties table
 	 * 
@@ -13,6 +13,7 @@ import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.time.LocalDate;
 import java.time.Period;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Date;
@@ -21,12 +22,10 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.Vector;
-import java.util.stream.Collectors;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.hl7.fhir.r4.model.Bundle;
 import org.openmrs.Patient;
 import org.openmrs.Person;
 import org.openmrs.PersonName;
@@ -37,9 +36,9 @@ import org.openmrs.api.PatientService;
 import org.openmrs.api.PersonService;
 import org.openmrs.api.UserService;
 import org.openmrs.api.context.Context;
+import org.openmrs.module.legacyui.api.LegacyUIService;
 import org.openmrs.web.WebUtil;
-
-import ca.uhn.fhir.rest.client.api.IGenericClient;
+import org.openmrs.web.clientregistry.ClientRegistryPatientCache;
 
 /**
  * DWR methods for ajaxy effects on {@link Person} objects.
@@ -106,9 +105,8 @@ public class DWRPersonService {
 			personList.add(PersonListItem.createBestMatch(p));
 		}
 
-		// IGenericClient client = new FhirLegacyUIConfig().getFhirClient();
-		IGenericClient client = Context.getRegisteredComponent("clientRegistryFhirClient",
-				IGenericClient.class);
+		ClientRegistryPatientCache registryCache = Context.getRegisteredComponent("clientRegistryPatientCache",
+				ClientRegistryPatientCache.class);
 
 		String[] words = name.split(" ");
 		String fhirGender = "";
@@ -120,18 +118,10 @@ public class DWRPersonService {
 		}
 		
 		try {
-			List<org.hl7.fhir.r4.model.Patient> mypatients = client
-					.search()
-					.forResource(org.hl7.fhir.r4.model.Patient.class)
-					.where(org.hl7.fhir.r4.model.Patient.FAMILY.matchesExactly().value(words[words.length -1]))
-					.and(org.hl7.fhir.r4.model.Patient.GIVEN.matchesExactly().value(words[0]))
-					.and(org.hl7.fhir.r4.model.Patient.GENDER.exactly().code(fhirGender)) 
-					.returnBundle(Bundle.class)
-					.execute()
-					.getEntry()
-					.stream()
-					.map(e -> (org.hl7.fhir.r4.model.Patient) e.getResource())
-					.collect(Collectors.toList());
+			// the similar people check runs on every change of the name fields, repeated
+			// lookups of the same name are answered from the cache
+			List<org.hl7.fhir.r4.model.Patient> mypatients = registryCache.searchPatients(words[words.length - 1],
+					words[0], fhirGender);
 
 
 			for (org.hl7.fhir.r4.model.Patient fhirPatient : mypatients) {
@@ -382,7 +372,13 @@ public class DWRPersonService {
 				// TODO add batch person look up to the API and use it here and FIX the javadocs
 				// if no roles were given, search for normal people
 				PersonService ps = Context.getPersonService();
+				LegacyUIService legacyUIService = Context.getService(LegacyUIService.class);
+				// what the rows show of the people is loaded for all of them at once, not row by row
+				List<Integer> personIds = new ArrayList<Integer>();
 				for (Person p : ps.getPeople(searchPhrase, null, includeVoided)) {
+					personIds.add(p.getPersonId());
+				}
+				for (Person p : legacyUIService.getPersonsForListing(personIds)) {
 					PersonListItem personListItem = PersonListItem.createBestMatch(p);
 					personListItem.setGivenName(WebUtil.escapeHTML(personListItem.getGivenName()));
 					personListItem.setMiddleName(WebUtil.escapeHTML(personListItem.getMiddleName()));
@@ -393,7 +389,11 @@ public class DWRPersonService {
 				// also search on patient identifier if the query contains a number
 				if (searchPhrase.matches(".*\\d+.*")) {
 					PatientService patientService = Context.getPatientService();
+					List<Integer> patientIds = new ArrayList<Integer>();
 					for (Patient p : patientService.getPatients(searchPhrase, null, null, false)) {
+						patientIds.add(p.getPatientId());
+					}
+					for (Patient p : legacyUIService.getPatientsForListing(patientIds)) {
 						PersonListItem personListItem = PersonListItem.createBestMatch(p);
 						personListItem.setGivenName(WebUtil.escapeHTML(personListItem.getGivenName()));
 						personListItem.setMiddleName(WebUtil.escapeHTML(personListItem.getMiddleName()));
@@ -434,20 +434,26 @@ public class DWRPersonService {
 		// Map to return
 		Map<String, Object> resultsMap = new HashMap<String, Object>();
 		Vector<Object> objectList = new Vector<Object>();
+		SearchCoordinator coordinator = null;
+		SearchCoordinator.Ticket ticket = null;
 		try {
-			UserService us = Context.getUserService();
+			final UserService us = Context.getUserService();
 			int personCount = 0;
 			if (getMatchCount) {
+				// a new search cancels the one the user started with the previous keystroke
+				coordinator = Context.getRegisteredComponent("searchCoordinator", SearchCoordinator.class);
+				ticket = coordinator.begin(SearchCoordinator.PERSON_SEARCH, phrase);
+				
 				if (StringUtils.isNotBlank(roles)) {
 					roles = roles.trim();
-					List<Role> roleList = new Vector<Role>();
+					final List<Role> roleList = new Vector<Role>();
 					
 					String[] splitRoles = roles.split(",");
 					for (String role : splitRoles) {
 						roleList.add(new Role(role));
 					}
 					
-					personCount = us.getCountOfUsers(phrase, roleList, includeRetired);
+					personCount = ticket.runQuery(() -> us.getCountOfUsers(phrase, roleList, includeRetired));
 				} else {
 					// TODO get the person count after adding the get count method for persons to
 					// the API
@@ -457,8 +463,10 @@ public class DWRPersonService {
 			}
 			
 			// if we have any matches or this isn't the first ajax call when the caller
-			// requests for the count
-			if (personCount > 0 || !getMatchCount) {
+			// requests for the count, unless the user has typed on since
+			if (ticket != null && ticket.isSuperseded()) {
+				personCount = 0;
+			} else if (personCount > 0 || !getMatchCount) {
 				objectList = findBatchOfPeopleByRoles(phrase, includeRetired, roles, start, length);
 			}
 			
@@ -466,12 +474,22 @@ public class DWRPersonService {
 			resultsMap.put("objectList", objectList);
 		}
 		catch (Exception e) {
-			log.error("Error while searching for persons", e);
 			objectList.clear();
-			objectList.add(Context.getMessageSourceService().getMessage("Person.search.error") + " - " + e.getMessage());
+			if (ticket != null && ticket.isSuperseded()) {
+				log.debug("Search for '" + phrase + "' cancelled by a newer search");
+			} else {
+				log.error("Error while searching for persons", e);
+				objectList.add(Context.getMessageSourceService().getMessage("Person.search.error") + " - "
+				        + e.getMessage());
+			}
 			resultsMap.put("count", 0);
 			resultsMap.put("objectList", objectList);
 		}
+		finally {
+			if (ticket != null) {
+				coordinator.end(ticket);
+			}
+		}
 		return resultsMap;
 	}
 }
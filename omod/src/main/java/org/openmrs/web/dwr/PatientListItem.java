@@ -13,6 +13,7 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.openmrs.Patient;
 import org.openmrs.PatientIdentifier;
+import org.openmrs.web.clientregistry.ClientRegistryPatientSearch;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -53,7 +54,7 @@ public class PatientListItem extends PersonListItem {
 				identifier = patientIdentifier.getIdentifier();
 				// get patient's identifiers
 				for (PatientIdentifier pi : patient.getIdentifiers()) {
-					if (pi.getIdentifierType().getUuid().equals("43a6e699-c2b8-4d5f-9e7f-cf19448d59b7") && pi.getIdentifier() != null) {
+					if (pi.getIdentifierType().getUuid().equals(ClientRegistryPatientSearch.UID_IDENTIFIER_TYPE_UUID) && pi.getIdentifier() != null) {
 						clientRegistryUId.add(pi.getIdentifier());
 					}
 					
@@ -0,0 +1,141 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.web.dwr;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import javax.servlet.http.HttpSession;
+
+/**
+ * The ids of the patients matched by the last search of a session, in the order they were found.
+ * The find patient widget asks for the first page and the count of a search and then for the
+ * following pages, the cursor lets those later pages be loaded by id instead of running the search
+ * again. A cursor is only kept for a short while since patients may be added or edited in between.
+ */
+public class PatientSearchCursor implements Serializable {
+	
+	private static final long serialVersionUID = 1L;
+	
+	public static final String SESSION_ATTRIBUTE = "legacyui.patientSearchCursor";
+	
+	public static final long TTL_MILLIS = TimeUnit.MINUTES.toMillis(2);
+	
+	private static final Pattern DIGIT = Pattern.compile("\\d");
+	
+	private final String searchValue;
+	
+	private final boolean includeVoided;
+	
+	private final int[] patientIds;
+	
+	private final long createdAt;
+	
+	/**
+	 * @param searchValue the search the patients were found with
+	 * @param includeVoided whether voided patients were searched as well
+	 * @param patientIds the ids of the patients found
+	 */
+	public PatientSearchCursor(String searchValue, boolean includeVoided, List<Integer> patientIds) {
+		this.searchValue = searchValue;
+		this.includeVoided = includeVoided;
+		this.patientIds = new int[patientIds.size()];
+		for (int i = 0; i < this.patientIds.length; i++) {
+			this.patientIds[i] = patientIds.get(i);
+		}
+		this.createdAt = System.currentTimeMillis();
+	}
+	
+	/**
+	 * Gets the cursor of the given search from the session
+	 * 
+	 * @param session the session, may be null
+	 * @param searchValue the search
+	 * @param includeVoided whether voided patients are searched as well
+	 * @return the cursor or null if the session holds none for this search or it has expired
+	 */
+	public static PatientSearchCursor get(HttpSession session, String searchValue, boolean includeVoided) {
+		if (session == null) {
+			return null;
+		}
+		Object cursor = session.getAttribute(SESSION_ATTRIBUTE);
+		if (cursor instanceof PatientSearchCursor && ((PatientSearchCursor) cursor).matches(searchValue, includeVoided)) {
+			return (PatientSearchCursor) cursor;
+		}
+		return null;
+	}
+	
+	/**
+	 * Keeps this cursor in the session, replacing the cursor of the previous search
+	 * 
+	 * @param session the session, may be null
+	 */
+	public void store(HttpSession session) {
+		if (session != null) {
+			session.setAttribute(SESSION_ATTRIBUTE, this);
+		}
+	}
+	
+	/**
+	 * @param searchValue the search
+	 * @param includeVoided whether voided patients are searched as well
+	 * @return true if this cursor holds the results of the given search and has not expired
+	 * @should match the same search
+	 * @should not match another search
+	 */
+	public boolean matches(String searchValue, boolean includeVoided) {
+		return this.searchValue.equals(searchValue) && this.includeVoided == includeVoided
+		        && System.currentTimeMillis() - createdAt < TTL_MILLIS;
+	}
+	
+	/**
+	 * @param searchValue the search
+	 * @param includeVoided whether voided patients are searched as well
+	 * @return true if both searches are name searches and the given one only adds to the search of
+	 *         this cursor, so that the patients it matches are among the patients of this cursor
+	 * @should refine a name search with a longer prefix
+	 * @should not refine an identifier search
+	 */
+	public boolean canRefine(String searchValue, boolean includeVoided) {
+		return this.includeVoided == includeVoided && !DIGIT.matcher(this.searchValue).find()
+		        && !DIGIT.matcher(searchValue).find() && normalize(searchValue).startsWith(normalize(this.searchValue));
+	}
+	
+	/**
+	 * @return the number of patients found
+	 */
+	public int getCount() {
+		return patientIds.length;
+	}
+	
+	/**
+	 * @param start the index of the first patient
+	 * @param length the number of patients, null for all the remaining ones
+	 * @return the ids of the patients of the page
+	 * @should return the ids of the page
+	 * @should return an empty list past the end
+	 */
+	public List<Integer> getPatientIds(Integer start, Integer length) {
+		int from = start == null ? 0 : Math.max(0, start);
+		int to = length == null ? patientIds.length : Math.min(patientIds.length, from + length);
+		List<Integer> ids = new ArrayList<Integer>(Math.max(0, to - from));
+		for (int i = from; i < to; i++) {
+			ids.add(patientIds[i]);
+		}
+		return ids;
+	}
+	
+	private static String normalize(String searchValue) {
+		return searchValue.trim().toLowerCase();
+	}
+}
@@ -0,0 +1,292 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.web.dwr;
+
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.directwebremoting.WebContext;
+import org.directwebremoting.WebContextFactory;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.openmrs.api.context.Context;
+import org.openmrs.web.cache.ExpiringCache;
+import org.springframework.stereotype.Component;
+
+/**
+ * Coordinates the searches the search widgets run as the user types. Each session and widget has at
+ * most one running search, a new search supersedes the running one and cancels its search query if
+ * it is executing one, see {@link Ticket#runQuery(Callable)}, so that abandoned prefix searches stop
+ * using the database. The last complete result of each session and widget is kept for a short while
+ * so that a search for a longer prefix can be restricted to it.
+ */
+@Component("searchCoordinator")
+public class SearchCoordinator {
+	
+	private static final Log log = LogFactory.getLog(SearchCoordinator.class);
+	
+	public static final String PATIENT_SEARCH = "patient";
+	
+	public static final String CONCEPT_SEARCH = "concept";
+	
+	public static final String PERSON_SEARCH = "person";
+	
+	private static final int MAX_RESULTS = 500;
+	
+	private static final long RESULT_TTL_MILLIS = TimeUnit.MINUTES.toMillis(2);
+	
+	private final Map<String, Ticket> runningSearches = new ConcurrentHashMap<String, Ticket>();
+	
+	private final ExpiringCache<String, CompleteResult> completeResults = new ExpiringCache<String, CompleteResult>(
+	        MAX_RESULTS, RESULT_TTL_MILLIS);
+	
+	private final AtomicLong cancelledSearches = new AtomicLong();
+	
+	private final AtomicLong reusedResults = new AtomicLong();
+	
+	/**
+	 * Starts a search of the session of the current DWR call, see
+	 * {@link #begin(String, String, String)}
+	 * 
+	 * @param widget the kind of search
+	 * @param searchValue the text searched for
+	 * @return the ticket of the search
+	 */
+	public Ticket begin(String widget, String searchValue) {
+		WebContext webContext = WebContextFactory.get();
+		String sessionId = webContext == null ? null : webContext.getHttpServletRequest().getSession().getId();
+		return begin(sessionId, widget, searchValue);
+	}
+	
+	/**
+	 * Starts a search, superseding the search of the same session and widget that is still running
+	 * 
+	 * @param sessionId the id of the http session, searches without a session are not coordinated
+	 * @param widget the kind of search
+	 * @param searchValue the text searched for
+	 * @return the ticket of the search, to be passed to {@link #end(Ticket)} once the search is done
+	 * @should supersede the running search of the same session and widget
+	 * @should not supersede the searches of other sessions or widgets
+	 */
+	public Ticket begin(String sessionId, String widget, String searchValue) {
+		Ticket ticket = new Ticket(sessionId == null ? null : sessionId + "|" + widget, searchValue,
+		        getCurrentHibernateSession());
+		if (ticket.key != null) {
+			Ticket previous = runningSearches.put(ticket.key, ticket);
+			if (previous != null && previous.supersede()) {
+				long cancelled = cancelledSearches.incrementAndGet();
+				if (log.isDebugEnabled()) {
+					log.debug("Cancelled the " + widget + " search for '" + previous.searchValue + "', superseded by '"
+					        + searchValue + "' (" + cancelled + " cancelled so far)");
+				}
+			}
+		}
+		return ticket;
+	}
+	
+	/**
+	 * Marks the search as done
+	 * 
+	 * @param ticket the ticket returned by {@link #begin(String, String, String)}
+	 */
+	public void end(Ticket ticket) {
+		ticket.finish();
+		if (ticket.key != null) {
+			runningSearches.remove(ticket.key, ticket);
+		}
+	}
+	
+	/**
+	 * Keeps the result of a search that found all the matches, so that searches for a longer prefix
+	 * can be restricted to it
+	 * 
+	 * @param ticket the ticket of the search
+	 * @param result the complete result
+	 */
+	public void putCompleteResult(Ticket ticket, Object result) {
+		if (ticket.key != null && !ticket.isSuperseded()) {
+			completeResults.put(ticket.key, new CompleteResult(ticket.searchValue, result));
+		}
+	}
+	
+	/**
+	 * Gets the complete result of an earlier search of the same session and widget that the search of
+	 * the ticket refines, the caller is responsible for restricting its search to it and should call
+	 * {@link #recordReuse(Ticket)} if it does
+	 * 
+	 * @param ticket the ticket of the search
+	 * @return the result or null if there is none
+	 * @should return the complete result of a shorter prefix
+	 * @should not return the result of another search
+	 */
+	public Object getPrefixResult(Ticket ticket) {
+		if (ticket.key == null) {
+			return null;
+		}
+		CompleteResult result = completeResults.get(ticket.key);
+		if (result != null && normalize(ticket.searchValue).startsWith(normalize(result.searchValue))) {
+			return result.result;
+		}
+		return null;
+	}
+	
+	/**
+	 * Records that a search was restricted to the result of an earlier one
+	 * 
+	 * @param ticket the ticket of the search
+	 */
+	public void recordReuse(Ticket ticket) {
+		long reused = reusedResults.incrementAndGet();
+		if (log.isDebugEnabled()) {
+			log.debug("Answered the search for '" + ticket.searchValue + "' from an earlier result (" + reused
+			        + " reused so far)");
+		}
+	}
+	
+	/**
+	 * @return the number of searches cancelled because they were superseded
+	 */
+	public long getCancelledSearchCount() {
+		return cancelledSearches.get();
+	}
+	
+	/**
+	 * @return the number of searches restricted to the result of an earlier search
+	 */
+	public long getReusedResultCount() {
+		return reusedResults.get();
+	}
+	
+	/**
+	 * @return the number of database searches saved, either cancelled or restricted to an earlier
+	 *         result
+	 */
+	public long getSavedQueryCount() {
+		return cancelledSearches.get() + reusedResults.get();
+	}
+	
+	private static String normalize(String searchValue) {
+		return searchValue == null ? "" : searchValue.trim().toLowerCase();
+	}
+	
+	private static Session getCurrentHibernateSession() {
+		try {
+			return Context.getRegisteredComponent("sessionFactory", SessionFactory.class).getCurrentSession();
+		}
+		catch (Exception e) {
+			log.debug("No hibernate session to cancel searches with", e);
+			return null;
+		}
+	}
+	
+	/**
+	 * A search registered with the coordinator
+	 */
+	public static class Ticket {
+		
+		private final String key;
+		
+		private final String searchValue;
+		
+		// the session of the thread running the search, cancelQuery() is the one method of a session
+		// that may be called from another thread
+		private final Session session;
+		
+		private volatile boolean superseded;
+		
+		private boolean running = true;
+		
+		// only the search query itself is cancelled, not whatever else the session runs
+		private boolean querying;
+		
+		private Ticket(String key, String searchValue, Session session) {
+			this.key = key;
+			this.searchValue = searchValue;
+			this.session = session;
+		}
+		
+		/**
+		 * @return true if a newer search of the same session and widget has started, the results of
+		 *         this one are not wanted anymore
+		 */
+		public boolean isSuperseded() {
+			return superseded;
+		}
+		
+		/**
+		 * Runs the search query, which a newer search of the same session and widget cancels if it
+		 * starts meanwhile. The query should run a single statement on the session of this thread,
+		 * statements run outside of it are never cancelled.
+		 * 
+		 * @param query the search query
+		 * @return the result of the query
+		 * @throws CancellationException if the search has already been superseded
+		 * @throws Exception if the query fails, also when it is cancelled
+		 * @should run the query of a search that is not superseded
+		 * @should not run the query of a superseded search
+		 */
+		public <T> T runQuery(Callable<T> query) throws Exception {
+			synchronized (this) {
+				if (superseded) {
+					throw new CancellationException("The search for '" + searchValue + "' has been superseded");
+				}
+				querying = true;
+			}
+			try {
+				return query.call();
+			}
+			finally {
+				// a newer search cancels under the lock, so it can't hit a statement run after this
+				synchronized (this) {
+					querying = false;
+				}
+			}
+		}
+		
+		private synchronized boolean supersede() {
+			superseded = true;
+			if (!running) {
+				return false;
+			}
+			if (querying && session != null) {
+				try {
+					session.cancelQuery();
+				}
+				catch (Exception e) {
+					// there may be no statement running at this point
+					log.debug("Unable to cancel the superseded query", e);
+				}
+			}
+			return true;
+		}
+		
+		private synchronized void finish() {
+			running = false;
+		}
+	}
+	
+	private static class CompleteResult {
+		
+		private final String searchValue;
+		
+		private final Object result;
+		
+		private CompleteResult(String searchValue, Object result) {
+			this.searchValue = searchValue;
+			this.result = result;
+		}
+	}
+}
@@ -0,0 +1,208 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.web.flowsheet;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.text.DateFormat;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang.StringEscapeUtils;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+import org.openmrs.Concept;
+import org.openmrs.ConceptName;
+import org.openmrs.Obs;
+import org.openmrs.Patient;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.legacyui.api.LegacyUIService;
+import org.openmrs.web.cache.ExpiringCache;
+import org.springframework.stereotype.Component;
+
+/**
+ * Renders the sample flowsheet of a patient, see SampleFlowsheetServlet. Obs are read a page at a
+ * time, most recent first, and each page is evicted from the session once written so that the
+ * flowsheet of a long term patient does not hold all of the patient's obs in memory. Concept display
+ * names are cached per locale across requests and dropped whenever a change to the dictionary is
+ * committed, see {@link org.openmrs.web.dwr.ConceptSearchCacheAdvice}.
+ */
+@Component("flowsheetRenderer")
+public class FlowsheetRenderer {
+	
+	public static final int DEFAULT_PAGE_SIZE = 500;
+	
+	private static final int MAX_CONCEPT_NAMES = 5000;
+	
+	private static final long CONCEPT_NAME_TTL_MILLIS = TimeUnit.MINUTES.toMillis(10);
+	
+	private static final JsonFactory jsonFactory = new JsonFactory().disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+	
+	private final ExpiringCache<String, String> conceptNames = new ExpiringCache<String, String>(MAX_CONCEPT_NAMES,
+	        CONCEPT_NAME_TTL_MILLIS);
+	
+	private int pageSize = DEFAULT_PAGE_SIZE;
+	
+	/**
+	 * Writes the flowsheet as an html table with a header row for each day
+	 * 
+	 * @param patient the patient
+	 * @param locale the locale to render names, values and dates in
+	 * @param writer the writer to write to, it should be buffered
+	 * @throws IOException if the writer fails
+	 * @should write a header row for each day
+	 * @should write a message if the patient has no obs
+	 */
+	public void renderHtml(Patient patient, Locale locale, final Writer writer) throws IOException {
+		final DateFormat dateFormat = Context.getDateFormat();
+		final Calendar obsDate = Calendar.getInstance();
+		final int[] currentDay = { -1 };
+		
+		boolean found = forEachObs(patient, new ObsWriter() {
+			
+			@Override
+			public void write(Obs obs, String conceptName, String value) throws IOException {
+				if (currentDay[0] == -1) {
+					writer.write("<style>\n");
+					writer.write(".header { font-family:Arial; font-weight:bold; text-align: center; font-size: 1.5em;}\n");
+					writer.write(".label { font-family:Arial; text-align:right; color:#808080; font-style:italic; font-size: 0.6em; vertical-align: top;}\n");
+					writer.write(".value { font-family:Arial; text-align:left; vertical-align:top; }\n");
+					writer.write("</style>\n");
+					writer.write("<table cellspacing=0 cellpadding=3>\n");
+				}
+				obsDate.setTime(obs.getObsDatetime());
+				int day = obsDate.get(Calendar.YEAR) * 1000 + obsDate.get(Calendar.DAY_OF_YEAR);
+				if (day != currentDay[0]) {
+					currentDay[0] = day;
+					writer.write("<tr><td class=header colspan=2>" + dateFormat.format(obs.getObsDatetime())
+					        + "</td></tr>\n");
+				}
+				writer.write("<tr><td class=label>");
+				writer.write(StringEscapeUtils.escapeHtml(conceptName));
+				writer.write("</td><td class=value>");
+				writer.write(StringEscapeUtils.escapeHtml(value));
+				writer.write("</td></tr>\n");
+			}
+		}, locale);
+		
+		if (found) {
+			writer.write("</table>\n");
+		} else {
+			writer.write("No observations found");
+		}
+		writer.flush();
+	}
+	
+	/**
+	 * Writes the flowsheet as a json object holding the patient id and the list of obs, most recent
+	 * first, leaving the layout to the client
+	 * 
+	 * @param patient the patient
+	 * @param locale the locale to render names and values in
+	 * @param writer the writer to write to, it should be buffered
+	 * @throws IOException if the writer fails
+	 * @should write the obs most recent first
+	 */
+	public void renderJson(Patient patient, Locale locale, Writer writer) throws IOException {
+		final JsonGenerator json = jsonFactory.createJsonGenerator(writer);
+		json.writeStartObject();
+		json.writeNumberField("patientId", patient.getPatientId());
+		json.writeArrayFieldStart("obs");
+		forEachObs(patient, new ObsWriter() {
+			
+			@Override
+			public void write(Obs obs, String conceptName, String value) throws IOException {
+				json.writeStartObject();
+				json.writeNumberField("obsId", obs.getObsId());
+				json.writeNumberField("obsDatetime", obs.getObsDatetime().getTime());
+				json.writeNumberField("conceptId", obs.getConcept().getConceptId());
+				json.writeStringField("concept", conceptName);
+				json.writeStringField("value", value);
+				json.writeEndObject();
+			}
+		}, locale);
+		json.writeEndArray();
+		json.writeEndObject();
+		json.close();
+		writer.flush();
+	}
+	
+	/**
+	 * Gets the name to display for the given concept, its shortest name in the given locale or its
+	 * name if it has no short name
+	 * 
+	 * @param concept the concept
+	 * @param locale the locale
+	 * @return the name, or an empty string if the concept has no name in the locale
+	 */
+	public String getConceptName(Concept concept, Locale locale) {
+		String key = locale + "|" + concept.getConceptId();
+		String foundName = conceptNames.get(key);
+		if (foundName != null) {
+			return foundName;
+		}
+		
+		foundName = "";
+		ConceptName shortName = concept.getShortestName(locale, false);
+		if (shortName != null) {
+			foundName = shortName.getName();
+		} else {
+			ConceptName name = concept.getName(locale);
+			if (name != null) {
+				foundName = name.getName();
+			}
+		}
+		conceptNames.put(key, foundName);
+		return foundName;
+	}
+	
+	/**
+	 * Drops the cached concept names
+	 * 
+	 * @should look the names up again
+	 */
+	public void clearConceptNames() {
+		conceptNames.clear();
+	}
+	
+	public void setPageSize(int pageSize) {
+		this.pageSize = pageSize;
+	}
+	
+	/**
+	 * @return true if the patient has at least one obs
+	 */
+	private boolean forEachObs(Patient patient, ObsWriter obsWriter, Locale locale) throws IOException {
+		LegacyUIService service = Context.getService(LegacyUIService.class);
+		int firstResult = 0;
+		List<Obs> page;
+		do {
+			page = service.getObsByPerson(patient, firstResult, pageSize);
+			for (Obs obs : page) {
+				String value = obs.getValueAsString(locale);
+				obsWriter.write(obs, getConceptName(obs.getConcept(), locale), value == null ? "" : value);
+			}
+			firstResult += page.size();
+			// drop the obs written so far to keep the session small, the rest of the session may hold
+			// what the caller loaded or changed and is left alone
+			for (Obs obs : page) {
+				Context.evictFromSession(obs);
+			}
+		} while (page.size() == pageSize);
+		return firstResult > 0;
+	}
+	
+	private interface ObsWriter {
+		
+		void write(Obs obs, String conceptName, String value) throws IOException;
+	}
+}
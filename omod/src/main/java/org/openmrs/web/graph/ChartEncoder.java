@@ -0,0 +1,281 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.web.graph;
+
+import java.awt.AlphaComposite;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.jfree.chart.ChartUtilities;
+import org.jfree.chart.JFreeChart;
+import org.jfree.chart.encoders.KeypointPNGEncoderAdapter;
+import org.openmrs.GlobalProperty;
+import org.openmrs.api.GlobalPropertyListener;
+import org.openmrs.api.context.Context;
+import org.springframework.stereotype.Component;
+
+/**
+ * Draws and encodes charts as PNG or JPEG images. Image buffers are taken from small pools instead
+ * of being allocated for every chart, PNG images keep their transparency while JPEG images are
+ * drawn on white. PNG images are written by default with a pure java encoder at a moderate
+ * compression level, which is much cheaper than the best compression the ImageIO writer uses and
+ * barely larger for charts. The time spent drawing and encoding charts is recorded and shown on the
+ * system information page.
+ */
+@Component("chartEncoder")
+public class ChartEncoder implements GlobalPropertyListener {
+	
+	private static final Log log = LogFactory.getLog(ChartEncoder.class);
+	
+	public static final String PNG_MIME_TYPE = "image/png";
+	
+	public static final String JPG_MIME_TYPE = "image/jpeg";
+	
+	public static final String GP_PNG_COMPRESSION_LEVEL = "legacyui.chartPngCompressionLevel";
+	
+	public static final String GP_PNG_ENCODER = "legacyui.chartPngEncoder";
+	
+	/**
+	 * Value of {@link #GP_PNG_ENCODER} selecting the ImageIO PNG writer, any other value selects the
+	 * faster pure java encoder
+	 */
+	public static final String IMAGEIO_PNG_ENCODER = "imageio";
+	
+	public static final int DEFAULT_PNG_COMPRESSION_LEVEL = 4;
+	
+	private static final float JPEG_QUALITY = 0.95f;
+	
+	// larger buffers are not kept, a pool of them would hold on to too much memory
+	private static final int MAX_POOLED_PIXELS = 1000 * 1000;
+	
+	private final BlockingQueue<BufferedImage> argbBuffers = new ArrayBlockingQueue<BufferedImage>(Runtime
+	        .getRuntime().availableProcessors());
+	
+	private final BlockingQueue<BufferedImage> rgbBuffers = new ArrayBlockingQueue<BufferedImage>(Runtime.getRuntime()
+	        .availableProcessors());
+	
+	private final AtomicLong chartCount = new AtomicLong();
+	
+	private final AtomicLong drawNanos = new AtomicLong();
+	
+	private final AtomicLong encodeNanos = new AtomicLong();
+	
+	private volatile Integer compressionLevel;
+	
+	private volatile Boolean imageIOEncoder;
+	
+	public ChartEncoder() {
+	}
+	
+	/**
+	 * Creates an encoder that uses the given settings instead of the global properties
+	 * 
+	 * @param compressionLevel the PNG compression level, from 0 to 9
+	 * @param imageIOEncoder true to write PNG images with the ImageIO writer
+	 */
+	public ChartEncoder(int compressionLevel, boolean imageIOEncoder) {
+		this.compressionLevel = compressionLevel;
+		this.imageIOEncoder = imageIOEncoder;
+	}
+	
+	/**
+	 * Draws the chart and encodes it
+	 * 
+	 * @param chart the chart to draw
+	 * @param width the width of the image
+	 * @param height the height of the image
+	 * @param mimeType {@link #JPG_MIME_TYPE} for a JPEG image, PNG otherwise
+	 * @return the encoded image
+	 * @throws IOException if the image cannot be encoded
+	 * @should encode a png image of the given size
+	 * @should encode a jpeg image
+	 * @should not show a previous chart through a reused buffer
+	 * @should keep the transparent background of a png image
+	 */
+	public byte[] encode(JFreeChart chart, int width, int height, String mimeType) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(16 * 1024);
+		encode(chart, width, height, mimeType, out);
+		return out.toByteArray();
+	}
+	
+	/**
+	 * Draws the chart and writes it encoded to the given stream
+	 * 
+	 * @param chart the chart to draw
+	 * @param width the width of the image
+	 * @param height the height of the image
+	 * @param mimeType {@link #JPG_MIME_TYPE} for a JPEG image, PNG otherwise
+	 * @param out the stream to write to
+	 * @throws IOException if the image cannot be encoded
+	 */
+	public void encode(JFreeChart chart, int width, int height, String mimeType, OutputStream out) throws IOException {
+		long start = System.nanoTime();
+		boolean jpeg = JPG_MIME_TYPE.equalsIgnoreCase(mimeType);
+		// JPEG has no alpha channel, PNG images are transparent where the chart draws nothing
+		BlockingQueue<BufferedImage> pool = jpeg ? rgbBuffers : argbBuffers;
+		BufferedImage buffer = borrowBuffer(pool, width, height, jpeg ? BufferedImage.TYPE_INT_RGB
+		        : BufferedImage.TYPE_INT_ARGB);
+		try {
+			BufferedImage image = buffer.getWidth() == width && buffer.getHeight() == height ? buffer : buffer
+			        .getSubimage(0, 0, width, height);
+			Graphics2D g2 = image.createGraphics();
+			try {
+				// the buffer still holds the previous chart
+				if (jpeg) {
+					g2.setColor(Color.WHITE);
+					g2.fillRect(0, 0, width, height);
+				} else {
+					g2.setComposite(AlphaComposite.Clear);
+					g2.fillRect(0, 0, width, height);
+					g2.setComposite(AlphaComposite.SrcOver);
+				}
+				chart.draw(g2, new Rectangle2D.Double(0, 0, width, height), null, null);
+			}
+			finally {
+				g2.dispose();
+			}
+			long drawn = System.nanoTime();
+			
+			if (jpeg) {
+				ChartUtilities.writeBufferedImageAsJPEG(out, JPEG_QUALITY, image);
+			} else if (isImageIOEncoder()) {
+				ChartUtilities.writeBufferedImageAsPNG(out, image);
+			} else {
+				KeypointPNGEncoderAdapter encoder = new KeypointPNGEncoderAdapter();
+				encoder.setEncodingAlpha(true);
+				encoder.setQuality(getCompressionLevel());
+				encoder.encode(image, out);
+			}
+			long encoded = System.nanoTime();
+			
+			chartCount.incrementAndGet();
+			drawNanos.addAndGet(drawn - start);
+			encodeNanos.addAndGet(encoded - drawn);
+			if (log.isDebugEnabled()) {
+				log.debug("Chart of " + width + "x" + height + " drawn in " + TimeUnit.NANOSECONDS.toMillis(drawn - start)
+				        + "ms and encoded as " + mimeType + " in " + TimeUnit.NANOSECONDS.toMillis(encoded - drawn) + "ms");
+			}
+		}
+		finally {
+			returnBuffer(pool, buffer);
+		}
+	}
+	
+	/**
+	 * @return the number of charts encoded so far
+	 */
+	public long getChartCount() {
+		return chartCount.get();
+	}
+	
+	/**
+	 * @return the average time spent drawing a chart, in milliseconds
+	 */
+	public double getAverageDrawMillis() {
+		long count = chartCount.get();
+		return count == 0 ? 0 : drawNanos.get() / 1000000d / count;
+	}
+	
+	/**
+	 * @return the average time spent encoding a chart, in milliseconds
+	 */
+	public double getAverageEncodeMillis() {
+		long count = chartCount.get();
+		return count == 0 ? 0 : encodeNanos.get() / 1000000d / count;
+	}
+	
+	/**
+	 * @return the number of charts and the average drawing and encoding times, keyed by message code
+	 *         like the sections of the system information
+	 * @should return the chart count and the average times
+	 */
+	public Map<String, String> getTimings() {
+		Map<String, String> timings = new LinkedHashMap<String, String>();
+		timings.put("legacyui.SystemInfo.charts.count", String.valueOf(getChartCount()));
+		timings.put("legacyui.SystemInfo.charts.averageDrawMillis", String.format("%.1f", getAverageDrawMillis()));
+		timings.put("legacyui.SystemInfo.charts.averageEncodeMillis", String.format("%.1f", getAverageEncodeMillis()));
+		return timings;
+	}
+	
+	private BufferedImage borrowBuffer(BlockingQueue<BufferedImage> pool, int width, int height, int type) {
+		BufferedImage buffer = pool.poll();
+		if (buffer != null && buffer.getWidth() >= width && buffer.getHeight() >= height) {
+			return buffer;
+		}
+		// too small, a larger one takes its place in the pool if it isn't too large itself
+		int bufferWidth = buffer == null ? width : Math.max(width, buffer.getWidth());
+		int bufferHeight = buffer == null ? height : Math.max(height, buffer.getHeight());
+		if (bufferWidth * bufferHeight > MAX_POOLED_PIXELS) {
+			bufferWidth = width;
+			bufferHeight = height;
+		}
+		return new BufferedImage(bufferWidth, bufferHeight, type);
+	}
+	
+	private void returnBuffer(BlockingQueue<BufferedImage> pool, BufferedImage buffer) {
+		if (buffer.getWidth() * buffer.getHeight() <= MAX_POOLED_PIXELS) {
+			pool.offer(buffer);
+		}
+	}
+	
+	private int getCompressionLevel() {
+		if (compressionLevel == null) {
+			String value = Context.getAdministrationService().getGlobalProperty(GP_PNG_COMPRESSION_LEVEL,
+			    String.valueOf(DEFAULT_PNG_COMPRESSION_LEVEL));
+			try {
+				compressionLevel = Math.max(0, Math.min(9, Integer.parseInt(value.trim())));
+			}
+			catch (NumberFormatException e) {
+				log.warn(GP_PNG_COMPRESSION_LEVEL + " should be an integer between 0 and 9, using the default of "
+				        + DEFAULT_PNG_COMPRESSION_LEVEL);
+				compressionLevel = DEFAULT_PNG_COMPRESSION_LEVEL;
+			}
+		}
+		return compressionLevel;
+	}
+	
+	private boolean isImageIOEncoder() {
+		if (imageIOEncoder == null) {
+			imageIOEncoder = IMAGEIO_PNG_ENCODER.equalsIgnoreCase(Context.getAdministrationService().getGlobalProperty(
+			    GP_PNG_ENCODER, "").trim());
+		}
+		return imageIOEncoder;
+	}
+	
+	@Override
+	public boolean supportsPropertyName(String propertyName) {
+		return GP_PNG_COMPRESSION_LEVEL.equals(propertyName) || GP_PNG_ENCODER.equals(propertyName);
+	}
+	
+	@Override
+	public void globalPropertyChanged(GlobalProperty newValue) {
+		compressionLevel = null;
+		imageIOEncoder = null;
+	}
+	
+	@Override
+	public void globalPropertyDeleted(String propertyName) {
+		compressionLevel = null;
+		imageIOEncoder = null;
+	}
+}
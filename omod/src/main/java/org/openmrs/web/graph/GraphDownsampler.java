@@ -0,0 +1,107 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.web.graph;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.openmrs.Obs;
+
+/**
+ * Reduces the numeric obs of a graph to about as many points as the graph has pixels across. The
+ * time range is cut into buckets of equal duration and only the lowest and highest obs of each
+ * bucket are kept, which keeps the shape of the line and, unlike averaging, the spikes that matter
+ * most on vitals graphs.
+ */
+public class GraphDownsampler {
+	
+	private static final Comparator<Obs> BY_OBS_DATETIME = new Comparator<Obs>() {
+		
+		@Override
+		public int compare(Obs o1, Obs o2) {
+			return o1.getObsDatetime().compareTo(o2.getObsDatetime());
+		}
+	};
+	
+	private GraphDownsampler() {
+	}
+	
+	/**
+	 * @param observations the obs to graph, in any order
+	 * @param maxPoints the maximum number of points to keep, at least 2
+	 * @return the given obs when there are no more than maxPoints of them, otherwise the obs with a
+	 *         numeric value and a date to keep, sorted by date
+	 * @should return the given obs if there are not too many
+	 * @should keep the lowest and highest obs of each bucket
+	 * @should keep the first and last obs
+	 */
+	public static List<Obs> downsample(List<Obs> observations, int maxPoints) {
+		if (observations.size() <= maxPoints) {
+			return observations;
+		}
+		
+		List<Obs> sorted = new ArrayList<Obs>(observations.size());
+		for (Obs obs : observations) {
+			if (obs.getValueNumeric() != null && obs.getObsDatetime() != null) {
+				sorted.add(obs);
+			}
+		}
+		if (sorted.size() <= maxPoints) {
+			return sorted;
+		}
+		Collections.sort(sorted, BY_OBS_DATETIME);
+		
+		long start = sorted.get(0).getObsDatetime().getTime();
+		long end = sorted.get(sorted.size() - 1).getObsDatetime().getTime();
+		// two points per bucket, the first and last obs are kept on top of that
+		int buckets = Math.max(1, (maxPoints - 2) / 2);
+		double bucketDuration = Math.max(1, end - start) / (double) buckets;
+		
+		List<Obs> kept = new ArrayList<Obs>(maxPoints);
+		kept.add(sorted.get(0));
+		int current = -1;
+		Obs min = null;
+		Obs max = null;
+		for (int i = 1; i < sorted.size() - 1; i++) {
+			Obs obs = sorted.get(i);
+			int bucket = (int) Math.min(buckets - 1, (obs.getObsDatetime().getTime() - start) / bucketDuration);
+			if (bucket != current) {
+				addInOrder(kept, min, max);
+				current = bucket;
+				min = obs;
+				max = obs;
+			} else if (obs.getValueNumeric() < min.getValueNumeric()) {
+				min = obs;
+			} else if (obs.getValueNumeric() > max.getValueNumeric()) {
+				max = obs;
+			}
+		}
+		addInOrder(kept, min, max);
+		kept.add(sorted.get(sorted.size() - 1));
+		return kept;
+	}
+	
+	private static void addInOrder(List<Obs> kept, Obs min, Obs max) {
+		if (min == null) {
+			return;
+		}
+		if (min == max) {
+			kept.add(min);
+		} else if (min.getObsDatetime().before(max.getObsDatetime())) {
+			kept.add(min);
+			kept.add(max);
+		} else {
+			kept.add(max);
+			kept.add(min);
+		}
+	}
+}
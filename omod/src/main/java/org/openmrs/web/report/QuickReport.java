@@ -0,0 +1,141 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.web.report;
+
+import java.util.List;
+
+import org.openmrs.api.context.Context;
+import org.openmrs.module.legacyui.api.LegacyUIService;
+
+/**
+ * The reports offered on the quick report page. Each report reads its rows a page at a time with
+ * the date window applied by the query, and renders them with a header, a row and a footer
+ * template, see {@link QuickReportEngine}.
+ */
+public enum QuickReport {
+	
+	RETURN_VISIT_DATE("RETURN VISIT DATE THIS WEEK", "observations", "<table>\n",
+	        "#foreach($o in $observations)\n"
+	                + " <tr>\n"
+	                + "  <td>$!{o.Patient.PersonName.GivenName} $!{o.Patient.PersonName.MiddleName} $!{o.Patient.PersonName.FamilyName}</td>\n"
+	                + "  <td>$!{o.Patient.PatientIdentifier}</td>\n" + "  <td>$!{o.Location.Name}</td>\n"
+	                + "  <td>$!{date.format($!{o.Encounter.EncounterDatetime})}</td>\n"
+	                + "  <td>$!{date.format($o.ValueDatetime)}</td>\n" + " </tr>\n" + "#end\n") {
+		
+		@Override
+		public List<?> getRows(QuickReportParameters parameters, int firstResult, int maxResults) {
+			return Context.getService(LegacyUIService.class).getObsByValueDatetime(
+			    Context.getConceptService().getConcept(RETURN_VISIT_DATE_CONCEPT_ID), parameters.getLocation(),
+			    parameters.getStartDate(), parameters.getEndDate(), firstResult, maxResults);
+		}
+	},
+	
+	ATTENDED_CLINIC("ATTENDED CLINIC THIS WEEK", "encounters", "<table>\n",
+	        "#foreach($e in $encounters)\n"
+	                + " <tr>\n"
+	                + "  <td>$!{e.Patient.PersonName.GivenName} $!{e.Patient.PersonName.MiddleName} $!{e.Patient.PersonName.FamilyName}</td>\n"
+	                + "  <td>$!{e.Patient.PatientIdentifier}</td>\n" + "  <td>$!{e.Location.Name}</td>\n"
+	                + "  <td>$!{date.format($e.encounterDatetime)}</td>\n" + " </tr>\n" + "#end\n") {
+		
+		@Override
+		public List<?> getRows(QuickReportParameters parameters, int firstResult, int maxResults) {
+			return Context.getService(LegacyUIService.class).getEncounters(parameters.getLocation(),
+			    parameters.getStartDate(), parameters.getEndDate(), firstResult, maxResults);
+		}
+	},
+	
+	VOIDED_OBS("VOIDED OBS", "observations", "<table>\n" + " <tr> \n"
+	        + "  <th>Id</th><th>Patient</th><th>Encounter</th>" + "  <th>Concept</th><th>Voided Answer</th>"
+	        + "  <th>Comment</th><th>Voided By</th><th>Void Reason</th> \n" + " </tr>\n",
+	        "#foreach($o in $observations)\n"
+	                + " <tr>\n"
+	                + "  <td><a href='admin/observations/obs.form?obsId=$!{o.ObsId}'>$!{o.ObsId}</a></td>\n"
+	                + "  <td><a href='admin/patients/patient.form?patientId=$!{o.Person.personId}'>$!{o.Person.personName}</a></td>\n"
+	                + "  <td><a href='admin/encounters/encounter.form?encounterId=$!{o.Encounter.EncounterId}'>$!{o.Encounter.EncounterId}</a></td>\n"
+	                + "  <td>$!{o.Concept.getName(locale)}</td>\n" + "  <td>$!{o.getValueAsString(locale)}</td>\n"
+	                + "  <td>$!{o.Comment}</td>\n"
+	                + "  <td>$!{o.VoidedBy.FirstName} $!{o.VoidedBy.LastName} $!{date.format($o.DateVoided)}</td>\n"
+	                + "  <td>$!{o.VoidReason}</td>\n" + " </tr>\n" + "#end\n") {
+		
+		@Override
+		public List<?> getRows(QuickReportParameters parameters, int firstResult, int maxResults) {
+			return Context.getService(LegacyUIService.class).getVoidedObs(parameters.getStartDate(),
+			    parameters.getEndDate(), firstResult, maxResults);
+		}
+	};
+	
+	private static final int RETURN_VISIT_DATE_CONCEPT_ID = 5096;
+	
+	private static final String FOOTER_TEMPLATE = "</table>\n";
+	
+	private final String reportType;
+	
+	private final String rowsName;
+	
+	private final String headerTemplate;
+	
+	private final String rowTemplate;
+	
+	private QuickReport(String reportType, String rowsName, String headerTemplate, String rowTemplate) {
+		this.reportType = reportType;
+		this.rowsName = rowsName;
+		this.headerTemplate = headerTemplate;
+		this.rowTemplate = rowTemplate;
+	}
+	
+	/**
+	 * Gets a page of the rows of this report
+	 * 
+	 * @param parameters the parameters of the report
+	 * @param firstResult the index of the first row to return
+	 * @param maxResults the size of the page
+	 * @return the rows
+	 */
+	public abstract List<?> getRows(QuickReportParameters parameters, int firstResult, int maxResults);
+	
+	/**
+	 * @return the report type, as submitted by the quick report page
+	 */
+	public String getReportType() {
+		return reportType;
+	}
+	
+	/**
+	 * @return the name the rows are put under in the velocity context
+	 */
+	public String getRowsName() {
+		return rowsName;
+	}
+	
+	public String getHeaderTemplate() {
+		return headerTemplate;
+	}
+	
+	public String getRowTemplate() {
+		return rowTemplate;
+	}
+	
+	public String getFooterTemplate() {
+		return FOOTER_TEMPLATE;
+	}
+	
+	/**
+	 * @param reportType the report type, as submitted by the quick report page
+	 * @return the report or null if there is no report of this type
+	 */
+	public static QuickReport forReportType(String reportType) {
+		for (QuickReport report : values()) {
+			if (report.reportType.equals(reportType)) {
+				return report;
+			}
+		}
+		return null;
+	}
+}
@@ -0,0 +1,272 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.web.report;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PreDestroy;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.velocity.Template;
+import org.apache.velocity.VelocityContext;
+import org.apache.velocity.app.VelocityEngine;
+import org.apache.velocity.runtime.RuntimeConstants;
+import org.apache.velocity.runtime.log.CommonsLogLogChute;
+import org.apache.velocity.runtime.resource.loader.StringResourceLoader;
+import org.apache.velocity.runtime.resource.util.StringResourceRepository;
+import org.openmrs.api.context.Context;
+import org.openmrs.api.context.UserContext;
+import org.openmrs.util.OpenmrsUtil;
+import org.openmrs.web.clientregistry.NamedThreadFactory;
+import org.springframework.stereotype.Component;
+
+/**
+ * Renders the {@link QuickReport}s. The velocity engine is initialized once and the templates are
+ * parsed once, then each report is rendered a page of rows at a time, flushing the output and
+ * clearing the session after each page. Long reports can also be run in the background, their
+ * output is written to a file in the application data directory that the user who submitted the
+ * report can download once it is done, results nobody downloaded are purged periodically.
+ */
+@Component("quickReportEngine")
+public class QuickReportEngine {
+	
+	private static final Log log = LogFactory.getLog(QuickReportEngine.class);
+	
+	public static final int DEFAULT_PAGE_SIZE = 200;
+	
+	private static final String REPORT_DIRECTORY = "legacyui" + File.separator + "reports";
+	
+	private static final int POOL_SIZE = 2;
+	
+	private static final int QUEUE_CAPACITY = 10;
+	
+	// reports that nobody downloaded are deleted after this long
+	private static final long RESULT_TTL_MILLIS = TimeUnit.HOURS.toMillis(1);
+	
+	private static final long PURGE_INTERVAL_MINUTES = 10;
+	
+	private final VelocityEngine velocityEngine;
+	
+	private final ThreadPoolExecutor executor;
+	
+	private final ScheduledExecutorService purgeScheduler;
+	
+	private final Map<String, ReportJob> jobs = new ConcurrentHashMap<String, ReportJob>();
+	
+	private int pageSize = DEFAULT_PAGE_SIZE;
+	
+	private long resultTimeToLive = RESULT_TTL_MILLIS;
+	
+	public QuickReportEngine() {
+		velocityEngine = new VelocityEngine();
+		velocityEngine.setProperty(RuntimeConstants.RUNTIME_LOG_LOGSYSTEM_CLASS, CommonsLogLogChute.class.getName());
+		velocityEngine.setProperty(RuntimeConstants.RESOURCE_LOADER, "string");
+		velocityEngine.setProperty("string.resource.loader.class", StringResourceLoader.class.getName());
+		velocityEngine.setProperty("string.resource.loader.repository.static", "false");
+		velocityEngine.setProperty("string.resource.loader.cache", "true");
+		velocityEngine.init();
+		
+		StringResourceRepository templates = (StringResourceRepository) velocityEngine
+		        .getApplicationAttribute(StringResourceLoader.REPOSITORY_NAME_DEFAULT);
+		for (QuickReport report : QuickReport.values()) {
+			templates.putStringResource(report.name() + ".header", report.getHeaderTemplate());
+			templates.putStringResource(report.name() + ".rows", report.getRowTemplate());
+			templates.putStringResource(report.name() + ".footer", report.getFooterTemplate());
+		}
+		
+		executor = new ThreadPoolExecutor(POOL_SIZE, POOL_SIZE, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(
+		        QUEUE_CAPACITY), new NamedThreadFactory("legacyui-quick-report"), new ThreadPoolExecutor.AbortPolicy());
+		executor.allowCoreThreadTimeOut(true);
+		
+		purgeScheduler = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("legacyui-quick-report-purge"));
+		purgeScheduler.scheduleWithFixedDelay(this::purgeExpired, PURGE_INTERVAL_MINUTES, PURGE_INTERVAL_MINUTES,
+		    TimeUnit.MINUTES);
+	}
+	
+	/**
+	 * Renders the given report, the writer is flushed after each page of rows
+	 * 
+	 * @param report the report to render
+	 * @param parameters the parameters of the report
+	 * @param writer the writer to render to
+	 * @throws IOException if the writer fails
+	 * @should render all rows across pages
+	 * @should leave what the caller loaded in the session
+	 */
+	public void render(QuickReport report, QuickReportParameters parameters, Writer writer) throws IOException {
+		VelocityContext velocityContext = new VelocityContext();
+		velocityContext.put("date", Context.getDateFormat());
+		velocityContext.put("locale", Context.getLocale());
+		
+		writer.write("Report: " + report.getReportType() + "<br/><br/>\n\n");
+		merge(report.name() + ".header", velocityContext, writer);
+		int firstResult = 0;
+		List<?> rows;
+		do {
+			rows = report.getRows(parameters, firstResult, pageSize);
+			velocityContext.put(report.getRowsName(), rows);
+			merge(report.name() + ".rows", velocityContext, writer);
+			writer.flush();
+			firstResult += rows.size();
+			// the rows of this page have been rendered, the rest of the session may hold what the
+			// caller loaded or changed and is left alone
+			for (Object row : rows) {
+				Context.evictFromSession(row);
+			}
+		} while (rows.size() == pageSize);
+		merge(report.name() + ".footer", velocityContext, writer);
+		writer.flush();
+	}
+	
+	/**
+	 * Runs the given report in the background on behalf of the authenticated user
+	 * 
+	 * @param report the report to run
+	 * @param parameters the parameters of the report
+	 * @return the token to get the result with, or null if too many reports are already running
+	 */
+	public String submit(final QuickReport report, final QuickReportParameters parameters) {
+		purgeExpired();
+		
+		// the worker has no OpenMRS session, it runs the report as the user who submitted it
+		final UserContext userContext = Context.getUserContext();
+		String token = UUID.randomUUID().toString();
+		final File file = new File(OpenmrsUtil.getDirectoryInApplicationDataDirectory(REPORT_DIRECTORY), token + ".html");
+		try {
+			Future<File> future = executor.submit(() -> run(report, parameters, userContext, file));
+			jobs.put(token, new ReportJob(future, file, Context.getAuthenticatedUser().getUserId()));
+			return token;
+		}
+		catch (RejectedExecutionException e) {
+			log.warn("Too many quick reports are running, rejecting a new one");
+			return null;
+		}
+	}
+	
+	/**
+	 * @param token the token returned by {@link #submit(QuickReport, QuickReportParameters)}
+	 * @return the result of the report, or null if the token is unknown, expired or belongs to
+	 *         another user
+	 */
+	public Future<File> getResult(String token) {
+		ReportJob job = token == null ? null : jobs.get(token);
+		if (job == null || Context.getAuthenticatedUser() == null
+		        || !job.userId.equals(Context.getAuthenticatedUser().getUserId())) {
+			return null;
+		}
+		return job.future;
+	}
+	
+	public void setPageSize(int pageSize) {
+		this.pageSize = pageSize;
+	}
+	
+	public void setResultTimeToLive(long resultTimeToLive) {
+		this.resultTimeToLive = resultTimeToLive;
+	}
+	
+	/**
+	 * Stops the executors and deletes the reports that are still around
+	 */
+	@PreDestroy
+	public void shutdown() {
+		purgeScheduler.shutdownNow();
+		executor.shutdownNow();
+		for (ReportJob job : jobs.values()) {
+			job.discard();
+		}
+		jobs.clear();
+	}
+	
+	private File run(QuickReport report, QuickReportParameters parameters, UserContext userContext, File file)
+	        throws IOException {
+		Context.openSession();
+		try {
+			Context.setUserContext(userContext);
+			try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file),
+			        StandardCharsets.UTF_8))) {
+				render(report, parameters, writer);
+			}
+			return file;
+		}
+		catch (IOException | RuntimeException e) {
+			file.delete();
+			throw e;
+		}
+		finally {
+			Context.closeSession();
+			// the worker thread is pooled, the next report must not run as this user
+			Context.clearUserContext();
+		}
+	}
+	
+	private void merge(String templateName, VelocityContext velocityContext, Writer writer) {
+		Template template = velocityEngine.getTemplate(templateName);
+		template.merge(velocityContext, writer);
+	}
+	
+	/**
+	 * Discards the reports that were submitted longer ago than the time to live of the results
+	 * 
+	 * @should discard the results older than the time to live
+	 * @should keep the recent results
+	 */
+	void purgeExpired() {
+		long expiry = System.currentTimeMillis() - resultTimeToLive;
+		for (Iterator<ReportJob> it = jobs.values().iterator(); it.hasNext();) {
+			ReportJob job = it.next();
+			if (job.createdAt < expiry) {
+				job.discard();
+				it.remove();
+			}
+		}
+	}
+	
+	private static class ReportJob {
+		
+		private final long createdAt = System.currentTimeMillis();
+		
+		private final Future<File> future;
+		
+		private final File file;
+		
+		private final Integer userId;
+		
+		private ReportJob(Future<File> future, File file, Integer userId) {
+			this.future = future;
+			this.file = file;
+			this.userId = userId;
+		}
+		
+		private void discard() {
+			future.cancel(true);
+			file.delete();
+		}
+	}
+}
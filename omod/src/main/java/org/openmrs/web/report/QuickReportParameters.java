@@ -0,0 +1,49 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.web.report;
+
+import java.util.Date;
+
+import org.openmrs.Location;
+
+/**
+ * The date window and location a {@link QuickReport} is run for
+ */
+public class QuickReportParameters {
+	
+	private final Date startDate;
+	
+	private final Date endDate;
+	
+	private final Location location;
+	
+	/**
+	 * @param startDate the start of the window
+	 * @param endDate the end of the window
+	 * @param location the location to restrict the report to, or null for all locations
+	 */
+	public QuickReportParameters(Date startDate, Date endDate, Location location) {
+		this.startDate = startDate;
+		this.endDate = endDate;
+		this.location = location;
+	}
+	
+	public Date getStartDate() {
+		return startDate;
+	}
+	
+	public Date getEndDate() {
+		return endDate;
+	}
+	
+	public Location getLocation() {
+		return location;
+	}
+}
@@ -18,8 +18,9 @@ import javax.servlet.http.HttpServletResponse;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.jfree.chart.ChartUtilities;
 import org.jfree.chart.JFreeChart;
+import org.openmrs.api.context.Context;
+import org.openmrs.web.graph.ChartEncoder;
 
 public abstract class AbstractGraphServlet extends HttpServlet {
 	
@@ -68,12 +69,12 @@ public abstract class AbstractGraphServlet extends HttpServlet {
 			
 			// Write chart out to response as image 
 			try {
-				if (JPG_MIME_TYPE.equalsIgnoreCase(mimeType)) {
-					response.setContentType(JPG_MIME_TYPE);
-					ChartUtilities.writeChartAsJPEG(response.getOutputStream(), chart, width, height);
-				} else if (PNG_MIME_TYPE.equalsIgnoreCase(mimeType)) {
-					response.setContentType(PNG_MIME_TYPE);
-					ChartUtilities.writeChartAsPNG(response.getOutputStream(), chart, width, height);
+				if (JPG_MIME_TYPE.equalsIgnoreCase(mimeType) || PNG_MIME_TYPE.equalsIgnoreCase(mimeType)) {
+					ChartEncoder encoder = Context.getRegisteredComponent("chartEncoder", ChartEncoder.class);
+					byte[] image = encoder.encode(chart, width, height, mimeType);
+					response.setContentType(JPG_MIME_TYPE.equalsIgnoreCase(mimeType) ? JPG_MIME_TYPE : PNG_MIME_TYPE);
+					response.setContentLength(image.length);
+					response.getOutputStream().write(image);
 				} else {
 					// Throw exception: unsupported mime type
 				}
@@ -0,0 +1,108 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.web.servlet;
+
+/**
+ * A single byte range requested with an HTTP Range header, see RFC 7233
+ */
+public class ByteRange {
+	
+	private final long start;
+	
+	private final long end;
+	
+	private ByteRange(long start, long end) {
+		this.start = start;
+		this.end = end;
+	}
+	
+	/**
+	 * Parses the given Range header against an entity of the given length. Requests for several
+	 * ranges are answered with the whole entity, which the specification allows.
+	 * 
+	 * @param header the value of the Range header
+	 * @param length the length of the entity
+	 * @return the requested range, an unsatisfiable range if it starts after the end of the entity,
+	 *         or null if the whole entity should be sent
+	 * @should parse a closed range
+	 * @should parse an open ended range
+	 * @should parse a suffix range
+	 * @should cap the end of the range at the end of the entity
+	 * @should return an unsatisfiable range if it starts after the end of the entity
+	 * @should return null for malformed or multiple ranges
+	 */
+	public static ByteRange parse(String header, long length) {
+		if (header == null || !header.startsWith("bytes=") || header.indexOf(',') >= 0) {
+			return null;
+		}
+		String spec = header.substring("bytes=".length()).trim();
+		int dash = spec.indexOf('-');
+		if (dash < 0) {
+			return null;
+		}
+		try {
+			String first = spec.substring(0, dash).trim();
+			String last = spec.substring(dash + 1).trim();
+			if (first.isEmpty()) {
+				long suffixLength = Long.parseLong(last);
+				if (suffixLength <= 0 || length == 0) {
+					return unsatisfiable();
+				}
+				return new ByteRange(Math.max(0, length - suffixLength), length - 1);
+			}
+			long start = Long.parseLong(first);
+			long end = last.isEmpty() ? length - 1 : Math.min(Long.parseLong(last), length - 1);
+			if (start >= length) {
+				return unsatisfiable();
+			}
+			if (end < start) {
+				return null;
+			}
+			return new ByteRange(start, end);
+		}
+		catch (NumberFormatException e) {
+			return null;
+		}
+	}
+	
+	private static ByteRange unsatisfiable() {
+		return new ByteRange(-1, -1);
+	}
+	
+	/**
+	 * @return false if the range lies outside of the entity and a 416 status should be sent
+	 */
+	public boolean isSatisfiable() {
+		return start >= 0;
+	}
+	
+	public long getStart() {
+		return start;
+	}
+	
+	public long getEnd() {
+		return end;
+	}
+	
+	/**
+	 * @return the number of bytes in the range
+	 */
+	public long getLength() {
+		return end - start + 1;
+	}
+	
+	/**
+	 * @param length the length of the entity
+	 * @return the value of the Content-Range header for this range
+	 */
+	public String toContentRange(long length) {
+		return isSatisfiable() ? "bytes " + start + "-" + end + "/" + length : "bytes */" + length;
+	}
+}
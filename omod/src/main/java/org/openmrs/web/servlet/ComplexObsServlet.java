@@ -10,9 +10,15 @@
 package org.openmrs.web.servlet;
 
 import java.awt.image.RenderedImage;
-import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
 
 import javax.imageio.ImageIO;
 import javax.servlet.ServletException;
@@ -21,21 +27,51 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
 
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.openmrs.ConceptComplex;
 import org.openmrs.Obs;
 import org.openmrs.api.context.Context;
 import org.openmrs.obs.ComplexData;
+import org.openmrs.obs.ComplexObsHandler;
+import org.openmrs.obs.handler.BinaryDataHandler;
+import org.openmrs.obs.handler.BinaryStreamHandler;
+import org.openmrs.obs.handler.ImageHandler;
+import org.openmrs.obs.handler.MediaHandler;
+import org.openmrs.util.OpenmrsConstants;
 import org.openmrs.util.OpenmrsUtil;
 import org.openmrs.util.PrivilegeConstants;
 import org.openmrs.web.WebConstants;
+import org.openmrs.web.cache.ThumbnailCache;
+import org.openmrs.web.controller.observation.handler.WebBinaryDataHandler;
+import org.openmrs.web.controller.observation.handler.WebBinaryStreamHandler;
+import org.openmrs.web.controller.observation.handler.WebHandlerUtils;
+import org.openmrs.web.controller.observation.handler.WebImageHandler;
+import org.openmrs.web.controller.observation.handler.WebMediaHandler;
 
+/**
+ * Serves the data of complex obs. Obs are never edited in place, so responses carry an ETag derived
+ * from the obs and conditional requests are answered without loading the data. Data stored as is
+ * in a file, images included, is streamed straight from it rather than decoded and encoded again,
+ * other data is read through the obs handler. Single byte ranges are supported whenever the length
+ * of the data is known. The thumbnail view of an image obs is served from the {@link ThumbnailCache}.
+ */
 public class ComplexObsServlet extends HttpServlet {
 	
 	public static final long serialVersionUID = 1234432L;
 	
 	private static final Log log = LogFactory.getLog(ComplexObsServlet.class);
 	
+	// the handlers known to store the data as is in a file of the complex obs directory, subclasses
+	// may store it differently so only these exact classes are matched
+	private static final Set<Class<?>> IMAGE_HANDLERS = new HashSet<Class<?>>(Arrays.<Class<?>> asList(
+	    ImageHandler.class, WebImageHandler.class));
+	
+	private static final Set<Class<?>> FILE_HANDLERS = new HashSet<Class<?>>(Arrays.<Class<?>> asList(
+	    BinaryDataHandler.class, WebBinaryDataHandler.class, BinaryStreamHandler.class, WebBinaryStreamHandler.class,
+	    MediaHandler.class, WebMediaHandler.class));
+	
 	/**
 	 * @see javax.servlet.http.HttpServlet#doGet(javax.servlet.http.HttpServletRequest,
 	 *      javax.servlet.http.HttpServletResponse)
@@ -60,30 +96,48 @@ public class ComplexObsServlet extends HttpServlet {
 			return;
 		}
 		
-		Obs complexObs = Context.getObsService().getComplexObs(Integer.valueOf(obsId), view);
-		ComplexData cd = complexObs.getComplexData();
-		Object data = cd.getData();
-		
-		if (null != download) {
-			response.setHeader("Content-Disposition", "attachment; filename=" + cd.getTitle());
-			response.setHeader("Pragma", "no-cache");
+		Obs obs = Context.getObsService().getObs(Integer.valueOf(obsId));
+		if (obs == null || obs.getValueComplex() == null) {
+			response.sendError(HttpServletResponse.SC_NOT_FOUND);
+			return;
 		}
 		
-		String mimeType = cd.getMimeType();
-		
-		if (null != mimeType) {
-			response.setHeader("Content-Type", mimeType);
+		File file = getComplexDataFile(obs, view);
+		long lastModified = file != null ? file.lastModified() : obs.getDateCreated() == null ? -1 : obs
+		        .getDateCreated().getTime();
+		String etag = getETag(obs, view, file);
+		// private, the data belongs to a patient, and revalidated so that privileges are checked again
+		response.setHeader("Cache-Control", "private, no-cache");
+		response.setHeader("ETag", etag);
+		if (lastModified > 0) {
+			response.setDateHeader("Last-Modified", lastModified);
+		}
+		if (isNotModified(request, etag, lastModified)) {
+			response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			return;
 		}
 		
-		Long length = cd.getLength();
-		if (length != null) {
-			response.setHeader("Content-Length", String.valueOf(length));
-			response.setHeader("Accept-Ranges", "bytes");
+		if (file != null) {
+			String title = getTitle(obs);
+			setContentHeaders(response, download, title, getMimeType(file));
+			sendFile(request, response, file, etag, lastModified);
+			return;
 		}
 		
+		Obs complexObs = Context.getObsService().getComplexObs(obs.getObsId(), view);
+		ComplexData cd = complexObs.getComplexData();
+		Object data = cd.getData();
+		
+		setContentHeaders(response, download, cd.getTitle(), cd.getMimeType());
+		
 		if (data instanceof byte[]) {
-			ByteArrayInputStream stream = new ByteArrayInputStream((byte[]) data);
-			OpenmrsUtil.copyFile(stream, response.getOutputStream());
+			byte[] bytes = (byte[]) data;
+			ByteRange range = getRange(request, response, etag, lastModified, bytes.length);
+			if (range == null || range.isSatisfiable()) {
+				long start = range == null ? 0 : range.getStart();
+				long length = range == null ? bytes.length : range.getLength();
+				response.getOutputStream().write(bytes, (int) start, (int) length);
+			}
 		} else if (RenderedImage.class.isAssignableFrom(data.getClass())) {
 			RenderedImage img = (RenderedImage) data;
 			String[] parts = cd.getTitle().split("\\.");
@@ -95,11 +149,172 @@ public class ComplexObsServlet extends HttpServlet {
 			ImageIO.write(img, extension, response.getOutputStream());
 		} else if (InputStream.class.isAssignableFrom(data.getClass())) {
 			InputStream stream = (InputStream) data;
-			OpenmrsUtil.copyFile(stream, response.getOutputStream());
-			stream.close();
+			try {
+				Long length = cd.getLength();
+				ByteRange range = length == null ? null : getRange(request, response, etag, lastModified, length);
+				if (range == null) {
+					OpenmrsUtil.copyFile(stream, response.getOutputStream());
+				} else if (range.isSatisfiable()) {
+					IOUtils.copyLarge(stream, response.getOutputStream(), range.getStart(), range.getLength());
+				}
+			}
+			finally {
+				stream.close();
+			}
 		} else {
 			throw new ServletException("Couldn't serialize complex obs data for obsId=" + obsId + " of type "
 			        + data.getClass());
 		}
 	}
+	
+	/**
+	 * Gets the file holding the data of the given obs if its handler stores the data as is, so that
+	 * it can be sent without going through the handler. Only the core handlers and their web
+	 * counterparts are known to do so, the data of any other handler, subclasses included, is read
+	 * through the handler. For the thumbnail view of an image this is the cached thumbnail.
+	 * 
+	 * @param obs the complex obs
+	 * @param view the requested view
+	 * @return the file or null if the data isn't stored as is in a file
+	 * @throws IOException if the thumbnail can't be written
+	 */
+	protected File getComplexDataFile(Obs obs, String view) throws IOException {
+		// these views render markup pointing back at this servlet rather than the data itself
+		if (ComplexObsHandler.URI_VIEW.equals(view) || ComplexObsHandler.HTML_VIEW.equals(view)) {
+			return null;
+		}
+		ConceptComplex concept = Context.getConceptService().getConceptComplex(obs.getConcept().getConceptId());
+		if (concept == null) {
+			return null;
+		}
+		ComplexObsHandler handler = Context.getObsService().getHandler(concept.getHandler());
+		if (handler == null) {
+			return null;
+		}
+		boolean image = IMAGE_HANDLERS.contains(handler.getClass());
+		if (!image && !FILE_HANDLERS.contains(handler.getClass())) {
+			return null;
+		}
+		
+		// same layout as the AbstractHandler, title|filename in the complex obs directory
+		String[] names = obs.getValueComplex().split("\\|");
+		String filename = names.length < 2 ? names[0] : names[names.length - 1];
+		File directory = OpenmrsUtil.getDirectoryInApplicationDataDirectory(Context.getAdministrationService()
+		        .getGlobalProperty(OpenmrsConstants.GLOBAL_PROPERTY_COMPLEX_OBS_DIR));
+		File file = new File(directory, filename.trim());
+		if (!file.isFile()) {
+			return null;
+		}
+		
+		if (WebHandlerUtils.THUMBNAIL_VIEW.equals(view)) {
+			return image ? Context.getRegisteredComponent("thumbnailCache", ThumbnailCache.class).getThumbnail(obs, file,
+			    ThumbnailCache.DEFAULT_SIZE) : null;
+		}
+		return file;
+	}
+	
+	private String getTitle(Obs obs) {
+		return obs.getValueComplex().split("\\|")[0].trim();
+	}
+	
+	private String getETag(Obs obs, String view, File file) {
+		String tag = obs.getUuid() + "|" + view;
+		if (file != null) {
+			tag += "|" + file.length() + "|" + file.lastModified();
+		}
+		return "\"" + UUID.nameUUIDFromBytes(tag.getBytes(StandardCharsets.UTF_8)) + "\"";
+	}
+	
+	private boolean isNotModified(HttpServletRequest request, String etag, long lastModified) {
+		String ifNoneMatch = request.getHeader("If-None-Match");
+		if (ifNoneMatch != null) {
+			return ifNoneMatch.trim().equals("*") || ifNoneMatch.contains(etag);
+		}
+		try {
+			long ifModifiedSince = request.getDateHeader("If-Modified-Since");
+			return ifModifiedSince > 0 && lastModified > 0 && lastModified / 1000 <= ifModifiedSince / 1000;
+		}
+		catch (IllegalArgumentException e) {
+			return false;
+		}
+	}
+	
+	private void setContentHeaders(HttpServletResponse response, String download, String title, String mimeType) {
+		if (null != download) {
+			response.setHeader("Content-Disposition", "attachment; filename=" + title);
+			response.setHeader("Pragma", "no-cache");
+		}
+		if (null != mimeType) {
+			response.setHeader("Content-Type", mimeType);
+		}
+	}
+	
+	private String getMimeType(File file) {
+		String mimeType = OpenmrsUtil.getFileMimeType(file);
+		return mimeType == null ? "application/octet-stream" : mimeType;
+	}
+	
+	/**
+	 * Works out the range to send and sets the status and the length headers accordingly, an
+	 * unsatisfiable range is answered with a 416 status and nothing should be written
+	 * 
+	 * @return the range to send or null to send everything
+	 */
+	private ByteRange getRange(HttpServletRequest request, HttpServletResponse response, String etag, long lastModified,
+	        long length) throws IOException {
+		response.setHeader("Accept-Ranges", "bytes");
+		ByteRange range = ByteRange.parse(request.getHeader("Range"), length);
+		if (range != null && !isIfRangeSatisfied(request, etag, lastModified)) {
+			range = null;
+		}
+		
+		if (range == null) {
+			response.setHeader("Content-Length", String.valueOf(length));
+		} else if (!range.isSatisfiable()) {
+			response.setHeader("Content-Range", range.toContentRange(length));
+			response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+		} else {
+			response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+			response.setHeader("Content-Range", range.toContentRange(length));
+			response.setHeader("Content-Length", String.valueOf(range.getLength()));
+		}
+		return range;
+	}
+	
+	private boolean isIfRangeSatisfied(HttpServletRequest request, String etag, long lastModified) {
+		String ifRange = request.getHeader("If-Range");
+		if (ifRange == null) {
+			return true;
+		}
+		if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+			return ifRange.equals(etag);
+		}
+		try {
+			long date = request.getDateHeader("If-Range");
+			return lastModified > 0 && lastModified / 1000 <= date / 1000;
+		}
+		catch (IllegalArgumentException e) {
+			return false;
+		}
+	}
+	
+	private void sendFile(HttpServletRequest request, HttpServletResponse response, File file, String etag,
+	        long lastModified) throws IOException {
+		long length = file.length();
+		ByteRange range = getRange(request, response, etag, lastModified, length);
+		if (range != null && !range.isSatisfiable()) {
+			return;
+		}
+		
+		// the servlet output stream is not a channel the file can be transferred to without copying,
+		// so this is a plain buffered copy of the range
+		long start = range == null ? 0 : range.getStart();
+		long expected = range == null ? length : range.getLength();
+		try (InputStream in = new FileInputStream(file)) {
+			long copied = IOUtils.copyLarge(in, response.getOutputStream(), start, expected);
+			if (copied < expected) {
+				log.warn("Complex obs file " + file + " is shorter than expected");
+			}
+		}
+	}
 }
@@ -9,6 +9,9 @@
  */
 package org.openmrs.web.servlet;
 
+import java.io.IOException;
+
+import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
@@ -16,6 +19,8 @@ import javax.servlet.http.HttpSession;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.jfree.chart.JFreeChart;
+import org.openmrs.api.context.Context;
+import org.openmrs.web.cache.ChartStore;
 
 /**
  * Servlet for rendering a 3D piechart of categories and values width: Width of the generated image
@@ -32,6 +37,33 @@ public class DisplayChartServlet extends AbstractGraphServlet {
 	
 	public static final String CHART_KEY = "chartKey";
 	
+	/**
+	 * Serves the image put in the {@link ChartStore} by DisplayChartTag, charts put directly in the
+	 * session under the key are still rendered on request
+	 * 
+	 * @see org.openmrs.web.servlet.AbstractGraphServlet#doGet(javax.servlet.http.HttpServletRequest,
+	 *      javax.servlet.http.HttpServletResponse)
+	 */
+	@Override
+	protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+		HttpSession session = request.getSession(false);
+		ChartStore.RenderedChart chart = null;
+		if (session != null) {
+			chart = Context.getRegisteredComponent("chartStore", ChartStore.class).take(request.getParameter(CHART_KEY),
+			    session.getId());
+		}
+		if (chart == null) {
+			super.doGet(request, response);
+			return;
+		}
+		
+		// the key is only good once, let the browser keep the image for when the page is shown again
+		response.setHeader("Cache-Control", "private, max-age=3600");
+		response.setContentType(chart.getMimeType());
+		response.setContentLength(chart.getImage().length);
+		response.getOutputStream().write(chart.getImage());
+	}
+	
 	protected JFreeChart createChart(HttpServletRequest request, HttpServletResponse response) {
 		
 		String key = request.getParameter(CHART_KEY);
@@ -40,7 +72,10 @@ public class DisplayChartServlet extends AbstractGraphServlet {
 		Object o = session.getAttribute(key);
 		
 		if (o == null) {
-			log.error("Unable to find chart in session with key: " + key);
+			log.error("Unable to find chart with key: " + key);
+		} else {
+			// the chart is only rendered once, do not keep it in the session
+			session.removeAttribute(key);
 		}
 		
 		return (JFreeChart) o;
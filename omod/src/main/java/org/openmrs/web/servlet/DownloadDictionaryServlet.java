@@ -9,30 +9,33 @@
  */
 package org.openmrs.web.servlet;
 
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
 import java.text.SimpleDateFormat;
 import java.util.Date;
-import java.util.Iterator;
-import java.util.Locale;
+import java.util.zip.GZIPInputStream;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.openmrs.Concept;
-import org.openmrs.ConceptAnswer;
-import org.openmrs.ConceptDescription;
-import org.openmrs.ConceptName;
-import org.openmrs.ConceptSet;
-import org.openmrs.api.ConceptService;
 import org.openmrs.api.context.Context;
+import org.openmrs.web.dictionary.ConceptDictionaryExporter;
+import org.openmrs.web.dictionary.ConceptDictionaryFormat;
 
 /**
- * This servlet will package all non retired concepts into a comma delimited file. Retired concepts
- * are ignored.
+ * This servlet will package all non retired concepts into a comma delimited file, or into newline
+ * delimited JSON when the format=ndjson parameter is given. Retired concepts are ignored. The file
+ * is generated by the {@link ConceptDictionaryExporter} and reused until the dictionary changes, it
+ * is sent gzipped to clients that accept it or that ask for a compressed download with the
+ * gzip=true parameter.
  */
 public class DownloadDictionaryServlet extends HttpServlet {
 	
@@ -40,128 +43,48 @@ public class DownloadDictionaryServlet extends HttpServlet {
 	
 	private Log log = LogFactory.getLog(this.getClass());
 	
-	/**
-	 * Maximum size of query results, when retrieved in batches. ABKTODO: should probably be
-	 * configurable somewhere
-	 */
-	public int batchSize = 1000;
-	
 	/**
 	 * @see javax.servlet.http.HttpServlet#doGet(javax.servlet.http.HttpServletRequest,
 	 *      javax.servlet.http.HttpServletResponse)
 	 */
 	protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
 		
+		ConceptDictionaryFormat format = ConceptDictionaryFormat.forExtension(request.getParameter("format"));
+		File export;
 		try {
-			Locale locale = Context.getLocale();
-			
-			ConceptService cs = Context.getConceptService();
-			String s = new SimpleDateFormat("dMy_Hm").format(new Date());
-			
-			response.setHeader("Content-Type", "text/csv;charset=UTF-8");
-			response.setHeader("Content-Disposition", "attachment; filename=conceptDictionary" + s + ".csv");
-			
-			String headerLine = "Concept Id,Name,Description,Synonyms,Answers,Set Members,Class,Datatype,Changed By,Creator\n";
-			response.getWriter().write(headerLine);
-			
-			Iterator<Concept> conceptIterator = cs.conceptIterator();
-			while (conceptIterator.hasNext()) {
-				Concept c = conceptIterator.next();
-				if (!c.isRetired()) {
-					
-					StringBuilder line = new StringBuilder("");
-					line.append(c.getConceptId());
-					line.append(",");
-					String name, description;
-					ConceptName cn = c.getName(locale);
-					if (cn == null) {
-						name = "";
-					} else {
-						name = cn.getName();
-					}
-					
-					ConceptDescription cd = c.getDescription(locale);
-					if (cd == null) {
-						description = "";
-					} else {
-						description = cd.getDescription();
-					}
-					
-					line.append('"');
-					line.append(name.replace("\"", "\"\""));
-					line.append("\",");
-					
-					if (description == null) {
-						description = "";
-					}
-					line.append('"');
-					line.append(description.replace("\"", "\"\""));
-					line.append("\",");
-					
-					StringBuilder tmp = new StringBuilder("");
-					for (ConceptName syn : c.getNames()) {
-						tmp.append(syn).append("\n");
-					}
-					line.append('"');
-					line.append(tmp.toString().trim());
-					line.append("\",");
-					
-					tmp = new StringBuilder("");
-					for (ConceptAnswer answer : c.getAnswers(false)) {
-						if (answer.getAnswerConcept() != null) {
-							tmp.append(answer.getAnswerConcept().getName()).append("\n");
-						} else if (answer.getAnswerDrug() != null) {
-							tmp.append(answer.getAnswerDrug().getFullName(Context.getLocale())).append("\n");
-						}
-					}
-					line.append('"');
-					line.append(tmp.toString().trim());
-					line.append("\",");
-					
-					tmp = new StringBuilder("");
-					for (ConceptSet set : c.getConceptSets()) {
-						if (set.getConcept() != null) {
-							name = set.getConcept().getName().toString();
-							tmp.append(name.replace("\"", "\"\"")).append("\n");
-						}
-					}
-					line.append('"');
-					line.append(tmp.toString().trim());
-					line.append("\",");
-					
-					line.append('"');
-					if (c.getConceptClass() != null) {
-						line.append(c.getConceptClass().getName());
-					}
-					line.append("\",");
-					
-					line.append('"');
-					if (c.getDatatype() != null) {
-						line.append(c.getDatatype().getName());
-					}
-					line.append("\",");
-					
-					line.append('"');
-					if (c.getChangedBy() != null) {
-						line.append(c.getChangedBy().getPersonName());
-					}
-					line.append("\",");
-					
-					line.append('"');
-					if (c.getCreator() != null) {
-						line.append(c.getCreator().getPersonName());
-					}
-					line.append("\"\n");
-					
-					response.getWriter().write(line.toString());
-					
-				} //end if !c.isRetired()
-				
-			} //end while(conceptIterator.hasNext())
-			
+			export = Context.getRegisteredComponent("conceptDictionaryExporter", ConceptDictionaryExporter.class)
+			        .getExport(Context.getLocale(), format);
 		}
 		catch (Exception e) {
+			// nothing has been written yet, so the client gets an error instead of a truncated file
 			log.error("Error while downloading concepts.", e);
+			response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "Unable to export the concept dictionary");
+			return;
+		}
+		
+		String s = new SimpleDateFormat("dMy_Hm").format(new Date());
+		if ("true".equals(request.getParameter("gzip"))) {
+			response.setHeader("Content-Type", "application/gzip");
+			response.setHeader("Content-Disposition", "attachment; filename=conceptDictionary" + s + "."
+			        + format.getExtension() + ".gz");
+			response.setContentLength((int) export.length());
+			Files.copy(export.toPath(), response.getOutputStream());
+			return;
+		}
+		
+		response.setHeader("Content-Type", format.getContentType());
+		response.setHeader("Content-Disposition", "attachment; filename=conceptDictionary" + s + "."
+		        + format.getExtension());
+		response.setHeader("Vary", "Accept-Encoding");
+		String acceptEncoding = request.getHeader("Accept-Encoding");
+		if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+			response.setHeader("Content-Encoding", "gzip");
+			response.setContentLength((int) export.length());
+			Files.copy(export.toPath(), response.getOutputStream());
+		} else {
+			try (InputStream in = new GZIPInputStream(new FileInputStream(export))) {
+				IOUtils.copy(in, response.getOutputStream());
+			}
 		}
 	}
 	
@@ -9,16 +9,15 @@
  */
 package org.openmrs.web.servlet;
 
+import java.io.File;
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.nio.file.Files;
 import java.text.DateFormat;
 import java.text.ParseException;
-import java.util.ArrayList;
 import java.util.Calendar;
-import java.util.Collection;
 import java.util.Date;
-import java.util.List;
-import java.util.Vector;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
@@ -29,23 +28,19 @@ import javax.servlet.http.HttpSession;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.apache.velocity.VelocityContext;
-import org.apache.velocity.app.Velocity;
-import org.openmrs.Concept;
-import org.openmrs.Encounter;
 import org.openmrs.Location;
-import org.openmrs.Obs;
-import org.openmrs.api.ConceptService;
-import org.openmrs.api.EncounterService;
-import org.openmrs.api.LocationService;
-import org.openmrs.api.ObsService;
 import org.openmrs.api.context.Context;
-import org.openmrs.parameter.EncounterSearchCriteria;
-import org.openmrs.parameter.EncounterSearchCriteriaBuilder;
-import org.openmrs.util.OpenmrsConstants;
 import org.openmrs.util.PrivilegeConstants;
 import org.openmrs.web.WebConstants;
+import org.openmrs.web.report.QuickReport;
+import org.openmrs.web.report.QuickReportEngine;
+import org.openmrs.web.report.QuickReportParameters;
 
+/**
+ * Renders the quick reports, see {@link QuickReportEngine}. With async=true the report is run in
+ * the background and the user is redirected to a page that refreshes until the report can be
+ * downloaded.
+ */
 public class QuickReportServlet extends HttpServlet {
 	
 	public static final long serialVersionUID = 1231231L;
@@ -56,9 +51,10 @@ public class QuickReportServlet extends HttpServlet {
 		response.setContentType("text/html");
 		
 		String reportType = request.getParameter("reportType");
+		String resultToken = request.getParameter("result");
 		HttpSession session = request.getSession();
 		
-		if (reportType == null || reportType.length() == 0) {
+		if ((reportType == null || reportType.length() == 0) && resultToken == null) {
 			session.setAttribute(WebConstants.OPENMRS_ERROR_ATTR, "error.null");
 			return;
 		}
@@ -70,192 +66,79 @@ public class QuickReportServlet extends HttpServlet {
 			return;
 		}
 		
-		try {
-			Velocity.init();
-		}
-		catch (Exception e) {
-			log.error("Error initializing Velocity engine", e);
+		QuickReportEngine engine = Context.getRegisteredComponent("quickReportEngine", QuickReportEngine.class);
+		if (resultToken != null) {
+			sendResult(engine.getResult(resultToken), request, response);
+			return;
 		}
-		VelocityContext velocityContext = new VelocityContext();
-		PrintWriter report = response.getWriter();
 		
-		report.append("Report: " + reportType + "<br/><br/>\n\n");
-		
-		if (reportType.equals("RETURN VISIT DATE THIS WEEK")) {
-			doReturnVisitDate(velocityContext, report, request);
+		QuickReport report = QuickReport.forReportType(reportType);
+		if (report == null) {
+			session.setAttribute(WebConstants.OPENMRS_ERROR_ATTR, "error.null");
+			return;
 		}
-		if (reportType.equals("ATTENDED CLINIC THIS WEEK")) {
-			doAttendedClinic(velocityContext, report, request);
-		} else if (reportType.equals("VOIDED OBS")) {
-			doVoidedObs(velocityContext, report, request);
+		QuickReportParameters parameters = getParameters(request);
+		
+		if ("true".equals(request.getParameter("async"))) {
+			String token = engine.submit(report, parameters);
+			if (token == null) {
+				response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE,
+				    "Too many reports are running, please try again later");
+			} else {
+				response.sendRedirect(request.getContextPath() + "/moduleServlet/legacyui/quickReportServlet?result="
+				        + token);
+			}
+			return;
 		}
 		
 		try {
-			Velocity.evaluate(velocityContext, report, this.getClass().getName(), getTemplate(reportType));
+			engine.render(report, parameters, response.getWriter());
 		}
 		catch (Exception e) {
 			log.error("Error evaluating report type " + reportType, e);
 		}
-		
 	}
 	
-	private void doReturnVisitDate(VelocityContext velocityContext, PrintWriter report, HttpServletRequest request)
-	        throws ServletException {
-		ObsService os = Context.getObsService();
-		EncounterService es = Context.getEncounterService();
-		ConceptService cs = Context.getConceptService();
-		
-		DateFormat dateFormat = Context.getDateFormat();
-		
-		Concept c = cs.getConcept(Integer.valueOf("5096")); // RETURN VISIT DATE
-		Calendar cal = Calendar.getInstance();
-		
-		Date start;
-		Date end;
-		
-		String startDate = request.getParameter("startDate");
-		String endDate = request.getParameter("endDate");
-		String location = request.getParameter("location");
-		
-		if (startDate != null && startDate.length() != 0) {
-			try {
-				cal.setTime(dateFormat.parse(startDate));
-			}
-			catch (ParseException e) {
-				throw new ServletException("Error parsing 'Start Date'", e);
-			}
-		} else {
-			cal.setTime(new Date());
-		}
-		
-		// if they don't input an end date, assume they meant "this week"
-		if (endDate == null || "".equals(endDate)) {
-			while (cal.get(Calendar.DAY_OF_WEEK) != Calendar.SUNDAY) {
-				cal.add(Calendar.DAY_OF_MONTH, -1);
-			}
-			start = cal.getTime();
-			cal.add(Calendar.DAY_OF_MONTH, 7);
-			end = cal.getTime();
-		} else {
-			// they put in an end date, assume literal start and end
-			start = cal.getTime();
-			try {
-				cal.setTime(dateFormat.parse(endDate));
-			}
-			catch (ParseException e) {
-				throw new ServletException("Error parsing 'End Date'", e);
-			}
-			end = cal.getTime();
-		}
-		
-		List<Obs> allObs = null;
-		
-		List<String> sort = new ArrayList<String>();
-		sort.add("location.locationId asc");
-		sort.add("obs.valueDatetime asc");
-		
-		List<Concept> questions = new ArrayList<Concept>();
-		questions.add(c);
-		
-		List<OpenmrsConstants.PERSON_TYPE> personTypes = new ArrayList<OpenmrsConstants.PERSON_TYPE>();
-		personTypes.add(OpenmrsConstants.PERSON_TYPE.PATIENT);
-		
-		if (location == null || "".equals(location)) {
-			allObs = os.getObservations(null, null, questions, null, personTypes, null, sort, null, null, null, null, true);
-		} else {
-			Location locationObj = Context.getLocationService().getLocation(Integer.valueOf(location));
-			List<Location> locations = new ArrayList<Location>();
-			locations.add(locationObj);
-			
-			allObs = os.getObservations(null, null, questions, null, personTypes, locations, sort, null, null, null, null,
-			    true);
+	private void sendResult(Future<File> result, HttpServletRequest request, HttpServletResponse response)
+	        throws IOException {
+		if (result == null) {
+			response.sendError(HttpServletResponse.SC_NOT_FOUND, "This report is no longer available");
+			return;
 		}
-		
-		List<Obs> obs = new Vector<Obs>();
-		
-		for (Obs o : allObs) {
-			if (o.getValueDatetime() != null && o.getValueDatetime().after(start) && o.getValueDatetime().before(end)) {
-				obs.add(o);
-			}
+		if (!result.isDone()) {
+			response.setHeader("Refresh", "5");
+			response.getWriter().write("The report is still running, this page will refresh until it is done.");
+			return;
 		}
 		
-		velocityContext.put("observations", obs);
-	}
-	
-	private void doAttendedClinic(VelocityContext velocityContext, PrintWriter report, HttpServletRequest request)
-	        throws ServletException {
-		EncounterService es = Context.getEncounterService();
-		LocationService ls = Context.getLocationService();
-		
-		DateFormat dateFormat = Context.getDateFormat();
-		velocityContext.put("date", dateFormat);
-		
-		Calendar cal = Calendar.getInstance();
-		
-		Date start;
-		Date end;
-		
-		String startDate = request.getParameter("startDate");
-		String endDate = request.getParameter("endDate");
-		String location = request.getParameter("location");
-		
-		if (startDate != null && startDate.length() != 0) {
-			try {
-				cal.setTime(dateFormat.parse(startDate));
-			}
-			catch (ParseException e) {
-				throw new ServletException("Error parsing 'Start Date'", e);
-			}
-		} else {
-			cal.setTime(new Date());
+		File file;
+		try {
+			file = result.get();
 		}
-		
-		// if they don't input an end date, assume they meant "this week"
-		if (endDate == null || "".equals(endDate)) {
-			while (cal.get(Calendar.DAY_OF_WEEK) != Calendar.SUNDAY) {
-				cal.add(Calendar.DAY_OF_MONTH, -1);
-			}
-			start = cal.getTime();
-			cal.add(Calendar.DAY_OF_MONTH, 7);
-			end = cal.getTime();
-		} else {
-			// they put in an end date, assume literal start and end
-			start = cal.getTime();
-			try {
-				cal.setTime(dateFormat.parse(endDate));
-			}
-			catch (ParseException e) {
-				throw new ServletException("Error parsing 'End Date'", e);
-			}
-			end = cal.getTime();
+		catch (ExecutionException e) {
+			log.error("Error while running a quick report", e.getCause());
+			response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "The report failed");
+			return;
 		}
-		
-		Collection<Encounter> encounters = null;
-		
-		if (location == null || "".equals(location)) {
-			EncounterSearchCriteria encounterSearchCriteria = new EncounterSearchCriteriaBuilder().setIncludeVoided(true)
-			        .setFromDate(start).setToDate(end).createEncounterSearchCriteria();
-			encounters = es.getEncounters(encounterSearchCriteria);
-		} else {
-			Location locationObj = ls.getLocation(Integer.valueOf(location));
-			EncounterSearchCriteria encounterSearchCriteria = new EncounterSearchCriteriaBuilder().setIncludeVoided(true)
-			        .setLocation(locationObj).setFromDate(start).setToDate(end).createEncounterSearchCriteria();
-			encounters = es.getEncounters(encounterSearchCriteria);
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+			return;
 		}
 		
-		if (encounters != null) {
-			velocityContext.put("encounters", encounters);
-		} else {
-			report.append("No Encounters found");
+		if (request.getParameter("download") != null) {
+			response.setHeader("Content-Disposition", "attachment; filename=quickReport.html");
 		}
+		response.setContentLength((int) file.length());
+		Files.copy(file.toPath(), response.getOutputStream());
 	}
 	
-	private void doVoidedObs(VelocityContext velocityContext, PrintWriter report, HttpServletRequest request)
-	        throws ServletException {
-		ObsService os = Context.getObsService();
-		
+	/**
+	 * Reads the date window and location of the report, when no end date is given the window is
+	 * the week of the start date
+	 */
+	private QuickReportParameters getParameters(HttpServletRequest request) throws ServletException {
 		DateFormat dateFormat = Context.getDateFormat();
-		velocityContext.put("date", dateFormat);
 		
 		Calendar cal = Calendar.getInstance();
 		
@@ -264,6 +147,7 @@ public class QuickReportServlet extends HttpServlet {
 		
 		String startDate = request.getParameter("startDate");
 		String endDate = request.getParameter("endDate");
+		String location = request.getParameter("location");
 		
 		if (startDate != null && startDate.length() != 0) {
 			try {
@@ -296,67 +180,10 @@ public class QuickReportServlet extends HttpServlet {
 			end = cal.getTime();
 		}
 		
-		List<Obs> allObs = null;
-		allObs = os.getObservations(null, null, null, null, null, null, null, null, null, start, end, true);
-		
-		List<Obs> obs = new Vector<Obs>();
-		for (Obs o : allObs) {
-			if (o.getVoided()) {
-				obs.add(o);
-			}
+		Location locationObj = null;
+		if (StringUtils.isNotEmpty(location)) {
+			locationObj = Context.getLocationService().getLocation(Integer.valueOf(location));
 		}
-		
-		velocityContext.put("observations", obs);
-	}
-	
-	// TODO temporary placement of template string
-	private String getTemplate(String reportType) {
-		
-		String template = "<table>\n";
-		
-		if (reportType.equals("RETURN VISIT DATE THIS WEEK")) {
-			template += "#foreach($o in $observations)\n";
-			template += " <tr>\n";
-			template += "  <td>$!{o.Patient.PersonName.GivenName} $!{o.Patient.PersonName.MiddleName} $!{o.Patient.PersonName.FamilyName}</td>\n";
-			template += "  <td>$!{o.Patient.PatientIdentifier}</td>\n";
-			template += "  <td>$!{o.Location.Name}</td>\n";
-			template += "  <td>$!{date.format($!{o.Encounter.EncounterDatetime})}</td>\n";
-			template += "  <td>$!{date.format($o.ValueDatetime)}</td>\n";
-			template += " </tr>\n";
-			template += "#end\n";
-		}
-		if (reportType.equals("ATTENDED CLINIC THIS WEEK")) {
-			template += "#foreach($e in $encounters)\n";
-			template += " <tr>\n";
-			template += "  <td>$!{e.Patient.PersonName.GivenName} $!{e.Patient.PersonName.MiddleName} $!{e.Patient.PersonName.FamilyName}</td>\n";
-			template += "  <td>$!{e.Patient.PatientIdentifier}</td>\n";
-			template += "  <td>$!{e.Location.Name}</td>\n";
-			template += "  <td>$!{date.format($e.encounterDatetime)}</td>\n";
-			template += " </tr>\n";
-			template += "#end\n";
-		} else if (reportType.equals("VOIDED OBS")) {
-			template += " <tr> \n";
-			template += "  <th>Id</th><th>Patient</th><th>Encounter</th>";
-			template += "  <th>Concept</th><th>Voided Answer</th>";
-			template += "  <th>Comment</th><th>Voided By</th><th>Void Reason</th> \n";
-			template += " </tr>\n";
-			
-			template += "#foreach($o in $observations)\n";
-			template += " <tr>\n";
-			template += "  <td><a href='admin/observations/obs.form?obsId=$!{o.ObsId}'>$!{o.ObsId}</a></td>\n";
-			template += "  <td><a href='admin/patients/patient.form?patientId=$!{o.Person.personId}'>$!{o.Person.personName}</a></td>\n";
-			template += "  <td><a href='admin/encounters/encounter.form?encounterId=$!{o.Encounter.EncounterId}'>$!{o.Encounter.EncounterId}</a></td>\n";
-			template += "  <td>$!{o.Concept.getName(locale)}</td>\n";
-			template += "  <td>$!{o.getValueAsString(locale)}</td>\n";
-			template += "  <td>$!{o.Comment}</td>\n";
-			template += "  <td>$!{o.VoidedBy.FirstName} $!{o.VoidedBy.LastName} $!{date.format($o.DateVoided)}</td>\n";
-			template += "  <td>$!{o.VoidReason}</td>\n";
-			template += " </tr>\n";
-			template += "#end\n";
-		}
-		
-		template += "</table>\n";
-		
-		return template;
+		return new QuickReportParameters(start, end, locationObj);
 	}
 }
@@ -9,13 +9,11 @@
  */
 package org.openmrs.web.servlet;
 
+import java.io.BufferedWriter;
 import java.io.IOException;
-import java.util.Calendar;
-import java.util.List;
 import java.util.Locale;
 
 import javax.servlet.ServletException;
-import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -23,18 +21,22 @@ import javax.servlet.http.HttpSession;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.openmrs.Concept;
-import org.openmrs.ConceptName;
-import org.openmrs.Obs;
 import org.openmrs.Patient;
 import org.openmrs.api.context.Context;
 import org.openmrs.util.PrivilegeConstants;
 import org.openmrs.web.WebConstants;
+import org.openmrs.web.flowsheet.FlowsheetRenderer;
 
+/**
+ * Writes the obs of a patient as a simple flowsheet, see {@link FlowsheetRenderer}. With
+ * format=json the obs are sent as json for the page to lay them out.
+ */
 public class SampleFlowsheetServlet extends HttpServlet {
 	
 	private static final long serialVersionUID = -2794221430160461220L;
 	
+	private static final int BUFFER_SIZE = 16 * 1024;
+	
 	private Log log = LogFactory.getLog(this.getClass());
 	
 	protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
@@ -60,63 +62,22 @@ public class SampleFlowsheetServlet extends HttpServlet {
 			return;
 		}
 		
-		ServletOutputStream out = response.getOutputStream();
-		
 		Integer patientId = Integer.parseInt(pid);
 		Patient patient = Context.getPatientService().getPatient(patientId);
-		List<Obs> obsList = Context.getObsService().getObservationsByPerson(patient);
-		
-		if (obsList == null || obsList.size() < 1) {
-			out.print("No observations found");
+		if (patient == null) {
+			session.setAttribute(WebConstants.OPENMRS_ERROR_ATTR, "error.null");
 			return;
 		}
-		
-		out.println("<style>");
-		out.println(".header { font-family:Arial; font-weight:bold; text-align: center; font-size: 1.5em;}");
-		out.println(".label { font-family:Arial; text-align:right; color:#808080; font-style:italic; font-size: 0.6em; vertical-align: top;}");
-		out.println(".value { font-family:Arial; text-align:left; vertical-align:top; }");
-		out.println("</style>");
-		out.println("<table cellspacing=0 cellpadding=3>");
+		FlowsheetRenderer renderer = Context.getRegisteredComponent("flowsheetRenderer", FlowsheetRenderer.class);
 		Locale locale = Context.getLocale();
-		Calendar date = Calendar.getInstance();
-		date.set(1900, Calendar.JANUARY, 1);
-		Calendar obsDate = Calendar.getInstance();
-		for (Obs obs : obsList) {
-			obsDate.setTime(obs.getObsDatetime());
-			if (Math.abs(obsDate.getTimeInMillis() - date.getTimeInMillis()) > 86400000) {
-				date = obsDate;
-				out.println("<tr><td class=header colspan=2>" + Context.getDateFormat().format(date.getTime())
-				        + "</td></tr>");
-			}
-			StringBuilder s = new StringBuilder("<tr><td class=label>");
-			s.append(getName(obs, locale));
-			s.append("</td><td class=value>");
-			s.append(getValue(obs, locale));
-			s.append("</td></tr>");
-			out.println(s.toString());
-		}
-		out.println("</table>");
-	}
-	
-	private String getName(Obs obs, Locale locale) {
-		return getName(obs.getConcept(), locale);
-	}
-	
-	private String getName(Concept concept, Locale locale) {
-		String foundName = "";
-		ConceptName shortName = concept.getShortestName(locale, false);
-		if (shortName != null) {
-			foundName = shortName.getName();
+		
+		if ("json".equals(request.getParameter("format"))) {
+			response.setContentType("application/json");
+			response.setCharacterEncoding("UTF-8");
+			renderer.renderJson(patient, locale, new BufferedWriter(response.getWriter(), BUFFER_SIZE));
 		} else {
-			ConceptName name = concept.getName(locale);
-			if (name != null) {
-				foundName = name.getName();
-			}
+			response.setCharacterEncoding("UTF-8");
+			renderer.renderHtml(patient, locale, new BufferedWriter(response.getWriter(), BUFFER_SIZE));
 		}
-		return foundName;
-	}
-	
-	private String getValue(Obs obs, Locale locale) {
-		return obs.getValueAsString(locale);
 	}
 }
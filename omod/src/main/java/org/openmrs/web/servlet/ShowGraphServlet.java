@@ -12,11 +12,13 @@ package org.openmrs.web.servlet;
 import java.awt.Color;
 import java.awt.Font;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.List;
+import java.util.UUID;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
@@ -26,7 +28,6 @@ import javax.servlet.http.HttpServletResponse;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.jfree.chart.ChartFactory;
-import org.jfree.chart.ChartUtilities;
 import org.jfree.chart.JFreeChart;
 import org.jfree.chart.StandardChartTheme;
 import org.jfree.chart.axis.DateAxis;
@@ -48,6 +49,10 @@ import org.openmrs.Obs;
 import org.openmrs.Patient;
 import org.openmrs.api.APIException;
 import org.openmrs.api.context.Context;
+import org.openmrs.module.legacyui.api.LegacyUIService;
+import org.openmrs.web.cache.ExpiringCache;
+import org.openmrs.web.graph.ChartEncoder;
+import org.openmrs.web.graph.GraphDownsampler;
 
 /**
  * This servlet returns an image graphing the numeric values for given concept(s). <br>
@@ -77,15 +82,22 @@ public class ShowGraphServlet extends HttpServlet {
 	
 	private static final Color COLOR_ERROR = new Color(255, 28, 28, 64);
 	
+	// the dashboard shows a handful of graphs per patient, a rendered graph is a few tens of kilobytes
+	private static final int MAX_CACHED_CHARTS = 200;
+	
+	private static final long CACHED_CHART_TTL_MILLIS = 10 * 60 * 1000;
+	
+	private final ExpiringCache<String, byte[]> renderedCharts = new ExpiringCache<String, byte[]>(MAX_CACHED_CHARTS,
+	        CACHED_CHART_TTL_MILLIS);
+	
 	/**
 	 * @see javax.servlet.http.HttpServlet#doGet(javax.servlet.http.HttpServletRequest,
 	 *      javax.servlet.http.HttpServletResponse)
+	 * @should answer not modified if the client has the current graph
 	 */
 	@Override
 	protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
 		try {
-			JFreeChart chart = getChart(request);
-			
 			// get the height and width of the graph
 			String widthString = request.getParameter("width");
 			String heightString = request.getParameter("height");
@@ -108,23 +120,33 @@ public class ShowGraphServlet extends HttpServlet {
 			if (mimeType == null) {
 				mimeType = PNG_MIME_TYPE;
 			}
+			if (!JPG_MIME_TYPE.equalsIgnoreCase(mimeType) && !PNG_MIME_TYPE.equalsIgnoreCase(mimeType)) {
+				throw new APIException("unsupported.mime.type", (Object[]) null);
+			}
 			
-			// Modify response to disable caching
-			response.setHeader("Pragma", "No-cache");
-			response.setDateHeader("Expires", 0);
-			response.setHeader("Cache-Control", "no-cache");
+			// the key changes whenever the obs change, so browsers may keep the graph but have to check back
+			String cacheKey = getCacheKey(request, width, height, mimeType.toLowerCase());
+			String etag = "\"" + UUID.nameUUIDFromBytes(cacheKey.getBytes(StandardCharsets.UTF_8)) + "\"";
+			response.setHeader("ETag", etag);
+			response.setHeader("Cache-Control", "private, no-cache");
+			if (matchesETag(request.getHeader("If-None-Match"), etag)) {
+				response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+				return;
+			}
+			
+			byte[] image = renderedCharts.get(cacheKey);
+			if (image == null) {
+				JFreeChart chart = getChart(request);
+				image = Context.getRegisteredComponent("chartEncoder", ChartEncoder.class).encode(chart, width, height,
+				    mimeType);
+				renderedCharts.put(cacheKey, image);
+			}
 			
 			// Write chart out to response as image
 			try {
-				if (JPG_MIME_TYPE.equalsIgnoreCase(mimeType)) {
-					response.setContentType(JPG_MIME_TYPE);
-					ChartUtilities.writeChartAsJPEG(response.getOutputStream(), chart, width, height);
-				} else if (PNG_MIME_TYPE.equalsIgnoreCase(mimeType)) {
-					response.setContentType(PNG_MIME_TYPE);
-					ChartUtilities.writeChartAsPNG(response.getOutputStream(), chart, width, height);
-				} else {
-					throw new APIException("unsupported.mime.type", (Object[]) null);
-				}
+				response.setContentType(JPG_MIME_TYPE.equalsIgnoreCase(mimeType) ? JPG_MIME_TYPE : PNG_MIME_TYPE);
+				response.setContentLength(image.length);
+				response.getOutputStream().write(image);
 			}
 			catch (IOException e) {
 				// if its tomcat and the user simply navigated away from the page, don't throw an error
@@ -142,6 +164,79 @@ public class ShowGraphServlet extends HttpServlet {
 		}
 	}
 	
+	/**
+	 * Builds the key a rendered graph is cached under, it is made of everything the graph depends
+	 * on including when the graphed obs and concepts last changed and the locale the concept names
+	 * are shown in
+	 * 
+	 * @param request the current request will all the parameters needed
+	 * @param width the width of the graph
+	 * @param height the height of the graph
+	 * @param mimeType the mime type of the image
+	 * @return the cache key
+	 * @should change when an obs of the graphed concepts is created
+	 * @should change with the locale of the user
+	 */
+	protected String getCacheKey(HttpServletRequest request, int width, int height, String mimeType) {
+		Patient patient = Context.getPatientService().getPatient(Integer.parseInt(request.getParameter("patientId")));
+		
+		List<Concept> concepts = new ArrayList<Concept>();
+		long lastChange = 0;
+		for (String param : new String[] { "conceptId", "conceptId2" }) {
+			String conceptId = request.getParameter(param);
+			Concept concept = conceptId == null ? null : Context.getConceptService().getConcept(Integer.parseInt(conceptId));
+			if (concept != null) {
+				concepts.add(concept);
+				// the units, ranges and names of the concepts end up in the graph too
+				Date conceptChange = concept.getDateChanged() == null ? concept.getDateCreated() : concept.getDateChanged();
+				if (conceptChange != null) {
+					lastChange = Math.max(lastChange, conceptChange.getTime());
+				}
+			}
+		}
+		Date lastObsChange = Context.getService(LegacyUIService.class).getLastObsChange(patient, concepts);
+		if (lastObsChange != null) {
+			lastChange = Math.max(lastChange, lastObsChange.getTime());
+		}
+		
+		// the default dates are computed from the current time, only keep whole seconds so that the
+		// key stays the same all day long
+		long fromDate = getFromDate(request.getParameter("fromDate")).getTime() / 1000;
+		long toDate = getToDate(request.getParameter("toDate")).getTime() / 1000;
+		
+		StringBuilder key = new StringBuilder();
+		key.append(patient == null ? null : patient.getPatientId()).append('|');
+		for (Concept concept : concepts) {
+			key.append(concept.getConceptId()).append(',');
+		}
+		key.append('|').append(Math.min(fromDate, toDate)).append('|').append(Math.max(fromDate, toDate));
+		for (String param : new String[] { "chartTitle", "units", "minRange", "maxRange", "hideDate" }) {
+			key.append('|').append(request.getParameter(param));
+		}
+		key.append('|').append(width).append('x').append(height).append('|').append(mimeType);
+		key.append('|').append(Context.getLocale());
+		key.append('|').append(lastChange);
+		return key.toString();
+	}
+	
+	/**
+	 * @param ifNoneMatch the If-None-Match header of the request
+	 * @param etag the current entity tag of the graph
+	 * @return true if the client already has the current graph
+	 */
+	private static boolean matchesETag(String ifNoneMatch, String etag) {
+		if (ifNoneMatch == null) {
+			return false;
+		}
+		for (String candidate : ifNoneMatch.split(",")) {
+			candidate = candidate.trim();
+			if (candidate.equals(etag) || candidate.equals("*")) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
 	/**
 	 * The main method for this class. It will create a JFreeChart object to be written to the
 	 * response.
@@ -290,6 +385,15 @@ public class ShowGraphServlet extends HttpServlet {
 			series2 = new TimeSeries(concept2.getName().getName(), timeScale);
 		}
 		
+		// a graph cannot show more points than it has pixels across
+		int maxPoints = 500;
+		String widthString = request.getParameter("width");
+		if (widthString != null && widthString.length() > 0) {
+			maxPoints = Math.max(2, Integer.parseInt(widthString));
+		}
+		observations1 = GraphDownsampler.downsample(getObsInRange(observations1, fromDate, toDate), maxPoints);
+		observations2 = GraphDownsampler.downsample(getObsInRange(observations2, fromDate, toDate), maxPoints);
+		
 		// Add data points for concept1
 		for (Obs obs : observations1) {
 			if (obs.getValueNumeric() != null && obs.getObsDatetime().getTime() >= fromDate.getTime()
@@ -436,6 +540,23 @@ public class ShowGraphServlet extends HttpServlet {
 		return chart;
 	}
 	
+	/**
+	 * @param observations the obs to filter
+	 * @param fromDate the start of the range, inclusive
+	 * @param toDate the end of the range, exclusive
+	 * @return the obs with a numeric value in the given range
+	 */
+	private static List<Obs> getObsInRange(List<Obs> observations, Date fromDate, Date toDate) {
+		List<Obs> inRange = new ArrayList<Obs>();
+		for (Obs obs : observations) {
+			if (obs.getValueNumeric() != null && obs.getObsDatetime().getTime() >= fromDate.getTime()
+			        && obs.getObsDatetime().getTime() < toDate.getTime()) {
+				inRange.add(obs);
+			}
+		}
+		return inRange;
+	}
+	
 	/**
 	 * Get the FromDate object from the given string that is the time in milliseconds. If
 	 * dateFromRequest is null, return 1 year ago from today.
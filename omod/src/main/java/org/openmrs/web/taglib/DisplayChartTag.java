@@ -20,6 +20,8 @@ import javax.servlet.jsp.tagext.BodyTagSupport;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.jfree.chart.JFreeChart;
+import org.openmrs.api.context.Context;
+import org.openmrs.web.cache.ChartStore;
 
 public class DisplayChartTag extends BodyTagSupport {
 	
@@ -59,10 +61,9 @@ public class DisplayChartTag extends BodyTagSupport {
 				HttpSession session = pageContext.getSession();
 				HttpServletRequest request = (HttpServletRequest) pageContext.getRequest();
 				
-				Long time = System.currentTimeMillis();
-				Double random = Math.random() * 1000.0;
-				String key = "chart-" + time + "-" + session.getId() + "-" + random;
-				session.setAttribute(key, chart);
+				// the chart is encoded right away so that it does not linger in memory until the image is requested
+				ChartStore chartStore = Context.getRegisteredComponent("chartStore", ChartStore.class);
+				String key = chartStore.put(chart, width, height, PNG_MIME_TYPE, session.getId());
 				
 				pageContext.getOut().write(
 				    "<img src=\"" + request.getContextPath() + "/" + SERVLET_NAME + "?" + CHART_KEY + "=" + key
@@ -15,6 +15,7 @@ import org.apache.taglibs.standard.tag.common.core.ImportSupport;
 import org.openmrs.module.Module;
 import org.openmrs.module.ModuleFactory;
 import org.openmrs.util.OpenmrsUtil;
+import org.openmrs.web.controller.PortletModel;
 
 import javax.servlet.jsp.JspException;
 import javax.servlet.jsp.JspTagException;
@@ -86,6 +87,8 @@ public class PortletTag extends ImportSupport {
 				pageContext.getRequest().setAttribute("org.openmrs.portlet.userId", userId);
 				pageContext.getRequest().setAttribute("org.openmrs.portlet.patientIds", patientIds);
 				pageContext.getRequest().setAttribute("org.openmrs.portlet.parameterMap", parameterMap);
+				// share one model between the portlets of this page
+				PortletModel.getRequestModel(pageContext.getRequest());
 			}
 		}
 		catch (IOException e) {
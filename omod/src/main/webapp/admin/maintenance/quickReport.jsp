@@ -50,9 +50,9 @@
 			<td><openmrs:message code="QuickReport.type"/></td>
 			<td>
 				<select name="reportType">
-					<option value="RETURN VISIT DATE THIS WEEK" onclick="show(['reportType', 'startDate', 'endDate', 'location'])"><openmrs:message code="QuickReport.type.returnVisit"/></option>
-					<option value="ATTENDED CLINIC THIS WEEK" onclick="show(['reportType', 'startDate', 'endDate', 'location'])"><openmrs:message code="QuickReport.type.attendedClinic"/></option>
-					<option value="VOIDED OBS" onclick="show(['reportType', 'startDate', 'endDate'])"><openmrs:message code="QuickReport.type.voidedObs"/></option>
+					<option value="RETURN VISIT DATE THIS WEEK" onclick="show(['reportType', 'startDate', 'endDate', 'location', 'async'])"><openmrs:message code="QuickReport.type.returnVisit"/></option>
+					<option value="ATTENDED CLINIC THIS WEEK" onclick="show(['reportType', 'startDate', 'endDate', 'location', 'async'])"><openmrs:message code="QuickReport.type.attendedClinic"/></option>
+					<option value="VOIDED OBS" onclick="show(['reportType', 'startDate', 'endDate', 'async'])"><openmrs:message code="QuickReport.type.voidedObs"/></option>
 				</select>
 			</td>
 		</tr>
@@ -75,8 +75,10 @@
 				</select>
 			</td>
 		</tr>
-		
-		
+		<tr id="async">
+			<td><openmrs:message code="legacyui.QuickReport.async"/></td>
+			<td><input type="checkbox" name="async" value="true" /></td>
+		</tr>
 	</table>
 	<br/>
 	<input type="submit" value='<openmrs:message code="QuickReport.view" />' onClick="clearAutoComplete()" />
@@ -6,6 +6,7 @@
 <%@ include file="/WEB-INF/view/module/legacyui/template/header.jsp" %>
 
 <openmrs:htmlInclude file="/scripts/calendar/calendar.js" />
+<openmrs:htmlInclude file="/dwr/interface/DWRPatientService.js" />
 
 <script type="text/javascript">
 	//variable to cache the id of the checkbox of the selected preferred patientIdentifier
@@ -341,6 +342,7 @@
 </spring:hasBindErrors>
 <span id="extraData1" style="display: none;">${opencMatches}</span>
 <span id="extraData2" style="display: none;">${queryError}</span>
+<span id="matchToken" style="display: none;">${opencrMatchToken}</span>
 
 <form:form method="post" action="shortPatientForm.form" onsubmit="removeHiddenRows()" modelAttribute="patientModel">
 	<c:if test="${patientModel.patient.patientId == null}"><h2><openmrs:message code="Patient.create"/></h2></c:if>
@@ -717,9 +719,9 @@ var idT = document.getElementById('identifiers0.identifierType');
 var idTi = idT.options[idT.selectedIndex].value;
 toggleLocationBoxAndIndentifierTypeWarning(idTi,'initialLocationBox0',0);
 //	window.onload = function() {
-var content = document.getElementById('extraData1').textContent;
-var content2 = document.getElementById('extraData2').textContent;
 var isAutoTransferred = false;
+
+function showMatchCheckResult(content, content2) {
 if (content.trim() !== '') {
     // Your script code here
     //alert('Fetched Data: ' + document.getElementById('extraData').textContent);
@@ -777,6 +779,42 @@ if (content.trim() !== '') {
         }
     });
 
+	$j('.custom-dialog').parent().find('button:contains("Continue")').hide();
+
+}else if (content2.trim() !== ''){
+	$j('<div>').dialog({
+        title: '<openmrs:message code="legacyui.patient.matchingResults"/>',
+        autoOpen: true, // Automatically open the dialog when the page loads
+        draggable: false,
+        resizable: false,
+        width: '95%',
+        dialogClass: 'custom-dialog', // Define a custom CSS class
+        modal: true,
+        buttons: {
+            "Continue": function() {
+                $j(this).dialog("close");
+                $j('#continueFlag').val('continue');
+                //$j('input[name="continueFlag"]').val('yourDynamicValue');
+
+                $j('#addButton').click();
+
+
+            },
+            "Cancel": function() {
+                $j(this).dialog("close");
+            }
+        },
+        open: function() {
+            // var tableHtml = createTable(jsonObject); // Create the table
+            //$j(this).html(tableHtml); // Set the table as the dialog content
+            //document.getElementById('extraData1').textContent;
+             $j(this).html(content2);
+            
+        }
+    });
+}
+}
+
     function createTable(data, category, color) {
         var tableHtml = '<table class="custom-table">';
         tableHtml += '<thead><tr style="background-color: ' + color + ';"><th style="display: none;">ID</th><th>Nom de famille</th><th>Prenom(s)</th><th>Date de naissance</th><th>Sexe</th><th>Telephone</th><th>code d&apos;	identification</th><th>Status</th><th>Site</th><th>Action</th></tr></thead>';
@@ -863,40 +901,26 @@ if (content.trim() !== '') {
 
         }
     }
-	$j('.custom-dialog').parent().find('button:contains("Continue")').hide();
 
-}else if (content2.trim() !== ''){
-	$j('<div>').dialog({
-        title: '<openmrs:message code="legacyui.patient.matchingResults"/>',
-        autoOpen: true, // Automatically open the dialog when the page loads
-        draggable: false,
-        resizable: false,
-        width: '95%',
-        dialogClass: 'custom-dialog', // Define a custom CSS class
-        modal: true,
-        buttons: {
-            "Continue": function() {
-                $j(this).dialog("close");
-                $j('#continueFlag').val('continue');
-                //$j('input[name="continueFlag"]').val('yourDynamicValue');
-
-                $j('#addButton').click();
-
-
-            },
-            "Cancel": function() {
-                $j(this).dialog("close");
-            }
-        },
-        open: function() {
-            // var tableHtml = createTable(jsonObject); // Create the table
-            //$j(this).html(tableHtml); // Set the table as the dialog content
-            //document.getElementById('extraData1').textContent;
-            var content = document.getElementById('extraData2').textContent;
-             $j(this).html(content);
-            
-        }
-    });
-};
+showMatchCheckResult(document.getElementById('extraData1').textContent, document.getElementById('extraData2').textContent);
+
+// the OpenCR match check did not finish while saving, poll for its result
+var matchToken = document.getElementById('matchToken').textContent.trim();
+if (matchToken !== '') {
+	var pollMatchCheck = function() {
+		DWRPatientService.getMatchCheckResult(matchToken, function(result) {
+			if (result.status == 'PENDING') {
+				setTimeout(pollMatchCheck, 1000);
+			} else if (result.status == 'COMPLETED') {
+				showMatchCheckResult(result.matches, '');
+			} else if (result.status == 'REJECTED') {
+				showMatchCheckResult('', 'OpenCR patient match issue');
+			} else {
+				showMatchCheckResult('', 'OpenCR server error');
+			}
+		});
+	};
+	setTimeout(pollMatchCheck, 1000);
+}
 </script>
 <%@ include file="/WEB-INF/view/module/legacyui/template/footer.jsp" %>
@@ -78,6 +78,16 @@
 	<div class="retiredMessage"><div><openmrs:message code="Concept.retiredMessage"/></div></div>
 </c:if>
 
+<c:if test="${snapshot != null}">
+	<form class="inlineForm" action="" method="post">
+		<openmrs:message code="legacyui.Concept.stats.computedOn"/> <openmrs:formatDate date="${snapshot.dateComputed}" type="long" />
+		<openmrs:hasPrivilege privilege="Manage Concepts">
+			<input type="submit" class="smallButton" name="recompute" value="<openmrs:message code="legacyui.Concept.stats.recompute"/>"/>
+		</openmrs:hasPrivilege>
+	</form>
+	<br/><br/>
+</c:if>
+
 <c:choose>
 	<c:when test="${displayType == 'numeric'}">
 		<table>
@@ -113,7 +123,7 @@
 						<td valign="top"><openmrs:message code="Concept.stats.histogramOutliers"/></td>
 						<td>
 							<openmrs:displayChart chart="${histogramOutliers}" width="800" height="300" />
-							<br/> <a href="#" onclick="return showHideOutliers(this)"><openmrs:message code="Concept.stats.histogram.showOutliers"/></a> (<c:out value="${fn:length(outliers)}"/>)
+							<br/> <a href="#" onclick="return showHideOutliers(this)"><openmrs:message code="Concept.stats.histogram.showOutliers"/></a> (<c:out value="${outlierCount}"/>)
 							<br/>
 							<div id="outliers" style="display: none">
 								<table>
@@ -57,7 +57,8 @@
 
 <h2><openmrs:message code="dictionary.title" /></h2>
 
-<a href="<%= request.getContextPath() %>/moduleServlet/legacyui/downloadDictionaryServlet"><openmrs:message code="dictionary.download.link"/></a> <openmrs:message code="dictionary.download.description"/><br />
+<a href="<%= request.getContextPath() %>/moduleServlet/legacyui/downloadDictionaryServlet"><openmrs:message code="dictionary.download.link"/></a> <openmrs:message code="dictionary.download.description"/>
+<a href="<%= request.getContextPath() %>/moduleServlet/legacyui/downloadDictionaryServlet?format=ndjson"><openmrs:message code="legacyui.dictionary.download.ndjson"/></a><br />
 <br />
 
 <openmrs:hasPrivilege privilege="Manage Concepts">
@@ -198,7 +198,8 @@
                                 				 </c:choose>
                                            </c:if>
                                    		</c:forEach>
-                                     ]
+                                     ],
+                            lateResultsHandler: findRegistryPatients
                             <c:if test="${not empty param.phrase}">
                                 , searchPhrase: '<openmrs:message text="${ param.phrase }" javaScriptEscape="true"/>'
                             </c:if>                      
@@ -260,6 +261,10 @@
 					lastSearch = text;
 					DWRPatientService.findCountAndPatients(text, opts.start, opts.length, getMatchCount, resultHandler);
 				}
+
+				function findRegistryPatients(token, callback) {
+					DWRPatientService.findRegistryPatients(token, callback);
+				}
 			
 			</script>
 
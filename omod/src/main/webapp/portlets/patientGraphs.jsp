@@ -183,7 +183,7 @@ table#labTestTable th {
 				<openmrs:globalProperty var="colorAbsolute" key="graph.color.absolute"/>
 				<openmrs:globalProperty var="colorNormal" key="graph.color.normal"/>
 				<openmrs:globalProperty var="colorCritical" key="graph.color.critical"/>
-		$j.getJSON("patientGraphJson.form?patientId=<c:out value="${patient.patientId}" />&conceptId=${conceptIds}", function(json){
+		$j.getJSON("patientGraphJson.form?patientId=<c:out value="${patient.patientId}" />&conceptId=${conceptIds}&width=" + $j('#conceptGraphBox-${conceptIds}').width(), function(json){
 			json = json.graph;
 			  $j("#conceptBox-${conceptIds} .conceptGraphTitle").html(json.name);
 			
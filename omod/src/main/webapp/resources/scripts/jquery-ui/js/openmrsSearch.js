@@ -106,6 +106,9 @@ function OpenmrsSearch(div, showIncludeVoided, searchHandler, selectionHandler,
  *   showSearchButton: Boolean, indicating whether to use search button for immediate search
  *   showVerbose: Boolean, indicates whether to check checkbox for verbose 
  *   includeVoided: Boolean, indicates whether to check checkbox for voided 
+ *   lateResultsHandler:function(token, callback) (default:null) The function to be called to fetch results that
+ *       the server was still gathering when it returned the first page, it is only called when the results
+ *       contain a 'lateResultsToken', the callback expects the late results or null if they are still pending
  *
  * The styling on this table works like this:
  * <pre>
@@ -705,12 +708,19 @@ function OpenmrsSearch(div, showIncludeVoided, searchHandler, selectionHandler,
                     matchCount = MAXIMUM_NUMBER_OF_RESULTS;
 
                 self._results = results["objectList"];
+                //the client registry patients are not counted, they are shown after the last page
+                self._registryResults = results["registryResults"];
                 if(matchCount <= self._table.fnSettings()._iDisplayLength){
                     spinnerObj.css("visibility", "hidden");
                     loadingMsgObj.html("");
                 }
 
                 self._doHandleResults(matchCount, searchText);
+                if(matchCount <= self._table.fnSettings()._iDisplayLength || matchCount == self._results.length)
+                    self._appendRegistryResults(searchText);
+
+                if(results["lateResultsToken"] && self.options.lateResultsHandler)
+                    self._fetchLateResults(results["lateResultsToken"], searchText, curCallCount, 1);
 
                 //FETCH THE REST OF THE RESULTS IF result COUNT is greater than the number of rows to display per page
                 if(matchCount > self._table.fnSettings()._iDisplayLength){
@@ -776,6 +786,48 @@ function OpenmrsSearch(div, showIncludeVoided, searchHandler, selectionHandler,
             }, 10);//fetch more results every 10ms till we have all
         },
 
+        //fetches the results the server could not gather in time for the first page and appends them
+        _fetchLateResults: function(token, searchText, curCallCount, attempt){
+            var self = this;
+            this.options.lateResultsHandler(token, function(lateResults) {
+                if(curCallCount && self._lastCallCount > curCallCount)
+                    return;
+                if(lateResults == null) {
+                    //still pending on the server, which already waited for a while before answering
+                    if(attempt < 3)
+                        self._fetchLateResults(token, searchText, curCallCount, ++attempt);
+                    return;
+                }
+                self._appendRows(lateResults, searchText);
+            });
+        },
+
+        //appends the client registry patients that came with the first page once all the pages are in
+        _appendRegistryResults: function(searchText){
+            var registryResults = this._registryResults;
+            this._registryResults = null;
+            if(registryResults)
+                this._appendRows(registryResults, searchText);
+        },
+
+        _appendRows: function(data, searchText){
+            if(data.length == 0 || this.options.resultsHandler || !this._results)
+                return;
+
+            var rows = new Array();
+            for(var r in data) {
+                this._results.push(data[r]);
+                rows.push(this._buildRow(data[r]));
+            }
+            this._table.fnAddData(rows);
+            if(this._results.length > this._table.fnSettings()._iDisplayLength)
+                $j('#openmrsSearchTable_paginate').show();
+            if(!$j('#openmrsSearchTable_info').is(":visible"))
+                $j('#openmrsSearchTable_info').show();
+            this._div.find(".openmrsSearchDiv").show();
+            this._updatePageInfo(searchText);
+        },
+
         _doHandleResults: function(matchCount, searchText) {
             this.curRowSelection = null;
 
@@ -1202,6 +1254,7 @@ function OpenmrsSearch(div, showIncludeVoided, searchHandler, selectionHandler,
                     $j('#pageInfo').html(omsgs.viewingResultsFor.replace("_SEARCH_TEXT_", "'<b>"+searchText+"</b>'"));
                     pageStr = omsgs.pagesWithPlaceHolder.replace("_NUMBER_OF_PAGES_", self._table.numberOfPages);
                     $j('#pageInfo').append(" - "+pageStr);
+                    self._appendRegistryResults(searchText);
                 }
 
                 //if there are still more hits to fetch and we are in serial mode, get them
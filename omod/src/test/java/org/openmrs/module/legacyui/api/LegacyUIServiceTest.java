@@ -0,0 +1,480 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.legacyui.api;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SortedMap;
+
+import org.apache.commons.lang.time.DateUtils;
+import org.hibernate.Hibernate;
+import org.junit.Assert;
+import org.junit.Test;
+import org.openmrs.Concept;
+import org.openmrs.ConceptDatatype;
+import org.openmrs.ConceptName;
+import org.openmrs.ConceptNumeric;
+import org.openmrs.GlobalProperty;
+import org.openmrs.Obs;
+import org.openmrs.Patient;
+import org.openmrs.PatientIdentifier;
+import org.openmrs.PatientIdentifierType;
+import org.openmrs.Person;
+import org.openmrs.PersonName;
+import org.openmrs.api.ConceptService;
+import org.openmrs.api.PatientService;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.legacyui.stats.ConceptStatsSnapshot;
+import org.openmrs.module.legacyui.stats.NumericObsStatistics;
+import org.openmrs.test.Verifies;
+import org.openmrs.web.test.BaseModuleWebContextSensitiveTest;
+
+/**
+ * Tests for the {@link LegacyUIService} methods that query the database directly.
+ */
+public class LegacyUIServiceTest extends BaseModuleWebContextSensitiveTest {
+	
+	/**
+	 * @see LegacyUIService#getPatientsForListing(List)
+	 */
+	@Test
+	@Verifies(value = "should load the names identifiers and attributes of the patients", method = "getPatientsForListing(List)")
+	public void getPatientsForListing_shouldLoadTheNamesIdentifiersAndAttributesOfThePatients() throws Exception {
+		Context.clearSession();
+		
+		List<Patient> patients = Context.getService(LegacyUIService.class).getPatientsForListing(Arrays.asList(7, 2, 999));
+		
+		Assert.assertEquals(2, patients.size());
+		Assert.assertEquals(7, patients.get(0).getPatientId().intValue());
+		Assert.assertEquals(2, patients.get(1).getPatientId().intValue());
+		for (Patient patient : patients) {
+			Assert.assertTrue(Hibernate.isInitialized(patient.getNames()));
+			Assert.assertTrue(Hibernate.isInitialized(patient.getIdentifiers()));
+			Assert.assertTrue(Hibernate.isInitialized(patient.getAttributes()));
+		}
+		Assert.assertFalse(patients.get(1).getNames().isEmpty());
+	}
+	
+	/**
+	 * @see LegacyUIService#getPatientIds(String,boolean,int)
+	 */
+	@Test
+	@Verifies(value = "should return the ids of the patients the patient service finds", method = "getPatientIds(String,boolean,int)")
+	public void getPatientIds_shouldReturnTheIdsOfThePatientsThePatientServiceFinds() throws Exception {
+		List<Integer> expected = new ArrayList<Integer>();
+		for (Patient patient : Context.getPatientService().getPatients("Hornblower", false, 0, 100)) {
+			expected.add(patient.getPatientId());
+		}
+		Assert.assertFalse(expected.isEmpty());
+		
+		Assert.assertEquals(expected, Context.getService(LegacyUIService.class).getPatientIds("Hornblower", false, 100));
+	}
+	
+	/**
+	 * @see LegacyUIService#getPatientIds(String,boolean,int)
+	 */
+	@Test
+	@Verifies(value = "should return no more ids than the maximum results", method = "getPatientIds(String,boolean,int)")
+	public void getPatientIds_shouldReturnNoMoreIdsThanTheMaximumResults() throws Exception {
+		LegacyUIService service = Context.getService(LegacyUIService.class);
+		Assert.assertFalse(service.getPatientIds("Hornblower", false, 100).isEmpty());
+		
+		Assert.assertEquals(1, service.getPatientIds("Hornblower", false, 1).size());
+		Assert.assertTrue(service.getPatientIds("Hornblower", false, 0).isEmpty());
+	}
+	
+	/**
+	 * @see LegacyUIService#getPatientIds(String,boolean,java.util.Collection,int)
+	 */
+	@Test
+	@Verifies(value = "should return only the matching patients among the given ones", method = "getPatientIds(String,boolean,Collection,int)")
+	public void getPatientIds_shouldReturnOnlyTheMatchingPatientsAmongTheGivenOnes() throws Exception {
+		LegacyUIService service = Context.getService(LegacyUIService.class);
+		List<Integer> matching = service.getPatientIds("Hornblower", false, 100);
+		Integer patientId = matching.get(0);
+		
+		Assert.assertEquals(Arrays.asList(patientId), service.getPatientIds("Hornblower", false, Arrays.asList(patientId,
+		    999), 100));
+		Assert.assertTrue(service.getPatientIds("Hornblower", false, Arrays.asList(999), 100).isEmpty());
+	}
+	
+	/**
+	 * @see LegacyUIService#getConceptsForListing(List)
+	 */
+	@Test
+	@Verifies(value = "should load the names and descriptions of the concepts", method = "getConceptsForListing(List)")
+	public void getConceptsForListing_shouldLoadTheNamesAndDescriptionsOfTheConcepts() throws Exception {
+		Context.clearSession();
+		
+		List<Concept> concepts = Context.getService(LegacyUIService.class).getConceptsForListing(Arrays.asList(5089, 3));
+		
+		Assert.assertEquals(2, concepts.size());
+		Assert.assertEquals(5089, concepts.get(0).getConceptId().intValue());
+		for (Concept concept : concepts) {
+			Assert.assertTrue(Hibernate.isInitialized(concept.getNames()));
+			Assert.assertTrue(Hibernate.isInitialized(concept.getDescriptions()));
+			Assert.assertTrue(Hibernate.isInitialized(concept.getDatatype()));
+		}
+	}
+	
+	/**
+	 * @see LegacyUIService#getConceptNames(Integer,int)
+	 */
+	@Test
+	@Verifies(value = "should return the non voided names after the given id in id order", method = "getConceptNames(Integer,int)")
+	public void getConceptNames_shouldReturnTheNonVoidedNamesAfterTheGivenIdInIdOrder() throws Exception {
+		LegacyUIService service = Context.getService(LegacyUIService.class);
+		List<ConceptName> first = service.getConceptNames(null, 2);
+		Assert.assertEquals(2, first.size());
+		Assert.assertTrue(first.get(0).getConceptNameId() < first.get(1).getConceptNameId());
+		
+		Integer lastId = first.get(1).getConceptNameId();
+		for (ConceptName name : service.getConceptNames(lastId, 1000)) {
+			Assert.assertTrue(name.getConceptNameId() > lastId);
+			Assert.assertFalse(name.getVoided());
+			Assert.assertNotNull(name.getConcept().getConceptId());
+		}
+	}
+	
+	/**
+	 * @see LegacyUIService#getIdentifiersInUse(PatientIdentifierType,java.util.Collection)
+	 */
+	@Test
+	@Verifies(value = "should return the identifiers in use with the given type only", method = "getIdentifiersInUse(PatientIdentifierType,Collection)")
+	public void getIdentifiersInUse_shouldReturnTheIdentifiersInUseWithTheGivenTypeOnly() throws Exception {
+		PatientService ps = Context.getPatientService();
+		PatientIdentifier identifier = ps.getPatient(2).getPatientIdentifier();
+		PatientIdentifierType otherType = null;
+		for (PatientIdentifierType type : ps.getAllPatientIdentifierTypes()) {
+			if (!type.equals(identifier.getIdentifierType())) {
+				otherType = type;
+			}
+		}
+		LegacyUIService service = Context.getService(LegacyUIService.class);
+		
+		List<String> inUse = service.getIdentifiersInUse(identifier.getIdentifierType(), Arrays.asList(identifier
+		        .getIdentifier(), "no such identifier"));
+		Assert.assertEquals(Collections.singletonList(identifier.getIdentifier()), inUse);
+		Assert.assertTrue(service.getIdentifiersInUse(otherType, Collections.singletonList(identifier.getIdentifier()))
+		        .isEmpty());
+	}
+	
+	/**
+	 * @see LegacyUIService#getWeightConcept()
+	 */
+	@Test
+	@Verifies(value = "should resolve the concept again once the global property value changes", method = "getWeightConcept()")
+	public void getWeightConcept_shouldResolveTheConceptAgainOnceTheGlobalPropertyValueChanges() throws Exception {
+		LegacyUIService service = Context.getService(LegacyUIService.class);
+		Context.getAdministrationService().saveGlobalProperty(new GlobalProperty("concept.weight", "5089"));
+		Assert.assertEquals(5089, service.getWeightConcept().getConceptId().intValue());
+		
+		Context.getAdministrationService().saveGlobalProperty(new GlobalProperty("concept.weight", "5497"));
+		Assert.assertEquals(5497, service.getWeightConcept().getConceptId().intValue());
+		
+		Context.getAdministrationService().saveGlobalProperty(new GlobalProperty("concept.weight", ""));
+		Assert.assertNull(service.getWeightConcept());
+	}
+	
+	/**
+	 * @see LegacyUIService#getWeightConcept()
+	 */
+	@Test
+	@Verifies(value = "should not read the global property again until it changes", method = "getWeightConcept()")
+	public void getWeightConcept_shouldNotReadTheGlobalPropertyAgainUntilItChanges() throws Exception {
+		LegacyUIService service = Context.getService(LegacyUIService.class);
+		Context.getAdministrationService().saveGlobalProperty(new GlobalProperty("concept.weight", "5089"));
+		Assert.assertEquals(5089, service.getWeightConcept().getConceptId().intValue());
+		
+		// changed behind the back of the global property listeners
+		Context.getAdministrationService().executeSQL(
+		    "update global_property set property_value = '5497' where property = 'concept.weight'", false);
+		Assert.assertEquals(5089, service.getWeightConcept().getConceptId().intValue());
+		
+		Context.getAdministrationService().saveGlobalProperty(new GlobalProperty("concept.weight", "5497"));
+		Assert.assertEquals(5497, service.getWeightConcept().getConceptId().intValue());
+	}
+	
+	
+	/**
+	 * @see LegacyUIService#getNumericObsStatistics(Concept,int,int)
+	 */
+	@Test
+	@Verifies(value = "should compute the statistics of the numeric obs of the concept", method = "getNumericObsStatistics(Concept,int,int)")
+	public void getNumericObsStatistics_shouldComputeTheStatisticsOfTheNumericObsOfTheConcept() throws Exception {
+		Concept concept = newNumericConcept("Statistics test value");
+		for (double value : new double[] { 1, 2, 4, 4, 9 }) {
+			newNumericObs(concept, value);
+		}
+		Context.getObsService().voidObs(newNumericObs(concept, 100), "entered in error");
+		Context.flushSession();
+		
+		NumericObsStatistics stats = Context.getService(LegacyUIService.class).getNumericObsStatistics(concept, 10, 10);
+		
+		Assert.assertEquals(5, stats.getCount());
+		Assert.assertEquals(1, stats.getMin(), 0);
+		Assert.assertEquals(9, stats.getMax(), 0);
+		Assert.assertEquals(4, stats.getMean(), 1e-9);
+		Assert.assertEquals(4, stats.getMedian(), 0);
+		// there are four distinct values, so no more bins than that are used
+		Assert.assertEquals(4, stats.getHistogram().getBinCount());
+	}
+	
+	/**
+	 * @see LegacyUIService#getNumericObsStatistics(Concept,int,int)
+	 */
+	@Test
+	@Verifies(value = "should return null if the concept has no numeric obs", method = "getNumericObsStatistics(Concept,int,int)")
+	public void getNumericObsStatistics_shouldReturnNullIfTheConceptHasNoNumericObs() throws Exception {
+		Concept concept = newNumericConcept("Statistics test value");
+		Context.flushSession();
+		
+		Assert.assertNull(Context.getService(LegacyUIService.class).getNumericObsStatistics(concept, 10, 10));
+	}
+	
+	/**
+	 * @see LegacyUIService#getNumericObsStatistics(Concept,int,int)
+	 */
+	@Test
+	@Verifies(value = "should average the values of each day", method = "getNumericObsStatistics(Concept,int,int)")
+	public void getNumericObsStatistics_shouldAverageTheValuesOfEachDay() throws Exception {
+		Calendar calendar = Calendar.getInstance();
+		calendar.clear();
+		calendar.set(2020, Calendar.MARCH, 1);
+		Date firstDay = calendar.getTime();
+		calendar.set(2020, Calendar.MARCH, 2);
+		Date secondDay = calendar.getTime();
+		
+		Concept concept = newNumericConcept("Statistics test value");
+		newNumericObsAt(concept, 1, DateUtils.addHours(firstDay, 8));
+		newNumericObsAt(concept, 3, DateUtils.addHours(firstDay, 17));
+		newNumericObsAt(concept, 5, DateUtils.addHours(secondDay, 9));
+		Context.flushSession();
+		
+		SortedMap<Date, Double> dailyMeans = Context.getService(LegacyUIService.class).getNumericObsStatistics(concept,
+		    10, 10).getDailyMeans();
+		
+		Assert.assertEquals(2, dailyMeans.size());
+		Assert.assertEquals(2, dailyMeans.get(firstDay), 1e-9);
+		Assert.assertEquals(5, dailyMeans.get(secondDay), 1e-9);
+	}
+	
+	/**
+	 * @see LegacyUIService#getNumericObsStatistics(Concept,int,int)
+	 */
+	@Test
+	@Verifies(value = "should pick the percentiles from the sorted values", method = "getNumericObsStatistics(Concept,int,int)")
+	public void getNumericObsStatistics_shouldPickThePercentilesFromTheSortedValues() throws Exception {
+		Concept concept = newNumericConcept("Statistics test value");
+		// saved out of order, the values 1 to 50 put the percentiles at ranks 1 and 49
+		for (int i = 0; i < 50; i++) {
+			newNumericObs(concept, (i * 7) % 50 + 1);
+		}
+		Context.flushSession();
+		
+		NumericObsStatistics stats = Context.getService(LegacyUIService.class).getNumericObsStatistics(concept, 10, 10);
+		
+		Assert.assertEquals(2, stats.getLowerPercentile(), 0);
+		Assert.assertEquals(50, stats.getUpperPercentile(), 0);
+	}
+	
+	/**
+	 * @see LegacyUIService#getAnswerCounts(Concept)
+	 */
+	@Test
+	@Verifies(value = "should count the obs of each answer", method = "getAnswerCounts(Concept)")
+	public void getAnswerCounts_shouldCountTheObsOfEachAnswer() throws Exception {
+		Concept concept = newCodedObsConcept();
+		
+		Map<Integer, Long> answerCounts = Context.getService(LegacyUIService.class).getAnswerCounts(concept);
+		
+		Assert.assertEquals(2, answerCounts.size());
+		Assert.assertEquals(2L, answerCounts.get(5089).longValue());
+		Assert.assertEquals(1L, answerCounts.get(5497).longValue());
+	}
+	
+	/**
+	 * @see LegacyUIService#computeConceptStats(Concept)
+	 */
+	@Test
+	@Verifies(value = "should compute the answer counts of a coded concept without saving them", method = "computeConceptStats(Concept)")
+	public void computeConceptStats_shouldComputeTheAnswerCountsOfACodedConceptWithoutSavingThem() throws Exception {
+		LegacyUIService service = Context.getService(LegacyUIService.class);
+		Concept concept = newCodedObsConcept();
+		
+		ConceptStatsSnapshot snapshot = service.computeConceptStats(concept);
+		
+		Assert.assertEquals(3L, snapshot.getObsCount().longValue());
+		Assert.assertEquals(2L, snapshot.getAnswerCounts().get(5089).longValue());
+		Assert.assertNull(snapshot.getNumericStatistics());
+		Assert.assertNull(snapshot.getId());
+		Assert.assertNull(service.getConceptStatsSnapshot(concept));
+	}
+	
+	/**
+	 * @see LegacyUIService#computeConceptStatsSnapshot(Concept)
+	 */
+	@Test
+	@Verifies(value = "should save the statistics of a numeric concept", method = "computeConceptStatsSnapshot(Concept)")
+	public void computeConceptStatsSnapshot_shouldSaveTheStatisticsOfANumericConcept() throws Exception {
+		LegacyUIService service = Context.getService(LegacyUIService.class);
+		Concept concept = newNumericConcept("Statistics test value");
+		for (double value : new double[] { 1, 2, 4, 4, 9 }) {
+			newNumericObs(concept, value);
+		}
+		
+		service.computeConceptStatsSnapshot(concept);
+		Context.flushSession();
+		Context.clearSession();
+		
+		ConceptStatsSnapshot snapshot = service.getConceptStatsSnapshot(Context.getConceptService().getConcept(
+		    concept.getConceptId()));
+		Assert.assertEquals(5L, snapshot.getObsCount().longValue());
+		Assert.assertNull(snapshot.getAnswerCounts());
+		NumericObsStatistics stats = snapshot.getNumericStatistics();
+		Assert.assertEquals(5, stats.getCount());
+		Assert.assertEquals(4, stats.getMean(), 1e-9);
+		Assert.assertEquals(Math.sqrt(7.6), stats.getStandardDeviation(), 1e-9);
+		Assert.assertEquals(4, stats.getHistogram().getBinCount());
+		Assert.assertEquals(1, stats.getHistogram().getCount(3));
+		Assert.assertEquals(1, stats.getDailyMeans().size());
+		Assert.assertEquals(4, stats.getDailyMeans().values().iterator().next(), 1e-9);
+	}
+	
+	/**
+	 * @see LegacyUIService#computeConceptStatsSnapshot(Concept)
+	 */
+	@Test
+	@Verifies(value = "should replace the previous snapshot", method = "computeConceptStatsSnapshot(Concept)")
+	public void computeConceptStatsSnapshot_shouldReplaceThePreviousSnapshot() throws Exception {
+		LegacyUIService service = Context.getService(LegacyUIService.class);
+		Concept concept = newCodedObsConcept();
+		Integer snapshotId = service.computeConceptStatsSnapshot(concept).getId();
+		
+		Obs obs = new Obs(Context.getPersonService().getPerson(7), concept, new Date(), Context.getLocationService()
+		        .getLocation(1));
+		obs.setValueCoded(Context.getConceptService().getConcept(5497));
+		Context.getObsService().saveObs(obs, null);
+		Context.flushSession();
+		ConceptStatsSnapshot snapshot = service.computeConceptStatsSnapshot(concept);
+		
+		Assert.assertEquals(snapshotId, snapshot.getId());
+		Assert.assertEquals(4L, snapshot.getObsCount().longValue());
+		Assert.assertEquals(2L, service.getConceptStatsSnapshot(concept).getAnswerCounts().get(5497).longValue());
+	}
+	
+	/**
+	 * @see LegacyUIService#computeConceptStatsSnapshot(Concept)
+	 */
+	@Test
+	@Verifies(value = "should return null for concepts of other datatypes", method = "computeConceptStatsSnapshot(Concept)")
+	public void computeConceptStatsSnapshot_shouldReturnNullForConceptsOfOtherDatatypes() throws Exception {
+		Concept concept = newConcept("Statistics test text", ConceptDatatype.TEXT_UUID);
+		
+		Assert.assertNull(Context.getService(LegacyUIService.class).computeConceptStatsSnapshot(concept));
+	}
+	
+	/**
+	 * @see LegacyUIService#getConceptIdsWithOutdatedStatsSnapshots()
+	 */
+	@Test
+	@Verifies(value = "should return concepts with obs changed since their snapshot", method = "getConceptIdsWithOutdatedStatsSnapshots()")
+	public void getConceptIdsWithOutdatedStatsSnapshots_shouldReturnConceptsWithObsChangedSinceTheirSnapshot()
+	        throws Exception {
+		LegacyUIService service = Context.getService(LegacyUIService.class);
+		Date anHourAgo = new Date(System.currentTimeMillis() - 60 * 60 * 1000);
+		Concept upToDate = newNumericConcept("Statistics up to date");
+		newNumericObs(upToDate, 1, anHourAgo);
+		Concept outdated = newNumericConcept("Statistics outdated");
+		newNumericObs(outdated, 1, anHourAgo);
+		Context.flushSession();
+		service.computeConceptStatsSnapshot(upToDate);
+		service.computeConceptStatsSnapshot(outdated);
+		
+		newNumericObs(outdated, 2);
+		Context.flushSession();
+		
+		List<Integer> conceptIds = service.getConceptIdsWithOutdatedStatsSnapshots();
+		Assert.assertTrue(conceptIds.contains(outdated.getConceptId()));
+		Assert.assertFalse(conceptIds.contains(upToDate.getConceptId()));
+	}
+	
+	/**
+	 * @return a new coded concept with two obs answered by concept 5089 and one by concept 5497
+	 */
+	private Concept newCodedObsConcept() {
+		Concept concept = newConcept("Statistics test answer", ConceptDatatype.CODED_UUID);
+		for (int answerId : new int[] { 5089, 5089, 5497 }) {
+			Obs obs = new Obs(Context.getPersonService().getPerson(7), concept, new Date(), Context.getLocationService()
+			        .getLocation(1));
+			obs.setValueCoded(Context.getConceptService().getConcept(answerId));
+			Context.getObsService().saveObs(obs, null);
+		}
+		Context.flushSession();
+		return concept;
+	}
+	
+	private Concept newNumericConcept(String name) {
+		return newConcept(name, ConceptDatatype.NUMERIC_UUID);
+	}
+	
+	private Concept newConcept(String name, String datatypeUuid) {
+		ConceptService conceptService = Context.getConceptService();
+		Concept concept = ConceptDatatype.NUMERIC_UUID.equals(datatypeUuid) ? new ConceptNumeric() : new Concept();
+		concept.addName(new ConceptName(name, Locale.ENGLISH));
+		concept.setDatatype(conceptService.getConceptDatatypeByUuid(datatypeUuid));
+		concept.setConceptClass(conceptService.getAllConceptClasses().get(0));
+		return conceptService.saveConcept(concept);
+	}
+	
+	private Obs newNumericObs(Concept concept, double value) {
+		return newNumericObs(concept, value, null);
+	}
+	
+	private Obs newNumericObsAt(Concept concept, double value, Date obsDatetime) {
+		Obs obs = new Obs(Context.getPersonService().getPerson(7), concept, obsDatetime, Context.getLocationService()
+		        .getLocation(1));
+		obs.setValueNumeric(value);
+		return Context.getObsService().saveObs(obs, null);
+	}
+	
+	private Obs newNumericObs(Concept concept, double value, Date dateCreated) {
+		Obs obs = new Obs(Context.getPersonService().getPerson(7), concept, new Date(), Context.getLocationService()
+		        .getLocation(1));
+		obs.setValueNumeric(value);
+		obs.setDateCreated(dateCreated);
+		return Context.getObsService().saveObs(obs, null);
+	}
+	
+	
+	/**
+	 * @see LegacyUIService#getConceptDictionaryVersion()
+	 */
+	@Test
+	@Verifies(value = "should change when the name of a concept creator changes", method = "getConceptDictionaryVersion()")
+	public void getConceptDictionaryVersion_shouldChangeWhenTheNameOfAConceptCreatorChanges() throws Exception {
+		LegacyUIService service = Context.getService(LegacyUIService.class);
+		String version = service.getConceptDictionaryVersion();
+		Assert.assertEquals(version, service.getConceptDictionaryVersion());
+		
+		Person creator = Context.getConceptService().getConcept(5497).getCreator().getPerson();
+		creator.addName(new PersonName("Renamed", null, "Creator"));
+		Context.getPersonService().savePerson(creator);
+		Context.flushSession();
+		
+		Assert.assertFalse(version.equals(service.getConceptDictionaryVersion()));
+	}
+}
@@ -0,0 +1,80 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.legacyui.stats;
+
+import java.util.Date;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openmrs.test.Verifies;
+
+/**
+ * Tests for the {@link NumericObsStatisticsCalculator} class.
+ */
+public class NumericObsStatisticsCalculatorTest {
+	
+	/**
+	 * @see NumericObsStatisticsCalculator#handle(Integer,Date,double)
+	 */
+	@Test
+	@Verifies(value = "should compute the moments and the median", method = "handle(Integer,Date,double)")
+	public void handle_shouldComputeTheMomentsAndTheMedian() throws Exception {
+		NumericObsStatisticsCalculator calculator = new NumericObsStatisticsCalculator(5, 1, 9, 4, null, null, 10);
+		double[] values = { 1, 2, 4, 4, 9 };
+		for (int i = 0; i < values.length; i++) {
+			calculator.handle(i, new Date(), values[i]);
+		}
+		
+		NumericObsStatistics stats = calculator.getStatistics();
+		Assert.assertEquals(5, stats.getCount());
+		Assert.assertEquals(1, stats.getMin(), 0);
+		Assert.assertEquals(9, stats.getMax(), 0);
+		Assert.assertEquals(4, stats.getMean(), 1e-9);
+		Assert.assertEquals(Math.sqrt(7.6), stats.getStandardDeviation(), 1e-9);
+		Assert.assertEquals(4, stats.getMedian(), 0);
+		Assert.assertNull(stats.getOutlierFreeHistogram());
+		
+		NumericObsStatistics.Histogram histogram = stats.getHistogram();
+		Assert.assertEquals(4, histogram.getBinCount());
+		Assert.assertEquals(2, histogram.getCount(0));
+		Assert.assertEquals(2, histogram.getCount(1));
+		Assert.assertEquals(0, histogram.getCount(2));
+		Assert.assertEquals(1, histogram.getCount(3));
+		Assert.assertEquals(9, histogram.getUpperBound(3), 1e-9);
+	}
+	
+	/**
+	 * @see NumericObsStatisticsCalculator#handle(Integer,Date,double)
+	 */
+	@Test
+	@Verifies(value = "should count the outliers and keep at most the maximum number of their ids", method = "handle(Integer,Date,double)")
+	public void handle_shouldCountTheOutliersAndKeepAtMostTheMaximumNumberOfTheirIds() throws Exception {
+		// percentiles of 10 and 20 put the outlier limits at -5 and 35
+		NumericObsStatisticsCalculator calculator = new NumericObsStatisticsCalculator(6, -20, 100, 10, 10.0, 20.0, 2);
+		double[] values = { -20, -10, 10, 20, 50, 100 };
+		for (int i = 0; i < values.length; i++) {
+			calculator.handle(i + 1, new Date(), values[i]);
+		}
+		
+		NumericObsStatistics stats = calculator.getStatistics();
+		Assert.assertEquals(4, stats.getOutlierCount());
+		Assert.assertEquals(2, stats.getOutlierObsIds().size());
+		Assert.assertEquals(Integer.valueOf(1), stats.getOutlierObsIds().get(0));
+		Assert.assertEquals(Integer.valueOf(2), stats.getOutlierObsIds().get(1));
+		
+		NumericObsStatistics.Histogram outlierFree = stats.getOutlierFreeHistogram();
+		long total = 0;
+		for (int i = 0; i < outlierFree.getBinCount(); i++) {
+			total += outlierFree.getCount(i);
+		}
+		Assert.assertEquals(2, total);
+		Assert.assertEquals(-5, outlierFree.getLowerBound(0), 1e-9);
+	}
+}
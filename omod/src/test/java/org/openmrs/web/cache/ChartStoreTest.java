@@ -0,0 +1,66 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.web.cache;
+
+import org.jfree.chart.ChartFactory;
+import org.jfree.chart.JFreeChart;
+import org.jfree.data.general.DefaultPieDataset;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.test.Verifies;
+
+/**
+ * Tests for the {@link ChartStore} class.
+ */
+public class ChartStoreTest {
+	
+	private ChartStore store;
+	
+	private JFreeChart chart;
+	
+	@Before
+	public void setup() {
+		store = new ChartStore(10, 60000);
+		DefaultPieDataset dataset = new DefaultPieDataset();
+		dataset.setValue("true", 3);
+		dataset.setValue("false", 2);
+		chart = ChartFactory.createPieChart("Test", dataset, true, true, false);
+	}
+	
+	/**
+	 * @see ChartStore#take(String,String)
+	 */
+	@Test
+	@Verifies(value = "should hand out an image only once", method = "take(String,String)")
+	public void take_shouldHandOutAnImageOnlyOnce() throws Exception {
+		String key = store.put(chart, 100, 80, ChartStore.PNG_MIME_TYPE, "session");
+		
+		ChartStore.RenderedChart rendered = store.take(key, "session");
+		Assert.assertNotNull(rendered);
+		Assert.assertEquals(ChartStore.PNG_MIME_TYPE, rendered.getMimeType());
+		Assert.assertTrue(rendered.getImage().length > 0);
+		
+		Assert.assertNull(store.take(key, "session"));
+		Assert.assertEquals(0, store.size());
+	}
+	
+	/**
+	 * @see ChartStore#take(String,String)
+	 */
+	@Test
+	@Verifies(value = "should not hand out an image to another session", method = "take(String,String)")
+	public void take_shouldNotHandOutAnImageToAnotherSession() throws Exception {
+		String key = store.put(chart, 100, 80, ChartStore.JPG_MIME_TYPE, "session");
+		
+		Assert.assertNull(store.take(key, "another session"));
+		Assert.assertEquals(ChartStore.JPG_MIME_TYPE, store.take(key, "session").getMimeType());
+	}
+}
@@ -0,0 +1,80 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.web.cache;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.test.Verifies;
+
+/**
+ * Tests for the {@link ExpiringCache} class.
+ */
+public class ExpiringCacheTest {
+	
+	private long now;
+	
+	private ExpiringCache<String, String> cache;
+	
+	@Before
+	public void setup() {
+		now = 0;
+		cache = new ExpiringCache<String, String>(2, 1000) {
+			
+			@Override
+			protected long currentTimeMillis() {
+				return now;
+			}
+		};
+	}
+	
+	/**
+	 * @see ExpiringCache#get(Object)
+	 */
+	@Test
+	@Verifies(value = "should return null for expired entries", method = "get(Object)")
+	public void get_shouldReturnNullForExpiredEntries() throws Exception {
+		cache.put("a", "1");
+		now = 999;
+		Assert.assertEquals("1", cache.get("a"));
+		now = 1000;
+		Assert.assertNull(cache.get("a"));
+		Assert.assertEquals(0, cache.size());
+	}
+	
+	/**
+	 * @see ExpiringCache#get(Object)
+	 */
+	@Test
+	@Verifies(value = "should count hits and misses", method = "get(Object)")
+	public void get_shouldCountHitsAndMisses() throws Exception {
+		cache.get("a");
+		cache.put("a", "1");
+		cache.get("a");
+		cache.get("a");
+		Assert.assertEquals(2, cache.getHitCount());
+		Assert.assertEquals(1, cache.getMissCount());
+	}
+	
+	/**
+	 * @see ExpiringCache#put(Object,Object)
+	 */
+	@Test
+	@Verifies(value = "should evict the least recently used entry when full", method = "put(Object,Object)")
+	public void put_shouldEvictTheLeastRecentlyUsedEntryWhenFull() throws Exception {
+		cache.put("a", "1");
+		cache.put("b", "2");
+		cache.get("a");
+		cache.put("c", "3");
+		Assert.assertEquals("1", cache.get("a"));
+		Assert.assertNull(cache.get("b"));
+		Assert.assertEquals("3", cache.get("c"));
+	}
+}
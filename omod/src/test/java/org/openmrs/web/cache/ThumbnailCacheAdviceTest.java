@@ -0,0 +1,76 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.web.cache;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+
+import javax.imageio.ImageIO;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.Obs;
+import org.openmrs.api.ObsService;
+import org.openmrs.api.context.Context;
+import org.openmrs.test.Verifies;
+import org.openmrs.web.test.BaseModuleWebContextSensitiveTest;
+
+/**
+ * Tests for the {@link ThumbnailCacheAdvice} class.
+ */
+public class ThumbnailCacheAdviceTest extends BaseModuleWebContextSensitiveTest {
+	
+	private ThumbnailCacheAdvice advice = new ThumbnailCacheAdvice();
+	
+	private File image;
+	
+	private File thumbnail;
+	
+	private Obs obs;
+	
+	@Before
+	public void before() throws Exception {
+		image = File.createTempFile("scan", ".png");
+		ImageIO.write(new BufferedImage(400, 200, BufferedImage.TYPE_INT_RGB), "png", image);
+		obs = new Obs();
+		obs.setValueComplex("image/png|" + image.getName());
+		thumbnail = Context.getRegisteredComponent("thumbnailCache", ThumbnailCache.class).getThumbnail(obs, image, 100);
+	}
+	
+	@After
+	public void after() {
+		image.delete();
+		thumbnail.delete();
+	}
+	
+	/**
+	 * @see ThumbnailCacheAdvice#afterReturning(Object,java.lang.reflect.Method,Object[],Object)
+	 */
+	@Test
+	@Verifies(value = "should evict the thumbnails of a voided obs", method = "afterReturning(Object,Method,Object[],Object)")
+	public void afterReturning_shouldEvictTheThumbnailsOfAVoidedObs() throws Exception {
+		advice.afterReturning(obs, ObsService.class.getMethod("voidObs", Obs.class, String.class), new Object[] { obs,
+		        "scanned the wrong page" }, null);
+		Assert.assertFalse(thumbnail.exists());
+	}
+	
+	/**
+	 * @see ThumbnailCacheAdvice#afterReturning(Object,java.lang.reflect.Method,Object[],Object)
+	 */
+	@Test
+	@Verifies(value = "should keep the thumbnails after an obs is fetched", method = "afterReturning(Object,Method,Object[],Object)")
+	public void afterReturning_shouldKeepTheThumbnailsAfterAnObsIsFetched() throws Exception {
+		advice.afterReturning(obs, ObsService.class.getMethod("getObsByUuid", String.class), new Object[] { obs
+		        .getUuid() }, null);
+		Assert.assertTrue(thumbnail.exists());
+	}
+}
@@ -0,0 +1,110 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.web.cache;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+
+import javax.imageio.ImageIO;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.Obs;
+import org.openmrs.test.Verifies;
+import org.openmrs.web.test.BaseModuleWebContextSensitiveTest;
+
+/**
+ * Tests for the {@link ThumbnailCache} class.
+ */
+public class ThumbnailCacheTest extends BaseModuleWebContextSensitiveTest {
+	
+	private File image;
+	
+	private File thumbnail;
+	
+	@Before
+	public void setup() throws Exception {
+		image = File.createTempFile("scan", ".png");
+		ImageIO.write(new BufferedImage(2000, 1000, BufferedImage.TYPE_INT_RGB), "png", image);
+	}
+	
+	@After
+	public void tearDown() {
+		image.delete();
+		if (thumbnail != null) {
+			thumbnail.delete();
+		}
+	}
+	
+	/**
+	 * @see ThumbnailCache#getThumbnail(Obs,File,int)
+	 */
+	@Test
+	@Verifies(value = "should generate a thumbnail no larger than the given size", method = "getThumbnail(Obs,File,int)")
+	public void getThumbnail_shouldGenerateAThumbnailNoLargerThanTheGivenSize() throws Exception {
+		thumbnail = new ThumbnailCache().getThumbnail(new Obs(), image, 200);
+		
+		BufferedImage read = ImageIO.read(thumbnail);
+		Assert.assertEquals(200, read.getWidth());
+		Assert.assertEquals(100, read.getHeight());
+	}
+	
+	/**
+	 * @see ThumbnailCache#getThumbnail(Obs,File,int)
+	 */
+	@Test
+	@Verifies(value = "should reuse the thumbnail until the image changes", method = "getThumbnail(Obs,File,int)")
+	public void getThumbnail_shouldReuseTheThumbnailUntilTheImageChanges() throws Exception {
+		ThumbnailCache cache = new ThumbnailCache();
+		Obs obs = new Obs();
+		thumbnail = cache.getThumbnail(obs, image, 200);
+		// an older thumbnail than the image would be generated again
+		Assert.assertTrue(thumbnail.setLastModified(image.lastModified() + 1000));
+		long lastModified = thumbnail.lastModified();
+		
+		Assert.assertEquals(thumbnail, cache.getThumbnail(obs, image, 200));
+		Assert.assertEquals(lastModified, thumbnail.lastModified());
+		
+		Assert.assertTrue(image.setLastModified(lastModified + 1000));
+		cache.getThumbnail(obs, image, 200);
+		Assert.assertTrue(lastModified != thumbnail.lastModified());
+	}
+	
+	/**
+	 * @see ThumbnailCache#evict(Obs)
+	 */
+	@Test
+	@Verifies(value = "should delete the thumbnails of the obs", method = "evict(Obs)")
+	public void evict_shouldDeleteTheThumbnailsOfTheObs() throws Exception {
+		ThumbnailCache cache = new ThumbnailCache();
+		Obs obs = new Obs();
+		thumbnail = cache.getThumbnail(obs, image, 200);
+		File small = cache.getThumbnail(obs, image, 50);
+		
+		cache.evict(obs);
+		Assert.assertFalse(thumbnail.exists());
+		Assert.assertFalse(small.exists());
+	}
+	
+	/**
+	 * @see ThumbnailCache#evict(Obs)
+	 */
+	@Test
+	@Verifies(value = "should leave the thumbnails of other obs alone", method = "evict(Obs)")
+	public void evict_shouldLeaveTheThumbnailsOfOtherObsAlone() throws Exception {
+		ThumbnailCache cache = new ThumbnailCache();
+		thumbnail = cache.getThumbnail(new Obs(), image, 200);
+		
+		cache.evict(new Obs());
+		Assert.assertTrue(thumbnail.exists());
+	}
+}
@@ -0,0 +1,86 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.web.clientregistry;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.test.Verifies;
+
+/**
+ * Tests for the {@link CircuitBreaker} class.
+ */
+public class CircuitBreakerTest {
+
+	private long now;
+
+	private CircuitBreaker breaker;
+
+	@Before
+	public void setup() {
+		now = 0;
+		breaker = new CircuitBreaker(2, 1000) {
+
+			@Override
+			protected long currentTimeMillis() {
+				return now;
+			}
+		};
+	}
+
+	/**
+	 * @see CircuitBreaker#allowRequest()
+	 */
+	@Test
+	@Verifies(value = "should allow requests while closed", method = "allowRequest()")
+	public void allowRequest_shouldAllowRequestsWhileClosed() throws Exception {
+		breaker.recordFailure();
+		Assert.assertTrue(breaker.allowRequest());
+		Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+	}
+
+	/**
+	 * @see CircuitBreaker#allowRequest()
+	 */
+	@Test
+	@Verifies(value = "should refuse requests while open", method = "allowRequest()")
+	public void allowRequest_shouldRefuseRequestsWhileOpen() throws Exception {
+		breaker.recordFailure();
+		breaker.recordFailure();
+		Assert.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+		now = 999;
+		Assert.assertFalse(breaker.allowRequest());
+	}
+
+	/**
+	 * @see CircuitBreaker#allowRequest()
+	 */
+	@Test
+	@Verifies(value = "should allow a single trial request once the open period has elapsed", method = "allowRequest()")
+	public void allowRequest_shouldAllowASingleTrialRequestOnceTheOpenPeriodHasElapsed() throws Exception {
+		breaker.recordFailure();
+		breaker.recordFailure();
+		now = 1000;
+		Assert.assertTrue(breaker.allowRequest());
+		Assert.assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+		Assert.assertFalse(breaker.allowRequest());
+
+		// a failed trial opens the circuit for another period
+		breaker.recordFailure();
+		Assert.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+		Assert.assertFalse(breaker.allowRequest());
+
+		now = 2000;
+		Assert.assertTrue(breaker.allowRequest());
+		breaker.recordSuccess();
+		Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+		Assert.assertTrue(breaker.allowRequest());
+	}
+}
@@ -0,0 +1,101 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.web.clientregistry;
+
+import org.hibernate.SessionFactory;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.GlobalProperty;
+import org.openmrs.PatientIdentifierType;
+import org.openmrs.api.context.Context;
+import org.openmrs.test.Verifies;
+import org.openmrs.web.test.BaseModuleWebContextSensitiveTest;
+
+/**
+ * Tests for the {@link ClientRegistryIdentifierTypeResolver} class.
+ */
+public class ClientRegistryIdentifierTypeResolverTest extends BaseModuleWebContextSensitiveTest {
+	
+	private static final String OPENMRS_ID_TYPE_UUID = "1a339fe9-38bc-4ab3-b180-320988c0b968";
+	
+	private static final String OLD_ID_TYPE_UUID = "2f470aa8-1d73-43b7-81b5-01f0c0dfa53c";
+	
+	private ClientRegistryIdentifierTypeResolver resolver;
+	
+	@Before
+	public void setup() {
+		resolver = new ClientRegistryIdentifierTypeResolver();
+		setMapping("http://cr.org/openmrsId|" + OPENMRS_ID_TYPE_UUID + ", broken, http://cr.org/unknown|no-such-uuid");
+	}
+	
+	/**
+	 * @see ClientRegistryIdentifierTypeResolver#getIdentifierType(String)
+	 */
+	@Test
+	@Verifies(value = "should return the identifier type mapped to the system", method = "getIdentifierType(String)")
+	public void getIdentifierType_shouldReturnTheIdentifierTypeMappedToTheSystem() throws Exception {
+		Assert.assertEquals(OPENMRS_ID_TYPE_UUID, resolver.getIdentifierType("http://cr.org/openmrsId").getUuid());
+	}
+	
+	/**
+	 * @see ClientRegistryIdentifierTypeResolver#getIdentifierType(String)
+	 */
+	@Test
+	@Verifies(value = "should return null for an unmapped system", method = "getIdentifierType(String)")
+	public void getIdentifierType_shouldReturnNullForAnUnmappedSystem() throws Exception {
+		Assert.assertNull(resolver.getIdentifierType("http://cr.org/other"));
+		Assert.assertNull(resolver.getIdentifierType(null));
+	}
+	
+	/**
+	 * @see ClientRegistryIdentifierTypeResolver#getIdentifierType(String)
+	 */
+	@Test
+	@Verifies(value = "should load the identifier type in the current session", method = "getIdentifierType(String)")
+	public void getIdentifierType_shouldLoadTheIdentifierTypeInTheCurrentSession() throws Exception {
+		resolver.getIdentifierType("http://cr.org/openmrsId");
+		Context.flushSession();
+		Context.clearSession();
+		
+		PatientIdentifierType type = resolver.getIdentifierType("http://cr.org/openmrsId");
+		Assert.assertEquals(OPENMRS_ID_TYPE_UUID, type.getUuid());
+		Assert.assertTrue(Context.getRegisteredComponent("sessionFactory", SessionFactory.class).getCurrentSession()
+		        .contains(type));
+	}
+	
+	/**
+	 * @see ClientRegistryIdentifierTypeResolver#getIdentifierTypes()
+	 */
+	@Test
+	@Verifies(value = "should ignore malformed entries and unknown identifier types", method = "getIdentifierTypes()")
+	public void getIdentifierTypes_shouldIgnoreMalformedEntriesAndUnknownIdentifierTypes() throws Exception {
+		Assert.assertEquals(1, resolver.getIdentifierTypes().size());
+	}
+	
+	/**
+	 * @see ClientRegistryIdentifierTypeResolver#getIdentifierTypes()
+	 */
+	@Test
+	@Verifies(value = "should reload the mapping when the global property changes", method = "getIdentifierTypes()")
+	public void getIdentifierTypes_shouldReloadTheMappingWhenTheGlobalPropertyChanges() throws Exception {
+		Assert.assertNotNull(resolver.getIdentifierType("http://cr.org/openmrsId"));
+		
+		setMapping("http://cr.org/oldId|" + OLD_ID_TYPE_UUID);
+		Assert.assertNull(resolver.getIdentifierType("http://cr.org/openmrsId"));
+		Assert.assertEquals(OLD_ID_TYPE_UUID, resolver.getIdentifierType("http://cr.org/oldId").getUuid());
+	}
+	
+	private void setMapping(String mapping) {
+		GlobalProperty gp = new GlobalProperty(ClientRegistryIdentifierTypeResolver.GP_IDS_MAPPING, mapping);
+		Context.getAdministrationService().saveGlobalProperty(gp);
+		resolver.globalPropertyChanged(gp);
+	}
+}
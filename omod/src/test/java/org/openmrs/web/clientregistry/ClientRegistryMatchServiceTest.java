@@ -0,0 +1,188 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.web.clientregistry;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.GlobalProperty;
+import org.openmrs.api.context.Context;
+import org.openmrs.test.Verifies;
+import org.openmrs.web.test.BaseModuleWebContextSensitiveTest;
+
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Tests for the {@link ClientRegistryMatchService} class against a local stub of the OpenCR
+ * matches endpoint.
+ */
+public class ClientRegistryMatchServiceTest extends BaseModuleWebContextSensitiveTest {
+
+	private static final String MATCHES = "{\"auto\":[],\"potential\":[],\"conflict\":[]}";
+
+	private HttpServer stubRegistry;
+
+	private final AtomicBoolean slow = new AtomicBoolean();
+
+	private final AtomicInteger hits = new AtomicInteger();
+
+	private long now;
+
+	private ClientRegistryMatchService service;
+
+	@Before
+	public void setup() throws Exception {
+		stubRegistry = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		stubRegistry.createContext("/CR/fhir/matches", exchange -> {
+			hits.incrementAndGet();
+			try {
+				if (slow.get()) {
+					Thread.sleep(3000);
+				}
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			byte[] body = MATCHES.getBytes(StandardCharsets.UTF_8);
+			exchange.sendResponseHeaders(200, body.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(body);
+			}
+		});
+		stubRegistry.setExecutor(Executors.newCachedThreadPool());
+		stubRegistry.start();
+
+		Context.getAdministrationService().saveGlobalProperty(
+		    new GlobalProperty(ClientRegistryGateway.GP_MATCHES_URL, "http://localhost:"
+		            + stubRegistry.getAddress().getPort() + "/CR/fhir/matches"));
+		Context.getAdministrationService().saveGlobalProperty(
+		    new GlobalProperty(ClientRegistryGateway.GP_CLIENT_TIMEOUT, "1"));
+
+		service = new ClientRegistryMatchService();
+		service.setGateway(new ClientRegistryGateway());
+		service.setCircuitBreaker(new CircuitBreaker(2, 60000) {
+
+			@Override
+			protected long currentTimeMillis() {
+				return now;
+			}
+		});
+	}
+
+	@After
+	public void tearDown() {
+		service.shutdown();
+		stubRegistry.stop(0);
+	}
+
+	/**
+	 * @see ClientRegistryMatchService#submit(org.hl7.fhir.r4.model.Patient)
+	 */
+	@Test
+	@Verifies(value = "should fail fast once the circuit breaker is open", method = "submit(Patient)")
+	public void submit_shouldFailFastOnceTheCircuitBreakerIsOpen() throws Exception {
+		slow.set(true);
+
+		Assert.assertEquals(MatchCheckResult.Status.UNAVAILABLE, service.await(service.submit(newPatient()), 5000)
+		        .getStatus());
+		Assert.assertEquals(MatchCheckResult.Status.UNAVAILABLE, service.await(service.submit(newPatient()), 5000)
+		        .getStatus());
+		Assert.assertEquals(CircuitBreaker.State.OPEN, service.getCircuitBreaker().getState());
+
+		long start = System.currentTimeMillis();
+		MatchCheckResult result = service.await(service.submit(newPatient()), 5000);
+		Assert.assertEquals(MatchCheckResult.Status.UNAVAILABLE, result.getStatus());
+		Assert.assertTrue(System.currentTimeMillis() - start < 500);
+		Assert.assertEquals(2, hits.get());
+	}
+
+	/**
+	 * @see ClientRegistryMatchService#submit(org.hl7.fhir.r4.model.Patient)
+	 */
+	@Test
+	@Verifies(value = "should close the circuit again once the client registry recovers", method = "submit(Patient)")
+	public void submit_shouldCloseTheCircuitAgainOnceTheClientRegistryRecovers() throws Exception {
+		slow.set(true);
+		service.await(service.submit(newPatient()), 5000);
+		service.await(service.submit(newPatient()), 5000);
+		Assert.assertEquals(CircuitBreaker.State.OPEN, service.getCircuitBreaker().getState());
+
+		slow.set(false);
+		now = 60000;
+		MatchCheckResult result = service.await(service.submit(newPatient()), 5000);
+		Assert.assertEquals(MatchCheckResult.Status.COMPLETED, result.getStatus());
+		Assert.assertEquals(MATCHES, result.getMatches());
+		Assert.assertEquals(CircuitBreaker.State.CLOSED, service.getCircuitBreaker().getState());
+	}
+
+	/**
+	 * @see ClientRegistryMatchService#submit(org.hl7.fhir.r4.model.Patient)
+	 */
+	@Test
+	@Verifies(value = "should end the trial of a half open circuit when the call cannot be prepared", method = "submit(Patient)")
+	public void submit_shouldEndTheTrialOfAHalfOpenCircuitWhenTheCallCannotBePrepared() throws Exception {
+		slow.set(true);
+		service.await(service.submit(newPatient()), 5000);
+		service.await(service.submit(newPatient()), 5000);
+		Assert.assertEquals(CircuitBreaker.State.OPEN, service.getCircuitBreaker().getState());
+
+		slow.set(false);
+		now = 60000;
+		service.setGateway(new ClientRegistryGateway() {
+
+			@Override
+			public String encodeResourceToString(IBaseResource resource) {
+				throw new IllegalStateException("testing");
+			}
+		});
+		try {
+			service.submit(newPatient());
+			Assert.fail("the encoding error should be rethrown");
+		}
+		catch (IllegalStateException e) {
+			Assert.assertEquals(CircuitBreaker.State.OPEN, service.getCircuitBreaker().getState());
+		}
+
+		// the breaker lets the next trial through
+		service.setGateway(new ClientRegistryGateway());
+		now = 120000;
+		Assert.assertEquals(MatchCheckResult.Status.COMPLETED, service.await(service.submit(newPatient()), 5000)
+		        .getStatus());
+		Assert.assertEquals(CircuitBreaker.State.CLOSED, service.getCircuitBreaker().getState());
+	}
+
+	/**
+	 * @see ClientRegistryMatchService#getResult(String)
+	 */
+	@Test
+	@Verifies(value = "should hand out a pending result until the check completes", method = "getResult(String)")
+	public void getResult_shouldHandOutAPendingResultUntilTheCheckCompletes() throws Exception {
+		slow.set(true);
+		String token = service.submit(newPatient());
+		Assert.assertEquals(MatchCheckResult.Status.PENDING, service.getResult(token).getStatus());
+		Assert.assertNotNull(service.await(token, 5000));
+		Assert.assertNull(service.getResult(token));
+	}
+
+	private org.hl7.fhir.r4.model.Patient newPatient() {
+		org.hl7.fhir.r4.model.Patient patient = new org.hl7.fhir.r4.model.Patient();
+		patient.addName().setFamily("Doe").addGiven("John");
+		return patient;
+	}
+}
@@ -0,0 +1,132 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.web.clientregistry;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.hl7.fhir.r4.model.Patient;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.test.Verifies;
+import org.openmrs.web.test.BaseModuleWebContextSensitiveTest;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.rest.client.api.ServerValidationModeEnum;
+
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Tests for the {@link ClientRegistryPatientCache} class against a local stub of the client registry
+ * FHIR endpoint.
+ */
+public class ClientRegistryPatientCacheTest extends BaseModuleWebContextSensitiveTest {
+
+	private static final String PATIENT = "{\"resourceType\":\"Patient\",\"id\":\"cr-1\","
+	        + "\"name\":[{\"family\":\"Doe\",\"given\":[\"Jo\"]}],\"gender\":\"female\"}";
+
+	private static final String SEARCH = "{\"resourceType\":\"Bundle\",\"type\":\"searchset\",\"entry\":[{\"resource\":"
+	        + PATIENT + "}]}";
+
+	private HttpServer stubRegistry;
+
+	private final Map<String, AtomicInteger> hits = new ConcurrentHashMap<String, AtomicInteger>();
+
+	private ClientRegistryPatientCache cache;
+
+	@Before
+	public void setup() throws Exception {
+		stubRegistry = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		stubRegistry.createContext("/CR/fhir/Patient", exchange -> {
+			boolean search = exchange.getRequestURI().getQuery() != null;
+			hits.computeIfAbsent(search ? "search" : "read", k -> new AtomicInteger()).incrementAndGet();
+			byte[] body = (search ? SEARCH : PATIENT).getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().set("Content-Type", "application/fhir+json");
+			exchange.sendResponseHeaders(200, body.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(body);
+			}
+		});
+		stubRegistry.setExecutor(Executors.newCachedThreadPool());
+		stubRegistry.start();
+
+		FhirContext fhirContext = FhirContext.forR4();
+		fhirContext.getRestfulClientFactory().setServerValidationMode(ServerValidationModeEnum.NEVER);
+		cache = new ClientRegistryPatientCache();
+		cache.setClient(fhirContext.newRestfulGenericClient("http://localhost:" + stubRegistry.getAddress().getPort()
+		        + "/CR/fhir"));
+	}
+
+	@After
+	public void tearDown() {
+		stubRegistry.stop(0);
+	}
+
+	private int hits(String kind) {
+		AtomicInteger count = hits.get(kind);
+		return count == null ? 0 : count.get();
+	}
+
+	/**
+	 * @see ClientRegistryPatientCache#getPatient(String)
+	 */
+	@Test
+	@Verifies(value = "should read the patient remotely only once", method = "getPatient(String)")
+	public void getPatient_shouldReadThePatientRemotelyOnlyOnce() throws Exception {
+		Assert.assertEquals("Doe", cache.getPatient("cr-1").getNameFirstRep().getFamily());
+		Assert.assertEquals("Doe", cache.getPatient("cr-1").getNameFirstRep().getFamily());
+		Assert.assertEquals(1, hits("read"));
+	}
+
+	/**
+	 * @see ClientRegistryPatientCache#getPatient(String)
+	 */
+	@Test
+	@Verifies(value = "should hand out copies of the cached patient", method = "getPatient(String)")
+	public void getPatient_shouldHandOutCopiesOfTheCachedPatient() throws Exception {
+		Patient first = cache.getPatient("cr-1");
+		first.getNameFirstRep().setFamily("Changed");
+		first.getTelecomFirstRep();
+
+		Patient second = cache.getPatient("cr-1");
+		Assert.assertNotSame(first, second);
+		Assert.assertEquals("Doe", second.getNameFirstRep().getFamily());
+		Assert.assertFalse(second.hasTelecom());
+		Assert.assertNotSame(cache.searchPatients("Doe", "Jo", "female").get(0), cache.searchPatients("Doe", "Jo",
+		    "female").get(0));
+	}
+
+	/**
+	 * @see ClientRegistryPatientCache#invalidate(String)
+	 */
+	@Test
+	@Verifies(value = "should drop the patient and the cached searches", method = "invalidate(String)")
+	public void invalidate_shouldDropThePatientAndTheCachedSearches() throws Exception {
+		cache.getPatient("cr-1");
+		cache.searchPatients("Doe", "Jo", "female");
+		cache.searchPatients("Doe", "Jo", "female");
+		Assert.assertEquals(1, hits("read"));
+		Assert.assertEquals(1, hits("search"));
+
+		cache.invalidate("cr-1");
+
+		cache.getPatient("cr-1");
+		cache.searchPatients("Doe", "Jo", "female");
+		Assert.assertEquals(2, hits("read"));
+		Assert.assertEquals(2, hits("search"));
+	}
+}
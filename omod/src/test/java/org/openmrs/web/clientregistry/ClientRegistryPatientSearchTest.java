@@ -0,0 +1,91 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.web.clientregistry;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.hl7.fhir.r4.model.Patient;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.GlobalProperty;
+import org.openmrs.api.context.Context;
+import org.openmrs.test.Verifies;
+import org.openmrs.web.test.BaseModuleWebContextSensitiveTest;
+
+/**
+ * Tests for the {@link ClientRegistryPatientSearch} class, the searches are stood in for by futures
+ * completed by the tests.
+ */
+public class ClientRegistryPatientSearchTest extends BaseModuleWebContextSensitiveTest {
+
+	private ClientRegistryPatientSearch registrySearch;
+
+	@Before
+	public void setup() throws Exception {
+		Context.getAdministrationService().saveGlobalProperty(
+		    new GlobalProperty(ClientRegistryPatientSearch.GP_SEARCH_DEADLINE, "10"));
+		registrySearch = Context.getRegisteredComponent("clientRegistryPatientSearch", ClientRegistryPatientSearch.class);
+	}
+
+	/**
+	 * @see ClientRegistryPatientSearch#collect(String)
+	 */
+	@Test
+	@Verifies(value = "should hand out the patients of a completed search only once", method = "collect(String)")
+	public void collect_shouldHandOutThePatientsOfACompletedSearchOnlyOnce() throws Exception {
+		Patient patient = new Patient();
+		patient.setId("cr-1");
+		String token = registrySearch.park(CompletableFuture.completedFuture(Collections.singletonList(patient)));
+
+		List<Patient> patients = registrySearch.collect(token);
+		Assert.assertEquals(1, patients.size());
+		Assert.assertEquals("cr-1", patients.get(0).getIdElement().getIdPart());
+		Assert.assertTrue(registrySearch.collect(token).isEmpty());
+	}
+
+	/**
+	 * @see ClientRegistryPatientSearch#collect(String)
+	 */
+	@Test
+	@Verifies(value = "should return null while the search is still running", method = "collect(String)")
+	public void collect_shouldReturnNullWhileTheSearchIsStillRunning() throws Exception {
+		CompletableFuture<List<Patient>> search = new CompletableFuture<List<Patient>>();
+		String token = registrySearch.park(search);
+
+		Assert.assertNull(registrySearch.collect(token));
+
+		search.complete(Collections.<Patient> emptyList());
+		Assert.assertNotNull(registrySearch.collect(token));
+	}
+
+	/**
+	 * @see ClientRegistryPatientSearch#await(java.util.concurrent.Future,long)
+	 */
+	@Test
+	@Verifies(value = "should return null once the deadline has passed", method = "await(Future,long)")
+	public void await_shouldReturnNullOnceTheDeadlineHasPassed() throws Exception {
+		Assert.assertNull(registrySearch.await(new CompletableFuture<List<Patient>>(), System.currentTimeMillis()));
+	}
+
+	/**
+	 * @see ClientRegistryPatientSearch#await(java.util.concurrent.Future,long)
+	 */
+	@Test
+	@Verifies(value = "should return an empty list if the search failed", method = "await(Future,long)")
+	public void await_shouldReturnAnEmptyListIfTheSearchFailed() throws Exception {
+		CompletableFuture<List<Patient>> search = new CompletableFuture<List<Patient>>();
+		search.completeExceptionally(new IllegalStateException("registry down"));
+
+		Assert.assertTrue(registrySearch.await(search, System.currentTimeMillis() + 1000).isEmpty());
+	}
+}
@@ -37,18 +37,24 @@ public class PortletControllerTest extends BaseModuleWebContextSensitiveTest {
 	 * @throws Exception
 	 */
 	private Map<String, Object> getModelFromController(Integer patientId) throws Exception {
-		MockHttpServletRequest request = new MockHttpServletRequest("GET", "");
+		return getModelFromController(newPortletRequest(patientId));
+	}
+	
+	private Map<String, Object> getModelFromController(MockHttpServletRequest request) throws Exception {
 		HttpServletResponse response = new MockHttpServletResponse();
 		
+		ModelAndView modelAndView = new PortletController().handleRequest(request, response);
+		
+		return (Map<String, Object>) modelAndView.getModel().get("model");
+	}
+	
+	private MockHttpServletRequest newPortletRequest(Integer patientId) {
+		MockHttpServletRequest request = new MockHttpServletRequest("GET", "");
 		request.setAttribute(WebConstants.INIT_REQ_UNIQUE_ID, "1");
-		request.getSession().setAttribute(WebConstants.OPENMRS_PORTLET_LAST_REQ_ID, "0");
 		request.setAttribute("javax.servlet.include.servlet_path", "testPortlet");
 		request.setAttribute("org.openmrs.portlet.parameters", new HashMap());
 		request.setAttribute("org.openmrs.portlet.patientId", patientId);
-		
-		ModelAndView modelAndView = new PortletController().handleRequest(request, response);
-		
-		return (Map<String, Object>) modelAndView.getModel().get("model");
+		return request;
 	}
 	
 	/**
@@ -71,4 +77,33 @@ public class PortletControllerTest extends BaseModuleWebContextSensitiveTest {
 		Map<String, Object> modelmap = getModelFromController(7);
 		Assert.assertEquals("?", modelmap.get("patientBmiAsString"));
 	}
+	
+	/**
+	 * @see PortletController#handleRequest(HttpServletRequest,HttpServletResponse)
+	 */
+	@Test
+	@Verifies(value = "should load the patient obs only when they are read", method = "handleRequest(HttpServletRequest,HttpServletResponse)")
+	public void handleRequest_shouldLoadThePatientObsOnlyWhenTheyAreRead() throws Exception {
+		PortletModel model = (PortletModel) getModelFromController(7);
+		Assert.assertTrue(model.containsKey("patientObs"));
+		Assert.assertFalse(model.isResolved("patientObs"));
+		Assert.assertNotNull(model.get("patientObs"));
+		Assert.assertTrue(model.isResolved("patientObs"));
+	}
+	
+	/**
+	 * @see PortletController#handleRequest(HttpServletRequest,HttpServletResponse)
+	 */
+	@Test
+	@Verifies(value = "should share the model between the portlets of a request without storing it in the session", method = "handleRequest(HttpServletRequest,HttpServletResponse)")
+	public void handleRequest_shouldShareTheModelBetweenThePortletsOfARequestWithoutStoringItInTheSession()
+	        throws Exception {
+		MockHttpServletRequest request = newPortletRequest(7);
+		Map<String, Object> first = getModelFromController(request);
+		Map<String, Object> second = getModelFromController(request);
+		Assert.assertSame(first, second);
+		Assert.assertNull(request.getSession().getAttribute(WebConstants.OPENMRS_PORTLET_CACHED_MODEL));
+		
+		Assert.assertNotSame(first, getModelFromController(newPortletRequest(7)));
+	}
 }
@@ -0,0 +1,69 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.web.controller;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openmrs.test.Verifies;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+/**
+ * Tests for the {@link PortletModel} class.
+ */
+public class PortletModelTest {
+	
+	/**
+	 * @see PortletModel#putLazy(String,java.util.function.Supplier)
+	 */
+	@Test
+	@Verifies(value = "should not call the supplier until the entry is read", method = "putLazy(String,Supplier)")
+	public void putLazy_shouldNotCallTheSupplierUntilTheEntryIsRead() throws Exception {
+		final AtomicInteger calls = new AtomicInteger();
+		PortletModel model = new PortletModel();
+		model.putLazy("obs", () -> calls.incrementAndGet());
+		
+		Assert.assertTrue(model.containsKey("obs"));
+		Assert.assertFalse(model.isResolved("obs"));
+		Assert.assertEquals(0, calls.get());
+		
+		Assert.assertEquals(1, model.get("obs"));
+		Assert.assertTrue(model.isResolved("obs"));
+	}
+	
+	/**
+	 * @see PortletModel#putLazy(String,java.util.function.Supplier)
+	 */
+	@Test
+	@Verifies(value = "should call the supplier only once", method = "putLazy(String,Supplier)")
+	public void putLazy_shouldCallTheSupplierOnlyOnce() throws Exception {
+		final AtomicInteger calls = new AtomicInteger();
+		PortletModel model = new PortletModel();
+		model.putLazy("obs", () -> calls.incrementAndGet());
+		
+		model.get("obs");
+		model.getOrDefault("obs", null);
+		model.get("obs");
+		Assert.assertEquals(1, calls.get());
+	}
+	
+	/**
+	 * @see PortletModel#getRequestModel(javax.servlet.ServletRequest)
+	 */
+	@Test
+	@Verifies(value = "should return the same model for the same request", method = "getRequestModel(ServletRequest)")
+	public void getRequestModel_shouldReturnTheSameModelForTheSameRequest() throws Exception {
+		MockHttpServletRequest request = new MockHttpServletRequest();
+		PortletModel model = PortletModel.getRequestModel(request);
+		Assert.assertSame(model, PortletModel.getRequestModel(request));
+		Assert.assertNotSame(model, PortletModel.getRequestModel(new MockHttpServletRequest()));
+	}
+}
@@ -91,4 +91,16 @@ public class SystemInformationControllerTest extends BaseModuleWebContextSensiti
 		        .containsKey("SystemInfo.title.memoryInformation"));
 	}
 	
+	/**
+	 * @see SystemInformationController#showPage(ModelMap)
+	 */
+	@Test
+	@Verifies(value = "should add chart timing information attribute to the model map", method = "showPage()")
+	public void showPage_shouldReturnChartTimingInformation() {
+		Map<String, String> charts = ((Map<String, Map<String, String>>) model.get("systemInfo"))
+		        .get("legacyui.SystemInfo.title.charts");
+		Assert.assertNotNull(charts);
+		Assert.assertTrue(charts.containsKey("legacyui.SystemInfo.charts.averageEncodeMillis"));
+	}
+	
 }
@@ -35,6 +35,7 @@ import org.openmrs.util.LocationUtility;
 import org.openmrs.util.OpenmrsConstants;
 import org.openmrs.util.OpenmrsUtil;
 import org.openmrs.web.WebConstants;
+import org.openmrs.web.clientregistry.ClientRegistryMatchService;
 import org.openmrs.web.test.BaseModuleWebContextSensitiveTest;
 import org.openmrs.web.test.BaseWebContextSensitiveTest;
 import org.openmrs.web.test.WebTestHelper;
@@ -87,6 +88,47 @@ public class ShortPatientFormControllerTest extends BaseModuleWebContextSensitiv
 		Assert.assertEquals("redirect:/patientDashboard.form?patientId=" + p.getPatientId(), redirectUrl);
 	}
 	
+	/**
+	 * @see ShortPatientFormController#saveShortPatient(WebRequest,ShortPatientModel,BindingResult,SessionStatus)
+	 */
+	@Test
+	@Verifies(value = "should save the patient without a match check once the user chose to continue", method = "saveShortPatient(WebRequest,ShortPatientModel,BindingResult,SessionStatus)")
+	public void saveShortPatient_shouldSaveThePatientWithoutAMatchCheckOnceTheUserChoseToContinue() throws Exception {
+		Context.getAdministrationService().saveGlobalProperty(new GlobalProperty("legacyui.enableMatchCheck", "true"));
+		Patient p = Context.getPatientService().getPatient(2);
+		ShortPatientModel patientModel = new ShortPatientModel(p);
+		Model model = (Model) new ModelMap("query", "testQuery");
+		
+		WebRequest mockWebRequest = new ServletWebRequest(new MockHttpServletRequest());
+		BindException errors = new BindException(patientModel, "patientModel");
+		
+		ShortPatientFormController controller = (ShortPatientFormController) applicationContext
+		        .getBean("shortPatientFormController");
+		ClientRegistryMatchService matchService = controller.clientRegistryMatchService;
+		ClientRegistryMatchService failingMatchService = new ClientRegistryMatchService() {
+			
+			@Override
+			public String submit(org.hl7.fhir.r4.model.Patient patient) {
+				throw new AssertionError("the client registry should not be asked again");
+			}
+		};
+		controller.clientRegistryMatchService = failingMatchService;
+		try {
+			String redirectUrl = controller.saveShortPatient(mockWebRequest, (PersonName) BeanUtils.cloneBean(p
+			        .getPersonName()), (PersonAddress) p.getPersonAddress().clone(), null, "continue", patientModel, errors,
+			    model);
+			
+			Assert.assertFalse(errors.hasErrors());
+			Assert.assertEquals("Patient.saved",
+			    mockWebRequest.getAttribute(WebConstants.OPENMRS_MSG_ATTR, WebRequest.SCOPE_SESSION));
+			Assert.assertEquals("redirect:/patientDashboard.form?patientId=" + p.getPatientId(), redirectUrl);
+		}
+		finally {
+			controller.clientRegistryMatchService = matchService;
+			failingMatchService.shutdown();
+		}
+	}
+	
 	/**
 	 * @see ShortPatientFormController#saveShortPatient(WebRequest,ShortPatientModel,BindingResult,SessionStatus)
 	 */
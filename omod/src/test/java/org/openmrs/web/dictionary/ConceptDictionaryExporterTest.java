@@ -0,0 +1,115 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.web.dictionary;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.junit.Assert;
+import org.junit.Test;
+import org.openmrs.Concept;
+import org.openmrs.Location;
+import org.openmrs.api.context.Context;
+import org.openmrs.test.Verifies;
+import org.openmrs.web.test.BaseModuleWebContextSensitiveTest;
+
+/**
+ * Tests for the {@link ConceptDictionaryExporter} class.
+ */
+public class ConceptDictionaryExporterTest extends BaseModuleWebContextSensitiveTest {
+	
+	/**
+	 * @see ConceptDictionaryExporter#export(Locale, ConceptDictionaryWriter)
+	 */
+	@Test
+	@Verifies(value = "should write all non retired concepts in concept id order", method = "export(Locale,ConceptDictionaryWriter)")
+	public void export_shouldWriteAllNonRetiredConceptsInConceptIdOrder() throws Exception {
+		List<Integer> expected = new ArrayList<Integer>();
+		for (Concept concept : Context.getConceptService().getAllConcepts()) {
+			if (!concept.isRetired()) {
+				expected.add(concept.getConceptId());
+			}
+		}
+		Collections.sort(expected);
+		
+		final List<Integer> written = new ArrayList<Integer>();
+		ConceptDictionaryExporter exporter = new ConceptDictionaryExporter();
+		// small pages so that the test dataset spans several of them
+		exporter.setPageSize(3);
+		exporter.export(Locale.ENGLISH, new ConceptDictionaryWriter() {
+			
+			@Override
+			public void writeHeader() {
+			}
+			
+			@Override
+			public void writeRow(ConceptDictionaryRow row) {
+				written.add(row.getConceptId());
+			}
+			
+			@Override
+			public void finish() {
+			}
+		});
+		
+		Assert.assertEquals(expected, written);
+	}
+	
+	/**
+	 * @see ConceptDictionaryExporter#export(Locale, ConceptDictionaryWriter)
+	 */
+	@Test
+	@Verifies(value = "should leave the other entities of the session alone", method = "export(Locale,ConceptDictionaryWriter)")
+	public void export_shouldLeaveTheOtherEntitiesOfTheSessionAlone() throws Exception {
+		Location location = Context.getLocationService().getLocation(1);
+		location.setDescription("changed while exporting");
+		
+		ConceptDictionaryExporter exporter = new ConceptDictionaryExporter();
+		exporter.setPageSize(3);
+		exporter.export(Locale.ENGLISH, ConceptDictionaryFormat.NDJSON.newWriter(new StringWriter()));
+		
+		// the change made before the export is still there to be flushed
+		Context.flushSession();
+		Context.clearSession();
+		Assert.assertEquals("changed while exporting", Context.getLocationService().getLocation(1).getDescription());
+	}
+	
+	/**
+	 * @see ConceptDictionaryExporter#export(Locale, ConceptDictionaryWriter)
+	 */
+	@Test
+	@Verifies(value = "should write one json object per line in the ndjson format", method = "export(Locale,ConceptDictionaryWriter)")
+	public void export_shouldWriteOneJsonObjectPerLineInTheNdjsonFormat() throws Exception {
+		StringWriter out = new StringWriter();
+		new ConceptDictionaryExporter().export(Locale.ENGLISH, ConceptDictionaryFormat.NDJSON.newWriter(out));
+		
+		ObjectMapper mapper = new ObjectMapper();
+		String[] lines = out.toString().split("\n");
+		Assert.assertTrue(lines.length > 1);
+		JsonNode previous = null;
+		for (String line : lines) {
+			JsonNode concept = mapper.readTree(line);
+			Assert.assertTrue(concept.get("synonyms").isArray());
+			if (previous != null) {
+				Assert.assertTrue(concept.get("conceptId").getIntValue() > previous.get("conceptId").getIntValue());
+			}
+			previous = concept;
+		}
+		
+		JsonNode concept = mapper.readTree(lines[0]);
+		Assert.assertEquals(Context.getConceptService().getConcept(concept.get("conceptId").getIntValue()).getName(
+		    Locale.ENGLISH).getName(), concept.get("name").getTextValue());
+	}
+}
@@ -0,0 +1,43 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.web.dictionary;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openmrs.test.Verifies;
+
+/**
+ * Tests for the {@link ConceptDictionaryFormat} class.
+ */
+public class ConceptDictionaryFormatTest {
+	
+	/**
+	 * @see ConceptDictionaryFormat#forExtension(String)
+	 */
+	@Test
+	@Verifies(value = "should default to csv for unknown extensions", method = "forExtension(String)")
+	public void forExtension_shouldDefaultToCsvForUnknownExtensions() throws Exception {
+		Assert.assertEquals(ConceptDictionaryFormat.CSV, ConceptDictionaryFormat.forExtension("parquet"));
+		Assert.assertEquals(ConceptDictionaryFormat.CSV, ConceptDictionaryFormat.forExtension(""));
+		Assert.assertEquals(ConceptDictionaryFormat.CSV, ConceptDictionaryFormat.forExtension(null));
+	}
+	
+	/**
+	 * @see ConceptDictionaryFormat#forExtension(String)
+	 */
+	@Test
+	@Verifies(value = "should return the format with the given extension ignoring case", method = "forExtension(String)")
+	public void forExtension_shouldReturnTheFormatWithTheGivenExtensionIgnoringCase() throws Exception {
+		Assert.assertEquals(ConceptDictionaryFormat.CSV, ConceptDictionaryFormat.forExtension("csv"));
+		Assert.assertEquals(ConceptDictionaryFormat.CSV, ConceptDictionaryFormat.forExtension("CSV"));
+		Assert.assertEquals(ConceptDictionaryFormat.NDJSON, ConceptDictionaryFormat.forExtension("ndjson"));
+		Assert.assertEquals(ConceptDictionaryFormat.NDJSON, ConceptDictionaryFormat.forExtension("NDJson"));
+	}
+}
@@ -0,0 +1,204 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.web.dwr;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.PrefixQuery;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.store.RAMDirectory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openmrs.Concept;
+import org.openmrs.ConceptClass;
+import org.openmrs.ConceptDatatype;
+import org.openmrs.ConceptName;
+
+/**
+ * Compares the autocomplete of the {@link ConceptNameIndex} with the current path, the Lucene
+ * search core runs for {@link org.openmrs.api.ConceptService#getConcepts}, on a generated
+ * dictionary the size of CIEL: 50,000 concepts with five names each in English, French and
+ * Spanish. Both answer the same prefix phrases with the ids of the matching concepts, loading the
+ * concepts afterwards costs the same either way and is left out. Not run with the tests, run the
+ * main method with the test classpath.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class ConceptNameIndexBenchmark {
+	
+	private static final int CONCEPT_COUNT = 50000;
+	
+	private static final int WORD_COUNT = 20000;
+	
+	private static final String[] SYLLABLES = { "a", "ab", "al", "an", "ar", "ba", "bi", "bro", "ca", "chi", "co",
+	        "cy", "de", "di", "do", "e", "el", "en", "er", "fa", "fi", "ga", "gen", "hae", "he", "hy", "i", "in", "ka",
+	        "la", "li", "lo", "ma", "me", "mi", "mo", "na", "ne", "ni", "o", "ol", "on", "or", "pa", "pe", "pha", "pi",
+	        "po", "ra", "re", "ri", "ro", "sa", "se", "si", "sto", "ta", "te", "ti", "to", "tri", "u", "ur", "va", "ve",
+	        "xi", "ya", "za" };
+	
+	private static final Locale[] LOCALES = { Locale.ENGLISH, Locale.ENGLISH, Locale.ENGLISH, Locale.FRENCH,
+	        new Locale("es") };
+	
+	private static final List<Locale> SEARCH_LOCALES = Collections.singletonList(Locale.ENGLISH);
+	
+	private ConceptNameIndex index;
+	
+	private RAMDirectory directory;
+	
+	private DirectoryReader reader;
+	
+	private IndexSearcher searcher;
+	
+	// what users type, from one to three letters into the first and second word of a name
+	private String[] phrases;
+	
+	private int next;
+	
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		Random random = new Random(42);
+		String[] words = new String[WORD_COUNT];
+		for (int i = 0; i < WORD_COUNT; i++) {
+			StringBuilder word = new StringBuilder();
+			for (int syllables = 2 + random.nextInt(3); syllables > 0; syllables--) {
+				word.append(SYLLABLES[random.nextInt(SYLLABLES.length)]);
+			}
+			words[i] = word.toString();
+		}
+		
+		List<ConceptName> names = new ArrayList<ConceptName>();
+		ConceptClass[] classes = new ConceptClass[20];
+		for (int i = 0; i < classes.length; i++) {
+			classes[i] = new ConceptClass(i + 1);
+		}
+		ConceptDatatype[] datatypes = new ConceptDatatype[12];
+		for (int i = 0; i < datatypes.length; i++) {
+			datatypes[i] = new ConceptDatatype(i + 1);
+		}
+		for (int conceptId = 1; conceptId <= CONCEPT_COUNT; conceptId++) {
+			Concept concept = new Concept(conceptId);
+			concept.setConceptClass(classes[random.nextInt(classes.length)]);
+			concept.setDatatype(datatypes[random.nextInt(datatypes.length)]);
+			concept.setRetired(random.nextInt(50) == 0);
+			for (Locale locale : LOCALES) {
+				StringBuilder text = new StringBuilder();
+				for (int wordCount = 1 + random.nextInt(4); wordCount > 0; wordCount--) {
+					text.append(text.length() == 0 ? "" : " ").append(words[random.nextInt(WORD_COUNT)]);
+				}
+				ConceptName name = new ConceptName(text.toString(), locale);
+				name.setConceptNameId(names.size() + 1);
+				name.setConcept(concept);
+				names.add(name);
+			}
+		}
+		
+		index = new ConceptNameIndex();
+		index.setEnabled(true);
+		index.rebuild(names);
+		
+		directory = new RAMDirectory();
+		IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(new StandardAnalyzer()));
+		for (ConceptName name : names) {
+			Document document = new Document();
+			document.add(new TextField("name", name.getName(), Field.Store.NO));
+			document.add(new StringField("language", name.getLocale().getLanguage(), Field.Store.NO));
+			document.add(new StringField("retired", String.valueOf(name.getConcept().getRetired()), Field.Store.NO));
+			document.add(new StoredField("conceptId", name.getConcept().getConceptId()));
+			writer.addDocument(document);
+		}
+		writer.close();
+		reader = DirectoryReader.open(directory);
+		searcher = new IndexSearcher(reader);
+		
+		phrases = new String[256];
+		for (int i = 0; i < phrases.length; i++) {
+			String phrase = words[random.nextInt(WORD_COUNT)].substring(0, 1 + random.nextInt(3));
+			if (random.nextBoolean()) {
+				phrase += " " + words[random.nextInt(WORD_COUNT)].substring(0, 1 + random.nextInt(3));
+			}
+			phrases[i] = phrase;
+		}
+	}
+	
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		index.shutdown();
+		reader.close();
+		directory.close();
+	}
+	
+	private String nextPhrase() {
+		next = (next + 1) % phrases.length;
+		return phrases[next];
+	}
+	
+	@Benchmark
+	public int searchIndex() {
+		return index.search(nextPhrase(), SEARCH_LOCALES, false, null, null, null, null).size();
+	}
+	
+	@Benchmark
+	public int searchLucene() throws IOException {
+		BooleanQuery query = new BooleanQuery();
+		for (String word : ConceptNameIndex.toWords(nextPhrase())) {
+			query.add(new PrefixQuery(new Term("name", word)), BooleanClause.Occur.MUST);
+		}
+		query.add(new TermQuery(new Term("language", "en")), BooleanClause.Occur.MUST);
+		query.add(new TermQuery(new Term("retired", "false")), BooleanClause.Occur.MUST);
+		
+		Set<Integer> conceptIds = new HashSet<Integer>();
+		for (ScoreDoc hit : searcher.search(query, reader.maxDoc()).scoreDocs) {
+			conceptIds.add(searcher.doc(hit.doc).getField("conceptId").numericValue().intValue());
+		}
+		return conceptIds.size();
+	}
+	
+	public static void main(String[] args) throws Exception {
+		new Runner(new OptionsBuilder().include(ConceptNameIndexBenchmark.class.getSimpleName()).build()).run();
+	}
+}
@@ -0,0 +1,170 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.web.dwr;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.Concept;
+import org.openmrs.ConceptClass;
+import org.openmrs.ConceptDatatype;
+import org.openmrs.ConceptName;
+import org.openmrs.api.ConceptService;
+import org.openmrs.api.context.Context;
+import org.openmrs.test.Verifies;
+import org.openmrs.web.test.BaseModuleWebContextSensitiveTest;
+
+/**
+ * Tests for the {@link ConceptNameIndex} class.
+ */
+public class ConceptNameIndexTest extends BaseModuleWebContextSensitiveTest {
+	
+	private static final Collection<Locale> ENGLISH = Collections.singletonList(Locale.ENGLISH);
+	
+	private ConceptNameIndex index = new ConceptNameIndex();
+	
+	@Before
+	public void before() throws Exception {
+		// builds run in the test thread
+		index.shutdown();
+		index.setEnabled(true);
+		index.rebuild();
+	}
+	
+	private List<ConceptNameIndex.Match> search(String phrase, Collection<Locale> locales, boolean includeRetired,
+	        Collection<ConceptClass> includeClasses, Collection<ConceptClass> excludeClasses,
+	        Collection<ConceptDatatype> includeDatatypes) {
+		return index.search(phrase, locales, includeRetired, includeClasses, excludeClasses, includeDatatypes, null);
+	}
+	
+	private static boolean containsConcept(List<ConceptNameIndex.Match> matches, int conceptId) {
+		for (ConceptNameIndex.Match match : matches) {
+			if (match.getConceptId() == conceptId) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * @see ConceptNameIndex#search(String,Collection,boolean,Collection,Collection,Collection,Collection)
+	 */
+	@Test
+	@Verifies(value = "should find names with words starting with every word of the phrase", method = "search(String,Collection,boolean,Collection,Collection,Collection,Collection)")
+	public void search_shouldFindNamesWithWordsStartingWithEveryWordOfThePhrase() throws Exception {
+		Assert.assertTrue(containsConcept(search("wei", ENGLISH, false, null, null, null), 5089));
+		Assert.assertTrue(containsConcept(search("KG  Weig", ENGLISH, false, null, null, null), 5089));
+		Assert.assertFalse(containsConcept(search("eight", ENGLISH, false, null, null, null), 5089));
+		Assert.assertFalse(containsConcept(search("weight lb", ENGLISH, false, null, null, null), 5089));
+		Assert.assertTrue(search(" ", ENGLISH, false, null, null, null).isEmpty());
+	}
+	
+	/**
+	 * @see ConceptNameIndex#search(String,Collection,boolean,Collection,Collection,Collection,Collection)
+	 */
+	@Test
+	@Verifies(value = "should only search the names in the given locales", method = "search(String,Collection,boolean,Collection,Collection,Collection,Collection)")
+	public void search_shouldOnlySearchTheNamesInTheGivenLocales() throws Exception {
+		Assert.assertTrue(containsConcept(search("weight", Collections.singletonList(Locale.UK), false, null, null, null),
+		    5089));
+		Assert.assertFalse(containsConcept(search("weight", Collections.singletonList(Locale.JAPANESE), false, null, null,
+		    null), 5089));
+	}
+	
+	/**
+	 * @see ConceptNameIndex#search(String,Collection,boolean,Collection,Collection,Collection,Collection)
+	 */
+	@Test
+	@Verifies(value = "should apply the retired, class and datatype filters", method = "search(String,Collection,boolean,Collection,Collection,Collection,Collection)")
+	public void search_shouldApplyTheRetiredClassAndDatatypeFilters() throws Exception {
+		ConceptService cs = Context.getConceptService();
+		Concept weight = cs.getConcept(5089);
+		List<ConceptClass> weightClass = Collections.singletonList(weight.getConceptClass());
+		List<ConceptDatatype> weightDatatype = Collections.singletonList(weight.getDatatype());
+		
+		Assert.assertTrue(containsConcept(search("weight", ENGLISH, false, weightClass, null, weightDatatype), 5089));
+		Assert.assertFalse(containsConcept(search("weight", ENGLISH, false, null, weightClass, null), 5089));
+		Assert.assertFalse(containsConcept(search("weight", ENGLISH, false, null, null,
+		    Collections.singletonList(cs.getConceptDatatypeByName("Text"))), 5089));
+		
+		cs.retireConcept(weight, "testing");
+		Context.flushSession();
+		index.rebuild();
+		Assert.assertFalse(containsConcept(search("weight", ENGLISH, false, null, null, null), 5089));
+		Assert.assertTrue(containsConcept(search("weight", ENGLISH, true, null, null, null), 5089));
+	}
+	
+	/**
+	 * @see ConceptNameIndex#search(String,Collection,boolean,Collection,Collection,Collection,Collection)
+	 */
+	@Test
+	@Verifies(value = "should return null once the dictionary has changed until the index is rebuilt", method = "search(String,Collection,boolean,Collection,Collection,Collection,Collection)")
+	public void search_shouldReturnNullOnceTheDictionaryHasChangedUntilTheIndexIsRebuilt() throws Exception {
+		index.markStale();
+		Assert.assertNull(search("weight", ENGLISH, false, null, null, null));
+		
+		index.rebuild();
+		Assert.assertTrue(index.isCurrent());
+		Assert.assertNotNull(search("weight", ENGLISH, false, null, null, null));
+	}
+	
+	/**
+	 * @see ConceptNameIndex#search(String,Collection,boolean,Collection,Collection,Collection,Collection,boolean)
+	 */
+	@Test
+	@Verifies(value = "should search an out of date index when asked to", method = "search(String,Collection,boolean,Collection,Collection,Collection,Collection,boolean)")
+	public void search_shouldSearchAnOutOfDateIndexWhenAskedTo() throws Exception {
+		index.markStale();
+		Assert.assertNull(index.search("weight", ENGLISH, false, null, null, null, null, false));
+		Assert.assertTrue(containsConcept(index.search("weight", ENGLISH, false, null, null, null, null, true), 5089));
+		
+		index.clear();
+		Assert.assertNull(index.search("weight", ENGLISH, false, null, null, null, null, true));
+	}
+	
+	/**
+	 * @see ConceptNameIndex#update(List)
+	 */
+	@Test
+	@Verifies(value = "should find a changed concept by its new names", method = "update(List)")
+	public void update_shouldFindAChangedConceptByItsNewNames() throws Exception {
+		ConceptService cs = Context.getConceptService();
+		Concept weight = cs.getConcept(5089);
+		weight.addName(new ConceptName("Zyxwv mass", Locale.ENGLISH));
+		cs.saveConcept(weight);
+		Context.flushSession();
+		Assert.assertTrue(search("zyxwv", ENGLISH, false, null, null, null).isEmpty());
+		
+		index.update(Collections.singletonList(ConceptNameIndex.ConceptUpdate.of(weight)));
+		Assert.assertTrue(index.isCurrent());
+		List<ConceptNameIndex.Match> matches = search("zyxwv", ENGLISH, false, null, null, null);
+		Assert.assertEquals(1, matches.size());
+		Assert.assertEquals(5089, matches.get(0).getConceptId().intValue());
+		// the names the concept had are still found, once
+		Assert.assertTrue(containsConcept(search("weight", ENGLISH, false, null, null, null), 5089));
+	}
+	
+	/**
+	 * @see ConceptNameIndex#update(List)
+	 */
+	@Test
+	@Verifies(value = "should not find a purged concept", method = "update(List)")
+	public void update_shouldNotFindAPurgedConcept() throws Exception {
+		index.update(Collections.singletonList(ConceptNameIndex.ConceptUpdate.removalOf(5089)));
+		
+		Assert.assertTrue(index.isCurrent());
+		Assert.assertFalse(containsConcept(search("weight", ENGLISH, false, null, null, null), 5089));
+	}
+}
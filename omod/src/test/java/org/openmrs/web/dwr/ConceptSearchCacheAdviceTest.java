@@ -0,0 +1,186 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.web.dwr;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.Concept;
+import org.openmrs.ConceptClass;
+import org.openmrs.ConceptName;
+import org.openmrs.ConceptReferenceTerm;
+import org.openmrs.ConceptStopWord;
+import org.openmrs.api.ConceptService;
+import org.openmrs.api.context.Context;
+import org.openmrs.test.Verifies;
+import org.openmrs.web.test.BaseModuleWebContextSensitiveTest;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Tests for the {@link ConceptSearchCacheAdvice} class.
+ */
+public class ConceptSearchCacheAdviceTest extends BaseModuleWebContextSensitiveTest {
+	
+	private ConceptSearchCacheAdvice advice = new ConceptSearchCacheAdvice();
+	
+	private ConceptSearchCache cache;
+	
+	@Before
+	public void before() throws Exception {
+		cache = Context.getRegisteredComponent("conceptSearchCache", ConceptSearchCache.class);
+		cache.clear();
+		cache.putCount(new ConceptSearchCache.Key("cough", Collections.singletonList(Locale.ENGLISH), Locale.ENGLISH,
+		        false, null, null, null, null, null, null), 1, cache.getGeneration());
+	}
+	
+	/**
+	 * @see ConceptSearchCacheAdvice#afterReturning(Object,java.lang.reflect.Method,Object[],Object)
+	 */
+	@Test
+	@Verifies(value = "should clear the cache after a concept is saved", method = "afterReturning(Object,Method,Object[],Object)")
+	public void afterReturning_shouldClearTheCacheAfterAConceptIsSaved() throws Exception {
+		advice.afterReturning(null, ConceptService.class.getMethod("saveConcept", Concept.class), null, null);
+		commit();
+		Assert.assertEquals(0, cache.size());
+	}
+	
+	/**
+	 * @see ConceptSearchCacheAdvice#afterReturning(Object,java.lang.reflect.Method,Object[],Object)
+	 */
+	@Test
+	@Verifies(value = "should clear the cache only once the transaction commits", method = "afterReturning(Object,Method,Object[],Object)")
+	public void afterReturning_shouldClearTheCacheOnlyOnceTheTransactionCommits() throws Exception {
+		advice.afterReturning(null, ConceptService.class.getMethod("saveConcept", Concept.class), null, null);
+		advice.afterReturning(null, ConceptService.class.getMethod("retireConcept", Concept.class, String.class), null,
+		    null);
+		
+		Assert.assertEquals(1, cache.size());
+		Assert.assertEquals(1, commit());
+		Assert.assertEquals(0, cache.size());
+	}
+	
+	/**
+	 * @see ConceptSearchCacheAdvice#afterReturning(Object,java.lang.reflect.Method,Object[],Object)
+	 */
+	@Test
+	@Verifies(value = "should keep the cache after a concept is fetched", method = "afterReturning(Object,Method,Object[],Object)")
+	public void afterReturning_shouldKeepTheCacheAfterAConceptIsFetched() throws Exception {
+		advice.afterReturning(null, ConceptService.class.getMethod("getConcept", Integer.class), null, null);
+		Assert.assertEquals(1, cache.size());
+	}
+	
+	/**
+	 * @see ConceptSearchCacheAdvice#afterReturning(Object,java.lang.reflect.Method,Object[],Object)
+	 */
+	@Test
+	@Verifies(value = "should update the index entries of the saved concept only", method = "afterReturning(Object,Method,Object[],Object)")
+	public void afterReturning_shouldUpdateTheIndexEntriesOfTheSavedConceptOnly() throws Exception {
+		ConceptNameIndex index = Context.getRegisteredComponent("conceptNameIndex", ConceptNameIndex.class);
+		index.setEnabled(true);
+		try {
+			index.rebuild();
+			
+			ConceptService cs = Context.getConceptService();
+			Concept weight = cs.getConcept(5089);
+			weight.addName(new ConceptName("Zyxwv mass", Locale.ENGLISH));
+			cs.saveConcept(weight);
+			Context.flushSession();
+			advice.afterReturning(weight, ConceptService.class.getMethod("saveConcept", Concept.class),
+			    new Object[] { weight }, null);
+			commit();
+			
+			// no rebuild is needed to find the new name
+			Assert.assertTrue(index.isCurrent());
+			List<ConceptNameIndex.Match> matches = index.search("zyxwv", Collections.singletonList(Locale.ENGLISH),
+			    false, null, null, null, null);
+			Assert.assertEquals(1, matches.size());
+			Assert.assertEquals(5089, matches.get(0).getConceptId().intValue());
+		}
+		finally {
+			index.setEnabled(null);
+			index.clear();
+		}
+	}
+	
+	/**
+	 * @see ConceptSearchCacheAdvice#afterReturning(Object,java.lang.reflect.Method,Object[],Object)
+	 */
+	@Test
+	@Verifies(value = "should mark the index stale after a concept class is saved", method = "afterReturning(Object,Method,Object[],Object)")
+	public void afterReturning_shouldMarkTheIndexStaleAfterAConceptClassIsSaved() throws Exception {
+		ConceptNameIndex index = Context.getRegisteredComponent("conceptNameIndex", ConceptNameIndex.class);
+		index.setEnabled(true);
+		try {
+			index.rebuild();
+			
+			ConceptClass conceptClass = Context.getConceptService().getConceptClass(1);
+			advice.afterReturning(conceptClass, ConceptService.class.getMethod("saveConceptClass", ConceptClass.class),
+			    new Object[] { conceptClass }, null);
+			commit();
+			
+			Assert.assertFalse(index.isCurrent());
+		}
+		finally {
+			index.setEnabled(null);
+			index.clear();
+		}
+	}
+	
+	/**
+	 * @see ConceptSearchCacheAdvice#afterReturning(Object,java.lang.reflect.Method,Object[],Object)
+	 */
+	@Test
+	@Verifies(value = "should leave the index current after a reference term or stop word is saved", method = "afterReturning(Object,Method,Object[],Object)")
+	public void afterReturning_shouldLeaveTheIndexCurrentAfterAReferenceTermOrStopWordIsSaved() throws Exception {
+		ConceptNameIndex index = Context.getRegisteredComponent("conceptNameIndex", ConceptNameIndex.class);
+		index.setEnabled(true);
+		try {
+			index.rebuild();
+			
+			ConceptReferenceTerm term = new ConceptReferenceTerm();
+			advice.afterReturning(term, ConceptService.class.getMethod("saveConceptReferenceTerm",
+			    ConceptReferenceTerm.class), new Object[] { term }, null);
+			ConceptStopWord stopWord = new ConceptStopWord("OF");
+			advice.afterReturning(stopWord, ConceptService.class.getMethod("saveConceptStopWord", ConceptStopWord.class),
+			    new Object[] { stopWord }, null);
+			commit();
+			
+			Assert.assertTrue(index.isCurrent());
+			// the search cache is dropped after any change all the same
+			Assert.assertEquals(0, cache.size());
+		}
+		finally {
+			index.setEnabled(null);
+			index.clear();
+		}
+	}
+	
+	/**
+	 * Runs what the advice registered to run once the transaction of the test commits, the test
+	 * transaction itself is rolled back
+	 * 
+	 * @return the number of synchronizations run
+	 */
+	private int commit() {
+		int count = 0;
+		for (TransactionSynchronization synchronization : TransactionSynchronizationManager.getSynchronizations()) {
+			if (synchronization instanceof ConceptSearchCacheAdvice.InvalidateOnCommit) {
+				synchronization.afterCommit();
+				count++;
+			}
+		}
+		return count;
+	}
+}
@@ -0,0 +1,147 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.web.dwr;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openmrs.ConceptClass;
+import org.openmrs.api.ConceptService;
+import org.openmrs.api.context.Context;
+import org.openmrs.test.Verifies;
+import org.openmrs.web.test.BaseModuleWebContextSensitiveTest;
+
+/**
+ * Tests for the {@link ConceptSearchCache} class.
+ */
+public class ConceptSearchCacheTest extends BaseModuleWebContextSensitiveTest {
+	
+	private ConceptSearchCache cache = new ConceptSearchCache();
+	
+	private static ConceptSearchCache.Key newKey(String phrase, List<String> includeClassNames, Integer start,
+	        Integer length) {
+		return new ConceptSearchCache.Key(phrase, Collections.singletonList(Locale.ENGLISH), Locale.ENGLISH, false,
+		        includeClassNames, null, null, null, start, length);
+	}
+	
+	/**
+	 * @see ConceptSearchCache#getPage(ConceptSearchCache.Key)
+	 */
+	@Test
+	@Verifies(value = "should return a copy of the cached page", method = "getPage(ConceptSearchCache.Key)")
+	public void getPage_shouldReturnACopyOfTheCachedPage() throws Exception {
+		ConceptListItem item = new ConceptListItem();
+		cache.putPage(newKey("cough", null, 0, 10), Collections.singletonList(item), cache.getGeneration());
+		
+		List<ConceptListItem> page = cache.getPage(newKey("cough", null, 0, 10));
+		Assert.assertEquals(1, page.size());
+		Assert.assertSame(item, page.get(0));
+		
+		// callers may add to what they get back
+		page.clear();
+		Assert.assertEquals(1, cache.getPage(newKey("cough", null, 0, 10)).size());
+		Assert.assertNull(cache.getPage(newKey("cough", null, 10, 10)));
+	}
+	
+	/**
+	 * @see ConceptSearchCache#putPage(ConceptSearchCache.Key,List,long)
+	 */
+	@Test
+	@Verifies(value = "should not keep a page read before the cache was cleared", method = "putPage(ConceptSearchCache.Key,List,long)")
+	public void putPage_shouldNotKeepAPageReadBeforeTheCacheWasCleared() throws Exception {
+		long generation = cache.getGeneration();
+		// the dictionary changes while the search runs
+		cache.clear();
+		cache.putPage(newKey("cough", null, 0, 10), Collections.singletonList(new ConceptListItem()), generation);
+		
+		Assert.assertNull(cache.getPage(newKey("cough", null, 0, 10)));
+		Assert.assertEquals(0, cache.size());
+	}
+	
+	/**
+	 * @see ConceptSearchCache#pinSource(ConceptSearchCache.Key,boolean)
+	 */
+	@Test
+	@Verifies(value = "should pin the backend of a search until it is counted again", method = "pinSource(ConceptSearchCache.Key,boolean)")
+	public void pinSource_shouldPinTheBackendOfASearchUntilItIsCountedAgain() throws Exception {
+		Assert.assertNull(cache.getPinnedSource(newKey("cough", null, null, null)));
+		
+		cache.pinSource(newKey("cough", null, null, null), true);
+		// a change to the dictionary does not move the pages of a counted search to another backend
+		cache.clear();
+		Assert.assertEquals(Boolean.TRUE, cache.getPinnedSource(newKey("cough", null, null, null)));
+		Assert.assertNull(cache.getPinnedSource(newKey("fever", null, null, null)));
+		
+		cache.pinSource(newKey("cough", null, null, null), false);
+		Assert.assertEquals(Boolean.FALSE, cache.getPinnedSource(newKey("cough", null, null, null)));
+		
+		// pages read from one backend are not served for the other
+		cache.putPage(newKey("cough", null, 0, 10).withSource(true), Collections.singletonList(new ConceptListItem()),
+		    cache.getGeneration());
+		Assert.assertNull(cache.getPage(newKey("cough", null, 0, 10).withSource(false)));
+		Assert.assertNotNull(cache.getPage(newKey("cough", null, 0, 10).withSource(true)));
+	}
+	
+	/**
+	 * @see ConceptSearchCache#getConceptClasses(java.util.Collection)
+	 */
+	@Test
+	@Verifies(value = "should resolve each name only once", method = "getConceptClasses(Collection)")
+	public void getConceptClasses_shouldResolveEachNameOnlyOnce() throws Exception {
+		ConceptService cs = Context.getConceptService();
+		ConceptClass drug = cs.getConceptClassByName("Drug");
+		Assert.assertNotNull(drug);
+		
+		List<ConceptClass> conceptClasses = cache.getConceptClasses(Arrays.asList("Drug", "", "No such class"));
+		Assert.assertEquals(2, conceptClasses.size());
+		Assert.assertEquals(drug, conceptClasses.get(0));
+		Assert.assertNull(conceptClasses.get(1));
+		
+		// the name is not looked up again until the cache is cleared
+		drug.setName("Medication");
+		cs.saveConceptClass(drug);
+		Assert.assertEquals(drug, cache.getConceptClasses(Collections.singletonList("Drug")).get(0));
+		
+		cache.clear();
+		Assert.assertNull(cache.getConceptClasses(Collections.singletonList("Drug")).get(0));
+	}
+	
+	/**
+	 * @see ConceptSearchCache.Key#Key(String,List,Locale,boolean,java.util.Collection,java.util.Collection,java.util.Collection,java.util.Collection,Integer,Integer)
+	 */
+	@Test
+	@Verifies(value = "should ignore case, runs of spaces and the order of filters", method = "Key(String,List,Locale,boolean,Collection,Collection,Collection,Collection,Integer,Integer)")
+	public void Key_shouldIgnoreCaseRunsOfSpacesAndTheOrderOfFilters() throws Exception {
+		ConceptSearchCache.Key key = newKey("Chest  Pain", Arrays.asList("Finding", "Diagnosis"), 0, 10);
+		ConceptSearchCache.Key other = newKey("chest pain", Arrays.asList("Diagnosis", "Finding", ""), 0, 10);
+		
+		Assert.assertEquals(key, other);
+		Assert.assertEquals(key.hashCode(), other.hashCode());
+	}
+	
+	/**
+	 * @see ConceptSearchCache.Key#Key(String,List,Locale,boolean,java.util.Collection,java.util.Collection,java.util.Collection,java.util.Collection,Integer,Integer)
+	 */
+	@Test
+	@Verifies(value = "should tell pages and filters apart", method = "Key(String,List,Locale,boolean,Collection,Collection,Collection,Collection,Integer,Integer)")
+	public void Key_shouldTellPagesAndFiltersApart() throws Exception {
+		ConceptSearchCache.Key key = newKey("pain", Collections.singletonList("Diagnosis"), 0, 10);
+		
+		Assert.assertFalse(key.equals(newKey("pain", Collections.singletonList("Diagnosis"), 10, 10)));
+		Assert.assertFalse(key.equals(newKey("pain", Collections.singletonList("Finding"), 0, 10)));
+		Assert.assertFalse(key.equals(newKey("pain", Collections.singletonList("Diagnosis"), null, null)));
+		Assert.assertFalse(key.equals(new ConceptSearchCache.Key("pain", Collections.singletonList(Locale.ENGLISH),
+		        Locale.FRENCH, false, Collections.singletonList("Diagnosis"), null, null, null, 0, 10)));
+	}
+}
@@ -9,18 +9,23 @@
  */
 package org.openmrs.web.dwr;
 
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
+import org.hl7.fhir.r4.model.Reference;
 import org.junit.Assert;
 import org.junit.Ignore;
 import org.junit.Test;
 import org.openmrs.Patient;
 import org.openmrs.PatientIdentifier;
+import org.openmrs.PatientIdentifierType;
 import org.openmrs.api.PatientService;
 import org.openmrs.api.context.Context;
 import org.openmrs.test.Verifies;
+import org.openmrs.web.clientregistry.ClientRegistryPatientSearch;
 import org.openmrs.web.test.BaseModuleWebContextSensitiveTest;
 
 /**
@@ -120,6 +125,26 @@ public class DWRPatientServiceTest extends BaseModuleWebContextSensitiveTest {
 		Assert.assertEquals(1, ((List<?>) resultObjects.get("objectList")).size());
 	}
 	
+	/**
+	 * @see DWRPatientService#findCountAndPatients(String,Integer,Integer,null)
+	 */
+	@Test
+	@Verifies(value = "should return the count and the first page from a single search", method = "findCountAndPatients(String,Integer,Integer,null)")
+	public void findCountAndPatients_shouldReturnTheCountAndTheFirstPageFromASingleSearch() throws Exception {
+		int count = Context.getPatientService().getCountOfPatients("John").intValue();
+		Assert.assertTrue(count > 1);
+		
+		Map<String, Object> resultObjects = new DWRPatientService().findCountAndPatients("John", 0, 1, true);
+		Assert.assertEquals(count, resultObjects.get("count"));
+		List<?> firstPage = (List<?>) resultObjects.get("objectList");
+		Assert.assertEquals(1, firstPage.size());
+		
+		Map<String, Object> nextPage = new DWRPatientService().findCountAndPatients("John", 1, count, false);
+		List<?> remaining = (List<?>) nextPage.get("objectList");
+		Assert.assertEquals(count - 1, remaining.size());
+		Assert.assertFalse(remaining.contains(firstPage.get(0)));
+	}
+	
 	/**
 	 * @see DWRPatientService#findPatientsByIdentifier(String,Integer,Integer,null)
 	 */
@@ -132,5 +157,51 @@ public class DWRPatientServiceTest extends BaseModuleWebContextSensitiveTest {
 		        .findPatientsByIdentifier(new String[] { "Identifier1", "Identifier2" });
 		Assert.assertEquals(2, resultObjects.size());
 	}
+
+	
+	/**
+	 * @see DWRPatientService#findRegistryPatients(String)
+	 */
+	@Test
+	@Verifies(value = "should leave out the patients already imported with their client registry uid", method = "findRegistryPatients(String)")
+	public void findRegistryPatients_shouldLeaveOutThePatientsAlreadyImportedWithTheirClientRegistryUid()
+	        throws Exception {
+		String importedUId = "1f7e4b2c-0000-4000-8000-000000000001";
+		String newUId = "1f7e4b2c-0000-4000-8000-000000000002";
+		
+		PatientService ps = Context.getPatientService();
+		PatientIdentifierType uidType = new PatientIdentifierType();
+		uidType.setName("Client registry UID");
+		uidType.setDescription("Client registry UID");
+		uidType.setUuid(ClientRegistryPatientSearch.UID_IDENTIFIER_TYPE_UUID);
+		ps.savePatientIdentifierType(uidType);
+		Patient patient = ps.getPatient(2);
+		patient.addIdentifier(new PatientIdentifier(importedUId, uidType, Context.getLocationService().getLocation(1)));
+		ps.savePatient(patient);
+		// the same value under another type does not make a patient imported
+		PatientIdentifierType otherType = new PatientIdentifierType();
+		otherType.setName("Other registry id");
+		otherType.setDescription("Other registry id");
+		ps.savePatientIdentifierType(otherType);
+		Patient other = ps.getPatient(7);
+		other.addIdentifier(new PatientIdentifier(newUId, otherType, Context.getLocationService().getLocation(1)));
+		ps.savePatient(other);
+		
+		List<org.hl7.fhir.r4.model.Patient> fhirPatients = Arrays.asList(newRegistryPatient("cr-1", importedUId),
+		    newRegistryPatient("cr-2", newUId));
+		String token = Context.getRegisteredComponent("clientRegistryPatientSearch", ClientRegistryPatientSearch.class)
+		        .park(CompletableFuture.completedFuture(fhirPatients));
+		
+		Collection<Object> items = new DWRPatientService().findRegistryPatients(token);
+		Assert.assertEquals(1, items.size());
+		Assert.assertEquals("cr-2", ((PatientListItem) items.iterator().next()).getClientRegistryId());
+	}
 	
+	private static org.hl7.fhir.r4.model.Patient newRegistryPatient(String id, String uid) {
+		org.hl7.fhir.r4.model.Patient fhirPatient = new org.hl7.fhir.r4.model.Patient();
+		fhirPatient.setId(id);
+		fhirPatient.addName().setFamily("Doe").addGiven("Jo");
+		fhirPatient.addLink().setOther(new Reference("Patient/" + uid));
+		return fhirPatient;
+	}
 }
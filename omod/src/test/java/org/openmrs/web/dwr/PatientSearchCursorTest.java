@@ -0,0 +1,88 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.web.dwr;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openmrs.test.Verifies;
+
+/**
+ * Tests for the {@link PatientSearchCursor} class.
+ */
+public class PatientSearchCursorTest {
+	
+	private PatientSearchCursor cursor = new PatientSearchCursor("john", false, Arrays.asList(7, 2, 6));
+	
+	/**
+	 * @see PatientSearchCursor#matches(String,boolean)
+	 */
+	@Test
+	@Verifies(value = "should match the same search", method = "matches(String,boolean)")
+	public void matches_shouldMatchTheSameSearch() throws Exception {
+		Assert.assertTrue(cursor.matches("john", false));
+	}
+	
+	/**
+	 * @see PatientSearchCursor#matches(String,boolean)
+	 */
+	@Test
+	@Verifies(value = "should not match another search", method = "matches(String,boolean)")
+	public void matches_shouldNotMatchAnotherSearch() throws Exception {
+		Assert.assertFalse(cursor.matches("johnn", false));
+		Assert.assertFalse(cursor.matches("john", true));
+	}
+	
+	/**
+	 * @see PatientSearchCursor#getPatientIds(Integer,Integer)
+	 */
+	@Test
+	@Verifies(value = "should return the ids of the page", method = "getPatientIds(Integer,Integer)")
+	public void getPatientIds_shouldReturnTheIdsOfThePage() throws Exception {
+		Assert.assertEquals(3, cursor.getCount());
+		Assert.assertEquals(Arrays.asList(7, 2), cursor.getPatientIds(0, 2));
+		Assert.assertEquals(Arrays.asList(2, 6), cursor.getPatientIds(1, 10));
+		Assert.assertEquals(Arrays.asList(7, 2, 6), cursor.getPatientIds(null, null));
+	}
+	
+	/**
+	 * @see PatientSearchCursor#getPatientIds(Integer,Integer)
+	 */
+	@Test
+	@Verifies(value = "should return an empty list past the end", method = "getPatientIds(Integer,Integer)")
+	public void getPatientIds_shouldReturnAnEmptyListPastTheEnd() throws Exception {
+		Assert.assertEquals(Collections.emptyList(), cursor.getPatientIds(5, 10));
+	}
+	
+	/**
+	 * @see PatientSearchCursor#canRefine(String,boolean)
+	 */
+	@Test
+	@Verifies(value = "should refine a name search with a longer prefix", method = "canRefine(String,boolean)")
+	public void canRefine_shouldRefineANameSearchWithALongerPrefix() throws Exception {
+		Assert.assertTrue(cursor.canRefine("John", false));
+		Assert.assertTrue(cursor.canRefine("johnny d", false));
+		Assert.assertFalse(cursor.canRefine("jo", false));
+		Assert.assertFalse(cursor.canRefine("johnny", true));
+	}
+	
+	/**
+	 * @see PatientSearchCursor#canRefine(String,boolean)
+	 */
+	@Test
+	@Verifies(value = "should not refine an identifier search", method = "canRefine(String,boolean)")
+	public void canRefine_shouldNotRefineAnIdentifierSearch() throws Exception {
+		Assert.assertFalse(cursor.canRefine("john1", false));
+		PatientSearchCursor identifierCursor = new PatientSearchCursor("10", false, Arrays.asList(2));
+		Assert.assertFalse(identifierCursor.canRefine("101", false));
+	}
+}
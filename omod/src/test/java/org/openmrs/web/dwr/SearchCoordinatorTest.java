@@ -0,0 +1,119 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.web.dwr;
+
+import java.util.concurrent.CancellationException;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openmrs.test.Verifies;
+
+/**
+ * Tests for the {@link SearchCoordinator} class.
+ */
+public class SearchCoordinatorTest {
+	
+	private SearchCoordinator coordinator = new SearchCoordinator();
+	
+	/**
+	 * @see SearchCoordinator#begin(String,String,String)
+	 */
+	@Test
+	@Verifies(value = "should supersede the running search of the same session and widget", method = "begin(String,String,String)")
+	public void begin_shouldSupersedeTheRunningSearchOfTheSameSessionAndWidget() throws Exception {
+		SearchCoordinator.Ticket first = coordinator.begin("session", SearchCoordinator.PATIENT_SEARCH, "jo");
+		SearchCoordinator.Ticket second = coordinator.begin("session", SearchCoordinator.PATIENT_SEARCH, "joh");
+		
+		Assert.assertTrue(first.isSuperseded());
+		Assert.assertFalse(second.isSuperseded());
+		Assert.assertEquals(1, coordinator.getCancelledSearchCount());
+		
+		// a search that is over has nothing left to cancel
+		coordinator.end(second);
+		coordinator.begin("session", SearchCoordinator.PATIENT_SEARCH, "john");
+		Assert.assertEquals(1, coordinator.getCancelledSearchCount());
+	}
+	
+	/**
+	 * @see SearchCoordinator#begin(String,String,String)
+	 */
+	@Test
+	@Verifies(value = "should not supersede the searches of other sessions or widgets", method = "begin(String,String,String)")
+	public void begin_shouldNotSupersedeTheSearchesOfOtherSessionsOrWidgets() throws Exception {
+		SearchCoordinator.Ticket ticket = coordinator.begin("session", SearchCoordinator.PATIENT_SEARCH, "jo");
+		coordinator.begin("other session", SearchCoordinator.PATIENT_SEARCH, "jo");
+		coordinator.begin("session", SearchCoordinator.CONCEPT_SEARCH, "jo");
+		coordinator.begin(null, SearchCoordinator.PATIENT_SEARCH, "jo");
+		
+		Assert.assertFalse(ticket.isSuperseded());
+		Assert.assertEquals(0, coordinator.getSavedQueryCount());
+	}
+	
+	/**
+	 * @see SearchCoordinator#getPrefixResult(SearchCoordinator.Ticket)
+	 */
+	@Test
+	@Verifies(value = "should return the complete result of a shorter prefix", method = "getPrefixResult(SearchCoordinator.Ticket)")
+	public void getPrefixResult_shouldReturnTheCompleteResultOfAShorterPrefix() throws Exception {
+		SearchCoordinator.Ticket ticket = coordinator.begin("session", SearchCoordinator.PATIENT_SEARCH, "Jo");
+		Object result = new Object();
+		coordinator.putCompleteResult(ticket, result);
+		coordinator.end(ticket);
+		
+		SearchCoordinator.Ticket refined = coordinator.begin("session", SearchCoordinator.PATIENT_SEARCH, "john");
+		Assert.assertSame(result, coordinator.getPrefixResult(refined));
+		coordinator.recordReuse(refined);
+		Assert.assertEquals(1, coordinator.getSavedQueryCount());
+	}
+	
+	/**
+	 * @see SearchCoordinator#getPrefixResult(SearchCoordinator.Ticket)
+	 */
+	@Test
+	@Verifies(value = "should not return the result of another search", method = "getPrefixResult(SearchCoordinator.Ticket)")
+	public void getPrefixResult_shouldNotReturnTheResultOfAnotherSearch() throws Exception {
+		SearchCoordinator.Ticket ticket = coordinator.begin("session", SearchCoordinator.PATIENT_SEARCH, "john");
+		coordinator.putCompleteResult(ticket, new Object());
+		coordinator.end(ticket);
+		
+		Assert.assertNull(coordinator.getPrefixResult(coordinator.begin("session", SearchCoordinator.PATIENT_SEARCH,
+		    "jo")));
+		Assert.assertNull(coordinator.getPrefixResult(coordinator.begin("session", SearchCoordinator.CONCEPT_SEARCH,
+		    "johnny")));
+		Assert.assertNull(coordinator.getPrefixResult(coordinator.begin("other session",
+		    SearchCoordinator.PATIENT_SEARCH, "johnny")));
+	}
+	
+	/**
+	 * @see SearchCoordinator.Ticket#runQuery(java.util.concurrent.Callable)
+	 */
+	@Test
+	@Verifies(value = "should run the query of a search that is not superseded", method = "runQuery(Callable)")
+	public void runQuery_shouldRunTheQueryOfASearchThatIsNotSuperseded() throws Exception {
+		SearchCoordinator.Ticket ticket = coordinator.begin("session", SearchCoordinator.PATIENT_SEARCH, "jo");
+		
+		Assert.assertEquals(Integer.valueOf(3), ticket.runQuery(() -> 3));
+	}
+	
+	/**
+	 * @see SearchCoordinator.Ticket#runQuery(java.util.concurrent.Callable)
+	 */
+	@Test(expected = CancellationException.class)
+	@Verifies(value = "should not run the query of a superseded search", method = "runQuery(Callable)")
+	public void runQuery_shouldNotRunTheQueryOfASupersededSearch() throws Exception {
+		SearchCoordinator.Ticket ticket = coordinator.begin("session", SearchCoordinator.PATIENT_SEARCH, "jo");
+		coordinator.begin("session", SearchCoordinator.PATIENT_SEARCH, "joh");
+		
+		ticket.runQuery(() -> {
+			Assert.fail("the query of a superseded search should not run");
+			return null;
+		});
+	}
+}
@@ -0,0 +1,123 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.web.flowsheet;
+
+import java.io.StringWriter;
+import java.util.Calendar;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+import org.apache.commons.lang.StringUtils;
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.Concept;
+import org.openmrs.ConceptName;
+import org.openmrs.Obs;
+import org.openmrs.Patient;
+import org.openmrs.api.context.Context;
+import org.openmrs.test.Verifies;
+import org.openmrs.web.test.BaseModuleWebContextSensitiveTest;
+
+/**
+ * Tests for the {@link FlowsheetRenderer} class.
+ */
+public class FlowsheetRendererTest extends BaseModuleWebContextSensitiveTest {
+	
+	private FlowsheetRenderer renderer;
+	
+	@Before
+	public void setup() {
+		renderer = new FlowsheetRenderer();
+		// small pages so that the obs of the patient span several of them
+		renderer.setPageSize(2);
+	}
+	
+	/**
+	 * @see FlowsheetRenderer#renderHtml(Patient,Locale,java.io.Writer)
+	 */
+	@Test
+	@Verifies(value = "should write a header row for each day", method = "renderHtml(Patient,Locale,Writer)")
+	public void renderHtml_shouldWriteAHeaderRowForEachDay() throws Exception {
+		Patient patient = Context.getPatientService().getPatient(7);
+		List<Obs> obsList = Context.getObsService().getObservationsByPerson(patient);
+		Set<String> days = new HashSet<String>();
+		Calendar cal = Calendar.getInstance();
+		for (Obs obs : obsList) {
+			cal.setTime(obs.getObsDatetime());
+			days.add(cal.get(Calendar.YEAR) + "-" + cal.get(Calendar.DAY_OF_YEAR));
+		}
+		
+		StringWriter out = new StringWriter();
+		renderer.renderHtml(patient, Locale.ENGLISH, out);
+		
+		Assert.assertEquals(obsList.size(), StringUtils.countMatches(out.toString(), "<td class=label>"));
+		Assert.assertEquals(days.size(), StringUtils.countMatches(out.toString(), "<td class=header"));
+	}
+	
+	/**
+	 * @see FlowsheetRenderer#renderHtml(Patient,Locale,java.io.Writer)
+	 */
+	@Test
+	@Verifies(value = "should write a message if the patient has no obs", method = "renderHtml(Patient,Locale,Writer)")
+	public void renderHtml_shouldWriteAMessageIfThePatientHasNoObs() throws Exception {
+		Patient patient = Context.getPatientService().getPatient(7);
+		for (Obs obs : Context.getObsService().getObservationsByPerson(patient)) {
+			Context.getObsService().voidObs(obs, "test");
+		}
+		
+		StringWriter out = new StringWriter();
+		renderer.renderHtml(patient, Locale.ENGLISH, out);
+		
+		Assert.assertEquals("No observations found", out.toString());
+	}
+	
+	/**
+	 * @see FlowsheetRenderer#renderJson(Patient,Locale,java.io.Writer)
+	 */
+	@Test
+	@Verifies(value = "should write the obs most recent first", method = "renderJson(Patient,Locale,Writer)")
+	public void renderJson_shouldWriteTheObsMostRecentFirst() throws Exception {
+		Patient patient = Context.getPatientService().getPatient(7);
+		int count = Context.getObsService().getObservationsByPerson(patient).size();
+		
+		StringWriter out = new StringWriter();
+		renderer.renderJson(patient, Locale.ENGLISH, out);
+		
+		JsonNode obs = new ObjectMapper().readTree(out.toString()).get("obs");
+		Assert.assertEquals(count, obs.size());
+		for (int i = 1; i < obs.size(); i++) {
+			Assert.assertTrue(obs.get(i - 1).get("obsDatetime").getLongValue() >= obs.get(i).get("obsDatetime")
+			        .getLongValue());
+		}
+	}
+	
+	/**
+	 * @see FlowsheetRenderer#clearConceptNames()
+	 */
+	@Test
+	@Verifies(value = "should look the names up again", method = "clearConceptNames()")
+	public void clearConceptNames_shouldLookTheNamesUpAgain() throws Exception {
+		Concept weight = Context.getConceptService().getConcept(5089);
+		String name = renderer.getConceptName(weight, Locale.ENGLISH);
+		
+		for (ConceptName conceptName : weight.getNames(Locale.ENGLISH)) {
+			conceptName.setName("Zyxwv " + conceptName.getName());
+		}
+		Assert.assertEquals(name, renderer.getConceptName(weight, Locale.ENGLISH));
+		
+		renderer.clearConceptNames();
+		Assert.assertEquals("Zyxwv " + name, renderer.getConceptName(weight, Locale.ENGLISH));
+	}
+}
@@ -0,0 +1,121 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.web.graph;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.util.Map;
+
+import javax.imageio.ImageIO;
+
+import org.jfree.chart.ChartFactory;
+import org.jfree.chart.JFreeChart;
+import org.jfree.data.general.DefaultPieDataset;
+import org.junit.Assert;
+import org.junit.Test;
+import org.openmrs.test.Verifies;
+
+/**
+ * Tests for the {@link ChartEncoder} class.
+ */
+public class ChartEncoderTest {
+	
+	private ChartEncoder encoder = new ChartEncoder(ChartEncoder.DEFAULT_PNG_COMPRESSION_LEVEL, false);
+	
+	/**
+	 * @see ChartEncoder#encode(JFreeChart,int,int,String)
+	 */
+	@Test
+	@Verifies(value = "should encode a png image of the given size", method = "encode(JFreeChart,int,int,String)")
+	public void encode_shouldEncodeAPngImageOfTheGivenSize() throws Exception {
+		byte[] png = encoder.encode(newChart(), 300, 200, ChartEncoder.PNG_MIME_TYPE);
+		
+		Assert.assertEquals((byte) 0x89, png[0]);
+		Assert.assertEquals('P', png[1]);
+		BufferedImage image = ImageIO.read(new ByteArrayInputStream(png));
+		Assert.assertEquals(300, image.getWidth());
+		Assert.assertEquals(200, image.getHeight());
+		Assert.assertEquals(1, encoder.getChartCount());
+	}
+	
+	/**
+	 * @see ChartEncoder#encode(JFreeChart,int,int,String)
+	 */
+	@Test
+	@Verifies(value = "should encode a jpeg image", method = "encode(JFreeChart,int,int,String)")
+	public void encode_shouldEncodeAJpegImage() throws Exception {
+		byte[] jpeg = encoder.encode(newChart(), 120, 80, ChartEncoder.JPG_MIME_TYPE);
+		
+		Assert.assertEquals((byte) 0xFF, jpeg[0]);
+		Assert.assertEquals((byte) 0xD8, jpeg[1]);
+		BufferedImage image = ImageIO.read(new ByteArrayInputStream(jpeg));
+		Assert.assertEquals(120, image.getWidth());
+		Assert.assertEquals(80, image.getHeight());
+	}
+	
+	/**
+	 * @see ChartEncoder#encode(JFreeChart,int,int,String)
+	 */
+	@Test
+	@Verifies(value = "should not show a previous chart through a reused buffer", method = "encode(JFreeChart,int,int,String)")
+	public void encode_shouldNotShowAPreviousChartThroughAReusedBuffer() throws Exception {
+		JFreeChart red = newChart();
+		red.setBackgroundPaint(Color.RED);
+		encoder.encode(red, 200, 200, ChartEncoder.PNG_MIME_TYPE);
+		
+		// without a background the chart leaves the corners as they are
+		JFreeChart transparent = newChart();
+		transparent.setBackgroundPaint(null);
+		byte[] png = encoder.encode(transparent, 100, 100, ChartEncoder.PNG_MIME_TYPE);
+		
+		BufferedImage image = ImageIO.read(new ByteArrayInputStream(png));
+		Assert.assertEquals(100, image.getWidth());
+		Assert.assertEquals(0, image.getRGB(0, 0) >>> 24);
+		Assert.assertEquals(2, encoder.getChartCount());
+		Assert.assertTrue(encoder.getAverageEncodeMillis() > 0);
+	}
+	
+	/**
+	 * @see ChartEncoder#encode(JFreeChart,int,int,String)
+	 */
+	@Test
+	@Verifies(value = "should keep the transparent background of a png image", method = "encode(JFreeChart,int,int,String)")
+	public void encode_shouldKeepTheTransparentBackgroundOfAPngImage() throws Exception {
+		JFreeChart chart = newChart();
+		chart.setBackgroundPaint(null);
+		byte[] png = encoder.encode(chart, 100, 100, ChartEncoder.PNG_MIME_TYPE);
+		
+		BufferedImage image = ImageIO.read(new ByteArrayInputStream(png));
+		Assert.assertTrue(image.getColorModel().hasAlpha());
+		Assert.assertEquals(0, image.getRGB(0, 0) >>> 24);
+	}
+	
+	/**
+	 * @see ChartEncoder#getTimings()
+	 */
+	@Test
+	@Verifies(value = "should return the chart count and the average times", method = "getTimings()")
+	public void getTimings_shouldReturnTheChartCountAndTheAverageTimes() throws Exception {
+		encoder.encode(newChart(), 100, 100, ChartEncoder.PNG_MIME_TYPE);
+		
+		Map<String, String> timings = encoder.getTimings();
+		Assert.assertEquals("1", timings.get("legacyui.SystemInfo.charts.count"));
+		Assert.assertTrue(timings.containsKey("legacyui.SystemInfo.charts.averageDrawMillis"));
+		Assert.assertTrue(timings.containsKey("legacyui.SystemInfo.charts.averageEncodeMillis"));
+	}
+	
+	private JFreeChart newChart() {
+		DefaultPieDataset dataset = new DefaultPieDataset();
+		dataset.setValue("Male", 3);
+		dataset.setValue("Female", 5);
+		return ChartFactory.createPieChart(null, dataset, false, false, false);
+	}
+}
@@ -0,0 +1,87 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.web.graph;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openmrs.Obs;
+import org.openmrs.test.Verifies;
+
+/**
+ * Tests for the {@link GraphDownsampler} class.
+ */
+public class GraphDownsamplerTest {
+	
+	/**
+	 * @see GraphDownsampler#downsample(List,int)
+	 */
+	@Test
+	@Verifies(value = "should return the given obs if there are not too many", method = "downsample(List,int)")
+	public void downsample_shouldReturnTheGivenObsIfThereAreNotTooMany() throws Exception {
+		List<Obs> observations = new ArrayList<Obs>();
+		observations.add(newObs(2, 5.0));
+		observations.add(newObs(1, null));
+		
+		Assert.assertSame(observations, GraphDownsampler.downsample(observations, 2));
+	}
+	
+	/**
+	 * @see GraphDownsampler#downsample(List,int)
+	 */
+	@Test
+	@Verifies(value = "should keep the lowest and highest obs of each bucket", method = "downsample(List,int)")
+	public void downsample_shouldKeepTheLowestAndHighestObsOfEachBucket() throws Exception {
+		List<Obs> observations = new ArrayList<Obs>();
+		// a flat line with a single spike, in reverse order like the obs service returns them
+		for (int i = 999; i >= 0; i--) {
+			observations.add(newObs(i, i == 500 ? 180.0 : 80.0 + (i % 3)));
+		}
+		
+		List<Obs> downsampled = GraphDownsampler.downsample(observations, 100);
+		
+		Assert.assertTrue(downsampled.size() <= 100);
+		boolean spikeKept = false;
+		for (int i = 0; i < downsampled.size(); i++) {
+			if (i > 0) {
+				Assert.assertTrue(downsampled.get(i - 1).getObsDatetime().before(downsampled.get(i).getObsDatetime()));
+			}
+			spikeKept |= downsampled.get(i).getValueNumeric() == 180.0;
+		}
+		Assert.assertTrue(spikeKept);
+	}
+	
+	/**
+	 * @see GraphDownsampler#downsample(List,int)
+	 */
+	@Test
+	@Verifies(value = "should keep the first and last obs", method = "downsample(List,int)")
+	public void downsample_shouldKeepTheFirstAndLastObs() throws Exception {
+		List<Obs> observations = new ArrayList<Obs>();
+		for (int i = 0; i < 50; i++) {
+			observations.add(newObs(i, 1.0));
+		}
+		
+		List<Obs> downsampled = GraphDownsampler.downsample(observations, 10);
+		
+		Assert.assertEquals(0, downsampled.get(0).getObsDatetime().getTime());
+		Assert.assertEquals(49 * 60000, downsampled.get(downsampled.size() - 1).getObsDatetime().getTime());
+	}
+	
+	private Obs newObs(int minute, Double value) {
+		Obs obs = new Obs();
+		obs.setObsDatetime(new Date(minute * 60000L));
+		obs.setValueNumeric(value);
+		return obs;
+	}
+}
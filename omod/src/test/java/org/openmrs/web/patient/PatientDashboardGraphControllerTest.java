@@ -13,6 +13,13 @@ import org.codehaus.jackson.JsonNode;
 import org.codehaus.jackson.map.ObjectMapper;
 import org.junit.Assert;
 import org.junit.Test;
+import org.openmrs.Concept;
+import org.openmrs.ConceptDatatype;
+import org.openmrs.ConceptName;
+import org.openmrs.ConceptNumeric;
+import org.openmrs.Obs;
+import org.openmrs.api.ConceptService;
+import org.openmrs.api.context.Context;
 import org.openmrs.test.Verifies;
 import org.openmrs.web.controller.patient.PatientDashboardGraphController;
 import org.openmrs.web.controller.patient.PatientGraphData;
@@ -20,8 +27,10 @@ import org.openmrs.web.test.BaseModuleWebContextSensitiveTest;
 import org.springframework.ui.ModelMap;
 
 import java.util.Calendar;
+import java.util.Date;
 import java.util.GregorianCalendar;
 import java.util.Iterator;
+import java.util.Locale;
 
 /**
  * Test for graphs on the patient dashboard
@@ -74,4 +83,52 @@ public class PatientDashboardGraphControllerTest extends BaseModuleWebContextSen
 		Assert.assertEquals("module/legacyui/patientGraphJsonForm",
 		    new PatientDashboardGraphController().showGraphData(2, 1, new ModelMap()));
 	}
+	
+	/**
+	 * @see PatientDashboardGraphController#showGraphData(Integer, Integer, Integer, ModelMap)
+	 */
+	@Test
+	@Verifies(value = "downsample the obs to the width of the graph", method = "showGraphData(Integer, Integer, Integer, ModelMap)")
+	public void showGraphData_shouldDownsampleTheObsToTheWidthOfTheGraph() throws Exception {
+		ConceptService conceptService = Context.getConceptService();
+		Concept concept = new ConceptNumeric();
+		concept.addName(new ConceptName("Graph test value", Locale.ENGLISH));
+		concept.setDatatype(conceptService.getConceptDatatypeByUuid(ConceptDatatype.NUMERIC_UUID));
+		concept.setConceptClass(conceptService.getAllConceptClasses().get(0));
+		conceptService.saveConcept(concept);
+		
+		// 40 daily obs of 50 with a spike up and down in each of the 4 buckets a graph 10 pixels
+		// wide is cut into, the first and last obs are kept on top of the buckets
+		double[] values = new double[40];
+		for (int day = 0; day < values.length; day++) {
+			values[day] = 50;
+		}
+		values[3] = 90;
+		values[5] = 10;
+		values[15] = 11;
+		values[17] = 91;
+		values[22] = 92;
+		values[25] = 12;
+		values[31] = 93;
+		values[35] = 13;
+		long start = new GregorianCalendar(2020, Calendar.JANUARY, 1).getTimeInMillis();
+		long day = 24 * 60 * 60 * 1000L;
+		for (int i = 0; i < values.length; i++) {
+			Obs obs = new Obs(Context.getPersonService().getPerson(7), concept, new Date(start + i * day), Context
+			        .getLocationService().getLocation(1));
+			obs.setValueNumeric(values[i]);
+			Context.getObsService().saveObs(obs, null);
+		}
+		
+		ModelMap map = new ModelMap();
+		new PatientDashboardGraphController().showGraphData(7, concept.getConceptId(), 10, map);
+		JsonNode data = new ObjectMapper().readTree(map.get("graph").toString()).get("data");
+		
+		int[] keptDays = { 0, 3, 5, 15, 17, 22, 25, 31, 35, 39 };
+		Assert.assertEquals(keptDays.length, data.size());
+		for (int i = 0; i < keptDays.length; i++) {
+			Assert.assertEquals(start + keptDays[i] * day, data.get(i).get(0).getLongValue());
+			Assert.assertEquals(values[keptDays[i]], data.get(i).get(1).getDoubleValue(), 0);
+		}
+	}
 }
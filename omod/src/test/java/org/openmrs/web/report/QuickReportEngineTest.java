@@ -0,0 +1,122 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.web.report;
+
+import java.io.File;
+import java.io.StringWriter;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import org.apache.commons.lang.StringUtils;
+import org.hibernate.SessionFactory;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.openmrs.Concept;
+import org.openmrs.api.context.Context;
+import org.openmrs.parameter.EncounterSearchCriteriaBuilder;
+import org.openmrs.test.Verifies;
+import org.openmrs.web.test.BaseModuleWebContextSensitiveTest;
+
+/**
+ * Tests for the {@link QuickReportEngine} class.
+ */
+public class QuickReportEngineTest extends BaseModuleWebContextSensitiveTest {
+	
+	private final QuickReportEngine engine = new QuickReportEngine();
+	
+	@After
+	public void tearDown() {
+		engine.shutdown();
+	}
+	
+	/**
+	 * @see QuickReportEngine#render(QuickReport,QuickReportParameters,java.io.Writer)
+	 */
+	@Test
+	@Verifies(value = "should render all rows across pages", method = "render(QuickReport,QuickReportParameters,Writer)")
+	public void render_shouldRenderAllRowsAcrossPages() throws Exception {
+		Calendar cal = Calendar.getInstance();
+		cal.set(1900, Calendar.JANUARY, 1);
+		Date start = cal.getTime();
+		cal.set(2100, Calendar.JANUARY, 1);
+		Date end = cal.getTime();
+		int expected = Context.getEncounterService().getEncounters(
+		    new EncounterSearchCriteriaBuilder().setIncludeVoided(true).setFromDate(start).setToDate(end)
+		            .createEncounterSearchCriteria()).size();
+		Assert.assertTrue(expected > 2);
+		
+		engine.setPageSize(2);
+		StringWriter out = new StringWriter();
+		engine.render(QuickReport.ATTENDED_CLINIC, new QuickReportParameters(start, end, null), out);
+		
+		Assert.assertEquals(expected, StringUtils.countMatches(out.toString(), "<tr>"));
+		Assert.assertTrue(out.toString().endsWith("</table>\n"));
+	}
+	
+	/**
+	 * @see QuickReportEngine#render(QuickReport,QuickReportParameters,java.io.Writer)
+	 */
+	@Test
+	@Verifies(value = "should leave what the caller loaded in the session", method = "render(QuickReport,QuickReportParameters,Writer)")
+	public void render_shouldLeaveWhatTheCallerLoadedInTheSession() throws Exception {
+		Concept weight = Context.getConceptService().getConcept(5089);
+		Calendar cal = Calendar.getInstance();
+		cal.set(1900, Calendar.JANUARY, 1);
+		Date start = cal.getTime();
+		cal.set(2100, Calendar.JANUARY, 1);
+		Date end = cal.getTime();
+		
+		engine.setPageSize(2);
+		engine.render(QuickReport.ATTENDED_CLINIC, new QuickReportParameters(start, end, null), new StringWriter());
+		
+		Assert.assertTrue(Context.getRegisteredComponent("sessionFactory", SessionFactory.class).getCurrentSession()
+		        .contains(weight));
+	}
+	
+	/**
+	 * @see QuickReportEngine#purgeExpired()
+	 */
+	@Test
+	@Verifies(value = "should discard the results older than the time to live", method = "purgeExpired()")
+	public void purgeExpired_shouldDiscardTheResultsOlderThanTheTimeToLive() throws Exception {
+		String token = engine.submit(QuickReport.ATTENDED_CLINIC, new QuickReportParameters(new Date(), new Date(), null));
+		awaitQuietly(engine.getResult(token));
+		Thread.sleep(5);
+		
+		engine.setResultTimeToLive(0);
+		engine.purgeExpired();
+		Assert.assertNull(engine.getResult(token));
+	}
+	
+	/**
+	 * @see QuickReportEngine#purgeExpired()
+	 */
+	@Test
+	@Verifies(value = "should keep the recent results", method = "purgeExpired()")
+	public void purgeExpired_shouldKeepTheRecentResults() throws Exception {
+		String token = engine.submit(QuickReport.ATTENDED_CLINIC, new QuickReportParameters(new Date(), new Date(), null));
+		awaitQuietly(engine.getResult(token));
+		
+		engine.purgeExpired();
+		Assert.assertNotNull(engine.getResult(token));
+	}
+	
+	private void awaitQuietly(Future<File> result) throws InterruptedException {
+		try {
+			result.get();
+		}
+		catch (ExecutionException e) {
+			// the worker runs outside of the test transaction, only the bookkeeping matters here
+		}
+	}
+}
@@ -0,0 +1,91 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.web.servlet;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openmrs.test.Verifies;
+
+/**
+ * Tests for the {@link ByteRange} class.
+ */
+public class ByteRangeTest {
+	
+	/**
+	 * @see ByteRange#parse(String,long)
+	 */
+	@Test
+	@Verifies(value = "should parse a closed range", method = "parse(String,long)")
+	public void parse_shouldParseAClosedRange() throws Exception {
+		ByteRange range = ByteRange.parse("bytes=10-19", 100);
+		Assert.assertEquals(10, range.getStart());
+		Assert.assertEquals(19, range.getEnd());
+		Assert.assertEquals(10, range.getLength());
+		Assert.assertEquals("bytes 10-19/100", range.toContentRange(100));
+	}
+	
+	/**
+	 * @see ByteRange#parse(String,long)
+	 */
+	@Test
+	@Verifies(value = "should parse an open ended range", method = "parse(String,long)")
+	public void parse_shouldParseAnOpenEndedRange() throws Exception {
+		ByteRange range = ByteRange.parse("bytes=90-", 100);
+		Assert.assertEquals(90, range.getStart());
+		Assert.assertEquals(99, range.getEnd());
+	}
+	
+	/**
+	 * @see ByteRange#parse(String,long)
+	 */
+	@Test
+	@Verifies(value = "should parse a suffix range", method = "parse(String,long)")
+	public void parse_shouldParseASuffixRange() throws Exception {
+		ByteRange range = ByteRange.parse("bytes=-30", 100);
+		Assert.assertEquals(70, range.getStart());
+		Assert.assertEquals(99, range.getEnd());
+		
+		range = ByteRange.parse("bytes=-300", 100);
+		Assert.assertEquals(0, range.getStart());
+	}
+	
+	/**
+	 * @see ByteRange#parse(String,long)
+	 */
+	@Test
+	@Verifies(value = "should cap the end of the range at the end of the entity", method = "parse(String,long)")
+	public void parse_shouldCapTheEndOfTheRangeAtTheEndOfTheEntity() throws Exception {
+		Assert.assertEquals(99, ByteRange.parse("bytes=50-500", 100).getEnd());
+	}
+	
+	/**
+	 * @see ByteRange#parse(String,long)
+	 */
+	@Test
+	@Verifies(value = "should return an unsatisfiable range if it starts after the end of the entity", method = "parse(String,long)")
+	public void parse_shouldReturnAnUnsatisfiableRangeIfItStartsAfterTheEndOfTheEntity() throws Exception {
+		ByteRange range = ByteRange.parse("bytes=100-", 100);
+		Assert.assertFalse(range.isSatisfiable());
+		Assert.assertEquals("bytes */100", range.toContentRange(100));
+	}
+	
+	/**
+	 * @see ByteRange#parse(String,long)
+	 */
+	@Test
+	@Verifies(value = "should return null for malformed or multiple ranges", method = "parse(String,long)")
+	public void parse_shouldReturnNullForMalformedOrMultipleRanges() throws Exception {
+		Assert.assertNull(ByteRange.parse(null, 100));
+		Assert.assertNull(ByteRange.parse("items=0-10", 100));
+		Assert.assertNull(ByteRange.parse("bytes=a-b", 100));
+		Assert.assertNull(ByteRange.parse("bytes=20-10", 100));
+		Assert.assertNull(ByteRange.parse("bytes=0-10,20-30", 100));
+	}
+}
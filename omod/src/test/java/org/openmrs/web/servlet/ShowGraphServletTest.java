@@ -11,15 +11,20 @@ package org.openmrs.web.servlet;
 
 import java.util.Calendar;
 import java.util.Date;
+import java.util.Locale;
 
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 
 import org.jfree.chart.JFreeChart;
 import org.junit.Assert;
 import org.junit.Test;
+import org.openmrs.Obs;
+import org.openmrs.api.context.Context;
 import org.openmrs.test.Verifies;
 import org.openmrs.web.test.BaseModuleWebContextSensitiveTest;
 import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
 
 /**
  * Tests for the {@link ShowGraphServlet} class.
@@ -126,4 +131,68 @@ public class ShowGraphServletTest extends BaseModuleWebContextSensitiveTest {
 		Assert.assertEquals(0, toDate.getSeconds());
 	}
 	
+	/**
+	 * @see ShowGraphServlet#doGet(HttpServletRequest,HttpServletResponse)
+	 */
+	@Test
+	@Verifies(value = "should answer not modified if the client has the current graph", method = "doGet(HttpServletRequest,HttpServletResponse)")
+	public void doGet_shouldAnswerNotModifiedIfTheClientHasTheCurrentGraph() throws Exception {
+		ShowGraphServlet servlet = new ShowGraphServlet();
+		MockHttpServletRequest request = new MockHttpServletRequest();
+		request.setParameter("patientId", "7");
+		request.setParameter("conceptId", "5497"); // cd4
+		
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		servlet.doGet(request, response);
+		Assert.assertEquals(HttpServletResponse.SC_OK, response.getStatus());
+		Assert.assertEquals("image/png", response.getContentType());
+		Assert.assertTrue(response.getContentAsByteArray().length > 0);
+		String etag = (String) response.getHeader("ETag");
+		Assert.assertNotNull(etag);
+		
+		request.addHeader("If-None-Match", etag);
+		response = new MockHttpServletResponse();
+		servlet.doGet(request, response);
+		Assert.assertEquals(HttpServletResponse.SC_NOT_MODIFIED, response.getStatus());
+		Assert.assertEquals(0, response.getContentAsByteArray().length);
+	}
+	
+	/**
+	 * @see ShowGraphServlet#getCacheKey(HttpServletRequest,int,int,String)
+	 */
+	@Test
+	@Verifies(value = "should change when an obs of the graphed concepts is created", method = "getCacheKey(HttpServletRequest,int,int,String)")
+	public void getCacheKey_shouldChangeWhenAnObsOfTheGraphedConceptsIsCreated() throws Exception {
+		ShowGraphServlet servlet = new ShowGraphServlet();
+		MockHttpServletRequest request = new MockHttpServletRequest();
+		request.setParameter("patientId", "7");
+		request.setParameter("conceptId", "5497"); // cd4
+		String key = servlet.getCacheKey(request, 500, 300, "image/png");
+		Assert.assertEquals(key, servlet.getCacheKey(request, 500, 300, "image/png"));
+		
+		Obs obs = new Obs(Context.getPersonService().getPerson(7), Context.getConceptService().getConcept(5497), new Date(),
+		        Context.getLocationService().getLocation(1));
+		obs.setValueNumeric(150.0);
+		Context.getObsService().saveObs(obs, null);
+		
+		Assert.assertFalse(key.equals(servlet.getCacheKey(request, 500, 300, "image/png")));
+	}
+	
+	
+	/**
+	 * @see ShowGraphServlet#getCacheKey(HttpServletRequest,int,int,String)
+	 */
+	@Test
+	@Verifies(value = "should change with the locale of the user", method = "getCacheKey(HttpServletRequest,int,int,String)")
+	public void getCacheKey_shouldChangeWithTheLocaleOfTheUser() throws Exception {
+		ShowGraphServlet servlet = new ShowGraphServlet();
+		MockHttpServletRequest request = new MockHttpServletRequest();
+		request.setParameter("patientId", "7");
+		request.setParameter("conceptId", "5497"); // cd4
+		Context.setLocale(Locale.ENGLISH);
+		String key = servlet.getCacheKey(request, 500, 300, "image/png");
+		
+		Context.setLocale(Locale.FRENCH);
+		Assert.assertFalse(key.equals(servlet.getCacheKey(request, 500, 300, "image/png")));
+	}
 }